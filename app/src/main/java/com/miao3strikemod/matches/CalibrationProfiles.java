@@ -0,0 +1,128 @@
+package com.miao3strikemod.matches;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 暂停按钮校准表：按显示配置（分辨率、旋转方向、刘海安全区）分别保存相对屏幕宽高的归一化坐标。
+ * <p>
+ * 折叠屏展开/合上、切换分辨率或刘海显示模式后显示配置随之变化，直接换用对应的一条；
+ * 没有记录的配置回退到默认位置（或自动识别）。不可变，写入时复制出新表，可放进 MacroConfig 快照跨线程共享；
+ * 查询是一次 HashMap 查找。持久化为一个字符串：{@code key=nx,ny;key=nx,ny}。
+ */
+final class CalibrationProfiles {
+
+    // 超出时丢弃最早写入的记录；重新校准同一配置会把它移到最后。
+    static final int MAX_PROFILES = 16;
+
+    static final CalibrationProfiles EMPTY = new CalibrationProfiles(new LinkedHashMap<>());
+
+    private static final char ENTRY_SEPARATOR = ';';
+    private static final char KEY_SEPARATOR = '=';
+    private static final char VALUE_SEPARATOR = ',';
+
+    private final LinkedHashMap<String, float[]> points;
+    private final String encoded;
+
+    private CalibrationProfiles(LinkedHashMap<String, float[]> points) {
+        this.points = points;
+        this.encoded = encode(points);
+    }
+
+    /**
+     * 显示配置的键，例如 {@code 2400x1080@1/0,0,84,0}：实际像素尺寸、Surface.ROTATION_* 与左上右下安全区。
+     */
+    static String key(int width, int height, int rotation,
+                      int insetLeft, int insetTop, int insetRight, int insetBottom) {
+        return width + "x" + height + "@" + rotation + "/"
+                + insetLeft + "," + insetTop + "," + insetRight + "," + insetBottom;
+    }
+
+    /**
+     * @return 归一化坐标 {nx, ny}；没有记录时返回 null。调用方不得修改返回的数组。
+     */
+    float[] get(String key) {
+        return key != null ? points.get(key) : null;
+    }
+
+    boolean contains(String key) {
+        return key != null && points.containsKey(key);
+    }
+
+    int size() {
+        return points.size();
+    }
+
+    CalibrationProfiles with(String key, float nx, float ny) {
+        LinkedHashMap<String, float[]> copy = new LinkedHashMap<>(points);
+        copy.remove(key);
+        copy.put(key, new float[]{nx, ny});
+        Iterator<String> oldest = copy.keySet().iterator();
+        while (copy.size() > MAX_PROFILES && oldest.hasNext()) {
+            oldest.next();
+            oldest.remove();
+        }
+        return new CalibrationProfiles(copy);
+    }
+
+    String encode() {
+        return encoded;
+    }
+
+    private static String encode(Map<String, float[]> points) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, float[]> entry : points.entrySet()) {
+            if (sb.length() > 0) sb.append(ENTRY_SEPARATOR);
+            float[] point = entry.getValue();
+            sb.append(entry.getKey()).append(KEY_SEPARATOR)
+                    .append(point[0]).append(VALUE_SEPARATOR).append(point[1]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 解析持久化字符串；格式不对或坐标超出 [0, 1] 的条目直接跳过。
+     */
+    static CalibrationProfiles decode(String value) {
+        if (value == null || value.isEmpty()) return EMPTY;
+        LinkedHashMap<String, float[]> points = new LinkedHashMap<>();
+        int start = 0;
+        while (start <= value.length()) {
+            int end = value.indexOf(ENTRY_SEPARATOR, start);
+            if (end < 0) end = value.length();
+            parseEntry(value.substring(start, end), points);
+            start = end + 1;
+        }
+        return points.isEmpty() ? EMPTY : new CalibrationProfiles(points);
+    }
+
+    private static void parseEntry(String entry, Map<String, float[]> out) {
+        int eq = entry.lastIndexOf(KEY_SEPARATOR);
+        int comma = entry.lastIndexOf(VALUE_SEPARATOR);
+        if (eq <= 0 || comma < eq) return;
+        try {
+            float nx = Float.parseFloat(entry.substring(eq + 1, comma));
+            float ny = Float.parseFloat(entry.substring(comma + 1));
+            if (nx < 0f || nx > 1f || ny < 0f || ny > 1f) return;
+            out.put(entry.substring(0, eq), new float[]{nx, ny});
+        } catch (NumberFormatException ignored) {
+            // 跳过损坏的条目，保留其余记录。
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CalibrationProfiles && encoded.equals(((CalibrationProfiles) o).encoded);
+    }
+
+    @Override
+    public int hashCode() {
+        return encoded.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return encoded;
+    }
+}
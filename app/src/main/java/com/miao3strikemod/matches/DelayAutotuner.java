@@ -0,0 +1,141 @@
+package com.miao3strikemod.matches;
+
+/**
+ * 启动延迟 / 悬停延迟自动调优：根据每次宏的结束结果（完成或中止原因）收敛到能保持成功率的最小值。
+ * <p>
+ * 每个参数独立调整：一个窗口内失败次数超出目标成功率允许的范围时立即调高，并记为“已知失败值”；
+ * 整个窗口达标后才调低一次，有已知失败值时在它与当前值之间二分，因此探索始终有界。
+ * 已知失败值在连续 {@link #KNOWN_BAD_EXPIRY_RUNS} 次成功后作废，偶发失败不会永久限制下探。
+ * <p>
+ * 启动延迟在第一次点暂停之前流逝（游戏仍处于暂停），悬停延迟只存在于划火柴的“拖出不松手”时间线中，
+ * 在返回键重新暂停之后流逝；调高两者都只增加等待时长，不增加游戏内流过的时间。
+ * 失败按出问题的那一步归属：悬停松手（hold_*）被取消或超时算悬停，其余步骤算启动；
+ * 没有手势在途的超时无法归属，不作为信号。启动阶段就失败的执行没有走到悬停，不计入悬停的窗口。
+ */
+final class DelayAutotuner {
+
+    static final double TARGET_SUCCESS_RATE = 0.95;
+    static final int WINDOW_RUNS = 20;
+    private static final double DECREASE_FACTOR = 0.85;
+    private static final double INCREASE_FACTOR = 1.5;
+    private static final long MIN_ADJUST_MS = 1L;
+    static final int KNOWN_BAD_EXPIRY_RUNS = WINDOW_RUNS * 5;
+
+    static final class Param {
+        final String name;
+        final long minMs;
+        final long maxMs;
+        long valueMs;
+        // 观察到失败的最大取值；-1 表示尚未失败过。
+        long knownBadMs;
+        int runs;
+        int failures;
+        // 连续成功次数，用于让已知失败值过期；不持久化。
+        int successStreak;
+
+        Param(String name, long minMs, long maxMs, long valueMs, long knownBadMs) {
+            this.name = name;
+            this.minMs = minMs;
+            this.maxMs = maxMs;
+            this.valueMs = clamp(valueMs, minMs, maxMs);
+            this.knownBadMs = knownBadMs;
+        }
+
+        /**
+         * @return 取值是否发生变化（需要持久化）。
+         */
+        boolean onOutcome(boolean failed) {
+            runs++;
+            boolean expired = false;
+            if (failed) {
+                failures++;
+                successStreak = 0;
+            } else if (++successStreak >= KNOWN_BAD_EXPIRY_RUNS && knownBadMs >= 0) {
+                knownBadMs = -1L;
+                successStreak = 0;
+                expired = true;
+            }
+            int allowedFailures = (int) Math.floor(WINDOW_RUNS * (1.0 - TARGET_SUCCESS_RATE));
+            if (failures > allowedFailures) {
+                knownBadMs = Math.max(knownBadMs, valueMs);
+                long raised = Math.max(valueMs + MIN_ADJUST_MS, Math.round(valueMs * INCREASE_FACTOR));
+                return moveTo(clamp(raised, minMs, maxMs));
+            }
+            if (runs < WINDOW_RUNS) return expired;
+
+            long lowered;
+            if (knownBadMs >= 0) {
+                // 在已知失败值与当前可用值之间二分（向上取整），相邻时即视为收敛。
+                lowered = knownBadMs + (valueMs - knownBadMs + 1) / 2;
+            } else {
+                lowered = Math.min(valueMs - MIN_ADJUST_MS, Math.round(valueMs * DECREASE_FACTOR));
+            }
+            return moveTo(clamp(lowered, minMs, maxMs)) || expired;
+        }
+
+        boolean isConverged() {
+            return valueMs <= minMs || (knownBadMs >= 0 && valueMs - knownBadMs <= MIN_ADJUST_MS);
+        }
+
+        private boolean moveTo(long next) {
+            runs = 0;
+            failures = 0;
+            if (next == valueMs) return false;
+            valueMs = next;
+            return true;
+        }
+    }
+
+    final Param startup;
+    final Param hold;
+
+    DelayAutotuner(long startupMs, long startupBadMs, long minStartupMs, long maxStartupMs,
+                   long holdMs, long holdBadMs, long minHoldMs, long maxHoldMs) {
+        this.startup = new Param("startup", minStartupMs, maxStartupMs, startupMs, startupBadMs);
+        this.hold = new Param("hold", minHoldMs, maxHoldMs, holdMs, holdBadMs);
+    }
+
+    /**
+     * 记录一次宏结束；abortReason 为 null 表示成功完成。
+     *
+     * @return 调优值是否变化。
+     */
+    boolean onMacroEnded(int macroType, String abortReason) {
+        // 步进宏没有启动延迟与悬停；预设回放不经过 overlay，启动延迟固定为 0，也不作为信号。
+        if (macroType == MacroTimeline.TYPE_STEP || macroType == MacroTimeline.TYPE_PRESET) return false;
+        if (abortReason != null && !isTuningSignal(abortReason)) return false;
+
+        boolean holdFailed = abortReason != null && isHoldFailure(abortReason);
+        boolean startupFailed = abortReason != null && !holdFailed;
+        boolean changed = startup.onOutcome(startupFailed);
+        if (macroType == MacroTimeline.TYPE_DRAG && !startupFailed) {
+            changed |= hold.onOutcome(holdFailed);
+        }
+        return changed;
+    }
+
+    /**
+     * 只有某一步手势被系统取消或等它回调时超时才说明延迟不够；用户取消、被抢占等不作为信号。
+     */
+    private static boolean isTuningSignal(String reason) {
+        return reason.endsWith("_cancelled") || reason.endsWith("_timeout");
+    }
+
+    private static boolean isHoldFailure(String reason) {
+        return reason.startsWith("hold_");
+    }
+
+    String describe() {
+        return describe(startup) + "\n" + describe(hold);
+    }
+
+    private static String describe(Param p) {
+        return p.name + "=" + p.valueMs + "ms"
+                + (p.knownBadMs >= 0 ? "（已知失败 " + p.knownBadMs + "ms）" : "")
+                + (p.isConverged() ? " 已收敛" : " 窗口 " + p.runs + "/" + WINDOW_RUNS + " 失败 " + p.failures);
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
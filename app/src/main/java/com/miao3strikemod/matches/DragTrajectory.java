@@ -0,0 +1,146 @@
+package com.miao3strikemod.matches;
+
+/**
+ * 录制一次拖动的完整轨迹（含 MotionEvent 的历史采样），结束后化简为点数有上限的折线。
+ * <p>
+ * 采样写入预分配数组，录制过程中不分配对象；缓冲写满后只覆盖最后一个点，保证终点准确。
+ * 化简用 Ramer–Douglas–Peucker：误差不超过容差的点都丢掉，点数仍超上限时把容差翻倍重来。
+ * 非线程安全，只在主线程（触摸回调）使用。
+ */
+final class DragTrajectory {
+
+    static final int DEFAULT_CAPACITY = 1024;
+    // 与屏幕像素同单位；4px 在 1080p 上约为手指接触面积的十分之一。
+    static final float DEFAULT_TOLERANCE_PX = 4f;
+    // 每条拖动最多保留的点数（含起点终点），控制手势 Path 的大小。
+    static final int DEFAULT_MAX_POINTS = 32;
+    // 相邻采样距离小于此值时视为同一点。
+    private static final float MIN_SAMPLE_DISTANCE_PX = 1f;
+
+    private final float[] xs;
+    private final float[] ys;
+    private final long[] times;
+    private final boolean[] keep;
+    // RDP 用显式栈代替递归：每次压入一段 [first, last]。
+    private final int[] stack;
+    private int size;
+
+    DragTrajectory(int capacity) {
+        int n = Math.max(2, capacity);
+        xs = new float[n];
+        ys = new float[n];
+        times = new long[n];
+        keep = new boolean[n];
+        stack = new int[n * 2];
+    }
+
+    void reset(float x, float y, long timeMs) {
+        size = 0;
+        append(x, y, timeMs);
+    }
+
+    void add(float x, float y, long timeMs) {
+        if (size == 0) {
+            append(x, y, timeMs);
+            return;
+        }
+        int last = size - 1;
+        float dx = x - xs[last];
+        float dy = y - ys[last];
+        if (dx * dx + dy * dy < MIN_SAMPLE_DISTANCE_PX * MIN_SAMPLE_DISTANCE_PX) {
+            times[last] = timeMs;
+            return;
+        }
+        if (size == xs.length) {
+            // 写满后只更新终点，前面的轨迹保留。
+            xs[last] = x;
+            ys[last] = y;
+            times[last] = timeMs;
+            return;
+        }
+        append(x, y, timeMs);
+    }
+
+    private void append(float x, float y, long timeMs) {
+        xs[size] = x;
+        ys[size] = y;
+        times[size] = timeMs;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long durationMs() {
+        return size < 2 ? 0L : times[size - 1] - times[0];
+    }
+
+    /**
+     * 化简为最多 maxPoints 个点的折线。
+     *
+     * @return 每 2 个数为一个点（x、y），首尾为录制的起点与终点；采样不足两个点时返回 null。
+     */
+    float[] simplify(float tolerancePx, int maxPoints) {
+        if (size < 2) return null;
+        int limit = Math.max(2, maxPoints);
+        float tolerance = Math.max(0f, tolerancePx);
+        int kept = markKept(tolerance);
+        while (kept > limit) {
+            tolerance = tolerance > 0f ? tolerance * 2f : MIN_SAMPLE_DISTANCE_PX;
+            kept = markKept(tolerance);
+        }
+        float[] out = new float[kept * 2];
+        int o = 0;
+        for (int i = 0; i < size; i++) {
+            if (!keep[i]) continue;
+            out[o++] = xs[i];
+            out[o++] = ys[i];
+        }
+        return out;
+    }
+
+    private int markKept(float tolerance) {
+        int last = size - 1;
+        for (int i = 0; i <= last; i++) keep[i] = false;
+        keep[0] = true;
+        keep[last] = true;
+        int kept = 2;
+        float toleranceSq = tolerance * tolerance;
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = last;
+        while (top > 0) {
+            int end = stack[--top];
+            int start = stack[--top];
+            float maxDistSq = -1f;
+            int index = -1;
+            for (int i = start + 1; i < end; i++) {
+                float d = segmentDistanceSq(xs[i], ys[i], xs[start], ys[start], xs[end], ys[end]);
+                if (d > maxDistSq) {
+                    maxDistSq = d;
+                    index = i;
+                }
+            }
+            if (index < 0 || maxDistSq <= toleranceSq) continue;
+            keep[index] = true;
+            kept++;
+            stack[top++] = start;
+            stack[top++] = index;
+            stack[top++] = index;
+            stack[top++] = end;
+        }
+        return kept;
+    }
+
+    private static float segmentDistanceSq(float px, float py, float ax, float ay, float bx, float by) {
+        float dx = bx - ax;
+        float dy = by - ay;
+        float lenSq = dx * dx + dy * dy;
+        float t = lenSq > 0f ? ((px - ax) * dx + (py - ay) * dy) / lenSq : 0f;
+        t = Math.max(0f, Math.min(1f, t));
+        float cx = ax + t * dx - px;
+        float cy = ay + t * dy - py;
+        return cx * cx + cy * cy;
+    }
+}
@@ -182,6 +182,8 @@ public class FloatingWindowService extends Service {
             private long touchStartTime;
             private static final int CLICK_DURATION = 200;
             private static final int CLICK_DRIFT = 10;
+            // 长按（不拖动）松手时回放设定的预设。
+            private static final int LONG_PRESS_DURATION = 600;
 
             @Override
             public boolean onTouch(View v, MotionEvent event) {
@@ -213,6 +215,8 @@ public class FloatingWindowService extends Service {
 
                         if (clickDuration < CLICK_DURATION && dx < CLICK_DRIFT && dy < CLICK_DRIFT) {
                             toggleFunction();
+                        } else if (clickDuration >= LONG_PRESS_DURATION && dx < CLICK_DRIFT && dy < CLICK_DRIFT) {
+                            runFloatingPreset();
                         }
                         return true;
                 }
@@ -238,6 +242,16 @@ public class FloatingWindowService extends Service {
         }
     }
 
+    private void runFloatingPreset() {
+        try {
+            if (!VolumeKeyAccessibilityService.runFloatingPreset()) {
+                Log.d(TAG, "Floating preset not run");
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "runFloatingPreset error", e);
+        }
+    }
+
     private void updateButtonAppearance(boolean enabled) {
         if (floatingButton == null) return;
 
@@ -0,0 +1,216 @@
+package com.miao3strikemod.matches;
+
+import java.util.Locale;
+
+/**
+ * 手势回调兜底的自适应余量：按手势类别统计“派发 → onCompleted”比手势时长多出的延迟，
+ * 兜底等待取 p99 加安全余量，而不是固定的 200 / 500ms。
+ * <p>
+ * 慢设备上固定值可能早于真实回调触发，导致同一步被推进两次；快设备上回调丢失时白等 200ms
+ * （游戏处于运行状态）。每个类别一个 2ms 分辨率的直方图，样本累计到上限时整体减半，逐步淡化旧数据。
+ * 兜底之后才到的回调同样按真实延迟记入，兜底偏早时余量随之上调；真正丢失的回调只计数，不拉高余量。
+ * 样本不足时沿用时间线的固定余量。
+ * <p>
+ * 只按本机统计，持久化时由 MacroConfig 附上设备指纹。记录在宏线程，报告与持久化在主线程，方法均同步。
+ */
+final class GestureFallbackEstimator {
+
+    static final int CLASS_TAP = 0;
+    static final int CLASS_DRAG = 1;
+    // 悬停后松手（continueStroke）。
+    static final int CLASS_RELEASE = 2;
+    static final int CLASS_FUSED = 3;
+    private static final int CLASS_COUNT = 4;
+    private static final String[] CLASS_NAMES = {"点击", "拖动", "松手", "合并点击"};
+
+    private static final int BUCKET_MS = 2;
+    // 最后一个桶收容所有更长的延迟。
+    private static final int BUCKET_COUNT = 256;
+    private static final int MIN_SAMPLES = 20;
+    // 每个类别样本数达到此值时所有桶减半。
+    private static final int DECAY_TOTAL = 400;
+    private static final double PERCENTILE = 0.99;
+    static final long SAFETY_MS = 30L;
+    static final long MIN_MARGIN_MS = 40L;
+    static final long MAX_MARGIN_MS = 1000L;
+
+    private final int[][] buckets = new int[CLASS_COUNT][BUCKET_COUNT];
+    private final int[] totals = new int[CLASS_COUNT];
+    // 当前余量；-1 表示样本不足。
+    private final long[] margins = new long[CLASS_COUNT];
+    private final int[] callbacks = new int[CLASS_COUNT];
+    private final int[] fallbacks = new int[CLASS_COUNT];
+    // 兜底触发之后才到达的回调。
+    private final int[] lateCallbacks = new int[CLASS_COUNT];
+    private int changesSinceSave;
+
+    GestureFallbackEstimator() {
+        for (int c = 0; c < CLASS_COUNT; c++) {
+            margins[c] = -1L;
+        }
+    }
+
+    /**
+     * 手势类别；非手势步骤返回 -1。
+     */
+    static int classOf(int stepKind) {
+        switch (stepKind) {
+            case MacroStep.KIND_TAP:
+                return CLASS_TAP;
+            case MacroStep.KIND_DRAG:
+            case MacroStep.KIND_DRAG_HOLD:
+                return CLASS_DRAG;
+            case MacroStep.KIND_CONTINUE:
+                return CLASS_RELEASE;
+            case MacroStep.KIND_FUSED:
+                return CLASS_FUSED;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * 手势时长之后还要等多久才兜底。
+     *
+     * @param defaultMarginMs 样本不足时使用的固定余量（时间线中的值）。
+     */
+    synchronized long marginMs(int stepKind, long defaultMarginMs) {
+        int c = classOf(stepKind);
+        if (c < 0 || margins[c] < 0) return defaultMarginMs;
+        return margins[c];
+    }
+
+    /**
+     * 回调按时到达：记录比手势时长多出的延迟。
+     */
+    synchronized void onCallback(int stepKind, long overrunMs) {
+        int c = classOf(stepKind);
+        if (c < 0) return;
+        callbacks[c]++;
+        add(c, overrunMs);
+    }
+
+    synchronized void onFallback(int stepKind) {
+        int c = classOf(stepKind);
+        if (c < 0) return;
+        fallbacks[c]++;
+        changesSinceSave++;
+    }
+
+    /**
+     * 兜底已经推进到下一步后，该步的回调才到达：按真实延迟记入。
+     */
+    synchronized void onLateCallback(int stepKind, long overrunMs) {
+        int c = classOf(stepKind);
+        if (c < 0) return;
+        lateCallbacks[c]++;
+        add(c, overrunMs);
+    }
+
+    private void add(int c, long overrunMs) {
+        int[] hist = buckets[c];
+        int bucket = (int) Math.min(BUCKET_COUNT - 1, Math.max(0L, overrunMs) / BUCKET_MS);
+        hist[bucket]++;
+        if (++totals[c] >= DECAY_TOTAL) {
+            int total = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                hist[i] >>= 1;
+                total += hist[i];
+            }
+            totals[c] = total;
+        }
+        changesSinceSave++;
+        margins[c] = computeMargin(c);
+    }
+
+    private long computeMargin(int c) {
+        int total = totals[c];
+        if (total < MIN_SAMPLES) return -1L;
+        int[] hist = buckets[c];
+        long threshold = (long) Math.ceil(total * PERCENTILE);
+        long cumulative = 0L;
+        int bucket = BUCKET_COUNT - 1;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulative += hist[i];
+            if (cumulative >= threshold) {
+                bucket = i;
+                break;
+            }
+        }
+        long p99 = (bucket + 1L) * BUCKET_MS;
+        return Math.max(MIN_MARGIN_MS, Math.min(MAX_MARGIN_MS, p99 + SAFETY_MS));
+    }
+
+    /**
+     * 距上次持久化积累了至少 minChanges 个样本时返回编码并清零计数，否则返回 null。
+     */
+    synchronized String encodeIfChanged(int minChanges) {
+        if (changesSinceSave < minChanges) return null;
+        changesSinceSave = 0;
+        return encode();
+    }
+
+    /**
+     * 每个类别一段，以 ';' 分隔：{@code 回调数,兜底数,迟到数,桶,计数,桶,计数…}，只写非空桶。
+     */
+    synchronized String encode() {
+        StringBuilder sb = new StringBuilder();
+        for (int c = 0; c < CLASS_COUNT; c++) {
+            if (c > 0) sb.append(';');
+            sb.append(callbacks[c]).append(',').append(fallbacks[c]).append(',').append(lateCallbacks[c]);
+            int[] hist = buckets[c];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                if (hist[i] > 0) sb.append(',').append(i).append(',').append(hist[i]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 解析持久化字符串；为 null 或格式不对时返回空的统计。
+     */
+    static GestureFallbackEstimator decode(String value) {
+        GestureFallbackEstimator estimator = new GestureFallbackEstimator();
+        if (value == null || value.isEmpty()) return estimator;
+        String[] classes = value.split(";", -1);
+        if (classes.length != CLASS_COUNT) return estimator;
+        try {
+            for (int c = 0; c < CLASS_COUNT; c++) {
+                String[] fields = classes[c].split(",");
+                if (fields.length < 3 || fields.length % 2 == 0) return new GestureFallbackEstimator();
+                estimator.callbacks[c] = Math.max(0, Integer.parseInt(fields[0]));
+                estimator.fallbacks[c] = Math.max(0, Integer.parseInt(fields[1]));
+                estimator.lateCallbacks[c] = Math.max(0, Integer.parseInt(fields[2]));
+                int total = 0;
+                for (int i = 3; i < fields.length; i += 2) {
+                    int bucket = Integer.parseInt(fields[i]);
+                    int count = Integer.parseInt(fields[i + 1]);
+                    if (bucket < 0 || bucket >= BUCKET_COUNT || count < 0) return new GestureFallbackEstimator();
+                    estimator.buckets[c][bucket] = count;
+                    total += count;
+                }
+                estimator.totals[c] = total;
+                estimator.margins[c] = estimator.computeMargin(c);
+            }
+        } catch (NumberFormatException e) {
+            return new GestureFallbackEstimator();
+        }
+        return estimator;
+    }
+
+    synchronized String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (int c = 0; c < CLASS_COUNT; c++) {
+            int events = callbacks[c] + fallbacks[c];
+            if (events == 0) continue;
+            sb.append(String.format(Locale.US, "%s：回调 %d 次，兜底 %d 次（%.1f%%，其中回调迟到 %d 次），",
+                    CLASS_NAMES[c], callbacks[c], fallbacks[c], 100.0 * fallbacks[c] / events, lateCallbacks[c]));
+            if (margins[c] < 0) {
+                sb.append("样本不足，使用固定余量\n");
+            } else {
+                sb.append("兜底余量 ").append(margins[c]).append("ms\n");
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,364 @@
+package com.miao3strikemod.matches;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * 按键绑定引擎：把按键与按键模式（单击 / 双击 / 长按 / 两键同时按）映射到宏动作。
+ * <p>
+ * 只要模式允许就在按下的那一刻决定：一个键只绑定了单击时，按下事件里同步触发，不增加任何延迟；
+ * 同一个键还绑定了长按、双击或组合键时，才需要等待——长按等到按下后 {@link #LONG_PRESS_MS}，
+ * 双击等到松开后 {@link #DOUBLE_PRESS_WINDOW_MS}，组合键等到按下后 {@link #CHORD_WINDOW_MS}。
+ * 所有期限都以 KeyEvent 的事件时间为基准（uptimeMillis），不受主线程处理延迟影响。
+ * <p>
+ * 触发时回调 {@link Listener#onTriggered}；触发时按键仍按着的，松开时再回调 {@link Listener#onReleased}
+ * （按住连续步进用）。非线程安全，只在主线程（onKeyEvent）调用。
+ */
+final class KeyBindingEngine {
+
+    static final int PATTERN_SINGLE = 1;
+    static final int PATTERN_DOUBLE = 2;
+    static final int PATTERN_LONG = 3;
+    // 两键同时按：keyCode 与 otherKeyCode 在 CHORD_WINDOW_MS 内先后按下，不分先后。
+    static final int PATTERN_CHORD = 4;
+
+    // 动作由服务解释；持久化时按数值保存，只能追加，不要改动已有取值。
+    static final int ACTION_CLICK_CAPTURE = 1;
+    // 步进宏，按住连续步进取决于设置。
+    static final int ACTION_STEP = 2;
+    // 步进宏，总是按住连续步进、松开停止。
+    static final int ACTION_STEP_HOLD = 3;
+    // 立即执行已录制、尚未凑满数量的批量拖动。
+    static final int ACTION_RUN_BATCH = 4;
+    // 回放预设，argument 为预设名。
+    static final int ACTION_PRESET = 5;
+    // 取消正在进行的录制、捕获与宏。
+    static final int ACTION_CANCEL = 6;
+
+    static final long DOUBLE_PRESS_WINDOW_MS = 250L;
+    static final long LONG_PRESS_MS = 450L;
+    static final long CHORD_WINDOW_MS = 60L;
+
+    interface Scheduler {
+        /**
+         * 在 uptimeMs（与 KeyEvent.getEventTime 同一时钟）执行；removeCallbacks 可取消。
+         */
+        void postAtTime(Runnable runnable, long uptimeMs);
+
+        void removeCallbacks(Runnable runnable);
+    }
+
+    interface Listener {
+        void onTriggered(Binding binding, long eventTimeMs);
+
+        void onReleased(Binding binding, long eventTimeMs);
+    }
+
+    static final class Binding {
+        final int pattern;
+        final int keyCode;
+        // 仅组合键：另一个键，否则为 0。
+        final int otherKeyCode;
+        final int action;
+        // 动作参数（预设名），没有时为空串。
+        final String argument;
+
+        Binding(int pattern, int keyCode, int otherKeyCode, int action, String argument) {
+            this.pattern = pattern;
+            this.keyCode = keyCode;
+            this.otherKeyCode = pattern == PATTERN_CHORD ? otherKeyCode : 0;
+            this.action = action;
+            this.argument = argument != null ? argument : "";
+        }
+
+        static Binding single(int keyCode, int action, String argument) {
+            return new Binding(PATTERN_SINGLE, keyCode, 0, action, argument);
+        }
+
+        boolean sameTrigger(Binding other) {
+            if (pattern != other.pattern) return false;
+            if (pattern == PATTERN_CHORD) {
+                return (keyCode == other.keyCode && otherKeyCode == other.otherKeyCode)
+                        || (keyCode == other.otherKeyCode && otherKeyCode == other.keyCode);
+            }
+            return keyCode == other.keyCode;
+        }
+
+        String encode() {
+            return pattern + "\t" + keyCode + "\t" + otherKeyCode + "\t" + action + "\t" + argument;
+        }
+
+        /**
+         * 解析一行；格式不对时返回 null。
+         */
+        static Binding decode(String line) {
+            String[] fields = line.split("\t", 5);
+            if (fields.length < 4) return null;
+            try {
+                int pattern = Integer.parseInt(fields[0]);
+                int keyCode = Integer.parseInt(fields[1]);
+                int otherKeyCode = Integer.parseInt(fields[2]);
+                int action = Integer.parseInt(fields[3]);
+                if (pattern < PATTERN_SINGLE || pattern > PATTERN_CHORD || keyCode <= 0) return null;
+                if (pattern == PATTERN_CHORD && (otherKeyCode <= 0 || otherKeyCode == keyCode)) return null;
+                return new Binding(pattern, keyCode, otherKeyCode, action, fields.length > 4 ? fields[4] : "");
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Binding(" + pattern + ", " + keyCode + (otherKeyCode != 0 ? "+" + otherKeyCode : "")
+                    + " -> " + action + (argument.isEmpty() ? "" : ":" + argument) + ")";
+        }
+    }
+
+    static String encodeAll(List<Binding> bindings) {
+        StringBuilder sb = new StringBuilder();
+        for (Binding binding : bindings) {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(binding.encode());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 解析全部绑定，损坏的行跳过；返回不可修改的列表。
+     */
+    static List<Binding> decodeAll(String value) {
+        if (value == null || value.isEmpty()) return Collections.emptyList();
+        ArrayList<Binding> bindings = new ArrayList<>();
+        for (String line : value.split("\n")) {
+            Binding binding = Binding.decode(line);
+            if (binding != null) bindings.add(binding);
+        }
+        return Collections.unmodifiableList(bindings);
+    }
+
+    // 单个按键的状态机：IDLE → PRESSED（待定）→ HELD（已决定，等松开）/ WAIT_SECOND（等第二次按下）→ IDLE。
+    private static final int PHASE_IDLE = 0;
+    private static final int PHASE_PRESSED = 1;
+    private static final int PHASE_HELD = 2;
+    private static final int PHASE_WAIT_SECOND = 3;
+
+    private static final Binding[] NO_BINDINGS = new Binding[0];
+
+    private final class KeyState {
+        final int keyCode;
+        Binding single;
+        Binding doublePress;
+        Binding longPress;
+        Binding[] chords = NO_BINDINGS;
+
+        int phase = PHASE_IDLE;
+        long downTimeMs;
+        // 已触发、等松开时回调 onReleased 的绑定；为 null 时松开只复位。
+        Binding active;
+
+        final Runnable chordTimeout = this::onChordTimeout;
+        final Runnable longTimeout = this::onLongTimeout;
+        final Runnable doubleTimeout = this::onDoubleTimeout;
+
+        KeyState(int keyCode) {
+            this.keyCode = keyCode;
+        }
+
+        /**
+         * 除单击外没有别的模式时，按下即可决定。
+         */
+        boolean decidesOnDown() {
+            return doublePress == null && longPress == null && chords.length == 0;
+        }
+
+        void cancelTimers() {
+            scheduler.removeCallbacks(chordTimeout);
+            scheduler.removeCallbacks(longTimeout);
+            scheduler.removeCallbacks(doubleTimeout);
+        }
+
+        void onChordTimeout() {
+            // 组合键窗口已过；没有长按和双击时单击就此确定，键仍按着，松开时再回调 onReleased。
+            if (phase != PHASE_PRESSED || longPress != null || doublePress != null) return;
+            hold(this, single, downTimeMs + CHORD_WINDOW_MS);
+        }
+
+        void onLongTimeout() {
+            if (phase != PHASE_PRESSED) return;
+            scheduler.removeCallbacks(chordTimeout);
+            hold(this, longPress, downTimeMs + LONG_PRESS_MS);
+        }
+
+        void onDoubleTimeout() {
+            if (phase != PHASE_WAIT_SECOND) return;
+            phase = PHASE_IDLE;
+            tap(single, downTimeMs + DOUBLE_PRESS_WINDOW_MS);
+        }
+    }
+
+    private final Scheduler scheduler;
+    private final Listener listener;
+    private final HashMap<Integer, KeyState> keys = new HashMap<>();
+
+    KeyBindingEngine(Scheduler scheduler, Listener listener) {
+        this.scheduler = scheduler;
+        this.listener = listener;
+    }
+
+    /**
+     * 替换全部绑定；同一触发方式（按键 + 模式）出现多次时以后面的为准。进行中的按键状态全部丢弃。
+     */
+    void setBindings(List<Binding> bindings) {
+        reset();
+        keys.clear();
+        ArrayList<Binding> chords = new ArrayList<>();
+        for (Binding binding : bindings) {
+            if (binding.pattern == PATTERN_CHORD) {
+                for (int i = chords.size() - 1; i >= 0; i--) {
+                    if (chords.get(i).sameTrigger(binding)) chords.remove(i);
+                }
+                chords.add(binding);
+                continue;
+            }
+            KeyState state = stateFor(binding.keyCode);
+            if (binding.pattern == PATTERN_SINGLE) {
+                state.single = binding;
+            } else if (binding.pattern == PATTERN_DOUBLE) {
+                state.doublePress = binding;
+            } else if (binding.pattern == PATTERN_LONG) {
+                state.longPress = binding;
+            }
+        }
+        for (Binding chord : chords) {
+            addChord(stateFor(chord.keyCode), chord);
+            addChord(stateFor(chord.otherKeyCode), chord);
+        }
+    }
+
+    private KeyState stateFor(int keyCode) {
+        KeyState state = keys.get(keyCode);
+        if (state == null) {
+            state = new KeyState(keyCode);
+            keys.put(keyCode, state);
+        }
+        return state;
+    }
+
+    private static void addChord(KeyState state, Binding chord) {
+        Binding[] chords = new Binding[state.chords.length + 1];
+        System.arraycopy(state.chords, 0, chords, 0, state.chords.length);
+        chords[state.chords.length] = chord;
+        state.chords = chords;
+    }
+
+    /**
+     * 是否有任何绑定（含组合键的任一键）用到该键；onKeyEvent 先用它过滤无关按键。
+     */
+    boolean handlesKey(int keyCode) {
+        return keys.containsKey(keyCode);
+    }
+
+    /**
+     * 取消所有等待中的判定；已按下的键在松开前不再触发。
+     */
+    void reset() {
+        for (KeyState state : keys.values()) {
+            state.cancelTimers();
+            state.phase = PHASE_IDLE;
+            state.active = null;
+        }
+    }
+
+    /**
+     * @return 是否消费该按键（有绑定的键按下与松开都消费，系统不再处理）。
+     */
+    boolean onKeyDown(int keyCode, int repeatCount, long eventTimeMs) {
+        KeyState state = keys.get(keyCode);
+        if (state == null) return false;
+        // 长按产生的重复按下只消费，判定由定时器完成。
+        if (repeatCount > 0) return true;
+        if (state.phase == PHASE_WAIT_SECOND) {
+            state.cancelTimers();
+            hold(state, state.doublePress, eventTimeMs);
+            return true;
+        }
+        if (state.phase != PHASE_IDLE) return true;
+
+        for (Binding chord : state.chords) {
+            int otherKeyCode = chord.keyCode == keyCode ? chord.otherKeyCode : chord.keyCode;
+            KeyState other = keys.get(otherKeyCode);
+            if (other != null && other.phase == PHASE_PRESSED
+                    && eventTimeMs - other.downTimeMs <= CHORD_WINDOW_MS) {
+                // 另一键的判定作废，它松开时只复位；组合键在后按下的键松开时回调 onReleased。
+                other.cancelTimers();
+                other.phase = PHASE_HELD;
+                other.active = null;
+                hold(state, chord, eventTimeMs);
+                return true;
+            }
+        }
+
+        state.downTimeMs = eventTimeMs;
+        if (state.decidesOnDown()) {
+            hold(state, state.single, eventTimeMs);
+            return true;
+        }
+        state.phase = PHASE_PRESSED;
+        if (state.chords.length > 0) {
+            scheduler.postAtTime(state.chordTimeout, eventTimeMs + CHORD_WINDOW_MS);
+        }
+        if (state.longPress != null) {
+            scheduler.postAtTime(state.longTimeout, eventTimeMs + LONG_PRESS_MS);
+        }
+        return true;
+    }
+
+    boolean onKeyUp(int keyCode, long eventTimeMs) {
+        KeyState state = keys.get(keyCode);
+        if (state == null) return false;
+        switch (state.phase) {
+            case PHASE_PRESSED:
+                state.cancelTimers();
+                if (state.doublePress != null) {
+                    state.phase = PHASE_WAIT_SECOND;
+                    state.downTimeMs = eventTimeMs;
+                    scheduler.postAtTime(state.doubleTimeout, eventTimeMs + DOUBLE_PRESS_WINDOW_MS);
+                } else {
+                    state.phase = PHASE_IDLE;
+                    tap(state.single, eventTimeMs);
+                }
+                return true;
+            case PHASE_HELD:
+                Binding active = state.active;
+                state.phase = PHASE_IDLE;
+                state.active = null;
+                if (active != null) listener.onReleased(active, eventTimeMs);
+                return true;
+            case PHASE_WAIT_SECOND:
+                return true;
+            default:
+                // 没见过按下（例如绑定在按住期间更新）：交还给系统。
+                return false;
+        }
+    }
+
+    /**
+     * 触发且按键仍按着：松开时再回调 onReleased。
+     */
+    private void hold(KeyState state, Binding binding, long eventTimeMs) {
+        state.phase = PHASE_HELD;
+        state.active = binding;
+        if (binding != null) listener.onTriggered(binding, eventTimeMs);
+    }
+
+    /**
+     * 触发时按键已经松开：立即回调 onReleased。
+     */
+    private void tap(Binding binding, long eventTimeMs) {
+        if (binding == null) return;
+        listener.onTriggered(binding, eventTimeMs);
+        listener.onReleased(binding, eventTimeMs);
+    }
+}
@@ -2,6 +2,11 @@ package com.miao3strikemod.matches;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Build;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public final class MacroConfig {
 
@@ -9,6 +14,15 @@ public final class MacroConfig {
     }
 
     public static final String PREFS_NAME = "miao3trike_prefs";
+    // 调优结果与回调延迟统计：宏结束时频繁写入，与设置分开存放，写入不会触发快照重建。
+    public static final String STATS_PREFS_NAME = "miao3trike_stats";
+
+    // 按显示配置保存的归一化校准坐标，见 CalibrationProfiles。
+    public static final String KEY_BUTTON_CENTER_PROFILES = "button_center_profiles";
+    // 旧版只保存一组绝对坐标；服务启动时按当前显示配置迁移到校准表后删除。
+    public static final String KEY_BUTTON_CENTER_CUSTOMIZED = "button_center_customized";
+    public static final String KEY_BUTTON_CENTER_X = "button_center_x";
+    public static final String KEY_BUTTON_CENTER_Y = "button_center_y";
 
     public static final String KEY_STARTUP_DELAY_MS = "macro_startup_delay_ms";
     public static final String KEY_STEP_DELAY_MS = "macro_step_delay_ms";
@@ -17,6 +31,32 @@ public final class MacroConfig {
     public static final String KEY_CLICK_CAPTURE_ENABLED = "macro_click_capture_enabled";
     public static final String KEY_STEP_MACRO_DELAY_MS = "macro_step_macro_delay_ms";
     public static final String KEY_STEP_MACRO_ENABLED = "macro_step_enabled";
+    public static final String KEY_DRAG_BATCH_SIZE = "macro_drag_batch_size";
+    public static final String KEY_DRAG_PATH_ENABLED = "macro_drag_path_enabled";
+    public static final String KEY_DRAG_PATH_COMPRESS_ENABLED = "macro_drag_path_compress_enabled";
+    public static final String KEY_STEP_REPEAT_COUNT = "macro_step_repeat_count";
+    public static final String KEY_STEP_REPEAT_INTERVAL_MS = "macro_step_repeat_interval_ms";
+    public static final String KEY_STEP_HOLD_REPEAT_ENABLED = "macro_step_hold_repeat_enabled";
+    public static final String KEY_FUSED_GESTURE_ENABLED = "macro_fused_gesture_enabled";
+    public static final String KEY_VSYNC_ALIGNED_ENABLED = "macro_vsync_aligned_enabled";
+    public static final String KEY_AUTOTUNE_ENABLED = "macro_autotune_enabled";
+    public static final String KEY_GAME_DETECTION_ENABLED = "macro_game_detection_enabled";
+    public static final String KEY_PAUSE_VERIFY_ENABLED = "macro_pause_verify_enabled";
+    public static final String KEY_AUTO_CALIBRATE_ENABLED = "macro_auto_calibrate_enabled";
+    // 命名宏预设（见 MacroPreset 的编码）与浮窗长按回放的预设名。
+    public static final String KEY_MACRO_PRESETS = "macro_presets";
+    public static final String KEY_FLOATING_PRESET = "macro_floating_preset";
+    // 自定义按键绑定（见 KeyBindingEngine.Binding 的编码），叠加在默认的音量键绑定之上。
+    public static final String KEY_KEY_BINDINGS = "macro_key_bindings";
+    // 以下存放在 STATS_PREFS_NAME 中。调优结果只对采集它的设备有效；备份恢复到其他设备时按指纹丢弃。
+    public static final String KEY_AUTOTUNE_DEVICE = "macro_autotune_device";
+    public static final String KEY_AUTOTUNE_STARTUP_MS = "macro_autotune_startup_ms";
+    public static final String KEY_AUTOTUNE_STARTUP_BAD_MS = "macro_autotune_startup_bad_ms";
+    public static final String KEY_AUTOTUNE_HOLD_MS = "macro_autotune_hold_ms";
+    public static final String KEY_AUTOTUNE_HOLD_BAD_MS = "macro_autotune_hold_bad_ms";
+    // 手势回调延迟统计（见 GestureFallbackEstimator 的编码），同样只对采集它的设备有效。
+    public static final String KEY_FALLBACK_LATENCY_DEVICE = "macro_fallback_latency_device";
+    public static final String KEY_FALLBACK_LATENCY = "macro_fallback_latency";
 
     public static final long DEFAULT_STARTUP_DELAY_MS = 30L;
     public static final long DEFAULT_STEP_DELAY_MS = 0L;
@@ -25,6 +65,18 @@ public final class MacroConfig {
     public static final boolean DEFAULT_CLICK_CAPTURE_ENABLED = true;
     public static final long DEFAULT_STEP_MACRO_DELAY_MS = 50L;
     public static final boolean DEFAULT_STEP_MACRO_ENABLED = true;
+    public static final int DEFAULT_DRAG_BATCH_SIZE = 1;
+    public static final boolean DEFAULT_DRAG_PATH_ENABLED = false;
+    public static final boolean DEFAULT_DRAG_PATH_COMPRESS_ENABLED = true;
+    public static final int DEFAULT_STEP_REPEAT_COUNT = 1;
+    public static final long DEFAULT_STEP_REPEAT_INTERVAL_MS = 30L;
+    public static final boolean DEFAULT_STEP_HOLD_REPEAT_ENABLED = false;
+    public static final boolean DEFAULT_FUSED_GESTURE_ENABLED = false;
+    public static final boolean DEFAULT_VSYNC_ALIGNED_ENABLED = false;
+    public static final boolean DEFAULT_AUTOTUNE_ENABLED = false;
+    public static final boolean DEFAULT_GAME_DETECTION_ENABLED = true;
+    public static final boolean DEFAULT_PAUSE_VERIFY_ENABLED = false;
+    public static final boolean DEFAULT_AUTO_CALIBRATE_ENABLED = true;
 
     public static final long MIN_STARTUP_DELAY_MS = 0L;
     public static final long MAX_STARTUP_DELAY_MS = 5000L;
@@ -41,80 +93,475 @@ public final class MacroConfig {
     public static final long MIN_STEP_MACRO_DELAY_MS = 0L;
     public static final long MAX_STEP_MACRO_DELAY_MS = 5000L;
 
+    public static final int MIN_DRAG_BATCH_SIZE = 1;
+    public static final int MAX_DRAG_BATCH_SIZE = 5;
+
+    public static final int MIN_STEP_REPEAT_COUNT = 1;
+    public static final int MAX_STEP_REPEAT_COUNT = 100;
+
+    public static final long MIN_STEP_REPEAT_INTERVAL_MS = 0L;
+    public static final long MAX_STEP_REPEAT_INTERVAL_MS = 5000L;
+
+    /**
+     * 配置快照变化通知，在写入配置的线程（通常是主线程）回调。
+     */
+    public interface SnapshotListener {
+        void onConfigChanged(Snapshot previous, Snapshot current);
+    }
+
+    private static volatile Snapshot snapshot;
+    // SharedPreferences 只弱引用监听器，这里持有强引用。
+    private static SharedPreferences.OnSharedPreferenceChangeListener prefsListener;
+    // commit() 提交期间为 true（主线程访问），屏蔽逐键通知。
+    private static boolean committing;
+    private static final CopyOnWriteArrayList<SnapshotListener> snapshotListeners = new CopyOnWriteArrayList<>();
+
     public static SharedPreferences prefs(Context context) {
         return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
     }
 
-    public static MacroDelays load(Context context) {
-        SharedPreferences sp = prefs(context);
+    static SharedPreferences statsPrefs(Context context) {
+        return context.getSharedPreferences(STATS_PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * 当前配置的不可变快照：首次调用时读取一次 SharedPreferences，之后任何写入（设置保存、校准）
+     * 都会整体替换为新快照。按键/宏启动路径只读这个引用，不再查询 SharedPreferences。
+     * 这是读取设置的唯一入口。
+     */
+    public static Snapshot snapshot(Context context) {
+        Snapshot current = snapshot;
+        if (current != null) return current;
+        synchronized (MacroConfig.class) {
+            if (snapshot == null) {
+                Context app = context.getApplicationContext();
+                SharedPreferences sp = prefs(app);
+                migrateStats(sp, statsPrefs(app));
+                prefsListener = (prefs, key) -> {
+                    if (!committing) reloadSnapshot(prefs);
+                };
+                sp.registerOnSharedPreferenceChangeListener(prefsListener);
+                snapshot = readSnapshot(sp);
+            }
+            return snapshot;
+        }
+    }
+
+    public static void addSnapshotListener(SnapshotListener listener) {
+        if (listener != null) snapshotListeners.addIfAbsent(listener);
+    }
+
+    public static void removeSnapshotListener(SnapshotListener listener) {
+        snapshotListeners.remove(listener);
+    }
+
+    /**
+     * 旧版把调优结果与回调延迟统计存在设置文件里；首次读取快照时搬到统计文件。
+     */
+    private static void migrateStats(SharedPreferences sp, SharedPreferences stats) {
+        if (!sp.contains(KEY_AUTOTUNE_DEVICE) && !sp.contains(KEY_FALLBACK_LATENCY_DEVICE)) return;
+        SharedPreferences.Editor to = stats.edit();
+        SharedPreferences.Editor from = sp.edit();
+        for (String key : new String[]{KEY_AUTOTUNE_DEVICE, KEY_FALLBACK_LATENCY_DEVICE, KEY_FALLBACK_LATENCY}) {
+            if (sp.contains(key)) to.putString(key, sp.getString(key, null));
+            from.remove(key);
+        }
+        for (String key : new String[]{KEY_AUTOTUNE_STARTUP_MS, KEY_AUTOTUNE_STARTUP_BAD_MS,
+                KEY_AUTOTUNE_HOLD_MS, KEY_AUTOTUNE_HOLD_BAD_MS}) {
+            if (sp.contains(key)) to.putLong(key, sp.getLong(key, -1L));
+            from.remove(key);
+        }
+        to.apply();
+        from.apply();
+    }
+
+    private static void reloadSnapshot(SharedPreferences sp) {
+        Snapshot previous;
+        Snapshot current = readSnapshot(sp);
+        synchronized (MacroConfig.class) {
+            previous = snapshot;
+            snapshot = current;
+        }
+        for (SnapshotListener listener : snapshotListeners) {
+            listener.onConfigChanged(previous, current);
+        }
+    }
+
+    private static Snapshot readSnapshot(SharedPreferences sp) {
         long startup = clamp(sp.getLong(KEY_STARTUP_DELAY_MS, DEFAULT_STARTUP_DELAY_MS), MIN_STARTUP_DELAY_MS, MAX_STARTUP_DELAY_MS);
         long step = clamp(sp.getLong(KEY_STEP_DELAY_MS, DEFAULT_STEP_DELAY_MS), MIN_STEP_DELAY_MS, MAX_STEP_DELAY_MS);
         long drag = clamp(sp.getLong(KEY_DRAG_DURATION_MS, DEFAULT_DRAG_DURATION_MS), MIN_DRAG_DURATION_MS, MAX_DRAG_DURATION_MS);
         long hold = clamp(sp.getLong(KEY_HOLD_DELAY_MS, DEFAULT_HOLD_DELAY_MS), MIN_HOLD_DELAY_MS, MAX_HOLD_DELAY_MS);
-        return new MacroDelays(startup, step, drag, hold);
+        return new Snapshot(
+                new MacroDelays(startup, step, drag, hold),
+                sp.getBoolean(KEY_CLICK_CAPTURE_ENABLED, DEFAULT_CLICK_CAPTURE_ENABLED),
+                (int) clamp(sp.getInt(KEY_DRAG_BATCH_SIZE, DEFAULT_DRAG_BATCH_SIZE), MIN_DRAG_BATCH_SIZE, MAX_DRAG_BATCH_SIZE),
+                sp.getBoolean(KEY_DRAG_PATH_ENABLED, DEFAULT_DRAG_PATH_ENABLED),
+                sp.getBoolean(KEY_DRAG_PATH_COMPRESS_ENABLED, DEFAULT_DRAG_PATH_COMPRESS_ENABLED),
+                sp.getBoolean(KEY_STEP_MACRO_ENABLED, DEFAULT_STEP_MACRO_ENABLED),
+                clamp(sp.getLong(KEY_STEP_MACRO_DELAY_MS, DEFAULT_STEP_MACRO_DELAY_MS), MIN_STEP_MACRO_DELAY_MS, MAX_STEP_MACRO_DELAY_MS),
+                (int) clamp(sp.getInt(KEY_STEP_REPEAT_COUNT, DEFAULT_STEP_REPEAT_COUNT), MIN_STEP_REPEAT_COUNT, MAX_STEP_REPEAT_COUNT),
+                clamp(sp.getLong(KEY_STEP_REPEAT_INTERVAL_MS, DEFAULT_STEP_REPEAT_INTERVAL_MS), MIN_STEP_REPEAT_INTERVAL_MS, MAX_STEP_REPEAT_INTERVAL_MS),
+                sp.getBoolean(KEY_STEP_HOLD_REPEAT_ENABLED, DEFAULT_STEP_HOLD_REPEAT_ENABLED),
+                sp.getBoolean(KEY_FUSED_GESTURE_ENABLED, DEFAULT_FUSED_GESTURE_ENABLED),
+                sp.getBoolean(KEY_VSYNC_ALIGNED_ENABLED, DEFAULT_VSYNC_ALIGNED_ENABLED),
+                sp.getBoolean(KEY_AUTOTUNE_ENABLED, DEFAULT_AUTOTUNE_ENABLED),
+                sp.getBoolean(KEY_GAME_DETECTION_ENABLED, DEFAULT_GAME_DETECTION_ENABLED),
+                sp.getBoolean(KEY_PAUSE_VERIFY_ENABLED, DEFAULT_PAUSE_VERIFY_ENABLED),
+                sp.getBoolean(KEY_AUTO_CALIBRATE_ENABLED, DEFAULT_AUTO_CALIBRATE_ENABLED),
+                MacroPreset.decodeAll(sp.getString(KEY_MACRO_PRESETS, null)),
+                sp.getString(KEY_FLOATING_PRESET, null),
+                KeyBindingEngine.decodeAll(sp.getString(KEY_KEY_BINDINGS, null)),
+                CalibrationProfiles.decode(sp.getString(KEY_BUTTON_CENTER_PROFILES, null)),
+                sp.getBoolean(KEY_BUTTON_CENTER_CUSTOMIZED, false),
+                sp.getFloat(KEY_BUTTON_CENTER_X, -1f),
+                sp.getFloat(KEY_BUTTON_CENTER_Y, -1f)
+        );
     }
 
-    public static void save(Context context, MacroDelays delays) {
-        if (context == null || delays == null) return;
-        prefs(context).edit()
-                .putLong(KEY_STARTUP_DELAY_MS, clamp(delays.startupDelayMs, MIN_STARTUP_DELAY_MS, MAX_STARTUP_DELAY_MS))
-                .putLong(KEY_STEP_DELAY_MS, clamp(delays.stepDelayMs, MIN_STEP_DELAY_MS, MAX_STEP_DELAY_MS))
-                .putLong(KEY_DRAG_DURATION_MS, clamp(delays.dragDurationMs, MIN_DRAG_DURATION_MS, MAX_DRAG_DURATION_MS))
-                .putLong(KEY_HOLD_DELAY_MS, clamp(delays.holdDelayMs, MIN_HOLD_DELAY_MS, MAX_HOLD_DELAY_MS))
-                .apply();
+    /**
+     * 批量写入设置：所有改动放进同一个 SharedPreferences.Editor，{@link Editor#apply()} 时只提交一次、
+     * 只重建一次快照。设置界面的保存与恢复初始设定都走这里。
+     */
+    public static Editor edit(Context context) {
+        return new Editor(context);
     }
 
     public static void resetToDefaults(Context context) {
-        save(context, new MacroDelays(DEFAULT_STARTUP_DELAY_MS, DEFAULT_STEP_DELAY_MS, DEFAULT_DRAG_DURATION_MS, DEFAULT_HOLD_DELAY_MS));
-        setClickCaptureEnabled(context, DEFAULT_CLICK_CAPTURE_ENABLED);
-        setStepMacroDelayMs(context, DEFAULT_STEP_MACRO_DELAY_MS);
-        setStepMacroEnabled(context, DEFAULT_STEP_MACRO_ENABLED);
+        if (context == null) return;
+        // 先清调优结果再提交设置：快照监听器看到自动调优关闭时丢弃内存中的调优器，之后不会再写回旧值。
+        clearAutotune(context);
+        edit(context)
+                .setDelays(new MacroDelays(DEFAULT_STARTUP_DELAY_MS, DEFAULT_STEP_DELAY_MS, DEFAULT_DRAG_DURATION_MS, DEFAULT_HOLD_DELAY_MS))
+                .setClickCaptureEnabled(DEFAULT_CLICK_CAPTURE_ENABLED)
+                .setDragBatchSize(DEFAULT_DRAG_BATCH_SIZE)
+                .setDragPathEnabled(DEFAULT_DRAG_PATH_ENABLED)
+                .setDragPathCompressEnabled(DEFAULT_DRAG_PATH_COMPRESS_ENABLED)
+                .setStepMacroDelayMs(DEFAULT_STEP_MACRO_DELAY_MS)
+                .setStepMacroEnabled(DEFAULT_STEP_MACRO_ENABLED)
+                .setStepRepeatCount(DEFAULT_STEP_REPEAT_COUNT)
+                .setStepRepeatIntervalMs(DEFAULT_STEP_REPEAT_INTERVAL_MS)
+                .setStepHoldRepeatEnabled(DEFAULT_STEP_HOLD_REPEAT_ENABLED)
+                .setFusedGestureEnabled(DEFAULT_FUSED_GESTURE_ENABLED)
+                .setVsyncAlignedEnabled(DEFAULT_VSYNC_ALIGNED_ENABLED)
+                .setAutotuneEnabled(DEFAULT_AUTOTUNE_ENABLED)
+                .setGameDetectionEnabled(DEFAULT_GAME_DETECTION_ENABLED)
+                .setPauseVerifyEnabled(DEFAULT_PAUSE_VERIFY_ENABLED)
+                .setAutoCalibrateEnabled(DEFAULT_AUTO_CALIBRATE_ENABLED)
+                .apply();
     }
 
-    public static boolean isClickCaptureEnabled(Context context) {
-        if (context == null) return DEFAULT_CLICK_CAPTURE_ENABLED;
-        return prefs(context).getBoolean(KEY_CLICK_CAPTURE_ENABLED, DEFAULT_CLICK_CAPTURE_ENABLED);
+    /**
+     * 提交一批写入。SharedPreferences 对每个改动的键各通知一次监听器（主线程上 apply 时同步回调），
+     * 提交期间屏蔽这些通知，提交后只重建一次快照。须在主线程调用。
+     */
+    private static void commit(Context context, SharedPreferences.Editor editor) {
+        committing = true;
+        try {
+            editor.apply();
+        } finally {
+            committing = false;
+        }
+        if (snapshot != null) reloadSnapshot(prefs(context));
     }
 
-    public static void setClickCaptureEnabled(Context context, boolean enabled) {
-        if (context == null) return;
-        prefs(context).edit()
-                .putBoolean(KEY_CLICK_CAPTURE_ENABLED, enabled)
+    /**
+     * 读取本机的调优状态；没有记录（或记录来自其他设备）时以当前设置值为起点。
+     */
+    static DelayAutotuner loadAutotuner(Context context, MacroDelays configured) {
+        SharedPreferences sp = statsPrefs(context);
+        boolean sameDevice = Build.FINGERPRINT.equals(sp.getString(KEY_AUTOTUNE_DEVICE, null));
+        long startup = sameDevice ? sp.getLong(KEY_AUTOTUNE_STARTUP_MS, configured.startupDelayMs) : configured.startupDelayMs;
+        long startupBad = sameDevice ? sp.getLong(KEY_AUTOTUNE_STARTUP_BAD_MS, -1L) : -1L;
+        long hold = sameDevice ? sp.getLong(KEY_AUTOTUNE_HOLD_MS, configured.holdDelayMs) : configured.holdDelayMs;
+        long holdBad = sameDevice ? sp.getLong(KEY_AUTOTUNE_HOLD_BAD_MS, -1L) : -1L;
+        return new DelayAutotuner(startup, startupBad, MIN_STARTUP_DELAY_MS, MAX_STARTUP_DELAY_MS,
+                hold, holdBad, MIN_HOLD_DELAY_MS, MAX_HOLD_DELAY_MS);
+    }
+
+    static void saveAutotuner(Context context, DelayAutotuner tuner) {
+        if (context == null || tuner == null) return;
+        statsPrefs(context).edit()
+                .putString(KEY_AUTOTUNE_DEVICE, Build.FINGERPRINT)
+                .putLong(KEY_AUTOTUNE_STARTUP_MS, tuner.startup.valueMs)
+                .putLong(KEY_AUTOTUNE_STARTUP_BAD_MS, tuner.startup.knownBadMs)
+                .putLong(KEY_AUTOTUNE_HOLD_MS, tuner.hold.valueMs)
+                .putLong(KEY_AUTOTUNE_HOLD_BAD_MS, tuner.hold.knownBadMs)
                 .apply();
     }
 
-    public static long getStepMacroDelayMs(Context context) {
-        if (context == null) return DEFAULT_STEP_MACRO_DELAY_MS;
-        return clamp(
-                prefs(context).getLong(KEY_STEP_MACRO_DELAY_MS, DEFAULT_STEP_MACRO_DELAY_MS),
-                MIN_STEP_MACRO_DELAY_MS,
-                MAX_STEP_MACRO_DELAY_MS
-        );
+    /**
+     * 读取本机的手势回调延迟统计；没有记录或记录来自其他设备时从零开始。
+     */
+    static GestureFallbackEstimator loadFallbackEstimator(Context context) {
+        SharedPreferences sp = statsPrefs(context);
+        boolean sameDevice = Build.FINGERPRINT.equals(sp.getString(KEY_FALLBACK_LATENCY_DEVICE, null));
+        return GestureFallbackEstimator.decode(sameDevice ? sp.getString(KEY_FALLBACK_LATENCY, null) : null);
+    }
+
+    static void saveFallbackEstimator(Context context, String encoded) {
+        if (context == null || encoded == null) return;
+        statsPrefs(context).edit()
+                .putString(KEY_FALLBACK_LATENCY_DEVICE, Build.FINGERPRINT)
+                .putString(KEY_FALLBACK_LATENCY, encoded)
+                .apply();
     }
 
-    public static void setStepMacroDelayMs(Context context, long delayMs) {
+    public static void clearAutotune(Context context) {
         if (context == null) return;
-        prefs(context).edit()
-                .putLong(KEY_STEP_MACRO_DELAY_MS, clamp(delayMs, MIN_STEP_MACRO_DELAY_MS, MAX_STEP_MACRO_DELAY_MS))
+        statsPrefs(context).edit()
+                .remove(KEY_AUTOTUNE_DEVICE)
+                .remove(KEY_AUTOTUNE_STARTUP_MS)
+                .remove(KEY_AUTOTUNE_STARTUP_BAD_MS)
+                .remove(KEY_AUTOTUNE_HOLD_MS)
+                .remove(KEY_AUTOTUNE_HOLD_BAD_MS)
                 .apply();
     }
 
-    public static boolean isStepMacroEnabled(Context context) {
-        if (context == null) return DEFAULT_STEP_MACRO_ENABLED;
-        return prefs(context).getBoolean(KEY_STEP_MACRO_ENABLED, DEFAULT_STEP_MACRO_ENABLED);
+    /**
+     * 保存某个显示配置下校准后的暂停按钮中心（相对屏幕宽高的归一化坐标），同时删除旧版的绝对坐标。
+     */
+    public static void setButtonCenterProfile(Context context, String profileKey, float nx, float ny) {
+        if (context == null || profileKey == null) return;
+        CalibrationProfiles profiles = snapshot(context).buttonCenterProfiles.with(profileKey, nx, ny);
+        commit(context, prefs(context).edit()
+                .putString(KEY_BUTTON_CENTER_PROFILES, profiles.encode())
+                .remove(KEY_BUTTON_CENTER_CUSTOMIZED)
+                .remove(KEY_BUTTON_CENTER_X)
+                .remove(KEY_BUTTON_CENTER_Y));
     }
 
-    public static void setStepMacroEnabled(Context context, boolean enabled) {
+    /**
+     * 保存预设；已有同名预设时替换（保留其按键绑定）。
+     */
+    static void savePreset(Context context, MacroPreset preset) {
+        if (context == null || preset == null || preset.name.isEmpty()) return;
+        List<MacroPreset> presets = new ArrayList<>(snapshot(context).presets);
+        MacroPreset existing = MacroPreset.find(presets, preset.name);
+        if (existing != null) {
+            presets.set(presets.indexOf(existing), preset.withKeyCode(existing.keyCode));
+        } else {
+            presets.add(preset);
+        }
+        writePresets(context, presets);
+    }
+
+    static void deletePreset(Context context, String name) {
         if (context == null) return;
-        prefs(context).edit()
-                .putBoolean(KEY_STEP_MACRO_ENABLED, enabled)
-                .apply();
+        List<MacroPreset> presets = new ArrayList<>(snapshot(context).presets);
+        if (!presets.remove(MacroPreset.find(presets, name))) return;
+        writePresets(context, presets);
+        if (name.equals(snapshot(context).floatingPresetName)) {
+            setFloatingPreset(context, null);
+        }
+    }
+
+    /**
+     * 绑定按键；keyCode 为 0 表示解绑。同一按键只保留最后绑定的预设。
+     */
+    static void setPresetKeyCode(Context context, String name, int keyCode) {
+        if (context == null) return;
+        List<MacroPreset> presets = new ArrayList<>(snapshot(context).presets);
+        for (int i = 0; i < presets.size(); i++) {
+            MacroPreset preset = presets.get(i);
+            if (preset.name.equals(name)) {
+                presets.set(i, preset.withKeyCode(keyCode));
+            } else if (keyCode != 0 && preset.keyCode == keyCode) {
+                presets.set(i, preset.withKeyCode(0));
+            }
+        }
+        writePresets(context, presets);
+    }
+
+    private static void writePresets(Context context, List<MacroPreset> presets) {
+        commit(context, prefs(context).edit()
+                .putString(KEY_MACRO_PRESETS, MacroPreset.encodeAll(presets)));
+    }
+
+    /**
+     * 浮窗长按回放的预设；name 为 null 时取消。
+     */
+    public static void setFloatingPreset(Context context, String name) {
+        if (context == null) return;
+        SharedPreferences.Editor editor = prefs(context).edit();
+        if (name == null) {
+            editor.remove(KEY_FLOATING_PRESET);
+        } else {
+            editor.putString(KEY_FLOATING_PRESET, name);
+        }
+        commit(context, editor);
+    }
+
+    /**
+     * 添加自定义按键绑定；同一触发方式（按键 + 模式）已有绑定时替换。
+     */
+    static void addKeyBinding(Context context, KeyBindingEngine.Binding binding) {
+        if (context == null || binding == null) return;
+        List<KeyBindingEngine.Binding> bindings = new ArrayList<>(snapshot(context).keyBindings);
+        for (int i = bindings.size() - 1; i >= 0; i--) {
+            if (bindings.get(i).sameTrigger(binding)) bindings.remove(i);
+        }
+        bindings.add(binding);
+        writeKeyBindings(context, bindings);
+    }
+
+    static void removeKeyBinding(Context context, int index) {
+        if (context == null) return;
+        List<KeyBindingEngine.Binding> bindings = new ArrayList<>(snapshot(context).keyBindings);
+        if (index < 0 || index >= bindings.size()) return;
+        bindings.remove(index);
+        writeKeyBindings(context, bindings);
+    }
+
+    private static void writeKeyBindings(Context context, List<KeyBindingEngine.Binding> bindings) {
+        commit(context, prefs(context).edit()
+                .putString(KEY_KEY_BINDINGS, KeyBindingEngine.encodeAll(bindings)));
+    }
+
+    /**
+     * 清除所有显示配置的校准坐标，回到按比例推算的默认位置；开启自动校准时下次进入游戏重新识别。
+     */
+    public static void clearButtonCenter(Context context) {
+        if (context == null) return;
+        commit(context, prefs(context).edit()
+                .remove(KEY_BUTTON_CENTER_PROFILES)
+                .remove(KEY_BUTTON_CENTER_CUSTOMIZED)
+                .remove(KEY_BUTTON_CENTER_X)
+                .remove(KEY_BUTTON_CENTER_Y));
     }
 
     public static long clamp(long value, long min, long max) {
         return Math.max(min, Math.min(max, value));
     }
 
+    /**
+     * 设置的批量写入，见 {@link #edit(Context)}。各项在写入时按范围裁剪。
+     */
+    public static final class Editor {
+        private final Context context;
+        private final SharedPreferences.Editor editor;
+
+        Editor(Context context) {
+            this.context = context;
+            this.editor = context == null ? null : prefs(context).edit();
+        }
+
+        public Editor setDelays(MacroDelays delays) {
+            if (editor == null || delays == null) return this;
+            editor.putLong(KEY_STARTUP_DELAY_MS, clamp(delays.startupDelayMs, MIN_STARTUP_DELAY_MS, MAX_STARTUP_DELAY_MS))
+                    .putLong(KEY_STEP_DELAY_MS, clamp(delays.stepDelayMs, MIN_STEP_DELAY_MS, MAX_STEP_DELAY_MS))
+                    .putLong(KEY_DRAG_DURATION_MS, clamp(delays.dragDurationMs, MIN_DRAG_DURATION_MS, MAX_DRAG_DURATION_MS))
+                    .putLong(KEY_HOLD_DELAY_MS, clamp(delays.holdDelayMs, MIN_HOLD_DELAY_MS, MAX_HOLD_DELAY_MS));
+            return this;
+        }
+
+        public Editor setClickCaptureEnabled(boolean enabled) {
+            return putBoolean(KEY_CLICK_CAPTURE_ENABLED, enabled);
+        }
+
+        /**
+         * 划火柴一轮录制几次拖动后统一执行；1 表示录一次执行一次。
+         */
+        public Editor setDragBatchSize(int size) {
+            if (editor != null) editor.putInt(KEY_DRAG_BATCH_SIZE, (int) clamp(size, MIN_DRAG_BATCH_SIZE, MAX_DRAG_BATCH_SIZE));
+            return this;
+        }
+
+        public Editor setStepMacroDelayMs(long delayMs) {
+            if (editor != null) editor.putLong(KEY_STEP_MACRO_DELAY_MS, clamp(delayMs, MIN_STEP_MACRO_DELAY_MS, MAX_STEP_MACRO_DELAY_MS));
+            return this;
+        }
+
+        public Editor setStepMacroEnabled(boolean enabled) {
+            return putBoolean(KEY_STEP_MACRO_ENABLED, enabled);
+        }
+
+        /**
+         * 每次按音量-连续步进的次数。
+         */
+        public Editor setStepRepeatCount(int count) {
+            if (editor != null) editor.putInt(KEY_STEP_REPEAT_COUNT, (int) clamp(count, MIN_STEP_REPEAT_COUNT, MAX_STEP_REPEAT_COUNT));
+            return this;
+        }
+
+        /**
+         * 连续步进时，上一轮第二次点暂停到下一轮第一次点暂停之间的间隔（游戏处于暂停，不计入游戏时间）。
+         */
+        public Editor setStepRepeatIntervalMs(long intervalMs) {
+            if (editor != null) editor.putLong(KEY_STEP_REPEAT_INTERVAL_MS, clamp(intervalMs, MIN_STEP_REPEAT_INTERVAL_MS, MAX_STEP_REPEAT_INTERVAL_MS));
+            return this;
+        }
+
+        /**
+         * 按住音量-时持续步进，松开后走完当前一轮停止。
+         */
+        public Editor setStepHoldRepeatEnabled(boolean enabled) {
+            return putBoolean(KEY_STEP_HOLD_REPEAT_ENABLED, enabled);
+        }
+
+        /**
+         * 是否录制完整拖动轨迹（化简为折线后回放），关闭时只取起点终点走直线。
+         */
+        public Editor setDragPathEnabled(boolean enabled) {
+            return putBoolean(KEY_DRAG_PATH_ENABLED, enabled);
+        }
+
+        /**
+         * 轨迹回放是否压缩到设置的拖动时长；关闭时按录制时的实际时长回放。
+         */
+        public Editor setDragPathCompressEnabled(boolean enabled) {
+            return putBoolean(KEY_DRAG_PATH_COMPRESS_ENABLED, enabled);
+        }
+
+        /**
+         * 放技能/步进是否把多次点击合并为一个多笔画手势一次派发。
+         */
+        public Editor setFusedGestureEnabled(boolean enabled) {
+            return putBoolean(KEY_FUSED_GESTURE_ENABLED, enabled);
+        }
+
+        /**
+         * 宏的启动延迟与步骤间等待是否按屏幕刷新率换算为 vsync 个数，由帧回调推进。
+         */
+        public Editor setVsyncAlignedEnabled(boolean enabled) {
+            return putBoolean(KEY_VSYNC_ALIGNED_ENABLED, enabled);
+        }
+
+        /**
+         * 是否自动调优启动延迟/悬停延迟（以设置值为起点）。
+         */
+        public Editor setAutotuneEnabled(boolean enabled) {
+            return putBoolean(KEY_AUTOTUNE_ENABLED, enabled);
+        }
+
+        /**
+         * 是否只在游戏位于前台时挂载 overlay、预热缓存并接管音量键；关闭时与总开关同步常驻。
+         */
+        public Editor setGameDetectionEnabled(boolean enabled) {
+            return putBoolean(KEY_GAME_DETECTION_ENABLED, enabled);
+        }
+
+        /**
+         * 宏结束后是否截图确认游戏停在暂停状态，没停住时补点一次暂停（Android 11+）。
+         */
+        public Editor setPauseVerifyEnabled(boolean enabled) {
+            return putBoolean(KEY_PAUSE_VERIFY_ENABLED, enabled);
+        }
+
+        public Editor setAutoCalibrateEnabled(boolean enabled) {
+            return putBoolean(KEY_AUTO_CALIBRATE_ENABLED, enabled);
+        }
+
+        private Editor putBoolean(String key, boolean value) {
+            if (editor != null) editor.putBoolean(key, value);
+            return this;
+        }
+
+        public void apply() {
+            if (editor != null) commit(context, editor);
+        }
+    }
+
     public static final class MacroDelays {
         public final long startupDelayMs;
         public final long stepDelayMs;
@@ -128,4 +575,80 @@ public final class MacroConfig {
             this.holdDelayMs = holdDelayMs;
         }
     }
+
+    public static final class Snapshot {
+        public final MacroDelays delays;
+        public final boolean clickCaptureEnabled;
+        public final int dragBatchSize;
+        public final boolean dragPathEnabled;
+        public final boolean dragPathCompressEnabled;
+        public final boolean stepMacroEnabled;
+        public final long stepMacroDelayMs;
+        public final int stepRepeatCount;
+        public final long stepRepeatIntervalMs;
+        public final boolean stepHoldRepeatEnabled;
+        public final boolean fusedGestureEnabled;
+        public final boolean vsyncAlignedEnabled;
+        public final boolean autotuneEnabled;
+        public final boolean gameDetectionEnabled;
+        public final boolean pauseVerifyEnabled;
+        public final boolean autoCalibrateEnabled;
+        // 不可修改的预设列表。
+        public final List<MacroPreset> presets;
+        public final String floatingPresetName;
+        // 不可修改的自定义按键绑定，按添加顺序。
+        public final List<KeyBindingEngine.Binding> keyBindings;
+        public final CalibrationProfiles buttonCenterProfiles;
+        // 旧版的单组校准坐标（未按屏幕尺寸裁剪）；未校准或已迁移时为 false / -1。
+        public final boolean buttonCenterCustomized;
+        public final float buttonCenterX;
+        public final float buttonCenterY;
+
+        Snapshot(MacroDelays delays, boolean clickCaptureEnabled, int dragBatchSize,
+                 boolean dragPathEnabled, boolean dragPathCompressEnabled,
+                 boolean stepMacroEnabled, long stepMacroDelayMs, int stepRepeatCount, long stepRepeatIntervalMs,
+                 boolean stepHoldRepeatEnabled, boolean fusedGestureEnabled, boolean vsyncAlignedEnabled,
+                 boolean autotuneEnabled, boolean gameDetectionEnabled,
+                 boolean pauseVerifyEnabled, boolean autoCalibrateEnabled,
+                 List<MacroPreset> presets, String floatingPresetName,
+                 List<KeyBindingEngine.Binding> keyBindings,
+                 CalibrationProfiles buttonCenterProfiles,
+                 boolean buttonCenterCustomized, float buttonCenterX, float buttonCenterY) {
+            this.delays = delays;
+            this.clickCaptureEnabled = clickCaptureEnabled;
+            this.dragBatchSize = dragBatchSize;
+            this.dragPathEnabled = dragPathEnabled;
+            this.dragPathCompressEnabled = dragPathCompressEnabled;
+            this.stepMacroEnabled = stepMacroEnabled;
+            this.stepMacroDelayMs = stepMacroDelayMs;
+            this.stepRepeatCount = stepRepeatCount;
+            this.stepRepeatIntervalMs = stepRepeatIntervalMs;
+            this.stepHoldRepeatEnabled = stepHoldRepeatEnabled;
+            this.fusedGestureEnabled = fusedGestureEnabled;
+            this.vsyncAlignedEnabled = vsyncAlignedEnabled;
+            this.autotuneEnabled = autotuneEnabled;
+            this.gameDetectionEnabled = gameDetectionEnabled;
+            this.pauseVerifyEnabled = pauseVerifyEnabled;
+            this.autoCalibrateEnabled = autoCalibrateEnabled;
+            this.presets = presets;
+            this.floatingPresetName = floatingPresetName;
+            this.keyBindings = keyBindings;
+            this.buttonCenterProfiles = buttonCenterProfiles;
+            this.buttonCenterCustomized = buttonCenterCustomized;
+            this.buttonCenterX = buttonCenterX;
+            this.buttonCenterY = buttonCenterY;
+        }
+
+        public MacroPreset floatingPreset() {
+            return MacroPreset.find(presets, floatingPresetName);
+        }
+
+        public boolean sameButtonCenter(Snapshot other) {
+            return other != null
+                    && buttonCenterProfiles.equals(other.buttonCenterProfiles)
+                    && buttonCenterCustomized == other.buttonCenterCustomized
+                    && buttonCenterX == other.buttonCenterX
+                    && buttonCenterY == other.buttonCenterY;
+        }
+    }
 }
@@ -0,0 +1,90 @@
+package com.miao3strikemod.matches;
+
+import java.util.Arrays;
+
+/**
+ * 宏引擎的截止时间表：当前宏所有按毫秒计的待触发计时（下一步等待、手势兜底、整体超时）
+ * 按槽位存放在定长数组里，调度器上只挂一个唤醒 Runnable，对准最早的截止时间；
+ * 唤醒后依次处理所有已到期的槽位，再对准下一个。
+ * <p>
+ * 设置槽位只写数组，仅当截止时间早于已挂出的唤醒时才重新挂；取消单个槽位不碰调度队列，
+ * 已挂出的唤醒到点后发现没有到期项，直接对准下一个。清空全部是一次数组填充加至多一次 removeCallbacks。
+ * 相比每个计时各自 post / remove，宏执行期间调度队列上的增删从每步两三次降到至多一次。
+ * 非线程安全：只在宏引擎的调度线程上使用。
+ */
+final class MacroDeadlines {
+
+    private static final long NONE = Long.MAX_VALUE;
+
+    private final MacroEngine.Scheduler scheduler;
+    private final Runnable[] targets;
+    private final long[] deadlines;
+    private final Runnable wakeup = this::onWakeup;
+    // 已挂出的唤醒对准的时间；NONE 表示没有挂出。
+    private long armedAtMs = NONE;
+
+    /**
+     * @param targets 每个槽位到期时执行的动作，槽位编号即数组下标。
+     */
+    MacroDeadlines(MacroEngine.Scheduler scheduler, Runnable... targets) {
+        this.scheduler = scheduler;
+        this.targets = targets.clone();
+        this.deadlines = new long[targets.length];
+        Arrays.fill(deadlines, NONE);
+    }
+
+    /**
+     * delayMs 后执行槽位动作；槽位已有计时时以新的为准。
+     */
+    void set(int slot, long delayMs) {
+        long due = scheduler.uptimeMillis() + Math.max(0L, delayMs);
+        deadlines[slot] = due;
+        armBefore(due);
+    }
+
+    void cancel(int slot) {
+        deadlines[slot] = NONE;
+    }
+
+    void clear() {
+        for (int i = 0; i < deadlines.length; i++) {
+            deadlines[i] = NONE;
+        }
+        if (armedAtMs != NONE) {
+            scheduler.removeCallbacks(wakeup);
+            armedAtMs = NONE;
+        }
+    }
+
+    private void armBefore(long due) {
+        if (due >= armedAtMs) return;
+        if (armedAtMs != NONE) {
+            scheduler.removeCallbacks(wakeup);
+        }
+        armedAtMs = due;
+        scheduler.postDelayed(wakeup, due - scheduler.uptimeMillis());
+    }
+
+    private void onWakeup() {
+        armedAtMs = NONE;
+        long now = scheduler.uptimeMillis();
+        // 每次只取最早的一个执行：动作可能设置或清空其他槽位（兜底推进到下一步、超时中止后清空全部）。
+        while (true) {
+            int slot = -1;
+            long earliest = NONE;
+            for (int i = 0; i < deadlines.length; i++) {
+                if (deadlines[i] < earliest) {
+                    earliest = deadlines[i];
+                    slot = i;
+                }
+            }
+            if (slot < 0) return;
+            if (earliest > now) {
+                armBefore(earliest);
+                return;
+            }
+            deadlines[slot] = NONE;
+            targets[slot].run();
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package com.miao3strikemod.matches;
+
+/**
+ * 宏执行引擎：按顺序执行 {@link MacroTimeline} 中的步骤，同一时间只运行一个宏。
+ * <p>
+ * 按毫秒计的等待、兜底与超时都放在同一张 {@link MacroDeadlines} 里，调度器上只挂一个唤醒，取消时一次清空；
+ * 按帧等待仍交给调度器的帧回调。
+ * 手势由 {@link Dispatcher} 在启动前预编译，这里只按下标派发。
+ * 非线程安全：所有方法都必须在同一个调度线程上调用。
+ */
+final class MacroEngine {
+
+    interface Scheduler {
+        /**
+         * postDelayed 使用的时钟（毫秒）。
+         */
+        long uptimeMillis();
+
+        void postDelayed(Runnable runnable, long delayMs);
+
+        /**
+         * 在之后第 frameCount 个帧回调中执行；removeCallbacks 同样能取消。
+         */
+        void postFrames(Runnable runnable, int frameCount);
+
+        void removeCallbacks(Runnable runnable);
+    }
+
+    interface Dispatcher {
+        /**
+         * 派发第 index 步的预编译手势，结果连同 token 通过 {@link #onGestureCompleted} / {@link #onGestureCancelled} 回报。
+         * 每次派发的 token 都不同；预编译的回调在循环中复用，回报时必须带上派发时的 token，而不是回调当前的状态。
+         */
+        boolean dispatchGesture(int index, int token);
+
+        boolean performGlobalAction(int action);
+
+        /**
+         * 一次执行开始；runId 每次执行都不同，与之后的 {@link #onRunEnded} 成对。
+         */
+        void onRunStarted(int runId);
+
+        /**
+         * 一次执行结束：完成、中止、被抢占或静默取消都恰好回调一次。
+         */
+        void onRunEnded(int runId);
+
+        /**
+         * 引擎不再等待这次派发的回调（兜底推进，或宏在等待中结束）；回调之后仍可能到达，届时会被忽略。
+         */
+        void onGestureAbandoned(int index, int token);
+    }
+
+    interface Listener {
+        void onMacroFinished(MacroTimeline timeline);
+
+        void onMacroAborted(MacroTimeline timeline, String reason);
+    }
+
+    private final Scheduler scheduler;
+    private final Listener listener;
+    // 可为 null：不记录耗时。
+    private final MacroTimingRecorder recorder;
+    // 可为 null：兜底使用时间线中的固定值。
+    private final GestureFallbackEstimator fallbackEstimator;
+
+    private static final int DEADLINE_STEP = 0;
+    private static final int DEADLINE_FALLBACK = 1;
+    private static final int DEADLINE_TIMEOUT = 2;
+
+    private final Runnable stepRunnable = this::runCurrentStep;
+    private final Runnable frameStepRunnable = () -> {
+        awaitingFrames = false;
+        runCurrentStep();
+    };
+    private final MacroDeadlines deadlines;
+
+    private MacroTimeline timeline;
+    private Dispatcher dispatcher;
+    private int runId;
+    private int stepIndex;
+    private boolean awaitingCallback;
+    // 每次派发递增，跨宏不重置；awaitedToken 为正在等待回调的那次派发。
+    private int nextToken;
+    private int awaitedToken;
+    private long dispatchedAtMs;
+    // 最近一次由兜底推进的手势派发；其回调之后到达时（宏可能已经结束，或已进入下一轮）按迟到记入统计。
+    private MacroStep fallbackStep;
+    private int fallbackToken;
+    private long fallbackDispatchedAtMs;
+    // 是否有挂在帧回调上的下一步；只有这时取消才需要从调度器移除。
+    private boolean awaitingFrames;
+    private int completedCycles;
+    // 本次执行的轮数上限；REPEAT_UNTIL_STOPPED 表示直到 stopRepeating。
+    private int repeatLimit;
+
+    MacroEngine(Scheduler scheduler, Listener listener) {
+        this(scheduler, listener, null);
+    }
+
+    MacroEngine(Scheduler scheduler, Listener listener, MacroTimingRecorder recorder) {
+        this(scheduler, listener, recorder, null);
+    }
+
+    MacroEngine(Scheduler scheduler, Listener listener, MacroTimingRecorder recorder,
+                GestureFallbackEstimator fallbackEstimator) {
+        this.scheduler = scheduler;
+        this.listener = listener;
+        this.recorder = recorder;
+        this.fallbackEstimator = fallbackEstimator;
+        this.deadlines = new MacroDeadlines(scheduler, stepRunnable, this::onFallback, this::onTimeout);
+    }
+
+    boolean isRunning() {
+        return timeline != null;
+    }
+
+    boolean isRunning(int type) {
+        MacroTimeline current = timeline;
+        return current != null && current.type == type;
+    }
+
+    void start(MacroTimeline newTimeline, Dispatcher newDispatcher) {
+        start(newTimeline, newDispatcher, recorder != null ? recorder.now() : 0L);
+    }
+
+    /**
+     * 开始执行；若已有宏在运行，先以 "preempted" 中止它。
+     *
+     * @param triggerNanos 触发时刻（按键/松手），与 recorder 使用同一时钟。
+     */
+    void start(MacroTimeline newTimeline, Dispatcher newDispatcher, long triggerNanos) {
+        if (timeline != null) {
+            abort("preempted");
+        }
+        timeline = newTimeline;
+        dispatcher = newDispatcher;
+        stepIndex = 0;
+        awaitingCallback = false;
+        completedCycles = 0;
+        repeatLimit = newTimeline.repeatCount;
+        runId++;
+        if (recorder != null) {
+            recorder.recordAt(triggerNanos, MacroTimingRecorder.EVENT_TRIGGER, runId, newTimeline.type, -1, null);
+        }
+        newDispatcher.onRunStarted(runId);
+        // 先排启动等待再排超时：唤醒先对准较早的启动时刻，超时不必再挂一次。
+        if (newTimeline.startupFrames > 0) {
+            postFrames(newTimeline.startupFrames);
+            deadlines.set(DEADLINE_TIMEOUT, newTimeline.timeoutMs);
+        } else if (newTimeline.startupDelayMs > 0) {
+            deadlines.set(DEADLINE_STEP, newTimeline.startupDelayMs);
+            deadlines.set(DEADLINE_TIMEOUT, newTimeline.timeoutMs);
+        } else {
+            deadlines.set(DEADLINE_TIMEOUT, newTimeline.timeoutMs);
+            runCurrentStep();
+        }
+    }
+
+    /**
+     * 静默取消当前宏（不回调 Listener），耗时记录中以 "cancelled" 结束本次执行。
+     */
+    boolean cancel() {
+        if (timeline == null) return false;
+        cancelCurrent("cancelled");
+        return true;
+    }
+
+    /**
+     * 仅当 expected 仍是当前宏时静默取消，用于跨线程取消时避免误伤之后启动的宏。
+     */
+    boolean cancel(MacroTimeline expected) {
+        return cancel(expected, "cancelled");
+    }
+
+    /**
+     * 同 {@link #cancel(MacroTimeline)}，reason 记为本次执行的中止原因（应为已有字符串）。
+     */
+    boolean cancel(MacroTimeline expected, String reason) {
+        if (timeline == null || timeline != expected) return false;
+        cancelCurrent(reason);
+        return true;
+    }
+
+    /**
+     * 静默取消同样记录中止，保证耗时记录里每次触发都有对应的结束事件。
+     */
+    private void cancelCurrent(String reason) {
+        record(MacroTimingRecorder.EVENT_ABORT, stepIndex, reason);
+        clear();
+    }
+
+    /**
+     * 让循环执行的宏在当前这一轮结束后正常完成；正处于两轮之间的等待时立即完成。
+     * 不会打断进行中的一轮，保证暂停/恢复总是成对执行。
+     */
+    void stopRepeating(MacroTimeline expected) {
+        if (timeline == null || timeline != expected) return;
+        if (isBetweenCycles()) {
+            finish();
+            return;
+        }
+        repeatLimit = completedCycles + 1;
+    }
+
+    private boolean isBetweenCycles() {
+        return completedCycles > 0 && stepIndex == 0 && !awaitingCallback;
+    }
+
+    void onGestureCompleted(Dispatcher source, int index, int token) {
+        if (!isCurrentGesture(source, index, token)) {
+            onLateCallback(token);
+            return;
+        }
+        MacroStep step = timeline.steps[index];
+        if (fallbackEstimator != null) {
+            fallbackEstimator.onCallback(step.kind, scheduler.uptimeMillis() - dispatchedAtMs - step.durationMs);
+        }
+        record(MacroTimingRecorder.EVENT_COMPLETED, index, step.name);
+        awaitingCallback = false;
+        deadlines.cancel(DEADLINE_FALLBACK);
+        stepIndex++;
+        runCurrentStep();
+    }
+
+    void onGestureCancelled(Dispatcher source, int index, int token) {
+        if (!isCurrentGesture(source, index, token)) return;
+        record(MacroTimingRecorder.EVENT_CANCELLED, index, timeline.steps[index].name);
+        awaitingCallback = false;
+        abort(timeline.steps[index].cancelReason);
+    }
+
+    private void onLateCallback(int token) {
+        if (fallbackStep == null || token != fallbackToken) return;
+        fallbackEstimator.onLateCallback(fallbackStep.kind,
+                scheduler.uptimeMillis() - fallbackDispatchedAtMs - fallbackStep.durationMs);
+        fallbackStep = null;
+    }
+
+    /**
+     * 只认正在等待的那一次派发：同一步在下一轮复用同一个回调，上一轮迟到的回调 token 不同，不能推进本轮。
+     */
+    private boolean isCurrentGesture(Dispatcher source, int index, int token) {
+        return timeline != null && awaitingCallback && token == awaitedToken
+                && source == dispatcher && index == stepIndex;
+    }
+
+    private void onFallback() {
+        if (timeline == null || !awaitingCallback) return;
+        MacroStep step = timeline.steps[stepIndex];
+        record(MacroTimingRecorder.EVENT_FALLBACK, stepIndex, step.name);
+        if (fallbackEstimator != null) {
+            fallbackEstimator.onFallback(step.kind);
+            fallbackStep = step;
+            fallbackToken = awaitedToken;
+            fallbackDispatchedAtMs = dispatchedAtMs;
+        }
+        awaitingCallback = false;
+        dispatcher.onGestureAbandoned(stepIndex, awaitedToken);
+        stepIndex++;
+        runCurrentStep();
+    }
+
+    /**
+     * 正在等待某步回调时以该步的超时原因中止，否则（卡在等待或帧回调上）为 "timeout"。
+     */
+    private void onTimeout() {
+        if (timeline == null) return;
+        abort(awaitingCallback ? timeline.steps[stepIndex].timeoutReason : "timeout");
+    }
+
+    private void runCurrentStep() {
+        while (timeline != null) {
+            MacroStep[] steps = timeline.steps;
+            if (stepIndex >= steps.length) {
+                completedCycles++;
+                if (repeatLimit != MacroTimeline.REPEAT_UNTIL_STOPPED && completedCycles >= repeatLimit) {
+                    finish();
+                    return;
+                }
+                stepIndex = 0;
+                if (timeline.repeatIntervalFrames > 0) {
+                    postFrames(timeline.repeatIntervalFrames);
+                    deadlines.set(DEADLINE_TIMEOUT, timeline.timeoutMs);
+                    return;
+                }
+                if (timeline.repeatIntervalMs > 0) {
+                    deadlines.set(DEADLINE_STEP, timeline.repeatIntervalMs);
+                    deadlines.set(DEADLINE_TIMEOUT, timeline.timeoutMs);
+                    return;
+                }
+                deadlines.set(DEADLINE_TIMEOUT, timeline.timeoutMs);
+                continue;
+            }
+            MacroStep step = steps[stepIndex];
+            if (step.kind == MacroStep.KIND_WAIT) {
+                stepIndex++;
+                deadlines.set(DEADLINE_STEP, step.durationMs);
+                return;
+            }
+            if (step.kind == MacroStep.KIND_WAIT_FRAMES) {
+                stepIndex++;
+                postFrames(step.frameCount);
+                return;
+            }
+            if (step.kind == MacroStep.KIND_GLOBAL_ACTION) {
+                record(MacroTimingRecorder.EVENT_GLOBAL_ACTION, stepIndex, step.name);
+                dispatcher.performGlobalAction(step.globalAction);
+                stepIndex++;
+                continue;
+            }
+            Dispatcher current = dispatcher;
+            int index = stepIndex;
+            int token = ++nextToken;
+            awaitingCallback = true;
+            awaitedToken = token;
+            record(MacroTimingRecorder.EVENT_DISPATCH, index, step.name);
+            if (fallbackEstimator != null) {
+                dispatchedAtMs = scheduler.uptimeMillis();
+            }
+            if (!current.dispatchGesture(index, token)) {
+                awaitingCallback = false;
+                abort(step.dispatchFailedReason);
+                return;
+            }
+            // 回调可能已同步到达（例如测试替身），此时无需再挂兜底。
+            if (awaitingCallback && awaitedToken == token && step.fallbackMs >= 0) {
+                deadlines.set(DEADLINE_FALLBACK, fallbackDelayMs(step));
+            }
+            return;
+        }
+    }
+
+    /**
+     * 有统计时兜底等待为手势时长加本机的自适应余量，否则用时间线中的固定值。
+     */
+    private long fallbackDelayMs(MacroStep step) {
+        if (fallbackEstimator == null) return step.fallbackMs;
+        return step.durationMs + fallbackEstimator.marginMs(step.kind, step.fallbackMs - step.durationMs);
+    }
+
+    private void postFrames(int frameCount) {
+        awaitingFrames = true;
+        scheduler.postFrames(frameStepRunnable, frameCount);
+    }
+
+    private void finish() {
+        MacroTimeline finished = timeline;
+        record(MacroTimingRecorder.EVENT_FINISH, stepIndex, null);
+        clear();
+        listener.onMacroFinished(finished);
+    }
+
+    private void abort(String reason) {
+        MacroTimeline aborted = timeline;
+        if (aborted == null) return;
+        record(MacroTimingRecorder.EVENT_ABORT, stepIndex, reason);
+        clear();
+        listener.onMacroAborted(aborted, reason);
+    }
+
+    private void record(int event, int index, String detail) {
+        if (recorder != null) {
+            recorder.record(event, runId, timeline.type, index, detail);
+        }
+    }
+
+    private void clear() {
+        deadlines.clear();
+        if (awaitingFrames) {
+            scheduler.removeCallbacks(frameStepRunnable);
+            awaitingFrames = false;
+        }
+        if (awaitingCallback) {
+            dispatcher.onGestureAbandoned(stepIndex, awaitedToken);
+        }
+        dispatcher.onRunEnded(runId);
+        timeline = null;
+        dispatcher = null;
+        stepIndex = 0;
+        awaitingCallback = false;
+        completedCycles = 0;
+    }
+}
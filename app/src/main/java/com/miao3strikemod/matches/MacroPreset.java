@@ -0,0 +1,269 @@
+package com.miao3strikemod.matches;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 命名宏预设：保存一次录制好的划火柴（一批拖动，可含轨迹）或放技能点击，之后由绑定按键或浮窗长按直接回放，
+ * 不再经过 overlay 录制。
+ * <p>
+ * 坐标按屏幕宽高归一化保存，换分辨率后仍落在同一相对位置；暂停按钮坐标不存，回放时用当前校准值。
+ * 持久化为每个预设一行的紧凑文本：{@code 名称\t类型\t按键\t段\t段…}，坐标为万分比整数，
+ * 拖动段为 {@code sx,sy,ex,ey,回放时长[,px,py…]}，点击段为 {@code x,y}。不可变，可放进配置快照跨线程共享。
+ */
+final class MacroPreset {
+
+    static final int MAX_NAME_LENGTH = 32;
+    // 归一化坐标的定点精度：1/10000 屏幕宽高，2400px 屏上误差小于 0.25px。
+    private static final int SCALE = 10000;
+
+    private static final char LINE_SEPARATOR = '\n';
+    private static final char FIELD_SEPARATOR = '\t';
+    private static final char VALUE_SEPARATOR = ',';
+
+    final String name;
+    // MacroTimeline.TYPE_DRAG 或 TYPE_CLICK。
+    final int type;
+    // 绑定的按键（KeyEvent.KEYCODE_*），0 表示未绑定。
+    final int keyCode;
+    // 拖动：每 4 个数为一组（起点 x、y，终点 x、y）；点击：一个点（x、y）。均为 [0, 1] 的归一化坐标。
+    private final float[] points;
+    // 仅拖动：第 i 次拖动的归一化折线，可为 null。
+    private final float[][] paths;
+    // 仅拖动：大于 0 时按录制时长回放。
+    private final long[] pathDurationsMs;
+
+    private MacroPreset(String name, int type, int keyCode, float[] points, float[][] paths, long[] pathDurationsMs) {
+        this.name = name;
+        this.type = type;
+        this.keyCode = keyCode;
+        this.points = points;
+        this.paths = paths;
+        this.pathDurationsMs = pathDurationsMs;
+    }
+
+    /**
+     * 由一批录制好的拖动创建（像素坐标），数组会被复制。
+     */
+    static MacroPreset drags(float[] drags, float[][] paths, long[] pathDurationsMs, int count, int width, int height) {
+        float[] points = new float[count * 4];
+        float[][] normalizedPaths = new float[count][];
+        long[] durations = new long[count];
+        for (int i = 0; i < count * 4; i += 2) {
+            points[i] = normalize(drags[i], width);
+            points[i + 1] = normalize(drags[i + 1], height);
+        }
+        for (int i = 0; i < count; i++) {
+            float[] path = paths != null ? paths[i] : null;
+            if (path != null) {
+                float[] normalized = new float[path.length];
+                for (int j = 0; j + 1 < path.length; j += 2) {
+                    normalized[j] = normalize(path[j], width);
+                    normalized[j + 1] = normalize(path[j + 1], height);
+                }
+                normalizedPaths[i] = normalized;
+            }
+            durations[i] = pathDurationsMs != null ? Math.max(0L, pathDurationsMs[i]) : 0L;
+        }
+        return new MacroPreset("", MacroTimeline.TYPE_DRAG, 0, points, normalizedPaths, durations);
+    }
+
+    /**
+     * 由一次录制好的点击创建（像素坐标）。
+     */
+    static MacroPreset click(float x, float y, int width, int height) {
+        return new MacroPreset("", MacroTimeline.TYPE_CLICK, 0,
+                new float[]{normalize(x, width), normalize(y, height)}, null, null);
+    }
+
+    private static float normalize(float value, int size) {
+        return size > 0 ? Math.max(0f, Math.min(1f, value / size)) : 0f;
+    }
+
+    static String sanitizeName(String name) {
+        if (name == null) return "";
+        String cleaned = name.replace(FIELD_SEPARATOR, ' ').replace(LINE_SEPARATOR, ' ').replace('\r', ' ').trim();
+        return cleaned.length() > MAX_NAME_LENGTH ? cleaned.substring(0, MAX_NAME_LENGTH) : cleaned;
+    }
+
+    MacroPreset withName(String newName) {
+        return new MacroPreset(sanitizeName(newName), type, keyCode, points, paths, pathDurationsMs);
+    }
+
+    MacroPreset withKeyCode(int newKeyCode) {
+        return new MacroPreset(name, type, Math.max(0, newKeyCode), points, paths, pathDurationsMs);
+    }
+
+    /**
+     * 拖动次数；点击预设为 1。
+     */
+    int count() {
+        return type == MacroTimeline.TYPE_DRAG ? points.length / 4 : 1;
+    }
+
+    /**
+     * 换算为当前屏幕的像素坐标，格式同构造时的 drags / 点击点。
+     */
+    float[] pointsPx(int width, int height) {
+        float[] out = new float[points.length];
+        for (int i = 0; i + 1 < points.length; i += 2) {
+            out[i] = points[i] * width;
+            out[i + 1] = points[i + 1] * height;
+        }
+        return out;
+    }
+
+    /**
+     * 仅拖动预设：各次拖动轨迹的像素折线；点击预设返回 null。
+     */
+    float[][] pathsPx(int width, int height) {
+        if (paths == null) return null;
+        float[][] out = new float[paths.length][];
+        for (int i = 0; i < paths.length; i++) {
+            float[] path = paths[i];
+            if (path == null) continue;
+            float[] px = new float[path.length];
+            for (int j = 0; j + 1 < path.length; j += 2) {
+                px[j] = path[j] * width;
+                px[j + 1] = path[j + 1] * height;
+            }
+            out[i] = px;
+        }
+        return out;
+    }
+
+    /**
+     * 调用方不得修改返回的数组；点击预设返回 null。
+     */
+    long[] pathDurationsMs() {
+        return pathDurationsMs;
+    }
+
+    String encode() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(name).append(FIELD_SEPARATOR).append(type).append(FIELD_SEPARATOR).append(keyCode);
+        if (type == MacroTimeline.TYPE_DRAG) {
+            for (int i = 0; i < count(); i++) {
+                sb.append(FIELD_SEPARATOR);
+                appendFixed(sb, points, i * 4, 4);
+                sb.append(VALUE_SEPARATOR).append(pathDurationsMs[i]);
+                float[] path = paths[i];
+                if (path != null) {
+                    sb.append(VALUE_SEPARATOR);
+                    appendFixed(sb, path, 0, path.length);
+                }
+            }
+        } else {
+            sb.append(FIELD_SEPARATOR);
+            appendFixed(sb, points, 0, 2);
+        }
+        return sb.toString();
+    }
+
+    private static void appendFixed(StringBuilder sb, float[] values, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (i > 0) sb.append(VALUE_SEPARATOR);
+            sb.append(Math.round(values[offset + i] * SCALE));
+        }
+    }
+
+    /**
+     * 解析一行；格式不对时返回 null。
+     */
+    static MacroPreset decode(String line) {
+        String[] fields = split(line, FIELD_SEPARATOR);
+        if (fields.length < 4 || fields[0].isEmpty()) return null;
+        try {
+            int type = Integer.parseInt(fields[1]);
+            int keyCode = Math.max(0, Integer.parseInt(fields[2]));
+            if (type == MacroTimeline.TYPE_CLICK) {
+                float[] point = parseFixed(split(fields[3], VALUE_SEPARATOR), 0, 2);
+                return point != null ? new MacroPreset(fields[0], type, keyCode, point, null, null) : null;
+            }
+            if (type != MacroTimeline.TYPE_DRAG) return null;
+            int count = fields.length - 3;
+            float[] points = new float[count * 4];
+            float[][] paths = new float[count][];
+            long[] durations = new long[count];
+            for (int i = 0; i < count; i++) {
+                String[] values = split(fields[3 + i], VALUE_SEPARATOR);
+                float[] endpoints = parseFixed(values, 0, 4);
+                if (endpoints == null || values.length < 5) return null;
+                System.arraycopy(endpoints, 0, points, i * 4, 4);
+                durations[i] = Math.max(0L, Long.parseLong(values[4]));
+                int pathLength = values.length - 5;
+                if (pathLength >= 4 && pathLength % 2 == 0) {
+                    paths[i] = parseFixed(values, 5, pathLength);
+                }
+            }
+            return new MacroPreset(fields[0], type, keyCode, points, paths, durations);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static float[] parseFixed(String[] values, int offset, int length) {
+        if (values.length < offset + length) return null;
+        float[] out = new float[length];
+        for (int i = 0; i < length; i++) {
+            out[i] = Math.max(0f, Math.min(1f, Integer.parseInt(values[offset + i]) / (float) SCALE));
+        }
+        return out;
+    }
+
+    static String encodeAll(List<MacroPreset> presets) {
+        StringBuilder sb = new StringBuilder();
+        for (MacroPreset preset : presets) {
+            if (sb.length() > 0) sb.append(LINE_SEPARATOR);
+            sb.append(preset.encode());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 解析全部预设；损坏的行跳过，同名的以后出现的为准。返回不可修改的列表。
+     */
+    static List<MacroPreset> decodeAll(String value) {
+        if (value == null || value.isEmpty()) return Collections.emptyList();
+        ArrayList<MacroPreset> presets = new ArrayList<>();
+        for (String line : split(value, LINE_SEPARATOR)) {
+            MacroPreset preset = decode(line);
+            if (preset != null) {
+                presets.remove(find(presets, preset.name));
+                presets.add(preset);
+            }
+        }
+        return Collections.unmodifiableList(presets);
+    }
+
+    static MacroPreset find(List<MacroPreset> presets, String name) {
+        if (name == null) return null;
+        for (MacroPreset preset : presets) {
+            if (preset.name.equals(name)) return preset;
+        }
+        return null;
+    }
+
+    /**
+     * 不使用正则的分割，保留空字段。
+     */
+    private static String[] split(String value, char separator) {
+        ArrayList<String> parts = new ArrayList<>();
+        int start = 0;
+        while (true) {
+            int end = value.indexOf(separator, start);
+            if (end < 0) {
+                parts.add(value.substring(start));
+                return parts.toArray(new String[0]);
+            }
+            parts.add(value.substring(start, end));
+            start = end + 1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + "(" + MacroTimeline.typeName(type) + " x" + count() + (keyCode != 0 ? ", key=" + keyCode : "") + ")";
+    }
+}
@@ -0,0 +1,131 @@
+package com.miao3strikemod.matches;
+
+/**
+ * 宏时间线中的一步：纯数据描述，不持有任何 Android 对象。
+ */
+final class MacroStep {
+
+    static final int KIND_TAP = 0;
+    // 普通拖动（结束时松手），用于不支持 continueStroke 的设备。
+    static final int KIND_DRAG = 1;
+    // 拖动到终点后不松手，后续由 KIND_CONTINUE 接续。
+    static final int KIND_DRAG_HOLD = 2;
+    // 接续上一条 KIND_DRAG_HOLD：在终点悬停 durationMs 后松手。
+    static final int KIND_CONTINUE = 3;
+    static final int KIND_GLOBAL_ACTION = 4;
+    static final int KIND_WAIT = 5;
+    // 多条笔画按 startTimeMs 错开，合并为一个手势一次派发。
+    static final int KIND_FUSED = 6;
+    // 按 vsync 计数的等待：在第 frameCount 个帧回调中继续下一步。
+    static final int KIND_WAIT_FRAMES = 7;
+
+    final int kind;
+    final String name;
+    final float startX;
+    final float startY;
+    final float endX;
+    final float endY;
+    final long durationMs;
+    // 仅对 KIND_FUSED 的子笔画有效：相对手势开始的偏移。
+    final long startTimeMs;
+    final int globalAction;
+    // 手势回调丢失时的兜底等待；< 0 表示不设兜底。
+    final long fallbackMs;
+    final MacroStep[] strokes;
+    final int frameCount;
+    // 仅对拖动有效：录制轨迹化简后的折线，每 2 个数为一个点，首尾即起点终点；null 表示直线。
+    final float[] path;
+
+    // 中止原因预先拼好，避免在宏执行过程中拼接字符串。
+    final String cancelReason;
+    // 等待该步回调时整体超时的中止原因，让调优能区分是哪一步卡住。
+    final String timeoutReason;
+    final String dispatchFailedReason;
+    // systrace 异步区间名（派发 → 回调）。
+    final String traceName;
+
+    private MacroStep(int kind, String name, float startX, float startY, float endX, float endY,
+                      long durationMs, int globalAction, long fallbackMs) {
+        this(kind, name, startX, startY, endX, endY, 0L, durationMs, globalAction, fallbackMs, null, 0, null);
+    }
+
+    private MacroStep(int kind, String name, float startX, float startY, float endX, float endY,
+                      long startTimeMs, long durationMs, int globalAction, long fallbackMs, MacroStep[] strokes,
+                      int frameCount, float[] path) {
+        this.kind = kind;
+        this.name = name;
+        this.startX = startX;
+        this.startY = startY;
+        this.endX = endX;
+        this.endY = endY;
+        this.startTimeMs = startTimeMs;
+        this.durationMs = durationMs;
+        this.globalAction = globalAction;
+        this.fallbackMs = fallbackMs;
+        this.strokes = strokes;
+        this.frameCount = frameCount;
+        this.path = path;
+        this.cancelReason = name + "_cancelled";
+        this.timeoutReason = name + "_timeout";
+        this.dispatchFailedReason = "gesture_dispatch_failed_" + name;
+        this.traceName = "macro.gesture:" + name;
+    }
+
+    static MacroStep tap(String name, float x, float y, long durationMs, long fallbackMs) {
+        return new MacroStep(KIND_TAP, name, x, y, x, y, durationMs, 0, fallbackMs);
+    }
+
+    /**
+     * 合并手势中的一次点击，startTimeMs 为相对整个手势开始的偏移。
+     */
+    static MacroStep tapAt(String name, float x, float y, long startTimeMs, long durationMs) {
+        return new MacroStep(KIND_TAP, name, x, y, x, y, startTimeMs, durationMs, 0, -1L, null, 0, null);
+    }
+
+    /**
+     * 把若干点击合并成一步；时长取最后一条笔画的结束时间。
+     */
+    static MacroStep fused(String name, MacroStep[] strokes, long fallbackMarginMs) {
+        long endMs = 0L;
+        for (MacroStep stroke : strokes) {
+            endMs = Math.max(endMs, stroke.startTimeMs + stroke.durationMs);
+        }
+        return new MacroStep(KIND_FUSED, name, 0f, 0f, 0f, 0f, 0L, endMs, 0, endMs + fallbackMarginMs, strokes, 0, null);
+    }
+
+    static MacroStep drag(String name, float startX, float startY, float endX, float endY,
+                          long durationMs, long fallbackMs, boolean hold) {
+        return new MacroStep(hold ? KIND_DRAG_HOLD : KIND_DRAG, name,
+                startX, startY, endX, endY, durationMs, 0, fallbackMs);
+    }
+
+    /**
+     * 沿折线拖动；path 至少两个点，起点终点取自首尾。
+     */
+    static MacroStep dragAlong(String name, float[] path, long durationMs, long fallbackMs, boolean hold) {
+        int n = path.length;
+        return new MacroStep(hold ? KIND_DRAG_HOLD : KIND_DRAG, name,
+                path[0], path[1], path[n - 2], path[n - 1], 0L, durationMs, 0, fallbackMs, null, 0, path);
+    }
+
+    static MacroStep continueAt(String name, float x, float y, long durationMs, long fallbackMs) {
+        return new MacroStep(KIND_CONTINUE, name, x, y, x, y, durationMs, 0, fallbackMs);
+    }
+
+    static MacroStep globalAction(String name, int action) {
+        return new MacroStep(KIND_GLOBAL_ACTION, name, 0f, 0f, 0f, 0f, 0L, action, -1L);
+    }
+
+    static MacroStep waitMs(long durationMs) {
+        return new MacroStep(KIND_WAIT, "wait", 0f, 0f, 0f, 0f, durationMs, 0, -1L);
+    }
+
+    static MacroStep waitFrames(int frameCount) {
+        return new MacroStep(KIND_WAIT_FRAMES, "wait_frames", 0f, 0f, 0f, 0f, 0L, 0L, 0, -1L, null, frameCount, null);
+    }
+
+    boolean isGesture() {
+        return kind == KIND_TAP || kind == KIND_DRAG || kind == KIND_DRAG_HOLD || kind == KIND_CONTINUE
+                || kind == KIND_FUSED;
+    }
+}
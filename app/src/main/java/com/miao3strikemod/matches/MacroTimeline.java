@@ -0,0 +1,344 @@
+package com.miao3strikemod.matches;
+
+import java.util.ArrayList;
+
+/**
+ * 声明式宏时间线：启动延迟 + 按顺序执行的步骤列表。
+ * 三种宏（划火柴 / 放技能 / 步进）都由这里的工厂方法描述，统一交给 {@link MacroEngine} 执行。
+ */
+final class MacroTimeline {
+
+    static final int TYPE_DRAG = 1;
+    static final int TYPE_CLICK = 2;
+    static final int TYPE_STEP = 3;
+    // 预设回放（见 MacroPreset）：步骤同划火柴 / 放技能，但不经过 overlay 录制。
+    static final int TYPE_PRESET = 4;
+
+    // 与 AccessibilityService.GLOBAL_ACTION_BACK 取值一致，时间线本身不依赖 Android 类。
+    static final int GLOBAL_ACTION_BACK = 1;
+
+    static final long TAP_DURATION_MS = 10L;
+    static final long MACRO_TIMEOUT_MS = 5000L;
+    // 等待 onCompleted 的兜底余量。
+    static final long CALLBACK_FALLBACK_MS = 200L;
+    static final long RELEASE_FALLBACK_MS = 500L;
+    // repeatCount 取此值表示一直循环，直到 MacroEngine.stopRepeating。
+    static final int REPEAT_UNTIL_STOPPED = 0;
+
+    // 合并手势中相邻两次点击至少间隔 1ms，避免前一指抬起与后一指按下落在同一时刻被当成多指。
+    static final long FUSED_STROKE_GAP_MS = 1L;
+
+    final int type;
+    final long startupDelayMs;
+    // > 0 时按 vsync 计数启动（此时 startupDelayMs 为 0），见 alignToVsync。
+    final int startupFrames;
+    // 超时按每一轮计算。
+    final long timeoutMs;
+    final MacroStep[] steps;
+    // 整条步骤列表执行的轮数；两轮之间等待 repeatIntervalMs（或 repeatIntervalFrames 个 vsync）。
+    final int repeatCount;
+    final long repeatIntervalMs;
+    final int repeatIntervalFrames;
+
+    static String typeName(int type) {
+        switch (type) {
+            case TYPE_DRAG:
+                return "drag";
+            case TYPE_CLICK:
+                return "click";
+            case TYPE_STEP:
+                return "step";
+            case TYPE_PRESET:
+                return "preset";
+            default:
+                return "unknown";
+        }
+    }
+
+    private MacroTimeline(int type, long startupDelayMs, int startupFrames, long timeoutMs, MacroStep[] steps,
+                          int repeatCount, long repeatIntervalMs, int repeatIntervalFrames) {
+        this.type = type;
+        this.startupDelayMs = startupDelayMs;
+        this.startupFrames = startupFrames;
+        this.timeoutMs = timeoutMs;
+        this.steps = steps;
+        this.repeatCount = repeatCount;
+        this.repeatIntervalMs = repeatIntervalMs;
+        this.repeatIntervalFrames = repeatIntervalFrames;
+    }
+
+    /**
+     * 同一组步骤连续执行 count 轮（{@link #REPEAT_UNTIL_STOPPED} 表示直到被叫停），
+     * 每轮复用同一批预编译手势，轮与轮之间不重建任何对象。
+     */
+    MacroTimeline repeat(int count, long intervalMs) {
+        return new MacroTimeline(type, startupDelayMs, startupFrames, timeoutMs, steps,
+                Math.max(REPEAT_UNTIL_STOPPED, count), Math.max(0L, intervalMs), 0);
+    }
+
+    /**
+     * 转换为按帧对齐的时间线：启动延迟与每段等待都换算成 vsync 个数（四舍五入，至少 1 帧），
+     * 由帧回调推进。第一步也在帧回调中派发，因此每次执行落在相同的帧数上，而不是随毫秒计时漂移。
+     */
+    MacroTimeline alignToVsync(float refreshRateHz) {
+        MacroStep[] aligned = new MacroStep[steps.length];
+        for (int i = 0; i < steps.length; i++) {
+            MacroStep step = steps[i];
+            aligned[i] = step.kind == MacroStep.KIND_WAIT
+                    ? MacroStep.waitFrames(toFrames(step.durationMs, refreshRateHz))
+                    : step;
+        }
+        int intervalFrames = repeatIntervalMs > 0 ? toFrames(repeatIntervalMs, refreshRateHz) : 0;
+        return new MacroTimeline(type, 0L, toFrames(startupDelayMs, refreshRateHz), timeoutMs, aligned,
+                repeatCount, 0L, intervalFrames);
+    }
+
+    /**
+     * 转换为预设回放：步骤不变，去掉启动延迟（它只用于等 overlay 让开触摸），类型改为 {@link #TYPE_PRESET}。
+     */
+    MacroTimeline asPreset() {
+        return new MacroTimeline(TYPE_PRESET, 0L, 0, timeoutMs, steps,
+                repeatCount, repeatIntervalMs, repeatIntervalFrames);
+    }
+
+    static int toFrames(long delayMs, float refreshRateHz) {
+        return Math.max(1, Math.round(delayMs * refreshRateHz / 1000f));
+    }
+
+    /**
+     * 按时间线估算一次执行的时长：启动延迟、各步时长与等待、轮间间隔之和，按帧的等待以 refreshRateHz 折算，
+     * 不含回调延迟；直到叫停的循环返回 Long.MAX_VALUE。
+     */
+    long nominalDurationMs(float refreshRateHz) {
+        if (repeatCount == REPEAT_UNTIL_STOPPED) return Long.MAX_VALUE;
+        long cycleMs = 0L;
+        for (MacroStep step : steps) {
+            cycleMs += step.kind == MacroStep.KIND_WAIT_FRAMES
+                    ? framesToMs(step.frameCount, refreshRateHz)
+                    : step.durationMs;
+        }
+        long intervalMs = repeatIntervalMs + framesToMs(repeatIntervalFrames, refreshRateHz);
+        return startupDelayMs + framesToMs(startupFrames, refreshRateHz)
+                + cycleMs * repeatCount + intervalMs * (repeatCount - 1);
+    }
+
+    private static long framesToMs(int frames, float refreshRateHz) {
+        return Math.round(frames * 1000f / refreshRateHz);
+    }
+
+    /**
+     * 划火柴：点暂停 → 拖出干员（终点不松手）→ 返回 → 终点悬停 → 松手。
+     */
+    static MacroTimeline dragHold(float buttonX, float buttonY,
+                                  float startX, float startY, float endX, float endY,
+                                  long startupDelayMs, long stepDelayMs, long dragDurationMs, long holdDelayMs) {
+        return dragHold(buttonX, buttonY, new float[]{startX, startY, endX, endY}, 1,
+                startupDelayMs, stepDelayMs, dragDurationMs, holdDelayMs);
+    }
+
+    /**
+     * 批量划火柴：只点一次暂停，依次部署 count 名干员，每名都各自“拖出不松手 → 悬停 → 松手”；
+     * 只在最后一名松手前返回，整批只有一次恢复和一次重新暂停。
+     *
+     * @param drags 每 4 个数为一组：起点 x、y，终点 x、y。
+     */
+    static MacroTimeline dragHold(float buttonX, float buttonY, float[] drags, int count,
+                                  long startupDelayMs, long stepDelayMs, long dragDurationMs, long holdDelayMs) {
+        return dragHold(buttonX, buttonY, drags, null, null, count,
+                startupDelayMs, stepDelayMs, dragDurationMs, holdDelayMs);
+    }
+
+    /**
+     * 批量划火柴，可按录制轨迹拖动。
+     *
+     * @param paths           可为 null；paths[i] 非 null 时第 i 次拖动沿该折线（见 {@link MacroStep#path}）。
+     * @param pathDurationsMs 可为 null；大于 0 的项覆盖第 i 次拖动的时长（按录制时长回放）。
+     */
+    static MacroTimeline dragHold(float buttonX, float buttonY, float[] drags, float[][] paths, long[] pathDurationsMs,
+                                  int count, long startupDelayMs, long stepDelayMs, long dragDurationMs, long holdDelayMs) {
+        long holdDurationMs = Math.max(1L, holdDelayMs);
+        Builder builder = new Builder(TYPE_DRAG)
+                .startupDelay(startupDelayMs)
+                .timeout(MACRO_TIMEOUT_MS * count + extraDragMs(pathDurationsMs, count, dragDurationMs))
+                .add(MacroStep.tap("tap", buttonX, buttonY, TAP_DURATION_MS, TAP_DURATION_MS + CALLBACK_FALLBACK_MS));
+        for (int i = 0; i < count; i++) {
+            long durationMs = dragDurationMs(pathDurationsMs, i, dragDurationMs);
+            MacroStep drag = dragStep("drag_hold", drags, paths, i,
+                    durationMs, durationMs + CALLBACK_FALLBACK_MS, true);
+            builder.waitMs(stepDelayMs).add(drag);
+            if (i == count - 1) {
+                builder.waitMs(stepDelayMs)
+                        .add(MacroStep.globalAction("back", GLOBAL_ACTION_BACK));
+            }
+            builder.add(MacroStep.continueAt("hold_release", drag.endX, drag.endY,
+                    holdDurationMs, holdDurationMs + RELEASE_FALLBACK_MS));
+        }
+        return builder.build();
+    }
+
+    /**
+     * 划火柴降级版（API 24/25 不保证支持继续笔画）：点暂停 → 普通拖动（会松手）→ 返回。
+     */
+    static MacroTimeline dragRelease(float buttonX, float buttonY,
+                                     float startX, float startY, float endX, float endY,
+                                     long startupDelayMs, long stepDelayMs, long dragDurationMs) {
+        return dragRelease(buttonX, buttonY, new float[]{startX, startY, endX, endY}, 1,
+                startupDelayMs, stepDelayMs, dragDurationMs);
+    }
+
+    /**
+     * 批量划火柴降级版：点暂停 → 依次普通拖动 count 次 → 返回。
+     */
+    static MacroTimeline dragRelease(float buttonX, float buttonY, float[] drags, int count,
+                                     long startupDelayMs, long stepDelayMs, long dragDurationMs) {
+        return dragRelease(buttonX, buttonY, drags, null, null, count, startupDelayMs, stepDelayMs, dragDurationMs);
+    }
+
+    /**
+     * 批量划火柴降级版，paths / pathDurationsMs 含义同 {@link #dragHold(float, float, float[], float[][], long[], int, long, long, long, long)}。
+     */
+    static MacroTimeline dragRelease(float buttonX, float buttonY, float[] drags, float[][] paths, long[] pathDurationsMs,
+                                     int count, long startupDelayMs, long stepDelayMs, long dragDurationMs) {
+        Builder builder = new Builder(TYPE_DRAG)
+                .startupDelay(startupDelayMs)
+                .timeout(MACRO_TIMEOUT_MS * count + extraDragMs(pathDurationsMs, count, dragDurationMs))
+                .add(MacroStep.tap("tap", buttonX, buttonY, TAP_DURATION_MS, TAP_DURATION_MS + CALLBACK_FALLBACK_MS));
+        for (int i = 0; i < count; i++) {
+            long durationMs = dragDurationMs(pathDurationsMs, i, dragDurationMs);
+            builder.waitMs(stepDelayMs)
+                    .add(dragStep("drag_fallback", drags, paths, i,
+                            durationMs, durationMs + RELEASE_FALLBACK_MS, false));
+        }
+        return builder.waitMs(stepDelayMs)
+                .add(MacroStep.globalAction("back", GLOBAL_ACTION_BACK))
+                .build();
+    }
+
+    private static MacroStep dragStep(String name, float[] drags, float[][] paths, int i,
+                                      long durationMs, long fallbackMs, boolean hold) {
+        float[] path = paths != null ? paths[i] : null;
+        if (path != null && path.length >= 4) {
+            return MacroStep.dragAlong(name, path, durationMs, fallbackMs, hold);
+        }
+        int o = i * 4;
+        return MacroStep.drag(name, drags[o], drags[o + 1], drags[o + 2], drags[o + 3],
+                durationMs, fallbackMs, hold);
+    }
+
+    private static long dragDurationMs(long[] pathDurationsMs, int i, long dragDurationMs) {
+        return pathDurationsMs != null && pathDurationsMs[i] > 0 ? pathDurationsMs[i] : dragDurationMs;
+    }
+
+    /**
+     * 按录制时长回放的拖动比设置的拖动时长更久，超时相应放宽。
+     */
+    private static long extraDragMs(long[] pathDurationsMs, int count, long dragDurationMs) {
+        if (pathDurationsMs == null) return 0L;
+        long extraMs = 0L;
+        for (int i = 0; i < count; i++) {
+            extraMs += Math.max(0L, pathDurationsMs[i] - dragDurationMs);
+        }
+        return extraMs;
+    }
+
+    /**
+     * 放技能：点暂停 → 点击干员 → 点暂停。
+     */
+    static MacroTimeline click(float buttonX, float buttonY, float clickX, float clickY,
+                               long startupDelayMs, long stepDelayMs) {
+        long fallbackMs = TAP_DURATION_MS + CALLBACK_FALLBACK_MS;
+        return new Builder(TYPE_CLICK)
+                .startupDelay(startupDelayMs)
+                .add(MacroStep.tap("tap1", buttonX, buttonY, TAP_DURATION_MS, fallbackMs))
+                .waitMs(stepDelayMs)
+                .add(MacroStep.tap("tap2", clickX, clickY, TAP_DURATION_MS, fallbackMs))
+                .waitMs(stepDelayMs)
+                .add(MacroStep.tap("tap3", buttonX, buttonY, TAP_DURATION_MS, fallbackMs))
+                .build();
+    }
+
+    /**
+     * 步进：点暂停 → 等待步进延迟 → 点暂停。
+     */
+    static MacroTimeline step(float buttonX, float buttonY, long stepMacroDelayMs) {
+        long fallbackMs = TAP_DURATION_MS + CALLBACK_FALLBACK_MS;
+        return new Builder(TYPE_STEP)
+                .add(MacroStep.tap("tap1", buttonX, buttonY, TAP_DURATION_MS, fallbackMs))
+                .waitMs(stepMacroDelayMs)
+                .add(MacroStep.tap("tap2", buttonX, buttonY, TAP_DURATION_MS, fallbackMs))
+                .build();
+    }
+
+    /**
+     * 放技能（合并派发）：三次点击按时间错开放进同一个手势，只需一次 dispatchGesture。
+     */
+    static MacroTimeline clickFused(float buttonX, float buttonY, float clickX, float clickY,
+                                    long startupDelayMs, long stepDelayMs) {
+        long gapMs = Math.max(FUSED_STROKE_GAP_MS, stepDelayMs);
+        long tap2At = TAP_DURATION_MS + gapMs;
+        long tap3At = tap2At + TAP_DURATION_MS + gapMs;
+        MacroStep[] taps = new MacroStep[]{
+                MacroStep.tapAt("tap1", buttonX, buttonY, 0L, TAP_DURATION_MS),
+                MacroStep.tapAt("tap2", clickX, clickY, tap2At, TAP_DURATION_MS),
+                MacroStep.tapAt("tap3", buttonX, buttonY, tap3At, TAP_DURATION_MS),
+        };
+        return new Builder(TYPE_CLICK)
+                .startupDelay(startupDelayMs)
+                .add(MacroStep.fused("fused_click", taps, CALLBACK_FALLBACK_MS))
+                .build();
+    }
+
+    /**
+     * 步进（合并派发）：两次点击之间的等待直接体现为第二条笔画的 startTime。
+     */
+    static MacroTimeline stepFused(float buttonX, float buttonY, long stepMacroDelayMs) {
+        long tap2At = TAP_DURATION_MS + Math.max(FUSED_STROKE_GAP_MS, stepMacroDelayMs);
+        MacroStep[] taps = new MacroStep[]{
+                MacroStep.tapAt("tap1", buttonX, buttonY, 0L, TAP_DURATION_MS),
+                MacroStep.tapAt("tap2", buttonX, buttonY, tap2At, TAP_DURATION_MS),
+        };
+        return new Builder(TYPE_STEP)
+                .add(MacroStep.fused("fused_step", taps, CALLBACK_FALLBACK_MS))
+                .build();
+    }
+
+    static final class Builder {
+        private final int type;
+        private long startupDelayMs = 0L;
+        private long timeoutMs = MACRO_TIMEOUT_MS;
+        private final ArrayList<MacroStep> steps = new ArrayList<>();
+
+        Builder(int type) {
+            this.type = type;
+        }
+
+        Builder startupDelay(long delayMs) {
+            this.startupDelayMs = Math.max(0L, delayMs);
+            return this;
+        }
+
+        Builder timeout(long timeoutMs) {
+            this.timeoutMs = timeoutMs;
+            return this;
+        }
+
+        Builder add(MacroStep step) {
+            steps.add(step);
+            return this;
+        }
+
+        /**
+         * 0ms 的等待直接省略，下一步在上一步回调中同步派发，避免多一次 Handler 跳转。
+         */
+        Builder waitMs(long delayMs) {
+            if (delayMs > 0) {
+                steps.add(MacroStep.waitMs(delayMs));
+            }
+            return this;
+        }
+
+        MacroTimeline build() {
+            return new MacroTimeline(type, startupDelayMs, 0, timeoutMs, steps.toArray(new MacroStep[0]), 1, 0L, 0);
+        }
+    }
+}
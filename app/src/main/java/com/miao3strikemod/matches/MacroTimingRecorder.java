@@ -0,0 +1,374 @@
+package com.miao3strikemod.matches;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 宏耗时记录：固定容量、预分配的环形缓冲区，记录每次宏执行各阶段的纳秒时间戳。
+ * <p>
+ * 写入只保存基本类型和已存在的字符串引用，不产生新对象；统计（p50/p95/p99）只在导出时计算。
+ */
+final class MacroTimingRecorder {
+
+    interface Clock {
+        long nanoTime();
+    }
+
+    static final int EVENT_TRIGGER = 0;
+    static final int EVENT_DISPATCH = 1;
+    static final int EVENT_COMPLETED = 2;
+    static final int EVENT_CANCELLED = 3;
+    static final int EVENT_FALLBACK = 4;
+    static final int EVENT_GLOBAL_ACTION = 5;
+    static final int EVENT_FINISH = 6;
+    static final int EVENT_ABORT = 7;
+
+    static final int DEFAULT_CAPACITY = 2048;
+
+    // Chrome trace 导出：宏执行与各步骤分两条轨道显示。
+    private static final int TRACE_PID = 1;
+    private static final int TRACE_TID_RUNS = 1;
+    private static final int TRACE_TID_STEPS = 2;
+
+    private final Clock clock;
+    private final int capacity;
+    private final long[] timestamps;
+    private final int[] events;
+    private final int[] runIds;
+    private final int[] macroTypes;
+    private final int[] stepIndexes;
+    // 步骤名或中止原因，均为已有字符串的引用。
+    private final String[] details;
+
+    private int next;
+    private int size;
+
+    MacroTimingRecorder(Clock clock, int capacity) {
+        this.clock = clock;
+        this.capacity = capacity;
+        this.timestamps = new long[capacity];
+        this.events = new int[capacity];
+        this.runIds = new int[capacity];
+        this.macroTypes = new int[capacity];
+        this.stepIndexes = new int[capacity];
+        this.details = new String[capacity];
+    }
+
+    long now() {
+        return clock.nanoTime();
+    }
+
+    void record(int event, int runId, int macroType, int stepIndex, String detail) {
+        recordAt(clock.nanoTime(), event, runId, macroType, stepIndex, detail);
+    }
+
+    synchronized void recordAt(long nanos, int event, int runId, int macroType, int stepIndex, String detail) {
+        int i = next;
+        timestamps[i] = nanos;
+        events[i] = event;
+        runIds[i] = runId;
+        macroTypes[i] = macroType;
+        stepIndexes[i] = stepIndex;
+        details[i] = detail;
+        next = (i + 1) % capacity;
+        if (size < capacity) size++;
+    }
+
+    synchronized void clear() {
+        next = 0;
+        size = 0;
+        Arrays.fill(details, null);
+    }
+
+    /**
+     * 按宏类型汇总：触发→首次派发、首次派发→结束、每一步派发→回调的分位数。
+     */
+    String buildReport() {
+        Records records = copyRecords();
+        int count = records.count;
+        long[] ts = records.timestamps;
+        int[] ev = records.events;
+        int[] run = records.runIds;
+        int[] type = records.macroTypes;
+        int[] step = records.stepIndexes;
+        String[] detail = records.details;
+
+        Map<String, Samples> stats = new LinkedHashMap<>();
+        Map<String, Integer> outcomes = new LinkedHashMap<>();
+        Map<Integer, RunState> runs = new HashMap<>();
+        for (int k = 0; k < count; k++) {
+            RunState state = runs.get(run[k]);
+            if (ev[k] == EVENT_TRIGGER) {
+                state = new RunState(ts[k]);
+                runs.put(run[k], state);
+                continue;
+            }
+            // 触发记录已被环形缓冲覆盖的宏不参与统计。
+            if (state == null) continue;
+            String typeName = MacroTimeline.typeName(type[k]);
+            switch (ev[k]) {
+                case EVENT_DISPATCH:
+                    if (state.firstDispatchNanos == 0L) {
+                        state.firstDispatchNanos = ts[k];
+                        samples(stats, typeName + " 触发→首次派发").add(ts[k] - state.triggerNanos);
+                    }
+                    state.dispatchNanos.put(step[k], ts[k]);
+                    break;
+                case EVENT_COMPLETED:
+                case EVENT_FALLBACK:
+                    Long dispatchedAt = state.dispatchNanos.remove(step[k]);
+                    if (dispatchedAt != null) {
+                        String suffix = ev[k] == EVENT_FALLBACK ? " 派发→兜底" : " 派发→完成";
+                        samples(stats, typeName + "/" + detail[k] + suffix).add(ts[k] - dispatchedAt);
+                    }
+                    break;
+                case EVENT_FINISH:
+                case EVENT_ABORT:
+                    if (state.firstDispatchNanos != 0L) {
+                        samples(stats, typeName + " 首次派发→结束").add(ts[k] - state.firstDispatchNanos);
+                    }
+                    samples(stats, typeName + " 触发→结束").add(ts[k] - state.triggerNanos);
+                    String outcome = typeName + " " + (ev[k] == EVENT_FINISH ? "finished" : "aborted:" + detail[k]);
+                    Integer n = outcomes.get(outcome);
+                    outcomes.put(outcome, n == null ? 1 : n + 1);
+                    runs.remove(run[k]);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("最近 ").append(count).append(" 条记录（单位 ms）\n");
+        for (Map.Entry<String, Samples> entry : stats.entrySet()) {
+            Samples s = entry.getValue();
+            sb.append(entry.getKey())
+                    .append("\n  n=").append(s.size())
+                    .append(" p50=").append(formatMs(s.percentile(50)))
+                    .append(" p95=").append(formatMs(s.percentile(95)))
+                    .append(" p99=").append(formatMs(s.percentile(99)))
+                    .append(" max=").append(formatMs(s.percentile(100)))
+                    .append('\n');
+        }
+        for (Map.Entry<String, Integer> entry : outcomes.entrySet()) {
+            sb.append(entry.getKey()).append(" ×").append(entry.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 导出为 Chrome trace-event JSON，可直接在 Perfetto / chrome://tracing 打开。
+     * <p>
+     * 时间戳是本记录器时钟的微秒数；服务使用 elapsedRealtimeNanos（CLOCK_BOOTTIME），与 Perfetto
+     * 系统 trace 的默认时钟一致，两份 trace 一起加载时可按时间对齐。每次宏执行是一个 "X" 区间
+     * （触发→结束/中止），每一步派发→回调（或兜底）是宏下方的一个子区间；全局动作、兜底、中止为瞬时事件。
+     * 触发记录已被环形缓冲覆盖的宏不导出。
+     */
+    String exportChromeTrace() {
+        Records records = copyRecords();
+        StringBuilder sb = new StringBuilder(256 + records.count * 160);
+        sb.append("{\"displayTimeUnit\":\"ms\",\"otherData\":{\"clock\":\"elapsedRealtimeNanos\"},\"traceEvents\":[");
+        sb.append("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":").append(TRACE_PID)
+                .append(",\"tid\":0,\"args\":{\"name\":\"macro\"}}");
+        appendThreadName(sb, TRACE_TID_RUNS, "runs");
+        appendThreadName(sb, TRACE_TID_STEPS, "steps");
+
+        Map<Integer, RunState> runs = new HashMap<>();
+        for (int k = 0; k < records.count; k++) {
+            long ts = records.timestamps[k];
+            int run = records.runIds[k];
+            int step = records.stepIndexes[k];
+            String detail = records.details[k];
+            RunState state = runs.get(run);
+            if (records.events[k] == EVENT_TRIGGER) {
+                runs.put(run, new RunState(ts));
+                continue;
+            }
+            if (state == null) continue;
+            String typeName = MacroTimeline.typeName(records.macroTypes[k]);
+            switch (records.events[k]) {
+                case EVENT_DISPATCH:
+                    state.dispatchNanos.put(step, ts);
+                    break;
+                case EVENT_COMPLETED:
+                case EVENT_FALLBACK:
+                case EVENT_CANCELLED:
+                    Long dispatchedAt = state.dispatchNanos.remove(step);
+                    if (dispatchedAt != null) {
+                        String end = records.events[k] == EVENT_COMPLETED ? "completed"
+                                : records.events[k] == EVENT_FALLBACK ? "fallback" : "cancelled";
+                        appendComplete(sb, TRACE_TID_STEPS, detail, dispatchedAt, ts, run, step, end);
+                    }
+                    if (records.events[k] == EVENT_FALLBACK) {
+                        appendInstant(sb, TRACE_TID_STEPS, "fallback", ts, run, step, detail);
+                    }
+                    break;
+                case EVENT_GLOBAL_ACTION:
+                    appendInstant(sb, TRACE_TID_STEPS, "global_action", ts, run, step, detail);
+                    break;
+                case EVENT_FINISH:
+                case EVENT_ABORT:
+                    boolean finished = records.events[k] == EVENT_FINISH;
+                    if (!finished) {
+                        appendInstant(sb, TRACE_TID_RUNS, "abort", ts, run, step, detail);
+                    }
+                    appendComplete(sb, TRACE_TID_RUNS, typeName, state.triggerNanos, ts, run, -1,
+                            finished ? "finished" : detail);
+                    runs.remove(run);
+                    break;
+                default:
+                    break;
+            }
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    private static void appendThreadName(StringBuilder sb, int tid, String name) {
+        sb.append(",{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":").append(TRACE_PID)
+                .append(",\"tid\":").append(tid).append(",\"args\":{\"name\":");
+        appendJsonString(sb, name);
+        sb.append("}}");
+    }
+
+    private static void appendComplete(StringBuilder sb, int tid, String name, long startNanos, long endNanos,
+                                       int run, int step, String end) {
+        sb.append(",{\"name\":");
+        appendJsonString(sb, name);
+        sb.append(",\"cat\":\"macro\",\"ph\":\"X\",\"pid\":").append(TRACE_PID)
+                .append(",\"tid\":").append(tid)
+                .append(",\"ts\":").append(formatMicros(startNanos))
+                .append(",\"dur\":").append(formatMicros(endNanos - startNanos))
+                .append(",\"args\":{\"run\":").append(run);
+        if (step >= 0) sb.append(",\"step\":").append(step);
+        sb.append(",\"end\":");
+        appendJsonString(sb, end);
+        sb.append("}}");
+    }
+
+    private static void appendInstant(StringBuilder sb, int tid, String name, long nanos, int run, int step,
+                                      String detail) {
+        sb.append(",{\"name\":\"").append(name)
+                .append("\",\"cat\":\"macro\",\"ph\":\"i\",\"s\":\"t\",\"pid\":").append(TRACE_PID)
+                .append(",\"tid\":").append(tid)
+                .append(",\"ts\":").append(formatMicros(nanos))
+                .append(",\"args\":{\"run\":").append(run)
+                .append(",\"step\":").append(step)
+                .append(",\"detail\":");
+        appendJsonString(sb, detail);
+        sb.append("}}");
+    }
+
+    private static void appendJsonString(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    private static String formatMicros(long nanos) {
+        return String.format(Locale.US, "%.3f", nanos / 1_000.0);
+    }
+
+    private synchronized Records copyRecords() {
+        Records records = new Records(size);
+        int start = (next - size + capacity) % capacity;
+        for (int k = 0; k < size; k++) {
+            int i = (start + k) % capacity;
+            records.timestamps[k] = timestamps[i];
+            records.events[k] = events[i];
+            records.runIds[k] = runIds[i];
+            records.macroTypes[k] = macroTypes[i];
+            records.stepIndexes[k] = stepIndexes[i];
+            records.details[k] = details[i];
+        }
+        return records;
+    }
+
+    private static Samples samples(Map<String, Samples> stats, String key) {
+        Samples s = stats.get(key);
+        if (s == null) {
+            s = new Samples();
+            stats.put(key, s);
+        }
+        return s;
+    }
+
+    private static String formatMs(long nanos) {
+        return String.format(Locale.US, "%.3f", nanos / 1_000_000.0);
+    }
+
+    /**
+     * 环形缓冲按时间先后的副本，导出时在锁外处理。
+     */
+    private static final class Records {
+        final int count;
+        final long[] timestamps;
+        final int[] events;
+        final int[] runIds;
+        final int[] macroTypes;
+        final int[] stepIndexes;
+        final String[] details;
+
+        Records(int count) {
+            this.count = count;
+            this.timestamps = new long[count];
+            this.events = new int[count];
+            this.runIds = new int[count];
+            this.macroTypes = new int[count];
+            this.stepIndexes = new int[count];
+            this.details = new String[count];
+        }
+    }
+
+    private static final class RunState {
+        final long triggerNanos;
+        long firstDispatchNanos;
+        final Map<Integer, Long> dispatchNanos = new HashMap<>();
+
+        RunState(long triggerNanos) {
+            this.triggerNanos = triggerNanos;
+        }
+    }
+
+    private static final class Samples {
+        private final ArrayList<Long> values = new ArrayList<>();
+        private long[] sorted;
+
+        void add(long value) {
+            values.add(value);
+            sorted = null;
+        }
+
+        int size() {
+            return values.size();
+        }
+
+        long percentile(int p) {
+            if (values.isEmpty()) return 0L;
+            if (sorted == null) {
+                sorted = new long[values.size()];
+                for (int i = 0; i < sorted.length; i++) sorted[i] = values.get(i);
+                Arrays.sort(sorted);
+            }
+            int rank = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, rank))];
+        }
+    }
+}
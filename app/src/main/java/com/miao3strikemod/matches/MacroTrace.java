@@ -0,0 +1,148 @@
+package com.miao3strikemod.matches;
+
+import java.util.Locale;
+
+/**
+ * 宏热路径的二进制事件记录：固定容量、预分配的环形缓冲区，每条记录为事件号、纳秒时间戳、
+ * 三个整数参数和一个已存在字符串的引用（步骤名、中止原因）。
+ * <p>
+ * 写入不拼接字符串、不产生对象，替代宏执行途中的 Log.d；只有导出时（或开启回显时）才解码成文本。
+ * 回显用于开发调试：设置 {@link Sink} 后每条记录同时格式化输出，此时会有分配。
+ * 主线程与宏线程都会写入，方法均同步（无竞争时开销很小）。
+ */
+final class MacroTrace {
+
+    interface Sink {
+        void println(String line);
+    }
+
+    // 事件号即 NAMES / ARG_NAMES 的下标，参数含义见 ARG_NAMES。
+    static final int EV_RUN_DRAG = 0;
+    static final int EV_RUN_CLICK = 1;
+    static final int EV_RUN_STEP = 2;
+    static final int EV_RUN_PRESET = 3;
+    static final int EV_DISPATCH = 4;
+    static final int EV_GLOBAL_ACTION = 5;
+    static final int EV_GESTURE_COMPLETED = 6;
+    static final int EV_MACRO_FINISHED = 7;
+    static final int EV_MACRO_CANCELLED = 8;
+    static final int EV_DRAG_START = 9;
+    static final int EV_DRAG_END = 10;
+    static final int EV_DRAG_QUEUED = 11;
+    static final int EV_DRAG_PATH = 12;
+    static final int EV_RUN_BATCH = 13;
+    static final int EV_PRESET_IGNORED = 14;
+    static final int EV_BUTTON_CACHE = 15;
+
+    private static final String[] NAMES = {
+            "run_drag", "run_click", "run_step", "run_preset", "dispatch", "global_action",
+            "gesture_completed", "macro_finished", "macro_cancelled",
+            "drag_start", "drag_end", "drag_queued", "drag_path",
+            "run_batch", "preset_ignored", "button_cache",
+    };
+    // null 表示该参数不输出。
+    private static final String[][] ARG_NAMES = {
+            {"count", "startupMs", "holdMs"},
+            {"x", "y", "startupMs"},
+            {"repeat", "stepDelayMs", "prepared"},
+            {"count", "type", "prepared"},
+            {"step", "ok", null},
+            {"action", "ok", null},
+            {"step", null, null},
+            {"type", null, null},
+            {"type", null, null},
+            {"x", "y", null},
+            {"x", "y", "durationMs"},
+            {"count", "batchSize", null},
+            {"samples", "points", null},
+            {"count", "recording", null},
+            {null, null, null},
+            {"x", "y", null},
+    };
+
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private final MacroTimingRecorder.Clock clock;
+    private final int capacity;
+    private final long[] timestamps;
+    private final int[] events;
+    private final int[] args;
+    private final String[] details;
+    private int next;
+    private int size;
+    private Sink sink;
+
+    MacroTrace(MacroTimingRecorder.Clock clock, int capacity) {
+        this.clock = clock;
+        this.capacity = capacity;
+        this.timestamps = new long[capacity];
+        this.events = new int[capacity];
+        this.args = new int[capacity * 3];
+        this.details = new String[capacity];
+    }
+
+    /**
+     * 开启（非 null）或关闭逐条回显。
+     */
+    synchronized void setSink(Sink sink) {
+        this.sink = sink;
+    }
+
+    void record(int event, int a0) {
+        record(event, a0, 0, 0, null);
+    }
+
+    void record(int event, int a0, int a1) {
+        record(event, a0, a1, 0, null);
+    }
+
+    void record(int event, int a0, int a1, int a2) {
+        record(event, a0, a1, a2, null);
+    }
+
+    /**
+     * @param detail 已存在的字符串（常量、步骤名、中止原因），不要为此拼接新字符串；可为 null。
+     */
+    synchronized void record(int event, int a0, int a1, int a2, String detail) {
+        int i = next;
+        timestamps[i] = clock.nanoTime();
+        events[i] = event;
+        args[i * 3] = a0;
+        args[i * 3 + 1] = a1;
+        args[i * 3 + 2] = a2;
+        details[i] = detail;
+        next = (i + 1) % capacity;
+        if (size < capacity) size++;
+        if (sink != null) {
+            sink.println(format(i, timestamps[i]));
+        }
+    }
+
+    /**
+     * 解码全部记录，按时间先后每行一条；时间为相对最后一条记录的毫秒数（负数表示之前）。
+     */
+    synchronized String export() {
+        if (size == 0) return "";
+        int first = (next - size + capacity) % capacity;
+        long lastNanos = timestamps[(next - 1 + capacity) % capacity];
+        StringBuilder sb = new StringBuilder(size * 48);
+        for (int k = 0; k < size; k++) {
+            sb.append(format((first + k) % capacity, lastNanos)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private String format(int i, long baseNanos) {
+        StringBuilder sb = new StringBuilder(48);
+        sb.append(String.format(Locale.US, "%+9.3fms ", (timestamps[i] - baseNanos) / 1_000_000.0));
+        int event = events[i];
+        boolean known = event >= 0 && event < NAMES.length;
+        sb.append(known ? NAMES[event] : "event" + event);
+        for (int a = 0; a < 3; a++) {
+            String name = known ? ARG_NAMES[event][a] : "a" + a;
+            if (name != null) sb.append(' ').append(name).append('=').append(args[i * 3 + a]);
+        }
+        if (details[i] != null) sb.append(' ').append(details[i]);
+        return sb.toString();
+    }
+}
@@ -9,6 +9,7 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.provider.Settings;
+import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.accessibility.AccessibilityManager;
@@ -22,6 +23,7 @@ import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.SwitchCompat;
 
+import java.io.File;
 import java.util.List;
 
 public class MainActivity extends AppCompatActivity {
@@ -148,43 +150,137 @@ public class MainActivity extends AppCompatActivity {
         EditText etStartup = content.findViewById(R.id.et_startup_delay);
         EditText etStep = content.findViewById(R.id.et_step_delay);
         EditText etStepMacro = content.findViewById(R.id.et_step_macro_delay);
+        EditText etStepRepeatCount = content.findViewById(R.id.et_step_repeat_count);
+        EditText etStepRepeatInterval = content.findViewById(R.id.et_step_repeat_interval);
         EditText etDrag = content.findViewById(R.id.et_drag_speed);
         EditText etHold = content.findViewById(R.id.et_hold_delay);
+        EditText etDragBatchSize = content.findViewById(R.id.et_drag_batch_size);
         SwitchCompat switchStepMacro = content.findViewById(R.id.switch_step_macro);
         SwitchCompat switchClickMacro = content.findViewById(R.id.switch_click_macro);
+        SwitchCompat switchStepHoldRepeat = content.findViewById(R.id.switch_step_hold_repeat);
+        SwitchCompat switchFusedGesture = content.findViewById(R.id.switch_fused_gesture);
+        SwitchCompat switchVsyncAligned = content.findViewById(R.id.switch_vsync_aligned);
+        SwitchCompat switchDragPath = content.findViewById(R.id.switch_drag_path);
+        SwitchCompat switchDragPathCompress = content.findViewById(R.id.switch_drag_path_compress);
+        SwitchCompat switchAutotune = content.findViewById(R.id.switch_autotune);
+        SwitchCompat switchGameDetection = content.findViewById(R.id.switch_game_detection);
+        SwitchCompat switchPauseVerify = content.findViewById(R.id.switch_pause_verify);
+        SwitchCompat switchAutoCalibrate = content.findViewById(R.id.switch_auto_calibrate);
+        Button btnRecalibrate = content.findViewById(R.id.btn_recalibrate);
+        Button btnPresets = content.findViewById(R.id.btn_presets);
+        Button btnKeyBindings = content.findViewById(R.id.btn_key_bindings);
+        Button btnTimingReport = content.findViewById(R.id.btn_timing_report);
         Button btnRestore = content.findViewById(R.id.btn_restore_defaults);
         Button btnSave = content.findViewById(R.id.btn_save_settings);
 
-        MacroConfig.MacroDelays current = MacroConfig.load(this);
+        MacroConfig.Snapshot config = MacroConfig.snapshot(this);
+        MacroConfig.MacroDelays current = config.delays;
         setNumberText(etStartup, current.startupDelayMs);
         setNumberText(etStep, current.stepDelayMs);
-        setNumberText(etStepMacro, MacroConfig.getStepMacroDelayMs(this));
+        setNumberText(etStepMacro, config.stepMacroDelayMs);
+        setNumberText(etStepRepeatCount, config.stepRepeatCount);
+        setNumberText(etStepRepeatInterval, config.stepRepeatIntervalMs);
         setNumberText(etDrag, current.dragDurationMs);
         setNumberText(etHold, current.holdDelayMs);
+        setNumberText(etDragBatchSize, config.dragBatchSize);
         if (switchStepMacro != null) {
-            switchStepMacro.setChecked(MacroConfig.isStepMacroEnabled(this));
+            switchStepMacro.setChecked(config.stepMacroEnabled);
         }
         if (switchClickMacro != null) {
-            switchClickMacro.setChecked(MacroConfig.isClickCaptureEnabled(this));
+            switchClickMacro.setChecked(config.clickCaptureEnabled);
+        }
+        if (switchStepHoldRepeat != null) {
+            switchStepHoldRepeat.setChecked(config.stepHoldRepeatEnabled);
+        }
+        if (switchFusedGesture != null) {
+            switchFusedGesture.setChecked(config.fusedGestureEnabled);
+        }
+        if (switchVsyncAligned != null) {
+            switchVsyncAligned.setChecked(config.vsyncAlignedEnabled);
+        }
+        if (switchDragPath != null) {
+            switchDragPath.setChecked(config.dragPathEnabled);
+        }
+        if (switchDragPathCompress != null) {
+            switchDragPathCompress.setChecked(config.dragPathCompressEnabled);
+        }
+        if (switchAutotune != null) {
+            switchAutotune.setChecked(config.autotuneEnabled);
+        }
+        if (switchGameDetection != null) {
+            switchGameDetection.setChecked(config.gameDetectionEnabled);
+        }
+        if (switchPauseVerify != null) {
+            switchPauseVerify.setChecked(config.pauseVerifyEnabled);
+        }
+        if (switchAutoCalibrate != null) {
+            switchAutoCalibrate.setChecked(config.autoCalibrateEnabled);
         }
 
         AlertDialog dialog = new AlertDialog.Builder(this)
                 .setView(content)
                 .create();
 
+        if (btnTimingReport != null) {
+            btnTimingReport.setOnClickListener(v -> showMacroTimingReport());
+        }
+        if (btnPresets != null) {
+            btnPresets.setOnClickListener(v -> showPresetsDialog());
+        }
+        if (btnKeyBindings != null) {
+            btnKeyBindings.setOnClickListener(v -> showKeyBindingsDialog());
+        }
+        if (btnRecalibrate != null) {
+            btnRecalibrate.setOnClickListener(v -> {
+                MacroConfig.clearButtonCenter(this);
+                Toast.makeText(this, "已清除校准，回到游戏战斗界面后将自动识别暂停按钮", Toast.LENGTH_SHORT).show();
+            });
+        }
+
         btnRestore.setOnClickListener(v -> {
             MacroConfig.resetToDefaults(this);
-            MacroConfig.MacroDelays defaults = MacroConfig.load(this);
+            MacroConfig.Snapshot restored = MacroConfig.snapshot(this);
+            MacroConfig.MacroDelays defaults = restored.delays;
             setNumberText(etStartup, defaults.startupDelayMs);
             setNumberText(etStep, defaults.stepDelayMs);
-            setNumberText(etStepMacro, MacroConfig.getStepMacroDelayMs(this));
+            setNumberText(etStepMacro, restored.stepMacroDelayMs);
+            setNumberText(etStepRepeatCount, restored.stepRepeatCount);
+            setNumberText(etStepRepeatInterval, restored.stepRepeatIntervalMs);
             setNumberText(etDrag, defaults.dragDurationMs);
             setNumberText(etHold, defaults.holdDelayMs);
+            setNumberText(etDragBatchSize, restored.dragBatchSize);
             if (switchStepMacro != null) {
-                switchStepMacro.setChecked(MacroConfig.isStepMacroEnabled(this));
+                switchStepMacro.setChecked(restored.stepMacroEnabled);
             }
             if (switchClickMacro != null) {
-                switchClickMacro.setChecked(MacroConfig.isClickCaptureEnabled(this));
+                switchClickMacro.setChecked(restored.clickCaptureEnabled);
+            }
+            if (switchStepHoldRepeat != null) {
+                switchStepHoldRepeat.setChecked(restored.stepHoldRepeatEnabled);
+            }
+            if (switchFusedGesture != null) {
+                switchFusedGesture.setChecked(restored.fusedGestureEnabled);
+            }
+            if (switchVsyncAligned != null) {
+                switchVsyncAligned.setChecked(restored.vsyncAlignedEnabled);
+            }
+            if (switchDragPath != null) {
+                switchDragPath.setChecked(restored.dragPathEnabled);
+            }
+            if (switchDragPathCompress != null) {
+                switchDragPathCompress.setChecked(restored.dragPathCompressEnabled);
+            }
+            if (switchAutotune != null) {
+                switchAutotune.setChecked(restored.autotuneEnabled);
+            }
+            if (switchGameDetection != null) {
+                switchGameDetection.setChecked(restored.gameDetectionEnabled);
+            }
+            if (switchPauseVerify != null) {
+                switchPauseVerify.setChecked(restored.pauseVerifyEnabled);
+            }
+            if (switchAutoCalibrate != null) {
+                switchAutoCalibrate.setChecked(restored.autoCalibrateEnabled);
             }
             Toast.makeText(this, "已恢复初始设定", Toast.LENGTH_SHORT).show();
         });
@@ -195,19 +291,57 @@ public class MainActivity extends AppCompatActivity {
             Long stepMacro = parseLongOrNull(etStepMacro);
             Long drag = parseLongOrNull(etDrag);
             Long hold = parseLongOrNull(etHold);
-            if (startup == null || step == null || stepMacro == null || drag == null || hold == null) {
+            Long stepRepeatCount = parseLongOrNull(etStepRepeatCount);
+            Long stepRepeatInterval = parseLongOrNull(etStepRepeatInterval);
+            Long dragBatchSize = parseLongOrNull(etDragBatchSize);
+            if (startup == null || step == null || stepMacro == null || drag == null || hold == null
+                    || stepRepeatCount == null || stepRepeatInterval == null || dragBatchSize == null) {
                 Toast.makeText(this, "请输入有效的毫秒数", Toast.LENGTH_SHORT).show();
                 return;
             }
 
-            MacroConfig.save(this, new MacroConfig.MacroDelays(startup, step, drag, hold));
-            MacroConfig.setStepMacroDelayMs(this, stepMacro);
+            MacroConfig.Editor editor = MacroConfig.edit(this)
+                    .setDelays(new MacroConfig.MacroDelays(startup, step, drag, hold))
+                    .setDragBatchSize((int) MacroConfig.clamp(dragBatchSize,
+                            MacroConfig.MIN_DRAG_BATCH_SIZE, MacroConfig.MAX_DRAG_BATCH_SIZE))
+                    .setStepMacroDelayMs(stepMacro)
+                    .setStepRepeatCount((int) MacroConfig.clamp(stepRepeatCount,
+                            MacroConfig.MIN_STEP_REPEAT_COUNT, MacroConfig.MAX_STEP_REPEAT_COUNT))
+                    .setStepRepeatIntervalMs(stepRepeatInterval);
             if (switchStepMacro != null) {
-                MacroConfig.setStepMacroEnabled(this, switchStepMacro.isChecked());
+                editor.setStepMacroEnabled(switchStepMacro.isChecked());
             }
             if (switchClickMacro != null) {
-                MacroConfig.setClickCaptureEnabled(this, switchClickMacro.isChecked());
+                editor.setClickCaptureEnabled(switchClickMacro.isChecked());
+            }
+            if (switchStepHoldRepeat != null) {
+                editor.setStepHoldRepeatEnabled(switchStepHoldRepeat.isChecked());
+            }
+            if (switchFusedGesture != null) {
+                editor.setFusedGestureEnabled(switchFusedGesture.isChecked());
+            }
+            if (switchVsyncAligned != null) {
+                editor.setVsyncAlignedEnabled(switchVsyncAligned.isChecked());
+            }
+            if (switchDragPath != null) {
+                editor.setDragPathEnabled(switchDragPath.isChecked());
+            }
+            if (switchDragPathCompress != null) {
+                editor.setDragPathCompressEnabled(switchDragPathCompress.isChecked());
+            }
+            if (switchAutotune != null) {
+                editor.setAutotuneEnabled(switchAutotune.isChecked());
+            }
+            if (switchGameDetection != null) {
+                editor.setGameDetectionEnabled(switchGameDetection.isChecked());
+            }
+            if (switchPauseVerify != null) {
+                editor.setPauseVerifyEnabled(switchPauseVerify.isChecked());
+            }
+            if (switchAutoCalibrate != null) {
+                editor.setAutoCalibrateEnabled(switchAutoCalibrate.isChecked());
             }
+            editor.apply();
             Toast.makeText(this, "已保存", Toast.LENGTH_SHORT).show();
             dialog.dismiss();
         });
@@ -215,6 +349,293 @@ public class MainActivity extends AppCompatActivity {
         dialog.show();
     }
 
+    // 可绑定到预设的按键：避开音量键（已用于录制与步进），以耳机线控、外接键盘与手柄常用键为主。
+    private static final int[] PRESET_KEY_CODES = {
+            0,
+            KeyEvent.KEYCODE_HEADSETHOOK,
+            KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE,
+            KeyEvent.KEYCODE_CAMERA,
+            KeyEvent.KEYCODE_F1,
+            KeyEvent.KEYCODE_F2,
+            KeyEvent.KEYCODE_F3,
+            KeyEvent.KEYCODE_F4,
+            KeyEvent.KEYCODE_1,
+            KeyEvent.KEYCODE_2,
+            KeyEvent.KEYCODE_3,
+            KeyEvent.KEYCODE_4,
+            KeyEvent.KEYCODE_BUTTON_A,
+            KeyEvent.KEYCODE_BUTTON_B,
+            KeyEvent.KEYCODE_BUTTON_X,
+            KeyEvent.KEYCODE_BUTTON_Y,
+            KeyEvent.KEYCODE_BUTTON_L1,
+            KeyEvent.KEYCODE_BUTTON_R1,
+    };
+    private static final String[] PRESET_KEY_NAMES = {
+            "不绑定", "耳机线控键", "媒体播放/暂停", "相机键", "F1", "F2", "F3", "F4", "1", "2", "3", "4",
+            "手柄 A", "手柄 B", "手柄 X", "手柄 Y", "手柄 L1", "手柄 R1",
+    };
+
+    private static String presetKeyName(int keyCode) {
+        if (keyCode == KeyEvent.KEYCODE_VOLUME_UP) return "音量+";
+        if (keyCode == KeyEvent.KEYCODE_VOLUME_DOWN) return "音量-";
+        for (int i = 0; i < PRESET_KEY_CODES.length; i++) {
+            if (PRESET_KEY_CODES[i] == keyCode) return PRESET_KEY_NAMES[i];
+        }
+        return "按键 " + keyCode;
+    }
+
+    // 自定义绑定可选的按键：音量键加上预设可绑定的按键（去掉“不绑定”）。
+    private static int[] bindableKeyCodes() {
+        int[] keys = new int[PRESET_KEY_CODES.length + 1];
+        keys[0] = KeyEvent.KEYCODE_VOLUME_UP;
+        keys[1] = KeyEvent.KEYCODE_VOLUME_DOWN;
+        System.arraycopy(PRESET_KEY_CODES, 1, keys, 2, PRESET_KEY_CODES.length - 1);
+        return keys;
+    }
+
+    private static String[] keyNames(int[] keyCodes) {
+        String[] names = new String[keyCodes.length];
+        for (int i = 0; i < keyCodes.length; i++) {
+            names[i] = presetKeyName(keyCodes[i]);
+        }
+        return names;
+    }
+
+    private static final int[] BINDING_PATTERNS = {
+            KeyBindingEngine.PATTERN_SINGLE,
+            KeyBindingEngine.PATTERN_DOUBLE,
+            KeyBindingEngine.PATTERN_LONG,
+            KeyBindingEngine.PATTERN_CHORD,
+    };
+    private static final String[] BINDING_PATTERN_NAMES = {"单击", "双击", "长按", "与另一键同时按"};
+
+    // 不含预设回放：预设按名称追加在列表末尾。
+    private static final int[] BINDING_ACTIONS = {
+            KeyBindingEngine.ACTION_CLICK_CAPTURE,
+            KeyBindingEngine.ACTION_STEP,
+            KeyBindingEngine.ACTION_STEP_HOLD,
+            KeyBindingEngine.ACTION_RUN_BATCH,
+            KeyBindingEngine.ACTION_CANCEL,
+    };
+    private static final String[] BINDING_ACTION_NAMES = {
+            "放技能录制", "步进", "按住连续步进", "立即执行已录制的批量拖动", "取消录制与宏",
+    };
+
+    private static String describeBinding(KeyBindingEngine.Binding binding) {
+        StringBuilder sb = new StringBuilder(presetKeyName(binding.keyCode));
+        if (binding.pattern == KeyBindingEngine.PATTERN_CHORD) {
+            sb.append(" + ").append(presetKeyName(binding.otherKeyCode));
+        } else {
+            for (int i = 0; i < BINDING_PATTERNS.length; i++) {
+                if (BINDING_PATTERNS[i] == binding.pattern) sb.append(" ").append(BINDING_PATTERN_NAMES[i]);
+            }
+        }
+        sb.append(" → ");
+        if (binding.action == KeyBindingEngine.ACTION_PRESET) {
+            return sb.append("预设“").append(binding.argument).append("”").toString();
+        }
+        for (int i = 0; i < BINDING_ACTIONS.length; i++) {
+            if (BINDING_ACTIONS[i] == binding.action) return sb.append(BINDING_ACTION_NAMES[i]).toString();
+        }
+        return sb.append("未知动作 ").append(binding.action).toString();
+    }
+
+    private void showKeyBindingsDialog() {
+        List<KeyBindingEngine.Binding> bindings = MacroConfig.snapshot(this).keyBindings;
+        String[] labels = new String[bindings.size()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = describeBinding(bindings.get(i));
+        }
+        AlertDialog.Builder builder = new AlertDialog.Builder(this)
+                .setTitle("按键绑定")
+                .setPositiveButton("添加", (d, which) -> showBindingKeyDialog())
+                .setNegativeButton("关闭", null);
+        if (labels.length == 0) {
+            builder.setMessage("默认：音量+ 单击放技能录制，音量- 单击步进。可在这里为双击、长按或两键同时按绑定更多动作；"
+                    + "同一个键只有单击绑定时按下立即触发，加了双击或长按后单击要等判定窗口结束。");
+        } else {
+            builder.setItems(labels, (d, which) -> new AlertDialog.Builder(this)
+                    .setTitle(labels[which])
+                    .setPositiveButton("删除", (d2, w2) -> MacroConfig.removeKeyBinding(this, which))
+                    .setNegativeButton("取消", null)
+                    .show());
+        }
+        builder.show();
+    }
+
+    private void showBindingKeyDialog() {
+        int[] keys = bindableKeyCodes();
+        new AlertDialog.Builder(this)
+                .setTitle("选择按键")
+                .setItems(keyNames(keys), (d, which) -> showBindingPatternDialog(keys[which]))
+                .setNegativeButton("取消", null)
+                .show();
+    }
+
+    private void showBindingPatternDialog(int keyCode) {
+        new AlertDialog.Builder(this)
+                .setTitle(presetKeyName(keyCode))
+                .setItems(BINDING_PATTERN_NAMES, (d, which) -> {
+                    int pattern = BINDING_PATTERNS[which];
+                    if (pattern == KeyBindingEngine.PATTERN_CHORD) {
+                        showBindingChordKeyDialog(keyCode);
+                    } else {
+                        showBindingActionDialog(pattern, keyCode, 0);
+                    }
+                })
+                .setNegativeButton("取消", null)
+                .show();
+    }
+
+    private void showBindingChordKeyDialog(int keyCode) {
+        int[] all = bindableKeyCodes();
+        int[] keys = new int[all.length - 1];
+        int n = 0;
+        for (int key : all) {
+            if (key != keyCode) keys[n++] = key;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(presetKeyName(keyCode) + " + ")
+                .setItems(keyNames(keys), (d, which) ->
+                        showBindingActionDialog(KeyBindingEngine.PATTERN_CHORD, keyCode, keys[which]))
+                .setNegativeButton("取消", null)
+                .show();
+    }
+
+    private void showBindingActionDialog(int pattern, int keyCode, int otherKeyCode) {
+        List<MacroPreset> presets = MacroConfig.snapshot(this).presets;
+        String[] names = new String[BINDING_ACTION_NAMES.length + presets.size()];
+        System.arraycopy(BINDING_ACTION_NAMES, 0, names, 0, BINDING_ACTION_NAMES.length);
+        for (int i = 0; i < presets.size(); i++) {
+            names[BINDING_ACTION_NAMES.length + i] = "预设“" + presets.get(i).name + "”";
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("选择动作")
+                .setItems(names, (d, which) -> {
+                    KeyBindingEngine.Binding binding = which < BINDING_ACTIONS.length
+                            ? new KeyBindingEngine.Binding(pattern, keyCode, otherKeyCode, BINDING_ACTIONS[which], null)
+                            : new KeyBindingEngine.Binding(pattern, keyCode, otherKeyCode, KeyBindingEngine.ACTION_PRESET,
+                                    presets.get(which - BINDING_ACTIONS.length).name);
+                    MacroConfig.addKeyBinding(this, binding);
+                    Toast.makeText(this, describeBinding(binding), Toast.LENGTH_SHORT).show();
+                })
+                .setNegativeButton("取消", null)
+                .show();
+    }
+
+    private void showPresetsDialog() {
+        MacroConfig.Snapshot config = MacroConfig.snapshot(this);
+        List<MacroPreset> presets = config.presets;
+        String[] labels = new String[presets.size()];
+        for (int i = 0; i < labels.length; i++) {
+            MacroPreset preset = presets.get(i);
+            StringBuilder label = new StringBuilder(preset.name).append("（")
+                    .append(preset.type == MacroTimeline.TYPE_DRAG ? "划火柴 ×" + preset.count() : "放技能");
+            if (preset.keyCode != 0) label.append("，").append(presetKeyName(preset.keyCode));
+            if (preset.name.equals(config.floatingPresetName)) label.append("，浮窗长按");
+            labels[i] = label.append("）").toString();
+        }
+        AlertDialog.Builder builder = new AlertDialog.Builder(this)
+                .setTitle("宏预设")
+                .setPositiveButton("保存最近一次录制", (d, which) -> showSavePresetDialog())
+                .setNegativeButton("关闭", null);
+        if (labels.length == 0) {
+            builder.setMessage("还没有预设。录制并执行一次划火柴或放技能后，可在这里保存为预设，之后用绑定的按键或长按浮窗直接回放。");
+        } else {
+            builder.setItems(labels, (d, which) -> showPresetActions(presets.get(which)));
+        }
+        builder.show();
+    }
+
+    private void showSavePresetDialog() {
+        if (!VolumeKeyAccessibilityService.hasLastRecording()) {
+            Toast.makeText(this, "还没有可保存的录制", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        EditText input = new EditText(this);
+        input.setSingleLine(true);
+        input.setHint("预设名称");
+        new AlertDialog.Builder(this)
+                .setTitle("保存为预设")
+                .setView(input)
+                .setPositiveButton("保存", (d, which) -> {
+                    boolean saved = VolumeKeyAccessibilityService.saveLastRecordingAsPreset(input.getText().toString());
+                    Toast.makeText(this, saved ? "已保存预设" : "保存失败：名称为空或服务未运行", Toast.LENGTH_SHORT).show();
+                })
+                .setNegativeButton("取消", null)
+                .show();
+    }
+
+    private void showPresetActions(MacroPreset preset) {
+        String[] actions = {"设为浮窗长按回放", "绑定按键", "删除"};
+        new AlertDialog.Builder(this)
+                .setTitle(preset.name)
+                .setItems(actions, (d, which) -> {
+                    if (which == 0) {
+                        MacroConfig.setFloatingPreset(this, preset.name);
+                        Toast.makeText(this, "长按浮窗将回放“" + preset.name + "”", Toast.LENGTH_SHORT).show();
+                    } else if (which == 1) {
+                        showPresetKeyDialog(preset);
+                    } else {
+                        MacroConfig.deletePreset(this, preset.name);
+                        Toast.makeText(this, "已删除", Toast.LENGTH_SHORT).show();
+                    }
+                })
+                .show();
+    }
+
+    private void showPresetKeyDialog(MacroPreset preset) {
+        int checked = 0;
+        for (int i = 0; i < PRESET_KEY_CODES.length; i++) {
+            if (PRESET_KEY_CODES[i] == preset.keyCode) checked = i;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("绑定按键")
+                .setSingleChoiceItems(PRESET_KEY_NAMES, checked, (d, which) -> {
+                    MacroConfig.setPresetKeyCode(this, preset.name, PRESET_KEY_CODES[which]);
+                    d.dismiss();
+                })
+                .setNegativeButton("取消", null)
+                .show();
+    }
+
+    private void showMacroTimingReport() {
+        String report = VolumeKeyAccessibilityService.getMacroTimingReport();
+        if (report == null) {
+            Toast.makeText(this, "无障碍服务未运行", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("宏耗时统计")
+                .setMessage(report)
+                .setPositiveButton("关闭", null)
+                .setNeutralButton("事件记录", (d, which) -> showMacroTrace())
+                .setNegativeButton("导出 trace", (d, which) -> exportMacroChromeTrace())
+                .show();
+    }
+
+    private void exportMacroChromeTrace() {
+        File file = VolumeKeyAccessibilityService.exportMacroChromeTrace();
+        if (file == null) {
+            Toast.makeText(this, "导出失败（无障碍服务未运行或无法写入）", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Toast.makeText(this, "已导出：" + file.getAbsolutePath(), Toast.LENGTH_LONG).show();
+    }
+
+    private void showMacroTrace() {
+        String trace = VolumeKeyAccessibilityService.getMacroTrace();
+        if (trace == null) {
+            Toast.makeText(this, "无障碍服务未运行", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        new AlertDialog.Builder(this)
+                .setTitle("宏事件记录")
+                .setMessage(trace.isEmpty() ? "暂无记录" : trace)
+                .setPositiveButton("关闭", null)
+                .show();
+    }
+
     private static void setNumberText(EditText editText, long value) {
         if (editText == null) return;
         editText.setText(String.valueOf(value));
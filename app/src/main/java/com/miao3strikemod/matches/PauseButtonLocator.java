@@ -0,0 +1,194 @@
+package com.miao3strikemod.matches;
+
+/**
+ * 在截图中自动寻找暂停按钮（“||” 图标）的中心，用于免手动校准。
+ * <p>
+ * 只搜索屏幕右上角：先按块平均降采样为亮度图，再在多个尺度上滑动“两根亮竖条 + 暗底”模板，
+ * 用归一化互相关（NCC）打分。模板只由矩形组成，借助积分图每个位置只需十几次查表，
+ * 1080p 截图在普通手机上几毫秒即可完成；定位精度为降采样倍数（约 2px），远小于点击半径。
+ * <p>
+ * 纯 Java、不依赖 Android，输入为 ARGB 像素数组，可直接用保存的截图离线测试和基准测试。
+ * 缓冲区按需增长后复用；非线程安全，同一实例只在一个线程（截图线程）使用。
+ */
+final class PauseButtonLocator {
+
+    // 搜索区域：屏幕宽度 SEARCH_LEFT_RATIO 以右、高度 SEARCH_BOTTOM_RATIO 以上。
+    static final float SEARCH_LEFT_RATIO = 0.55f;
+    static final float SEARCH_BOTTOM_RATIO = 0.25f;
+    // NCC 低于此值视为没找到，不保存结果。
+    static final float MIN_SCORE = 0.6f;
+
+    // 按钮边长相对屏幕高度的范围；1920x1080 布局上约 80px（0.074）。
+    private static final float MIN_SIZE_RATIO = 0.045f;
+    private static final float MAX_SIZE_RATIO = 0.11f;
+    private static final float SCALE_STEP = 1.12f;
+    // 降采样后最小尺度的按钮边长不少于这么多像素，由此决定降采样倍数。
+    private static final int MIN_BUTTON_PX = 24;
+    // 模板几何（相对按钮边长）：比较窗口、竖条宽高、两竖条中心到窗口中心的水平距离。
+    private static final float WINDOW_RATIO = 0.7f;
+    private static final float BAR_WIDTH_RATIO = 0.12f;
+    private static final float BAR_HEIGHT_RATIO = 0.44f;
+    private static final float BAR_OFFSET_RATIO = 0.14f;
+    // 窗口亮度标准差低于此值（纯色区域）时跳过，避免除以接近 0 的方差。
+    private static final int MIN_STDDEV = 4;
+
+    /**
+     * 一次定位结果；坐标为输入区域内的像素坐标。
+     */
+    static final class Match {
+        final float x;
+        final float y;
+        // 匹配到的按钮边长（像素）。
+        final float size;
+        final float score;
+
+        Match(float x, float y, float size, float score) {
+            this.x = x;
+            this.y = y;
+            this.size = size;
+            this.score = score;
+        }
+
+        @Override
+        public String toString() {
+            return "Match(" + x + ", " + y + ", size=" + size + ", score=" + score + ")";
+        }
+    }
+
+    private int[] luma;
+    // 积分图尺寸为 (w+1)×(h+1)；平方和可能超出 int，用 long。
+    private int[] sum;
+    private long[] sumSq;
+
+    /**
+     * 屏幕上需要截取的搜索区域，写入 outRect（left, top, right, bottom）。
+     */
+    static void searchRegion(int screenWidth, int screenHeight, int[] outRect) {
+        outRect[0] = Math.round(screenWidth * SEARCH_LEFT_RATIO);
+        outRect[1] = 0;
+        outRect[2] = screenWidth;
+        outRect[3] = Math.max(1, Math.round(screenHeight * SEARCH_BOTTOM_RATIO));
+    }
+
+    /**
+     * 在 width×height 的区域像素中寻找暂停按钮。
+     *
+     * @param screenHeight 整屏高度，用于推算按钮的尺寸范围。
+     * @return 得分最高且不低于 {@link #MIN_SCORE} 的位置；没有可信结果时返回 null。
+     */
+    Match locate(int[] argb, int width, int height, int screenHeight) {
+        float minSize = MIN_SIZE_RATIO * screenHeight;
+        float maxSize = MAX_SIZE_RATIO * screenHeight;
+        int factor = Math.max(1, (int) (minSize / MIN_BUTTON_PX));
+        int w = width / factor;
+        int h = height / factor;
+        if (w < 2 || h < 2) return null;
+        downsample(argb, width, factor, w, h);
+        buildIntegrals(w, h);
+
+        int stride = w + 1;
+        float bestScore = MIN_SCORE;
+        float bestX = 0f;
+        float bestY = 0f;
+        float bestSize = 0f;
+        boolean found = false;
+        for (float size = minSize; size <= maxSize; size *= SCALE_STEP) {
+            float s = size / factor;
+            int window = Math.round(s * WINDOW_RATIO);
+            int barW = Math.max(1, Math.round(s * BAR_WIDTH_RATIO));
+            int barH = Math.max(1, Math.round(s * BAR_HEIGHT_RATIO));
+            int offset = Math.round(s * BAR_OFFSET_RATIO);
+            if (window > w || window > h || window < barW * 2 + 2) continue;
+            int half = window / 2;
+            int barTop = half - barH / 2;
+            int leftBar = half - offset - barW / 2;
+            int rightBar = half + offset - (barW + 1) / 2;
+            if (leftBar + barW > rightBar) continue;
+
+            double n = (double) window * window;
+            double nBars = 2.0 * barW * barH;
+            double barWeight = nBars * (1.0 - nBars / n);
+            double minVar = n * MIN_STDDEV * MIN_STDDEV;
+            for (int y = 0; y + window <= h; y++) {
+                for (int x = 0; x + window <= w; x++) {
+                    long total = box(x, y, window, window, stride);
+                    double var = boxSq(x, y, window, window, stride) - (double) total * total / n;
+                    if (var < minVar) continue;
+                    long left = box(x + leftBar, y + barTop, barW, barH, stride);
+                    long right = box(x + rightBar, y + barTop, barW, barH, stride);
+                    // 两根竖条都要比窗口平均更亮，排除只有一根亮条的图案。
+                    if (left * n <= total * (double) barW * barH || right * n <= total * (double) barW * barH) {
+                        continue;
+                    }
+                    double score = ((left + right) - nBars * total / n) / Math.sqrt(barWeight * var);
+                    if (score > bestScore) {
+                        bestScore = (float) score;
+                        bestX = (x + window * 0.5f) * factor;
+                        bestY = (y + window * 0.5f) * factor;
+                        bestSize = size;
+                        found = true;
+                    }
+                }
+            }
+        }
+        return found ? new Match(bestX, bestY, bestSize, bestScore) : null;
+    }
+
+    private void downsample(int[] argb, int width, int factor, int w, int h) {
+        int count = w * h;
+        if (luma == null || luma.length < count) luma = new int[count];
+        int area = factor * factor;
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int acc = 0;
+                int row = y * factor * width + x * factor;
+                for (int dy = 0; dy < factor; dy++) {
+                    int p = row + dy * width;
+                    for (int dx = 0; dx < factor; dx++) {
+                        acc += PauseStateDetector.luma(argb[p + dx]);
+                    }
+                }
+                luma[y * w + x] = acc / area;
+            }
+        }
+    }
+
+    private void buildIntegrals(int w, int h) {
+        int stride = w + 1;
+        int count = stride * (h + 1);
+        if (sum == null || sum.length < count) {
+            sum = new int[count];
+            sumSq = new long[count];
+        }
+        for (int x = 0; x < stride; x++) {
+            sum[x] = 0;
+            sumSq[x] = 0L;
+        }
+        for (int y = 0; y < h; y++) {
+            int rowSum = 0;
+            long rowSq = 0L;
+            int out = (y + 1) * stride;
+            sum[out] = 0;
+            sumSq[out] = 0L;
+            for (int x = 0; x < w; x++) {
+                int v = luma[y * w + x];
+                rowSum += v;
+                rowSq += v * v;
+                sum[out + x + 1] = sum[out - stride + x + 1] + rowSum;
+                sumSq[out + x + 1] = sumSq[out - stride + x + 1] + rowSq;
+            }
+        }
+    }
+
+    private long box(int x, int y, int bw, int bh, int stride) {
+        int a = y * stride + x;
+        int b = (y + bh) * stride + x;
+        return (long) sum[b + bw] - sum[b] - sum[a + bw] + sum[a];
+    }
+
+    private double boxSq(int x, int y, int bw, int bh, int stride) {
+        int a = y * stride + x;
+        int b = (y + bh) * stride + x;
+        return (double) (sumSq[b + bw] - sumSq[b] - sumSq[a + bw] + sumSq[a]);
+    }
+}
@@ -0,0 +1,148 @@
+package com.miao3strikemod.matches;
+
+/**
+ * 根据截图判断游戏是否处于暂停：暂停按钮附近小区域的亮度特征 + 整屏粗网格的运动检测。
+ * <p>
+ * 暂停按钮图标在暂停/运行两种状态下不同，但不同设备、不同服的画面不一样，所以不内置模板，
+ * 而是在运行中自学两种状态的参考特征：分不清时隔一个截图间隔再截一张，画面静止记为“暂停”、
+ * 有运动记为“运行”。两种参考都学到之后，一张截图就能判断。
+ * 只做整数运算，缓冲区预分配；非线程安全，取样、学习与判断都在截图线程调用。
+ */
+final class PauseStateDetector {
+
+    static final int STATE_UNKNOWN = 0;
+    static final int STATE_PAUSED = 1;
+    static final int STATE_RUNNING = 2;
+
+    // 按钮区域特征：GRID×GRID 个格子的平均亮度（0~255）。
+    static final int GRID = 8;
+    // 运动检测：整屏 MOTION_GRID×MOTION_GRID 个采样点的亮度。
+    static final int MOTION_GRID = 16;
+
+    // 每格平均亮度差：小于 SAME 视为同一状态，大于 DIFFERENT 视为另一状态，中间算不确定。
+    private static final int SAME_THRESHOLD = 8;
+    private static final int DIFFERENT_THRESHOLD = 24;
+    // 两种参考都有时，较近的一个至少要比另一个近一半才下结论。
+    private static final int DECISION_RATIO = 2;
+    // 运动判定：采样点平均亮度差超过 MOTION_MEAN_THRESHOLD，或任一点超过 MOTION_PEAK_THRESHOLD。
+    private static final int MOTION_MEAN_THRESHOLD = 2;
+    private static final int MOTION_PEAK_THRESHOLD = 24;
+
+    private final int[] cellCounts = new int[GRID * GRID];
+    private final int[] pausedRef = new int[GRID * GRID];
+    private final int[] runningRef = new int[GRID * GRID];
+    private boolean hasPaused;
+    private boolean hasRunning;
+
+    static int luma(int argb) {
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+        return (r * 77 + g * 150 + b * 29) >> 8;
+    }
+
+    /**
+     * 把 width×height 的 ARGB 像素压成 GRID×GRID 的平均亮度；只用到预分配的计数数组。
+     */
+    void signature(int[] argb, int width, int height, int[] out) {
+        int[] counts = cellCounts;
+        for (int i = 0; i < GRID * GRID; i++) {
+            out[i] = 0;
+            counts[i] = 0;
+        }
+        for (int y = 0; y < height; y++) {
+            int cy = y * GRID / height;
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int cell = cy * GRID + x * GRID / width;
+                out[cell] += luma(argb[row + x]);
+                counts[cell]++;
+            }
+        }
+        for (int i = 0; i < GRID * GRID; i++) {
+            if (counts[i] > 0) out[i] /= counts[i];
+        }
+    }
+
+    static boolean hasMotion(int[] frameA, int[] frameB) {
+        int sum = 0;
+        for (int i = 0; i < MOTION_GRID * MOTION_GRID; i++) {
+            int d = Math.abs(frameA[i] - frameB[i]);
+            if (d > MOTION_PEAK_THRESHOLD) return true;
+            sum += d;
+        }
+        return sum > MOTION_MEAN_THRESHOLD * MOTION_GRID * MOTION_GRID;
+    }
+
+    boolean isCalibrated() {
+        return hasPaused && hasRunning;
+    }
+
+    int classify(int[] sig) {
+        if (hasPaused && hasRunning) {
+            int toPaused = distance(sig, pausedRef);
+            int toRunning = distance(sig, runningRef);
+            if (toPaused < toRunning && toPaused * DECISION_RATIO <= toRunning) return STATE_PAUSED;
+            if (toRunning < toPaused && toRunning * DECISION_RATIO <= toPaused) return STATE_RUNNING;
+            return STATE_UNKNOWN;
+        }
+        if (hasPaused) return classifyAgainst(sig, pausedRef, STATE_PAUSED, STATE_RUNNING);
+        if (hasRunning) return classifyAgainst(sig, runningRef, STATE_RUNNING, STATE_PAUSED);
+        return STATE_UNKNOWN;
+    }
+
+    private static int classifyAgainst(int[] sig, int[] ref, int same, int other) {
+        int d = distance(sig, ref);
+        if (d <= SAME_THRESHOLD) return same;
+        if (d >= DIFFERENT_THRESHOLD) return other;
+        return STATE_UNKNOWN;
+    }
+
+    /**
+     * 记录一次已确认状态的特征；已有参考时按 3:1 平滑，适应光照、特效带来的小变化。
+     */
+    void learn(int state, int[] sig) {
+        if (state == STATE_PAUSED) {
+            hasPaused = blend(pausedRef, sig, hasPaused);
+        } else if (state == STATE_RUNNING) {
+            hasRunning = blend(runningRef, sig, hasRunning);
+        }
+    }
+
+    private static boolean blend(int[] ref, int[] sig, boolean has) {
+        for (int i = 0; i < GRID * GRID; i++) {
+            ref[i] = has ? (ref[i] * 3 + sig[i]) / 4 : sig[i];
+        }
+        return true;
+    }
+
+    /**
+     * 按钮坐标或屏幕变化后参考失效。
+     */
+    void reset() {
+        hasPaused = false;
+        hasRunning = false;
+    }
+
+    /**
+     * 每格平均亮度差。
+     */
+    private static int distance(int[] a, int[] b) {
+        int sum = 0;
+        for (int i = 0; i < GRID * GRID; i++) {
+            sum += Math.abs(a[i] - b[i]);
+        }
+        return sum / (GRID * GRID);
+    }
+
+    static String stateName(int state) {
+        switch (state) {
+            case STATE_PAUSED:
+                return "paused";
+            case STATE_RUNNING:
+                return "running";
+            default:
+                return "unknown";
+        }
+    }
+}
@@ -1,24 +1,47 @@
 package com.miao3strikemod.matches;
 
 import android.accessibilityservice.AccessibilityService;
+import android.accessibilityservice.AccessibilityServiceInfo;
 import android.accessibilityservice.GestureDescription;
 import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.PointF;
 import android.graphics.PixelFormat;
+import android.hardware.HardwareBuffer;
+import android.hardware.display.DisplayManager;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewGroup;
 import android.view.WindowManager;
+import android.view.Display;
+import android.view.DisplayCutout;
 import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
 /**
  * 无障碍服务：负责一次性录制拖动并执行宏（点击按钮中心 -> 拖动 -> 返回）。
@@ -26,14 +49,21 @@ import android.view.accessibility.AccessibilityEvent;
 public class VolumeKeyAccessibilityService extends AccessibilityService {
 
     private static final String TAG = "VolumeKeyService";
+    // systrace / Perfetto 区间名：同步区间包住主线程或宏线程上的一段执行，异步区间跨线程（API 29+）。
+    private static final String TRACE_TRIGGER = "macro.trigger";
+    private static final String TRACE_OVERLAY_HIDE = "macro.overlayHide";
+    private static final String TRACE_DISPATCH = "macro.dispatch";
+    private static final String TRACE_CALLBACK = "macro.callback";
+    private static final String TRACE_GLOBAL_ACTION = "macro.globalAction";
+    private static final String TRACE_FINISH = "macro.finish";
+    // 下标为 MacroTimeline.TYPE_*。
+    private static final String[] TRACE_RUN_NAMES = {
+            "macro.run", "macro.run:drag", "macro.run:click", "macro.run:step", "macro.run:preset",
+    };
     private static VolumeKeyAccessibilityService instance;
     private static boolean functionEnabled = false;
     private static boolean masterEnabled = false;
 
-    private static final String PREF_KEY_BUTTON_CENTER_CUSTOMIZED = "button_center_customized";
-    private static final String PREF_KEY_BUTTON_CENTER_X = "button_center_x";
-    private static final String PREF_KEY_BUTTON_CENTER_Y = "button_center_y";
-
     // 坐标比例（基于 1920x1080 给定点计算得到）
     private static final float BUTTON_CENTER_RX = 0.9370f;
     private static final float BUTTON_CENTER_RY = 0.0745f;
@@ -42,12 +72,58 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
     // 拖动时长（可配置）用于宏注入；为避免被系统忽略，建议不要过小。
     private static final long DRAG_TIMEOUT_MS = 3000L;
     private static final float MIN_DRAG_DISTANCE_PX = 5f;
-
-    private static final long TAP_DURATION_MS = 10L;
-    private static final long MACRO_TIMEOUT_MS = 5000L;
+    // 取不到屏幕刷新率时按 60Hz 换算帧数。
+    private static final float DEFAULT_REFRESH_RATE_HZ = 60f;
 
     private static final float BUTTON_MARKER_RADIUS_DP = 10f;
     private static final float BUTTON_MARKER_TOUCH_RADIUS_DP = 26f;
+    private static final float ARROW_POINT_RADIUS_PX = 12f;
+    private static final float ARROW_HEAD_LENGTH_PX = 36f;
+    private static final float ARROW_HEAD_WIDTH_PX = 14f;
+    private static final float ARROW_LINE_STROKE_PX = 8f;
+    // 箭头包围盒相对两端点外扩的距离：箭头尖两翼离终点 hypot(长, 半宽)，箭头很短时会伸出起点一侧；
+    // 同时覆盖端点圆与半个描边，另加 1px 抗锯齿边缘。
+    private static final int ARROW_BOUNDS_PAD_PX = (int) Math.ceil(Math.max(
+            Math.hypot(ARROW_HEAD_LENGTH_PX, ARROW_HEAD_WIDTH_PX),
+            Math.max(ARROW_POINT_RADIUS_PX, ARROW_LINE_STROKE_PX / 2f))) + 1;
+
+    // 游戏（各服）包名：只有这些窗口在前台时才挂载 overlay、预热缓存并接管音量键。
+    private static final String[] GAME_PACKAGES = {
+            "com.hypergryph.arknights",
+            "com.hypergryph.arknights.bilibili",
+            "com.YoStarEN.Arknights",
+            "com.YoStarJP.Arknights",
+            "com.YoStarKR.Arknights",
+            "tw.txwy.and.arknights",
+    };
+    // 通知栏、音量条等系统界面短暂盖在游戏上时不算离开游戏。
+    private static final String SYSTEM_UI_PACKAGE = "com.android.systemui";
+    // 非游戏窗口事件之后等一会儿再确认前台窗口，避免转场、弹窗造成反复释放/预热。
+    private static final long FOREGROUND_CHECK_DELAY_MS = 300L;
+
+    // 运行时切换的无障碍订阅档位，见 updateServiceProfile。
+    private static final int PROFILE_NONE = -1;
+    private static final int PROFILE_IDLE = 0;
+    private static final int PROFILE_GAME = 1;
+    private static final int PROFILE_MACRO = 2;
+    // 游戏前台时离开检测本来就有 300ms 防抖，事件可以合并投递。
+    private static final long GAME_PROFILE_NOTIFICATION_TIMEOUT_MS = 100L;
+    // 预计短于此时长的宏不切宏档位：游戏档位的事件本来就合并投递，来回两次 setServiceInfo 得不偿失。
+    private static final long MACRO_PROFILE_MIN_DURATION_MS = 500L;
+
+    // 截图校验暂停：宏结束后等一帧左右再截图，让暂停画面先渲染出来。
+    private static final long PAUSE_VERIFY_SETTLE_MS = 50L;
+    // 系统限制无障碍截图的最小间隔（约 333ms），连续截图至少隔这么久。
+    private static final long SCREENSHOT_INTERVAL_MS = 350L;
+    // 每次宏结束最多补点一次暂停，避免判断错误时反复切换暂停状态；补点后的状态仍会截图确认。
+    private static final int MAX_PAUSE_CORRECTIONS = 1;
+    // 截图取样失败时交给主线程的结果，不属于 PauseStateDetector 的任何状态。
+    private static final int PAUSE_VERIFY_FAILED = -1;
+    // 自动校准：未找到按钮时（例如还没进战斗）每隔一段时间重试，最多重试这么多次。
+    private static final long AUTO_CALIBRATE_RETRY_MS = 1000L;
+    // 回调延迟统计每积累这么多个样本持久化一次。
+    private static final int FALLBACK_SAVE_SAMPLES = 32;
+    private static final int AUTO_CALIBRATE_MAX_ATTEMPTS = 30;
 
     private static final int RECORDING_MODE_NONE = 0;
     private static final int RECORDING_MODE_DRAG = 1;
@@ -58,10 +134,137 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
     private WindowManager overlayWindowManager;
     private RecordingOverlayView overlayView;
     private WindowManager.LayoutParams overlayParams;
+    private boolean overlayArmed;
+
+    // 宏调度与手势回调专用线程：不与 overlay 触摸、绘制、updateViewLayout 等主线程工作抢占。
+    // macroEngine 只在该线程上访问；主线程通过 activeTimeline 记录当前派出去的宏。
+    private HandlerThread macroThread;
+    private Handler macroHandler;
+    private MacroEngine macroEngine;
+    private MacroTimeline activeTimeline;
+    // 已派出第一步、可以切到宏档位的那次执行；与 activeTimeline 相同时才生效。
+    private MacroTimeline macroProfileTimeline;
+    private final MacroTimingRecorder timingRecorder =
+            new MacroTimingRecorder(SystemClock::elapsedRealtimeNanos, MacroTimingRecorder.DEFAULT_CAPACITY);
+    // 宏热路径的事件记录，代替逐步拼接字符串的 Log.d；“宏耗时统计”中导出，
+    // adb shell setprop log.tag.VolumeKeyService DEBUG 后同时逐条输出到 logcat。
+    private final MacroTrace trace = new MacroTrace(SystemClock::elapsedRealtimeNanos, MacroTrace.DEFAULT_CAPACITY);
+    // 本机手势回调延迟统计，决定兜底等待；宏线程记录，主线程定期持久化。
+    private GestureFallbackEstimator fallbackEstimator;
+    // 自动调优开启时才加载（主线程访问）；关闭后置空，重新开启时从持久化状态继续。
+    private DelayAutotuner autotuner;
+    // 配置快照被替换时（设置保存、校准）在主线程回调，只重建真正受影响的缓存。
+    private final MacroConfig.SnapshotListener configListener = (previous, current) -> {
+        // 恢复初始设定会关闭自动调优并清空调优结果，这里一并丢弃内存中的调优器。
+        if (!current.autotuneEnabled) {
+            autotuner = null;
+        }
+        if (previous == null || previous.gameDetectionEnabled != current.gameDetectionEnabled) {
+            applyGameState();
+        }
+        if (!current.sameButtonCenter(previous)) {
+            refreshButtonCache();
+        } else {
+            prepareStepMacro();
+            preparePresetMacros();
+        }
+        if (previous == null || !current.sameButtonCenter(previous)
+                || previous.autoCalibrateEnabled != current.autoCalibrateEnabled) {
+            maybeStartAutoCalibration();
+        }
+        updateKeyBindings(current);
+    };
+
+    // 按键到宏动作的映射（主线程访问）；绑定表只在内容变化时替换，避免打断正在判定的按键。
+    private final KeyBindingEngine keyBindings = new KeyBindingEngine(new KeyBindingEngine.Scheduler() {
+        @Override
+        public void postAtTime(Runnable runnable, long uptimeMs) {
+            handler.postAtTime(runnable, uptimeMs);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable runnable) {
+            handler.removeCallbacks(runnable);
+        }
+    }, new KeyBindingEngine.Listener() {
+        @Override
+        public void onTriggered(KeyBindingEngine.Binding binding, long eventTimeMs) {
+            onKeyBindingTriggered(binding);
+        }
+
+        @Override
+        public void onReleased(KeyBindingEngine.Binding binding, long eventTimeMs) {
+            onKeyBindingReleased(binding);
+        }
+    });
+    private String keyBindingsEncoded;
+
+    // 游戏窗口是否在前台（由窗口状态事件维护，主线程访问）。
+    private boolean gameForeground;
+    // 是否处于预热状态：overlay 已挂载、缓存已建好、按键过滤已开启。
+    private boolean armedForGame;
+    private final Runnable foregroundCheck = this::checkForeground;
+    private final Runnable profileUpdate = this::updateServiceProfile;
+    private int serviceProfile = PROFILE_NONE;
+    // 预热时提前编译好的步进宏，只用一次：复用同一批回调会把上一次迟到的回调算到下一次头上。
+    private CompiledMacro preparedStepMacro;
+    private boolean preparedStepHold;
+    // 已绑定按键或浮窗长按的预设，按名称预编译好，同样只用一次。
+    private final HashMap<String, CompiledMacro> preparedPresetMacros = new HashMap<>();
+    // 最近一次录制（归一化坐标），可在设置中存为预设；只在内存中保留。
+    private MacroPreset lastRecording;
+
+    // 截图（API 30+）在 screenshotThread 上解码取样，判断、补点与保存在主线程。
+    private HandlerThread screenshotThread;
+    private Handler screenshotHandler;
+
+    // 截图校验暂停：检测器与以下缓冲只在 screenshotThread 上使用，主线程只收到判断出的状态。
+    private final PauseStateDetector pauseDetector = new PauseStateDetector();
+    private int[] verifyRoiPixels;
+    private final int[] verifySignature = new int[PauseStateDetector.GRID * PauseStateDetector.GRID];
+    private final int[] verifyMotion = new int[PauseStateDetector.MOTION_GRID * PauseStateDetector.MOTION_GRID];
+    private final int[] previousMotion = new int[PauseStateDetector.MOTION_GRID * PauseStateDetector.MOTION_GRID];
+    // previousMotion 属于哪一次截图判断；-1 表示没有。
+    private int previousMotionRunId = -1;
+    // 每次开始校验自增；新宏启动、离开游戏时也自增，过期的截图结果直接丢弃。
+    // 主线程写入，screenshotThread 取样前先读，过期截图不碰缓冲。
+    private volatile int verifyRunId;
+    private int verifyCorrections;
+
+    // 自动校准暂停按钮：定位器与区域缓冲只在 screenshotThread 上使用。
+    private final PauseButtonLocator buttonLocator = new PauseButtonLocator();
+    private final int[] calibrateRegion = new int[4];
+    private int[] calibratePixels;
+    // 与 verifyRunId 同理：重新开始、离开游戏或手动校准时自增，丢弃过期结果。
+    private int calibrateRunId;
+    private int calibrateAttempts;
+    private boolean calibrating;
+
+    // 暂停按钮坐标与对应点击手势的缓存：宏的第一步只做对象查找；校准保存或显示变化时重建。
+    private PointF cachedButtonCenter;
+    private GestureDescription cachedButtonTap;
+    // 与 cachedButtonCenter 一起在显示变化时重算：当前显示配置在校准表中的键。
+    private String displayProfileKey;
+    private DisplayManager displayManager;
+    private final DisplayManager.DisplayListener displayListener = new DisplayManager.DisplayListener() {
+        @Override
+        public void onDisplayAdded(int displayId) {
+        }
 
-    private MacroState macroState;
-    private ClickMacroState clickMacroState;
-    private StepMacroState stepMacroState;
+        @Override
+        public void onDisplayRemoved(int displayId) {
+        }
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+            if (displayId != Display.DEFAULT_DISPLAY) return;
+            Log.d(TAG, "Default display changed, rebuild button cache");
+            refreshButtonCache();
+            // 新的显示配置可能还没有校准记录；旧配置下进行中的识别结果作废。
+            stopAutoCalibration();
+            maybeStartAutoCalibration();
+        }
+    };
 
     private float buttonCenterX;
     private float buttonCenterY;
@@ -76,29 +279,242 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
     private float currentY;
     private boolean showArrow = false;
     private long dragStartTime;
+    // 批量划火柴：已录制、等待统一执行的拖动，每 4 个数为一组（起点 x、y，终点 x、y）。
+    private final float[] batchDrags = new float[MacroConfig.MAX_DRAG_BATCH_SIZE * 4];
+    // 与 batchDrags 一一对应：开启轨迹录制时为化简后的折线与回放时长（0 表示用设置的拖动时长），否则为 null / 0。
+    private final float[][] batchPaths = new float[MacroConfig.MAX_DRAG_BATCH_SIZE][];
+    private final long[] batchPathDurationsMs = new long[MacroConfig.MAX_DRAG_BATCH_SIZE];
+    private int batchDragCount;
+    private final DragTrajectory dragTrajectory = new DragTrajectory(DragTrajectory.DEFAULT_CAPACITY);
+    // 本次拖动是否在记录完整轨迹（按下时读取配置，避免拖动途中切换）。
+    private boolean capturingPath;
 
     private int recordingMode = RECORDING_MODE_NONE;
     private boolean clickCaptureActive = false;
     private boolean clickMacroRunning = false;
     private boolean resumeDragAfterClickCapture = false;
     private boolean stepMacroRunning = false;
+    // 按住连续步进中：松开触发它的按键时叫停循环。
+    private boolean stepHoldRepeatActive = false;
 
     @Override
     public void onCreate() {
         super.onCreate();
+        macroThread = new HandlerThread("MacroThread", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        macroThread.start();
+        macroHandler = new Handler(macroThread.getLooper());
+        MacroEngine.Listener listener = new MacroEngine.Listener() {
+            @Override
+            public void onMacroFinished(MacroTimeline timeline) {
+                handler.post(() -> onMacroEnded(timeline, null));
+            }
+
+            @Override
+            public void onMacroAborted(MacroTimeline timeline, String reason) {
+                handler.post(() -> onMacroEnded(timeline, reason));
+            }
+        };
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            trace.setSink(line -> Log.d(TAG, line));
+        }
+        fallbackEstimator = MacroConfig.loadFallbackEstimator(this);
+        macroEngine = new MacroEngine(new HandlerScheduler(macroHandler), listener, timingRecorder, fallbackEstimator);
+        updateKeyBindings(MacroConfig.snapshot(this));
+        MacroConfig.addSnapshotListener(configListener);
         instance = this;
     }
 
+    @Override
+    protected void onServiceConnected() {
+        super.onServiceConnected();
+        displayManager = (DisplayManager) getSystemService(DISPLAY_SERVICE);
+        if (displayManager != null) {
+            displayManager.registerDisplayListener(displayListener, handler);
+        }
+        migrateLegacyButtonCenter();
+        CharSequence foreground = getActiveWindowPackage();
+        gameForeground = foreground != null && isGamePackage(foreground);
+        // 配置文件中的静态声明只是连接前的默认值，这里按当前状态强制同步一次。
+        armedForGame = !shouldArmForGame();
+        serviceProfile = PROFILE_NONE;
+        applyGameState();
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
-        removeOverlay();
+        MacroConfig.removeSnapshotListener(configListener);
+        keyBindings.reset();
+        handler.removeCallbacks(foregroundCheck);
+        handler.removeCallbacks(profileUpdate);
+        if (displayManager != null) {
+            displayManager.unregisterDisplayListener(displayListener);
+            displayManager = null;
+        }
+        detachOverlay();
+        activeTimeline = null;
+        verifyRunId++;
+        stopAutoCalibration();
+        if (screenshotThread != null) {
+            screenshotThread.quitSafely();
+            screenshotThread = null;
+            screenshotHandler = null;
+        }
+        if (macroThread != null) {
+            macroHandler.post(macroEngine::cancel);
+            macroThread.quitSafely();
+            macroThread = null;
+        }
         instance = null;
     }
 
+    /**
+     * 只关心窗口状态变化：游戏窗口出现立即预热；其他窗口出现时延迟确认前台窗口，真正离开游戏才释放。
+     */
     @Override
     public void onAccessibilityEvent(AccessibilityEvent event) {
-        // 未使用
+        if (event == null || event.getEventType() != AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED) return;
+        CharSequence packageName = event.getPackageName();
+        if (packageName == null) return;
+        if (isGamePackage(packageName)) {
+            handler.removeCallbacks(foregroundCheck);
+            setGameForeground(true);
+        } else if (gameForeground) {
+            handler.removeCallbacks(foregroundCheck);
+            handler.postDelayed(foregroundCheck, FOREGROUND_CHECK_DELAY_MS);
+        }
+    }
+
+    private void checkForeground() {
+        CharSequence packageName = getActiveWindowPackage();
+        if (packageName == null || SYSTEM_UI_PACKAGE.contentEquals(packageName)) return;
+        setGameForeground(isGamePackage(packageName));
+    }
+
+    private CharSequence getActiveWindowPackage() {
+        AccessibilityNodeInfo root;
+        try {
+            root = getRootInActiveWindow();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "getRootInActiveWindow failed", e);
+            return null;
+        }
+        if (root == null) return null;
+        CharSequence packageName = root.getPackageName();
+        root.recycle();
+        return packageName;
+    }
+
+    private static boolean isGamePackage(CharSequence packageName) {
+        for (String game : GAME_PACKAGES) {
+            if (game.contentEquals(packageName)) return true;
+        }
+        return false;
+    }
+
+    private void setGameForeground(boolean foreground) {
+        if (gameForeground == foreground) return;
+        gameForeground = foreground;
+        Log.d(TAG, foreground ? "Game entered foreground" : "Game left foreground");
+        applyGameState();
+    }
+
+    private boolean shouldArmForGame() {
+        return masterEnabled && (gameForeground || !MacroConfig.snapshot(this).gameDetectionEnabled);
+    }
+
+    /**
+     * 总开关打开且游戏在前台（或关闭了前台检测）时预热：开启按键过滤、挂载 overlay、建好按钮缓存、
+     * 加载调优状态并预编译步进宏；否则全部释放，其他应用里音量键不再经过本服务。
+     */
+    private void applyGameState() {
+        boolean arm = shouldArmForGame();
+        if (arm == armedForGame) return;
+        armedForGame = arm;
+        updateServiceProfile();
+        if (arm) {
+            attachOverlay();
+            rebuildButtonCache();
+            loadMacroDelays(MacroConfig.snapshot(this));
+            prepareStepMacro();
+            preparePresetMacros();
+            Log.d(TAG, "Armed for game");
+            maybeStartAutoCalibration();
+            return;
+        }
+        if (isClickCaptureInProgressInternal()) {
+            cancelClickCaptureInternal("left_game");
+        }
+        if (stepMacroRunning) {
+            abortStepMacro("left_game");
+        }
+        cancelPresetMacroIfRunning("left_game");
+        if (functionEnabled) {
+            setFunctionEnabled(false);
+        }
+        keyBindings.reset();
+        detachOverlay();
+        verifyRunId++;
+        stopAutoCalibration();
+        preparedStepMacro = null;
+        preparedPresetMacros.clear();
+        cachedButtonCenter = null;
+        cachedButtonTap = null;
+        autotuner = null;
+        Log.d(TAG, "Released for background");
+    }
+
+    /**
+     * 按当前状态切换无障碍订阅，只订阅当下需要的最小事件集合，减少跨进程事件投递和唤醒：
+     * <ul>
+     * <li>空闲：只收游戏包名的窗口状态事件（用于发现游戏回到前台），不过滤按键；</li>
+     * <li>游戏前台：收所有包名的窗口状态事件（用于发现离开游戏），过滤按键；</li>
+     * <li>宏执行中：不收任何事件，只保留按键过滤，避免事件投递与手势回调抢占；结束后补一次前台确认。</li>
+     * </ul>
+     * setServiceInfo 是一次跨进程调用，只在档位变化时调用。宏档位只给预计较长的宏，
+     * 且等宏线程派出第一步手势后才切换（见 {@link #enterMacroProfile}），不与启动时的派发争抢。
+     */
+    private void updateServiceProfile() {
+        int profile;
+        if (!armedForGame) {
+            profile = PROFILE_IDLE;
+        } else if (activeTimeline != null && activeTimeline == macroProfileTimeline) {
+            profile = PROFILE_MACRO;
+        } else {
+            profile = PROFILE_GAME;
+        }
+        if (profile == serviceProfile) return;
+        AccessibilityServiceInfo info = getServiceInfo();
+        if (info == null) return;
+        int previous = serviceProfile;
+        info.flags = AccessibilityServiceInfo.DEFAULT;
+        switch (profile) {
+            case PROFILE_IDLE:
+                info.eventTypes = AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED;
+                info.packageNames = GAME_PACKAGES;
+                info.notificationTimeout = 0L;
+                break;
+            case PROFILE_GAME:
+                info.eventTypes = AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED;
+                info.packageNames = null;
+                info.notificationTimeout = GAME_PROFILE_NOTIFICATION_TIMEOUT_MS;
+                info.flags |= AccessibilityServiceInfo.FLAG_REQUEST_FILTER_KEY_EVENTS;
+                break;
+            default:
+                info.eventTypes = 0;
+                info.packageNames = GAME_PACKAGES;
+                info.notificationTimeout = 0L;
+                info.flags |= AccessibilityServiceInfo.FLAG_REQUEST_FILTER_KEY_EVENTS;
+                break;
+        }
+        setServiceInfo(info);
+        serviceProfile = profile;
+        Log.d(TAG, "Service profile " + previous + " -> " + profile);
+        if (previous == PROFILE_MACRO && profile == PROFILE_GAME) {
+            // 宏执行期间没有收窗口事件，补一次确认，防止错过离开游戏。
+            handler.removeCallbacks(foregroundCheck);
+            handler.postDelayed(foregroundCheck, FOREGROUND_CHECK_DELAY_MS);
+        }
     }
 
     @Override
@@ -112,45 +528,136 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
         if (!masterEnabled) {
             return false;
         }
-        if (event.getKeyCode() == KeyEvent.KEYCODE_VOLUME_UP
-                && event.getAction() == KeyEvent.ACTION_DOWN) {
-            if (macroState != null) {
-                Log.d(TAG, "Ignore volume+ while drag macro running");
-                return true;
-            }
-            if (isClickCaptureInProgressInternal()) {
-                cancelClickCaptureInternal("volume_key_cancel");
-                return true;
-            }
-            if (!MacroConfig.isClickCaptureEnabled(this)) {
-                return false;
-            }
-            startClickCaptureOverlay();
+        // 没有绑定的键（绝大多数按键事件）直接交还系统，不进入引擎的状态机。
+        if (!keyBindings.handlesKey(event.getKeyCode())) {
+            return super.onKeyEvent(event);
+        }
+        // 单击绑定在按下事件里同步触发；双击、长按、组合键由引擎按事件时间计时判定。
+        if (event.getAction() == KeyEvent.ACTION_DOWN
+                && keyBindings.onKeyDown(event.getKeyCode(), event.getRepeatCount(), event.getEventTime())) {
             return true;
         }
-        if (event.getKeyCode() == KeyEvent.KEYCODE_VOLUME_DOWN
-                && event.getAction() == KeyEvent.ACTION_DOWN) {
-            if (macroState != null) {
-                Log.d(TAG, "Ignore volume- while drag macro running");
-                return true;
-            }
-            if (isClickCaptureInProgressInternal()) {
-                cancelClickCaptureInternal("volume_down_cancel");
-                return true;
-            }
-            if (stepMacroRunning) {
-                cancelStepMacroIfRunning("volume_down_cancel");
-                return true;
-            }
-            if (!MacroConfig.isStepMacroEnabled(this)) {
-                return false;
-            }
-            runStepMacroSequence(computeButtonCenter());
+        if (event.getAction() == KeyEvent.ACTION_UP
+                && keyBindings.onKeyUp(event.getKeyCode(), event.getEventTime())) {
             return true;
         }
         return super.onKeyEvent(event);
     }
 
+    /**
+     * 按配置生成完整绑定表：默认的音量键单击、预设绑定的按键、自定义绑定，后者覆盖前者。
+     */
+    private void updateKeyBindings(MacroConfig.Snapshot config) {
+        List<KeyBindingEngine.Binding> bindings = new ArrayList<>();
+        if (config.clickCaptureEnabled) {
+            bindings.add(KeyBindingEngine.Binding.single(KeyEvent.KEYCODE_VOLUME_UP,
+                    KeyBindingEngine.ACTION_CLICK_CAPTURE, null));
+        }
+        if (config.stepMacroEnabled) {
+            bindings.add(KeyBindingEngine.Binding.single(KeyEvent.KEYCODE_VOLUME_DOWN,
+                    KeyBindingEngine.ACTION_STEP, null));
+        }
+        for (MacroPreset preset : config.presets) {
+            if (preset.keyCode != 0) {
+                bindings.add(KeyBindingEngine.Binding.single(preset.keyCode,
+                        KeyBindingEngine.ACTION_PRESET, preset.name));
+            }
+        }
+        bindings.addAll(config.keyBindings);
+        String encoded = KeyBindingEngine.encodeAll(bindings);
+        if (encoded.equals(keyBindingsEncoded)) return;
+        keyBindingsEncoded = encoded;
+        keyBindings.setBindings(bindings);
+        Log.d(TAG, "Key bindings updated, count=" + bindings.size());
+    }
+
+    private void onKeyBindingTriggered(KeyBindingEngine.Binding binding) {
+        switch (binding.action) {
+            case KeyBindingEngine.ACTION_CLICK_CAPTURE:
+                onClickCaptureKey();
+                break;
+            case KeyBindingEngine.ACTION_STEP:
+                onStepKey(MacroConfig.snapshot(this).stepHoldRepeatEnabled);
+                break;
+            case KeyBindingEngine.ACTION_STEP_HOLD:
+                onStepKey(true);
+                break;
+            case KeyBindingEngine.ACTION_RUN_BATCH:
+                runQueuedDragsFromKey();
+                break;
+            case KeyBindingEngine.ACTION_PRESET:
+                runPreset(MacroPreset.find(MacroConfig.snapshot(this).presets, binding.argument));
+                break;
+            case KeyBindingEngine.ACTION_CANCEL:
+                cancelAllFromKey();
+                break;
+            default:
+                Log.w(TAG, "Unknown key binding " + binding);
+                break;
+        }
+    }
+
+    private void onKeyBindingReleased(KeyBindingEngine.Binding binding) {
+        if ((binding.action == KeyBindingEngine.ACTION_STEP || binding.action == KeyBindingEngine.ACTION_STEP_HOLD)
+                && stepHoldRepeatActive) {
+            stepHoldRepeatActive = false;
+            stopStepRepeat();
+        }
+    }
+
+    private void onClickCaptureKey() {
+        if (isMacroRunning(MacroTimeline.TYPE_DRAG)) {
+            Log.d(TAG, "Ignore click capture key while drag macro running");
+            return;
+        }
+        if (isClickCaptureInProgressInternal()) {
+            cancelClickCaptureInternal("volume_key_cancel");
+            return;
+        }
+        startClickCaptureOverlay();
+    }
+
+    private void onStepKey(boolean holdToRepeat) {
+        if (isMacroRunning(MacroTimeline.TYPE_DRAG)) {
+            Log.d(TAG, "Ignore step key while drag macro running");
+            return;
+        }
+        if (isClickCaptureInProgressInternal()) {
+            cancelClickCaptureInternal("volume_down_cancel");
+            return;
+        }
+        if (stepMacroRunning) {
+            abortStepMacro("volume_down_cancel");
+            return;
+        }
+        runStepMacroSequence(getButtonCenter(), holdToRepeat);
+    }
+
+    /**
+     * 批量录制中途用按键提前执行，效果同 overlay 上轻点一下。
+     */
+    private void runQueuedDragsFromKey() {
+        if (batchDragCount == 0 || recordingActive || activeTimeline != null) {
+            trace.record(MacroTrace.EV_RUN_BATCH, batchDragCount, recordingActive ? 1 : 0, 0, "ignored");
+            return;
+        }
+        trace.record(MacroTrace.EV_RUN_BATCH, batchDragCount, 0);
+        runQueuedDrags();
+    }
+
+    private void cancelAllFromKey() {
+        if (isClickCaptureInProgressInternal()) {
+            cancelClickCaptureInternal("key_cancel");
+        }
+        if (stepMacroRunning) {
+            abortStepMacro("key_cancel");
+        }
+        cancelPresetMacroIfRunning("key_cancel");
+        if (functionEnabled) {
+            setFunctionEnabled(false);
+        }
+    }
+
     /**
     * 开关由浮窗控制；开启时进入录制待机，关闭时清理。
     */
@@ -175,10 +682,18 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
     public static void setMasterEnabled(boolean enabled) {
         masterEnabled = enabled;
         VolumeKeyAccessibilityService svc = instance;
-        if (!enabled && svc != null) {
+        if (svc == null) return;
+        if (enabled) {
+            // 空闲档位只收游戏的窗口事件，期间可能错过离开游戏，开启前重新确认一次。
+            CharSequence foreground = svc.getActiveWindowPackage();
+            if (foreground != null) {
+                svc.gameForeground = isGamePackage(foreground);
+            }
+        } else {
             svc.abortStepMacro("master_disabled");
             setFunctionEnabled(false);
         }
+        svc.applyGameState();
     }
 
     public static boolean isMasterEnabled() {
@@ -189,6 +704,74 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
         return instance;
     }
 
+    /**
+     * 最近若干次宏执行的耗时分位数汇总；服务未运行时返回 null。
+     */
+    public static String getMacroTimingReport() {
+        VolumeKeyAccessibilityService svc = instance;
+        if (svc == null) return null;
+        String report = svc.timingRecorder.buildReport();
+        String fallbacks = svc.fallbackEstimator.describe();
+        if (!fallbacks.isEmpty()) {
+            report = report + "手势回调与兜底\n" + fallbacks + "\n";
+        }
+        DelayAutotuner tuner = svc.autotuner;
+        return tuner != null ? report + "自动调优\n" + tuner.describe() + "\n" : report;
+    }
+
+    /**
+     * 解码宏事件记录（最近 {@link MacroTrace#DEFAULT_CAPACITY} 条）；服务未运行时返回 null。
+     */
+    public static String getMacroTrace() {
+        VolumeKeyAccessibilityService svc = instance;
+        return svc != null ? svc.trace.export() : null;
+    }
+
+    /**
+     * 把最近若干次宏执行导出为 Chrome trace-event JSON 文件（应用外部文件目录，不可用时退回内部目录），
+     * 可与同时段的系统 trace 一起在 Perfetto 中打开；服务未运行或写入失败时返回 null。
+     */
+    public static File exportMacroChromeTrace() {
+        VolumeKeyAccessibilityService svc = instance;
+        if (svc == null) return null;
+        File dir = svc.getExternalFilesDir(null);
+        if (dir == null) dir = svc.getFilesDir();
+        File file = new File(dir, "macro_trace_" + System.currentTimeMillis() + ".json");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(svc.timingRecorder.exportChromeTrace());
+        } catch (IOException e) {
+            Log.w(TAG, "Export chrome trace failed: " + e);
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * 把最近一次录制存为预设；服务未运行或还没有录制时返回 false。
+     */
+    public static boolean saveLastRecordingAsPreset(String name) {
+        VolumeKeyAccessibilityService svc = instance;
+        MacroPreset recording = svc != null ? svc.lastRecording : null;
+        String cleaned = MacroPreset.sanitizeName(name);
+        if (recording == null || cleaned.isEmpty()) return false;
+        MacroConfig.savePreset(svc, recording.withName(cleaned));
+        return true;
+    }
+
+    public static boolean hasLastRecording() {
+        VolumeKeyAccessibilityService svc = instance;
+        return svc != null && svc.lastRecording != null;
+    }
+
+    /**
+     * 浮窗长按：回放设定的预设。
+     */
+    public static boolean runFloatingPreset() {
+        VolumeKeyAccessibilityService svc = instance;
+        if (svc == null || !masterEnabled) return false;
+        return svc.runPreset(MacroConfig.snapshot(svc).floatingPreset());
+    }
+
     public static boolean isClickCaptureInProgress() {
         VolumeKeyAccessibilityService svc = instance;
         return svc != null && svc.isClickCaptureInProgressInternal();
@@ -211,33 +794,30 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
             cancelMacroIfRunning("disabled");
             removeOverlay();
             recordingActive = false;
+            batchDragCount = 0;
         }
     }
 
     /**
-     * 添加全屏透明 overlay 捕获下一次拖动。
+     * 总开关打开期间常驻的全屏 overlay：只添加一次，默认不可见且不可触摸，
+     * 录制时 arm、执行宏或结束时 disarm，避免每轮 addView/removeView 与第一次点暂停抢时序。
      */
-    private void startRecordingOverlay() {
-        if (overlayView != null || !functionEnabled) return;
-
+    private boolean attachOverlay() {
+        if (overlayView != null) return true;
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
             Log.e(TAG, "Gesture dispatch requires API 24+, current=" + Build.VERSION.SDK_INT);
-            failThisRound("api_too_low");
-            return;
+            return false;
         }
 
         overlayWindowManager = (WindowManager) getSystemService(WINDOW_SERVICE);
         if (overlayWindowManager == null) {
-            Log.e(TAG, "WindowManager null, cannot start overlay");
-            return;
+            Log.e(TAG, "WindowManager null, cannot attach overlay");
+            return false;
         }
 
-        PointF initialButtonCenter = computeButtonCenter();
-        buttonCenterX = initialButtonCenter.x;
-        buttonCenterY = initialButtonCenter.y;
-
-        overlayView = new RecordingOverlayView(this);
-        overlayView.setOnTouchListener(this::handleOverlayTouch);
+        RecordingOverlayView view = new RecordingOverlayView(this);
+        view.setOnTouchListener(this::handleOverlayTouch);
+        view.setVisibility(View.INVISIBLE);
 
         int type;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
@@ -248,41 +828,97 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
             type = WindowManager.LayoutParams.TYPE_PHONE;
         }
 
-        overlayParams = new WindowManager.LayoutParams(
+        WindowManager.LayoutParams params = new WindowManager.LayoutParams(
                 WindowManager.LayoutParams.MATCH_PARENT,
                 WindowManager.LayoutParams.MATCH_PARENT,
                 type,
                 WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE
+                        | WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE
                         | WindowManager.LayoutParams.FLAG_LAYOUT_IN_SCREEN
                         | WindowManager.LayoutParams.FLAG_LAYOUT_NO_LIMITS,
                 PixelFormat.TRANSLUCENT
         );
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
-            overlayParams.layoutInDisplayCutoutMode =
+            params.layoutInDisplayCutoutMode =
                     WindowManager.LayoutParams.LAYOUT_IN_DISPLAY_CUTOUT_MODE_SHORT_EDGES;
         }
 
         try {
-            overlayWindowManager.addView(overlayView, overlayParams);
-            Log.d(TAG, "Recording overlay added");
-            recordingMode = RECORDING_MODE_DRAG;
+            overlayWindowManager.addView(view, params);
+            overlayView = view;
+            overlayParams = params;
+            overlayArmed = false;
+            Log.d(TAG, "Overlay attached (disarmed)");
+            return true;
         } catch (Exception e) {
-            Log.e(TAG, "Failed to add overlay", e);
-            overlayView = null;
+            Log.e(TAG, "Failed to attach overlay", e);
+            return false;
         }
     }
 
-    private void removeOverlay() {
+    private void detachOverlay() {
         if (overlayWindowManager != null && overlayView != null) {
             try {
                 overlayWindowManager.removeView(overlayView);
-                Log.d(TAG, "Recording overlay removed");
+                Log.d(TAG, "Overlay detached");
             } catch (Exception e) {
-                Log.e(TAG, "Failed to remove overlay", e);
+                Log.e(TAG, "Failed to detach overlay", e);
             }
         }
         overlayView = null;
         overlayParams = null;
+        overlayArmed = false;
+        recordingMode = RECORDING_MODE_NONE;
+    }
+
+    /**
+     * 切换 overlay 是否可见、可触摸；状态未变时不做任何窗口操作。
+     */
+    private void setOverlayArmed(boolean armed) {
+        if (overlayWindowManager == null || overlayView == null || overlayParams == null) return;
+        if (overlayArmed == armed) return;
+        overlayArmed = armed;
+        overlayView.setVisibility(armed ? View.VISIBLE : View.INVISIBLE);
+        if (armed) {
+            overlayParams.flags &= ~WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE;
+        } else {
+            overlayParams.flags |= WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE;
+        }
+        try {
+            overlayWindowManager.updateViewLayout(overlayView, overlayParams);
+            Log.d(TAG, armed ? "Overlay armed" : "Overlay disarmed");
+        } catch (Exception e) {
+            Log.w(TAG, "setOverlayArmed: updateViewLayout failed", e);
+        }
+    }
+
+    /**
+     * arm overlay 捕获下一次拖动。
+     */
+    private void startRecordingOverlay() {
+        if (recordingMode != RECORDING_MODE_NONE || !functionEnabled) return;
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            Log.e(TAG, "Gesture dispatch requires API 24+, current=" + Build.VERSION.SDK_INT);
+            failThisRound("api_too_low");
+            return;
+        }
+        if (!attachOverlay()) return;
+
+        PointF initialButtonCenter = getButtonCenter();
+        buttonCenterX = initialButtonCenter.x;
+        buttonCenterY = initialButtonCenter.y;
+
+        recordingMode = RECORDING_MODE_DRAG;
+        overlayView.refresh();
+        setOverlayArmed(true);
+    }
+
+    /**
+     * 结束本轮录制：overlay 保持挂载，只 disarm。
+     */
+    private void removeOverlay() {
+        setOverlayArmed(false);
         recordingMode = RECORDING_MODE_NONE;
     }
 
@@ -299,62 +935,28 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
         recordingActive = false;
         showArrow = false;
 
-        if (overlayView != null) {
+        if (recordingMode != RECORDING_MODE_NONE) {
             recordingMode = RECORDING_MODE_CLICK;
-            if (overlayView != null) overlayView.invalidate();
+            if (overlayView != null) overlayView.refresh();
             FloatingWindowService.notifyCaptureState(true);
             Log.d(TAG, "Click capture overlay reused");
             return;
         }
 
-        overlayWindowManager = (WindowManager) getSystemService(WINDOW_SERVICE);
-        if (overlayWindowManager == null) {
-            Log.e(TAG, "WindowManager null, cannot start click capture overlay");
+        if (!attachOverlay()) {
+            Log.e(TAG, "Overlay unavailable, cannot start click capture");
             clickCaptureActive = false;
             return;
         }
 
-        PointF initialButtonCenter = computeButtonCenter();
+        PointF initialButtonCenter = getButtonCenter();
         buttonCenterX = initialButtonCenter.x;
         buttonCenterY = initialButtonCenter.y;
 
-        overlayView = new RecordingOverlayView(this);
-        overlayView.setOnTouchListener(this::handleOverlayTouch);
-
-        int type;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            type = WindowManager.LayoutParams.TYPE_ACCESSIBILITY_OVERLAY;
-        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            type = WindowManager.LayoutParams.TYPE_APPLICATION_OVERLAY;
-        } else {
-            type = WindowManager.LayoutParams.TYPE_PHONE;
-        }
-
-        overlayParams = new WindowManager.LayoutParams(
-                WindowManager.LayoutParams.MATCH_PARENT,
-                WindowManager.LayoutParams.MATCH_PARENT,
-                type,
-                WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE
-                        | WindowManager.LayoutParams.FLAG_LAYOUT_IN_SCREEN
-                        | WindowManager.LayoutParams.FLAG_LAYOUT_NO_LIMITS,
-                PixelFormat.TRANSLUCENT
-        );
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
-            overlayParams.layoutInDisplayCutoutMode =
-                    WindowManager.LayoutParams.LAYOUT_IN_DISPLAY_CUTOUT_MODE_SHORT_EDGES;
-        }
-
-        try {
-            overlayWindowManager.addView(overlayView, overlayParams);
-            recordingMode = RECORDING_MODE_CLICK;
-            FloatingWindowService.notifyCaptureState(true);
-            Log.d(TAG, "Click capture overlay added");
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to add click capture overlay", e);
-            overlayView = null;
-            overlayParams = null;
-            clickCaptureActive = false;
-        }
+        recordingMode = RECORDING_MODE_CLICK;
+        overlayView.refresh();
+        setOverlayArmed(true);
+        FloatingWindowService.notifyCaptureState(true);
     }
 
     private boolean handleOverlayTouch(View v, MotionEvent event) {
@@ -374,7 +976,7 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
                     showArrow = false;
                     buttonCenterDragOffsetX = buttonCenterX - downX;
                     buttonCenterDragOffsetY = buttonCenterY - downY;
-                    if (overlayView != null) overlayView.invalidate();
+                    if (overlayView != null) overlayView.refresh();
                     Log.d(TAG, "Button center drag start x=" + buttonCenterX + ", y=" + buttonCenterY);
                     return true;
                 }
@@ -385,8 +987,12 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
                 currentY = startY;
                 showArrow = true;
                 dragStartTime = System.currentTimeMillis();
-                if (overlayView != null) overlayView.invalidate();
-                Log.d(TAG, "Drag start x=" + startX + ", y=" + startY);
+                capturingPath = MacroConfig.snapshot(this).dragPathEnabled;
+                if (capturingPath) {
+                    dragTrajectory.reset(startX, startY, event.getEventTime());
+                }
+                if (overlayView != null) overlayView.syncArrowPreview();
+                trace.record(MacroTrace.EV_DRAG_START, Math.round(startX), Math.round(startY));
                 return true;
             case MotionEvent.ACTION_MOVE:
                 if (draggingButtonCenter) {
@@ -398,7 +1004,10 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
                 if (recordingActive) {
                     currentX = event.getRawX();
                     currentY = event.getRawY();
-                    if (overlayView != null) overlayView.invalidate();
+                    if (capturingPath) {
+                        addTrajectorySamples(event);
+                    }
+                    if (overlayView != null) overlayView.syncArrowPreview();
                 }
                 return recordingActive;
             case MotionEvent.ACTION_UP:
@@ -423,21 +1032,30 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
                 float dist = (float) Math.hypot(dx, dy);
                 currentX = endX;
                 currentY = endY;
-                if (overlayView != null) overlayView.invalidate();
+                if (capturingPath) {
+                    dragTrajectory.add(endX, endY, event.getEventTime());
+                }
+                if (overlayView != null) overlayView.syncArrowPreview();
 
                 if (duration > DRAG_TIMEOUT_MS) {
                     failThisRound("timeout");
                 } else if (dist < MIN_DRAG_DISTANCE_PX) {
-                    failThisRound("too_short");
+                    if (batchDragCount > 0) {
+                        // 批量模式下轻点一下：不再等凑满，立即执行已录制的拖动。
+                        trace.record(MacroTrace.EV_DRAG_QUEUED, batchDragCount, batchDragCount, 0, "run_early");
+                        runQueuedDrags();
+                    } else {
+                        failThisRound("too_short");
+                    }
                 } else {
-                    Log.d(TAG, "Drag end x=" + endX + ", y=" + endY + ", dur=" + duration + "ms");
+                    trace.record(MacroTrace.EV_DRAG_END, Math.round(endX), Math.round(endY), (int) duration);
                     completeRecording(endX, endY);
                 }
                 return true;
             case MotionEvent.ACTION_CANCEL:
                 if (draggingButtonCenter) {
                     draggingButtonCenter = false;
-                    if (overlayView != null) overlayView.invalidate();
+                    if (overlayView != null) overlayView.refresh();
                     return true;
                 }
                 failThisRound("cancel");
@@ -447,6 +1065,21 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
         }
     }
 
+    /**
+     * 记录一次 ACTION_MOVE 中批量合并的历史采样和当前点。
+     * 历史采样只有窗口坐标，按当前点的 raw 与窗口坐标之差换算到屏幕坐标。
+     */
+    private void addTrajectorySamples(MotionEvent event) {
+        float offsetX = event.getRawX() - event.getX();
+        float offsetY = event.getRawY() - event.getY();
+        int historySize = event.getHistorySize();
+        for (int h = 0; h < historySize; h++) {
+            dragTrajectory.add(event.getHistoricalX(h) + offsetX, event.getHistoricalY(h) + offsetY,
+                    event.getHistoricalEventTime(h));
+        }
+        dragTrajectory.add(event.getRawX(), event.getRawY(), event.getEventTime());
+    }
+
     private boolean handleClickCaptureTouch(MotionEvent event) {
         if (!clickCaptureActive) return false;
 
@@ -476,19 +1109,22 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
         clickCaptureActive = false;
         clickMacroRunning = true;
         showArrow = false;
-        if (overlayView != null) overlayView.invalidate();
+        if (overlayView != null) overlayView.refresh();
 
         deactivateOverlayForMacro();
-        PointF buttonCenter = computeButtonCenter();
+        DisplayMetrics metrics = getOverlayDisplayMetrics();
+        lastRecording = MacroPreset.click(clickPoint.x, clickPoint.y, metrics.widthPixels, metrics.heightPixels);
+        PointF buttonCenter = getButtonCenter();
         runClickMacroSequence(buttonCenter, clickPoint);
     }
 
     private void failThisRound(String reason) {
         Log.w(TAG, "Recording failed: " + reason);
         recordingActive = false;
+        batchDragCount = 0;
         removeOverlay();
         showArrow = false;
-        if (overlayView != null) overlayView.invalidate();
+        if (overlayView != null) overlayView.refresh();
         // 本轮结束，等待用户重新开启
         setFunctionEnabled(false);
     }
@@ -496,14 +1132,45 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
     private void completeRecording(float endX, float endY) {
         recordingActive = false;
         showArrow = false;
-        if (overlayView != null) overlayView.invalidate();
 
-        PointF start = new PointF(startX, startY);
-        PointF end = new PointF(endX, endY);
-        PointF buttonCenter = computeButtonCenter();
+        MacroConfig.Snapshot config = MacroConfig.snapshot(this);
+        int o = batchDragCount * 4;
+        batchDrags[o] = startX;
+        batchDrags[o + 1] = startY;
+        batchDrags[o + 2] = endX;
+        batchDrags[o + 3] = endY;
+        float[] path = null;
+        long pathDurationMs = 0L;
+        if (capturingPath) {
+            path = dragTrajectory.simplify(DragTrajectory.DEFAULT_TOLERANCE_PX, DragTrajectory.DEFAULT_MAX_POINTS);
+            if (path != null && !config.dragPathCompressEnabled) {
+                pathDurationMs = dragTrajectory.durationMs();
+            }
+            trace.record(MacroTrace.EV_DRAG_PATH, dragTrajectory.size(), path != null ? path.length / 2 : 0);
+        }
+        batchPaths[batchDragCount] = path;
+        batchPathDurationsMs[batchDragCount] = pathDurationMs;
+        batchDragCount++;
+        if (overlayView != null) overlayView.refresh();
+
+        int batchSize = config.dragBatchSize;
+        if (batchDragCount < batchSize) {
+            // 游戏仍处于暂停，overlay 保持可触摸，继续录制下一次拖动。
+            trace.record(MacroTrace.EV_DRAG_QUEUED, batchDragCount, batchSize);
+            return;
+        }
+        runQueuedDrags();
+    }
 
+    private void runQueuedDrags() {
+        int count = batchDragCount;
+        batchDragCount = 0;
+        DisplayMetrics metrics = getOverlayDisplayMetrics();
+        lastRecording = MacroPreset.drags(batchDrags, batchPaths, batchPathDurationsMs, count,
+                metrics.widthPixels, metrics.heightPixels);
+        if (overlayView != null) overlayView.refresh();
         deactivateOverlayForMacro();
-        runMacroSequence(buttonCenter, start, end);
+        runMacroSequence(getButtonCenter(), batchDrags, batchPaths, batchPathDurationsMs, count);
     }
 
     @SuppressLint("Deprecated")
@@ -522,8 +1189,58 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
         return getResources().getDisplayMetrics();
     }
 
+    /**
+     * 返回缓存的按钮中心；调用方不得修改返回的对象。
+     */
+    private PointF getButtonCenter() {
+        PointF center = cachedButtonCenter;
+        if (center == null) {
+            rebuildButtonCache();
+            center = cachedButtonCenter;
+        }
+        return center;
+    }
+
+    private void rebuildButtonCache() {
+        PointF center = computeButtonCenter();
+        cachedButtonCenter = center;
+        cachedButtonTap = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            cachedButtonTap = new GestureDescription.Builder()
+                    .addStroke(createTapStroke(center.x, center.y, 0, MacroTimeline.TAP_DURATION_MS))
+                    .build();
+        }
+        trace.record(MacroTrace.EV_BUTTON_CACHE, Math.round(center.x), Math.round(center.y));
+    }
+
+    /**
+     * 按钮坐标或显示变化：预热中立即重建并重新预编译步进宏，否则只丢弃缓存，下次使用时再建。
+     */
+    private void refreshButtonCache() {
+        resetPauseDetector();
+        if (armedForGame) {
+            rebuildButtonCache();
+        } else {
+            cachedButtonCenter = null;
+            cachedButtonTap = null;
+        }
+        prepareStepMacro();
+        preparePresetMacros();
+    }
+
+    /**
+     * 命中按钮中心的标准点击直接复用缓存手势，否则返回 null。
+     */
+    private GestureDescription lookupButtonTap(float x, float y, long durationMs) {
+        PointF center = cachedButtonCenter;
+        if (center == null || durationMs != MacroTimeline.TAP_DURATION_MS) return null;
+        if (center.x != x || center.y != y) return null;
+        return cachedButtonTap;
+    }
+
     private PointF computeButtonCenter() {
         DisplayMetrics metrics = getOverlayDisplayMetrics();
+        displayProfileKey = computeDisplayProfileKey(metrics);
         PointF customized = readCustomizedButtonCenter(metrics);
         if (customized != null) {
             return customized;
@@ -533,35 +1250,78 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
         return new PointF(x, y);
     }
 
+    /**
+     * 分辨率、旋转方向与刘海安全区共同决定按钮的实际位置，任何一项变化都使用单独的校准记录。
+     */
+    private String computeDisplayProfileKey(DisplayMetrics metrics) {
+        int rotation = 0;
+        int left = 0;
+        int top = 0;
+        int right = 0;
+        int bottom = 0;
+        WindowManager wm = overlayWindowManager;
+        if (wm == null) {
+            wm = (WindowManager) getSystemService(WINDOW_SERVICE);
+        }
+        Display display = wm != null ? wm.getDefaultDisplay() : null;
+        if (display != null) {
+            rotation = display.getRotation();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                DisplayCutout cutout = display.getCutout();
+                if (cutout != null) {
+                    left = cutout.getSafeInsetLeft();
+                    top = cutout.getSafeInsetTop();
+                    right = cutout.getSafeInsetRight();
+                    bottom = cutout.getSafeInsetBottom();
+                }
+            }
+        }
+        return CalibrationProfiles.key(metrics.widthPixels, metrics.heightPixels, rotation, left, top, right, bottom);
+    }
+
     private PointF readCustomizedButtonCenter(DisplayMetrics metrics) {
-        try {
-            boolean customized = getSharedPreferences(MacroConfig.PREFS_NAME, MODE_PRIVATE)
-                    .getBoolean(PREF_KEY_BUTTON_CENTER_CUSTOMIZED, false);
-            if (!customized) return null;
-            float x = getSharedPreferences(MacroConfig.PREFS_NAME, MODE_PRIVATE)
-                    .getFloat(PREF_KEY_BUTTON_CENTER_X, -1f);
-            float y = getSharedPreferences(MacroConfig.PREFS_NAME, MODE_PRIVATE)
-                    .getFloat(PREF_KEY_BUTTON_CENTER_Y, -1f);
-            if (x < 0f || y < 0f) return null;
-            float maxX = Math.max(0f, metrics.widthPixels - 1f);
-            float maxY = Math.max(0f, metrics.heightPixels - 1f);
-            float clampedX = clamp(x, 0f, maxX);
-            float clampedY = clamp(y, 0f, maxY);
-            return new PointF(clampedX, clampedY);
-        } catch (Exception e) {
-            Log.w(TAG, "readCustomizedButtonCenter failed", e);
+        MacroConfig.Snapshot config = MacroConfig.snapshot(this);
+        float x;
+        float y;
+        float[] normalized = config.buttonCenterProfiles.get(displayProfileKey);
+        if (normalized != null) {
+            x = normalized[0] * metrics.widthPixels;
+            y = normalized[1] * metrics.heightPixels;
+        } else if (config.buttonCenterCustomized) {
+            // 尚未迁移的旧版绝对坐标。
+            x = config.buttonCenterX;
+            y = config.buttonCenterY;
+        } else {
             return null;
         }
+        if (x < 0f || y < 0f) return null;
+        float maxX = Math.max(0f, metrics.widthPixels - 1f);
+        float maxY = Math.max(0f, metrics.heightPixels - 1f);
+        float clampedX = clamp(x, 0f, maxX);
+        float clampedY = clamp(y, 0f, maxY);
+        return new PointF(clampedX, clampedY);
+    }
+
+    /**
+     * 旧版只保存了一组绝对坐标，无从得知当时的显示配置；按当前配置写入校准表，之后各配置分别校准。
+     */
+    private void migrateLegacyButtonCenter() {
+        MacroConfig.Snapshot config = MacroConfig.snapshot(this);
+        if (!config.buttonCenterCustomized || config.buttonCenterProfiles.size() > 0) return;
+        if (config.buttonCenterX < 0f || config.buttonCenterY < 0f) return;
+        DisplayMetrics metrics = getOverlayDisplayMetrics();
+        float x = clamp(config.buttonCenterX, 0f, Math.max(0f, metrics.widthPixels - 1f));
+        float y = clamp(config.buttonCenterY, 0f, Math.max(0f, metrics.heightPixels - 1f));
+        Log.d(TAG, "Migrate legacy button center x=" + x + ", y=" + y);
+        persistButtonCenter(x, y);
     }
 
     private void persistButtonCenter(float x, float y) {
         try {
-            getSharedPreferences(MacroConfig.PREFS_NAME, MODE_PRIVATE)
-                    .edit()
-                    .putBoolean(PREF_KEY_BUTTON_CENTER_CUSTOMIZED, true)
-                    .putFloat(PREF_KEY_BUTTON_CENTER_X, x)
-                    .putFloat(PREF_KEY_BUTTON_CENTER_Y, y)
-                    .apply();
+            DisplayMetrics metrics = getOverlayDisplayMetrics();
+            String key = computeDisplayProfileKey(metrics);
+            // 写入后配置快照随之替换，按钮缓存由 configListener 重建。
+            MacroConfig.setButtonCenterProfile(this, key, x / metrics.widthPixels, y / metrics.heightPixels);
         } catch (Exception e) {
             Log.w(TAG, "persistButtonCenter failed", e);
         }
@@ -580,237 +1340,676 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
     }
 
     private void deactivateOverlayForMacro() {
-        if (overlayWindowManager == null || overlayView == null || overlayParams == null) return;
+        Trace.beginSection(TRACE_OVERLAY_HIDE);
         try {
-            overlayView.setAlpha(0f);
-            overlayView.setVisibility(View.INVISIBLE);
-        } catch (Exception e) {
-            Log.w(TAG, "deactivateOverlayForMacro: view hide failed", e);
-        }
-        try {
-            overlayParams.flags |= WindowManager.LayoutParams.FLAG_NOT_TOUCHABLE;
-            overlayWindowManager.updateViewLayout(overlayView, overlayParams);
-            Log.d(TAG, "Overlay deactivated for macro (invisible + not touchable)");
-        } catch (Exception e) {
-            Log.w(TAG, "deactivateOverlayForMacro: updateViewLayout failed", e);
+            setOverlayArmed(false);
+        } finally {
+            Trace.endSection();
         }
     }
 
     private boolean isTouchNearButtonCenter(float rawX, float rawY) {
         float dx = rawX - buttonCenterX;
         float dy = rawY - buttonCenterY;
-        float r = dpToPx(BUTTON_MARKER_TOUCH_RADIUS_DP);
+        RecordingOverlayView view = overlayView;
+        if (view == null) return false;
+        float r = view.markerTouchRadiusPx;
         return (dx * dx + dy * dy) <= (r * r);
     }
 
-    private float dpToPx(float dp) {
-        return dp * getResources().getDisplayMetrics().density;
-    }
-
     private static float clamp(float value, float min, float max) {
         return Math.max(min, Math.min(max, value));
     }
 
-    private void runMacroSequence(PointF buttonCenter, PointF dragStart, PointF dragEnd) {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
-            Log.e(TAG, "Gesture API requires 24+, current=" + Build.VERSION.SDK_INT);
-            failThisRound("api_too_low");
+    /**
+     * @param drags 每 4 个数为一组（起点 x、y，终点 x、y），共 count 组；时间线构建时即复制，调用方可复用数组。
+     * @param paths 可为 null；第 i 项非 null 时沿录制轨迹拖动，pathDurationsMs 中大于 0 的项为其回放时长。
+     */
+    private void runMacroSequence(PointF buttonCenter, float[] drags, float[][] paths, long[] pathDurationsMs,
+                                  int count) {
+        Trace.beginSection(TRACE_TRIGGER);
+        try {
+            long triggerNanos = timingRecorder.now();
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+                Log.e(TAG, "Gesture API requires 24+, current=" + Build.VERSION.SDK_INT);
+                failThisRound("api_too_low");
+                return;
+            }
+            cancelMacroIfRunning("restart");
+            MacroConfig.MacroDelays delays = loadMacroDelays(MacroConfig.snapshot(this));
+
+            CompiledMacro compiled = null;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                compiled = compileMacro(MacroTimeline.dragHold(buttonCenter.x, buttonCenter.y, drags, paths, pathDurationsMs, count,
+                        delays.startupDelayMs, delays.stepDelayMs, delays.dragDurationMs, delays.holdDelayMs));
+            }
+            if (compiled == null) {
+                // API 24/25 上不保证支持“继续笔画”；此处提供降级：普通拖动（会松手）→ 返回 → 结束。
+                Log.w(TAG, "Continuous stroke unsupported, fallback to normal drag");
+                compiled = compileMacro(MacroTimeline.dragRelease(buttonCenter.x, buttonCenter.y, drags, paths, pathDurationsMs, count,
+                        delays.startupDelayMs, delays.stepDelayMs, delays.dragDurationMs));
+            }
+            if (compiled == null) {
+                failThisRound("gesture_build_failed");
+                return;
+            }
+
+            trace.record(MacroTrace.EV_RUN_DRAG, count, (int) delays.startupDelayMs, (int) delays.holdDelayMs);
+            startMacro(compiled, triggerNanos);
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    private void runClickMacroSequence(PointF buttonCenter, PointF clickPoint) {
+        Trace.beginSection(TRACE_TRIGGER);
+        try {
+            long triggerNanos = timingRecorder.now();
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+                Log.e(TAG, "Click macro requires API 24+, current=" + Build.VERSION.SDK_INT);
+                abortClickMacro("api_too_low_click");
+                return;
+            }
+            cancelClickMacroIfRunning("restart");
+            MacroConfig.Snapshot config = MacroConfig.snapshot(this);
+            MacroConfig.MacroDelays delays = loadMacroDelays(config);
+            CompiledMacro compiled = null;
+            if (config.fusedGestureEnabled) {
+                compiled = compileMacro(MacroTimeline.clickFused(
+                        buttonCenter.x, buttonCenter.y, clickPoint.x, clickPoint.y,
+                        delays.startupDelayMs, delays.stepDelayMs));
+            }
+            if (compiled == null) {
+                compiled = compileMacro(MacroTimeline.click(
+                        buttonCenter.x, buttonCenter.y, clickPoint.x, clickPoint.y,
+                        delays.startupDelayMs, delays.stepDelayMs));
+            }
+            if (compiled == null) {
+                abortClickMacro("gesture_build_failed");
+                return;
+            }
+
+            trace.record(MacroTrace.EV_RUN_CLICK, Math.round(clickPoint.x), Math.round(clickPoint.y),
+                    (int) delays.startupDelayMs);
+            startMacro(compiled, triggerNanos);
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * @param holdToRepeat 为 true 时一直循环到松开按键；否则按设置的次数连续步进。
+     */
+    private void runStepMacroSequence(PointF buttonCenter, boolean holdToRepeat) {
+        Trace.beginSection(TRACE_TRIGGER);
+        try {
+            long triggerNanos = timingRecorder.now();
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+                Log.e(TAG, "Step macro requires API 24+, current=" + Build.VERSION.SDK_INT);
+                abortStepMacro("api_too_low_step");
+                return;
+            }
+            cancelStepMacroIfRunning("restart");
+            MacroConfig.Snapshot config = MacroConfig.snapshot(this);
+            CompiledMacro compiled = takePreparedStepMacro(holdToRepeat);
+            boolean prepared = compiled != null;
+            if (compiled == null) {
+                compiled = buildStepMacro(buttonCenter, holdToRepeat, config);
+            }
+            if (compiled == null) {
+                abortStepMacro("gesture_build_failed");
+                return;
+            }
+            stepMacroRunning = true;
+            stepHoldRepeatActive = holdToRepeat;
+
+            trace.record(MacroTrace.EV_RUN_STEP, holdToRepeat ? -1 : config.stepRepeatCount,
+                    (int) config.stepMacroDelayMs, prepared ? 1 : 0);
+            startMacro(compiled, triggerNanos);
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    private CompiledMacro buildStepMacro(PointF buttonCenter, boolean holdToRepeat, MacroConfig.Snapshot config) {
+        long stepDelayMs = config.stepMacroDelayMs;
+        int repeatCount = holdToRepeat ? MacroTimeline.REPEAT_UNTIL_STOPPED : config.stepRepeatCount;
+        long repeatIntervalMs = config.stepRepeatIntervalMs;
+        CompiledMacro compiled = null;
+        if (config.fusedGestureEnabled) {
+            compiled = compileMacro(MacroTimeline.stepFused(buttonCenter.x, buttonCenter.y, stepDelayMs)
+                    .repeat(repeatCount, repeatIntervalMs));
+        }
+        if (compiled == null) {
+            compiled = compileMacro(MacroTimeline.step(buttonCenter.x, buttonCenter.y, stepDelayMs)
+                    .repeat(repeatCount, repeatIntervalMs));
+        }
+        return compiled;
+    }
+
+    /**
+     * 预热期间按当前配置预编译下一次步进宏，按键时免去构建手势；配置或按钮坐标变化、每次使用后重新准备。
+     */
+    private void prepareStepMacro() {
+        preparedStepMacro = null;
+        if (!armedForGame || !masterEnabled || Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return;
+        MacroConfig.Snapshot config = MacroConfig.snapshot(this);
+        if (!config.stepMacroEnabled) return;
+        preparedStepHold = config.stepHoldRepeatEnabled;
+        preparedStepMacro = buildStepMacro(getButtonCenter(), preparedStepHold, config);
+    }
+
+    private CompiledMacro takePreparedStepMacro(boolean holdToRepeat) {
+        CompiledMacro compiled = preparedStepMacro;
+        preparedStepMacro = null;
+        return compiled != null && preparedStepHold == holdToRepeat ? compiled : null;
+    }
+
+    /**
+     * 为绑定了按键或浮窗长按的预设预编译手势（按当前按钮坐标与屏幕尺寸换算），触发时直接派发。
+     * 已准备好的不重复构建；配置、按钮坐标或显示变化时全部重建。
+     */
+    private void preparePresetMacros() {
+        if (!armedForGame || !masterEnabled || Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            preparedPresetMacros.clear();
             return;
         }
-        cancelMacroIfRunning("restart");
-        MacroConfig.MacroDelays delays = MacroConfig.load(this);
-        MacroState state = new MacroState(buttonCenter, dragStart, dragEnd, delays);
-        macroState = state;
-        state.timeoutRunnable = () -> abortMacro("timeout");
-        handler.postDelayed(state.timeoutRunnable, MACRO_TIMEOUT_MS);
-
-        Log.d(TAG, "Run macro v2: startDelay=" + state.startupDelayMs + "ms, stepDelay=" + state.stepDelayMs
-                + "ms, dragDuration=" + state.dragDurationMs + "ms, hold=" + state.holdDelayMs + "ms, tap=" + buttonCenter
-                + " -> dragHold " + dragStart + " -> " + dragEnd
-                + " -> back -> hold -> up");
-
-        state.startRunnable = () -> {
-            if (macroState != state) return;
-            state.afterTapFallback = () -> macroStartDragHoldOnce(state, "tap_fallback");
-            dispatchTap(buttonCenter, new GestureCallbackAdapter(
-                    () -> macroStartDragHoldOnce(state, "tap_completed"),
-                    () -> {
-                        if (macroState == state) abortMacro("tap_cancelled");
+        MacroConfig.Snapshot config = MacroConfig.snapshot(this);
+        preparedPresetMacros.clear();
+        for (MacroPreset preset : config.presets) {
+            if (preset.keyCode == 0 && !preset.name.equals(config.floatingPresetName)) continue;
+            CompiledMacro compiled = buildPresetMacro(preset, config);
+            if (compiled != null) preparedPresetMacros.put(preset.name, compiled);
+        }
+    }
+
+    private CompiledMacro buildPresetMacro(MacroPreset preset, MacroConfig.Snapshot config) {
+        PointF button = getButtonCenter();
+        DisplayMetrics metrics = getOverlayDisplayMetrics();
+        float[] points = preset.pointsPx(metrics.widthPixels, metrics.heightPixels);
+        MacroConfig.MacroDelays delays = loadMacroDelays(config);
+        CompiledMacro compiled = null;
+        if (preset.type == MacroTimeline.TYPE_DRAG) {
+            float[][] paths = preset.pathsPx(metrics.widthPixels, metrics.heightPixels);
+            long[] durations = preset.pathDurationsMs();
+            int count = preset.count();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                compiled = compileMacro(MacroTimeline.dragHold(button.x, button.y, points, paths, durations, count,
+                        0L, delays.stepDelayMs, delays.dragDurationMs, delays.holdDelayMs).asPreset());
+            }
+            if (compiled == null) {
+                compiled = compileMacro(MacroTimeline.dragRelease(button.x, button.y, points, paths, durations, count,
+                        0L, delays.stepDelayMs, delays.dragDurationMs).asPreset());
+            }
+            return compiled;
+        }
+        if (config.fusedGestureEnabled) {
+            compiled = compileMacro(MacroTimeline.clickFused(button.x, button.y, points[0], points[1],
+                    0L, delays.stepDelayMs).asPreset());
+        }
+        if (compiled == null) {
+            compiled = compileMacro(MacroTimeline.click(button.x, button.y, points[0], points[1],
+                    0L, delays.stepDelayMs).asPreset());
+        }
+        return compiled;
+    }
+
+    /**
+     * 回放预设：不挂 overlay、没有启动延迟，直接派发预编译手势。与录制中的划火柴 / 放技能或其他宏冲突时忽略。
+     */
+    private boolean runPreset(MacroPreset preset) {
+        Trace.beginSection(TRACE_TRIGGER);
+        try {
+            long triggerNanos = timingRecorder.now();
+            if (preset == null || !armedForGame || Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return false;
+            if (activeTimeline != null || overlayArmed || isClickCaptureInProgressInternal()) {
+                trace.record(MacroTrace.EV_PRESET_IGNORED, 0, 0, 0, preset.name);
+                return false;
+            }
+            CompiledMacro compiled = preparedPresetMacros.remove(preset.name);
+            boolean prepared = compiled != null;
+            if (compiled == null) {
+                compiled = buildPresetMacro(preset, MacroConfig.snapshot(this));
+            }
+            if (compiled == null) {
+                Log.w(TAG, "Preset " + preset.name + " gesture build failed");
+                return false;
+            }
+            trace.record(MacroTrace.EV_RUN_PRESET, preset.count(), preset.type, prepared ? 1 : 0, preset.name);
+            startMacro(compiled, triggerNanos);
+            return true;
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * 读取宏延迟；开启自动调优时启动延迟与悬停延迟改用调优值。
+     */
+    private MacroConfig.MacroDelays loadMacroDelays(MacroConfig.Snapshot config) {
+        MacroConfig.MacroDelays delays = config.delays;
+        if (!config.autotuneEnabled) {
+            autotuner = null;
+            return delays;
+        }
+        if (autotuner == null) {
+            autotuner = MacroConfig.loadAutotuner(this, delays);
+        }
+        return new MacroConfig.MacroDelays(autotuner.startup.valueMs, delays.stepDelayMs,
+                delays.dragDurationMs, autotuner.hold.valueMs);
+    }
+
+    /**
+     * 在启动延迟开始前把时间线中的所有手势一次性构建好；任一步无法构建时返回 null。
+     */
+    private CompiledMacro compileMacro(MacroTimeline timeline) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return null;
+        if (MacroConfig.snapshot(this).vsyncAlignedEnabled) {
+            timeline = timeline.alignToVsync(getRefreshRate());
+        }
+        CompiledMacro compiled = new CompiledMacro(timeline);
+        return compiled.build() ? compiled : null;
+    }
+
+    private float getRefreshRate() {
+        Display display = displayManager != null ? displayManager.getDisplay(Display.DEFAULT_DISPLAY) : null;
+        float hz = display != null ? display.getRefreshRate() : 0f;
+        return hz >= 1f ? hz : DEFAULT_REFRESH_RATE_HZ;
+    }
+
+    private void startMacro(CompiledMacro compiled, long triggerNanos) {
+        MacroTimeline timeline = compiled.timeline;
+        activeTimeline = timeline;
+        macroProfileTimeline = null;
+        verifyRunId++;
+        macroHandler.post(() -> macroEngine.start(timeline, compiled, triggerNanos));
+    }
+
+    /**
+     * 宏线程派出第一步后投递到主线程；宏已结束或被新宏取代时不切换。
+     */
+    private void enterMacroProfile(MacroTimeline timeline) {
+        if (activeTimeline != timeline) return;
+        macroProfileTimeline = timeline;
+        updateServiceProfile();
+    }
+
+    private static void beginAsyncTrace(String name, int cookie) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(name, cookie);
+        }
+    }
+
+    private static void endAsyncTrace(String name, int cookie) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(name, cookie);
+        }
+    }
+
+    private boolean isMacroRunning(int type) {
+        MacroTimeline timeline = activeTimeline;
+        return timeline != null && timeline.type == type;
+    }
+
+    /**
+     * 在宏线程上静默取消指定类型的宏；只取消主线程记录的那一次，避免误伤之后派出的宏。
+     */
+    private boolean cancelMacroOfType(int type, String reason) {
+        MacroTimeline timeline = activeTimeline;
+        if (timeline == null || timeline.type != type) return false;
+        activeTimeline = null;
+        macroHandler.post(() -> macroEngine.cancel(timeline, reason));
+        // 取消后常紧接着启动新宏（restart），订阅延后到本次处理结束再更新，避免两次跨进程调用。
+        handler.removeCallbacks(profileUpdate);
+        handler.post(profileUpdate);
+        return true;
+    }
+
+    private void onMacroEnded(MacroTimeline timeline, String abortReason) {
+        Trace.beginSection(TRACE_FINISH);
+        try {
+            if (activeTimeline == timeline) {
+                activeTimeline = null;
+                updateServiceProfile();
+            }
+            String fallbackLatency = fallbackEstimator.encodeIfChanged(FALLBACK_SAVE_SAMPLES);
+            if (fallbackLatency != null) {
+                MacroConfig.saveFallbackEstimator(this, fallbackLatency);
+            }
+            if (autotuner != null && autotuner.onMacroEnded(timeline.type, abortReason)) {
+                Log.d(TAG, "Autotune updated: " + autotuner.describe());
+                MacroConfig.saveAutotuner(this, autotuner);
+            }
+            switch (timeline.type) {
+                case MacroTimeline.TYPE_DRAG:
+                    if (abortReason == null) {
+                        finishRound();
+                    } else {
+                        abortMacro(abortReason);
                     }
-            ));
-            handler.postDelayed(state.afterTapFallback, TAP_DURATION_MS + 200);
-        };
-        handler.postDelayed(state.startRunnable, state.startupDelayMs);
+                    break;
+                case MacroTimeline.TYPE_CLICK:
+                    if (abortReason == null) {
+                        finishClickMacro();
+                    } else {
+                        abortClickMacro(abortReason);
+                    }
+                    break;
+                case MacroTimeline.TYPE_STEP:
+                    if (abortReason == null) {
+                        finishStepMacro();
+                    } else {
+                        abortStepMacro(abortReason);
+                    }
+                    break;
+                case MacroTimeline.TYPE_PRESET:
+                    trace.record(MacroTrace.EV_MACRO_FINISHED, timeline.type, 0, 0, abortReason);
+                    preparePresetMacros();
+                    break;
+                default:
+                    break;
+            }
+            if (abortReason == null) {
+                startPauseVerification();
+            }
+        } finally {
+            Trace.endSection();
+        }
     }
 
-    private void runClickMacroSequence(PointF buttonCenter, PointF clickPoint) {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
-            Log.e(TAG, "Click macro requires API 24+, current=" + Build.VERSION.SDK_INT);
-            abortClickMacro("api_too_low_click");
+    /**
+     * 三种宏都以“点暂停”或返回键结束，结束时游戏应处于暂停。开启截图校验时确认这一点，
+     * 没停住就补点一次暂停按钮，再截图确认。
+     * <p>
+     * 系统对无障碍截图限频（约 3 次/秒），做不到逐帧采样：参考特征已学好时结束后约 50ms 即可判断并补点；
+     * 还没学好时隔一个截图间隔再截一张，用整屏是否在动确认状态（同时学习参考）。
+     * <p>
+     * 只校验宏结束时的暂停，不单独校验宏中途的“解除暂停”：两者间隔只有几十毫秒，截不到；
+     * 而且解除暂停没生效时，后面那次点暂停反而会让游戏跑起来，同样在结束时表现为未暂停而被补点。
+     * 两次都没生效时游戏始终停着，状态本身是对的，只是这一步没推进。补点只做一次，补点后的截图
+     * 仍判断为运行时不再点（可能是参考特征学错了，再点会把正确的暂停切走），只清空参考重新学习。
+     */
+    private void startPauseVerification() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) return;
+        if (!armedForGame || !MacroConfig.snapshot(this).pauseVerifyEnabled) return;
+        verifyRunId++;
+        verifyCorrections = 0;
+        requestPauseScreenshot(verifyRunId, PAUSE_VERIFY_SETTLE_MS);
+    }
+
+    private void requestPauseScreenshot(int runId, long delayMs) {
+        handler.postDelayed(() -> takePauseScreenshot(runId), delayMs);
+    }
+
+    @TargetApi(Build.VERSION_CODES.R)
+    private void takePauseScreenshot(int runId) {
+        // 期间启动了新宏或离开了游戏：放弃本次校验。
+        if (runId != verifyRunId || activeTimeline != null) return;
+        PointF center = getButtonCenter();
+        int centerX = Math.round(center.x);
+        int centerY = Math.round(center.y);
+        int half = Math.round(BUTTON_MARKER_TOUCH_RADIUS_DP * getResources().getDisplayMetrics().density);
+        takeScreenshot(Display.DEFAULT_DISPLAY, getScreenshotHandler()::post, new TakeScreenshotCallback() {
+            @Override
+            public void onSuccess(ScreenshotResult result) {
+                if (runId != verifyRunId) {
+                    HardwareBuffer buffer = result.getHardwareBuffer();
+                    if (buffer != null) buffer.close();
+                    return;
+                }
+                int state = evaluatePauseScreenshot(result, runId, centerX, centerY, half);
+                handler.post(() -> onPauseState(runId, state));
+            }
+
+            @Override
+            public void onFailure(int errorCode) {
+                handler.post(() -> {
+                    if (errorCode == ERROR_TAKE_SCREENSHOT_INTERVAL_TIME_SHORT) {
+                        requestPauseScreenshot(runId, SCREENSHOT_INTERVAL_MS);
+                    } else {
+                        Log.w(TAG, "Pause verify: screenshot failed, error=" + errorCode);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * 在 screenshotThread 上执行：取样并判断暂停状态，同时学习参考特征。
+     *
+     * @return PAUSED / RUNNING；参考特征判断不了、需要隔一个截图间隔再截一张比较画面时为 UNKNOWN；
+     * 取样失败时为 {@link #PAUSE_VERIFY_FAILED}
+     */
+    @TargetApi(Build.VERSION_CODES.R)
+    private int evaluatePauseScreenshot(ScreenshotResult result, int runId, int centerX, int centerY, int half) {
+        if (!samplePauseScreenshot(result, centerX, centerY, half)) return PAUSE_VERIFY_FAILED;
+        int state = pauseDetector.classify(verifySignature);
+        if (state == PauseStateDetector.STATE_UNKNOWN) {
+            if (previousMotionRunId != runId) {
+                System.arraycopy(verifyMotion, 0, previousMotion, 0, previousMotion.length);
+                previousMotionRunId = runId;
+                return PauseStateDetector.STATE_UNKNOWN;
+            }
+            state = PauseStateDetector.hasMotion(previousMotion, verifyMotion)
+                    ? PauseStateDetector.STATE_RUNNING
+                    : PauseStateDetector.STATE_PAUSED;
+        }
+        // 补点后的确认截图要重新比较，不沿用补点前的画面。
+        previousMotionRunId = -1;
+        pauseDetector.learn(state, verifySignature);
+        Log.d(TAG, "Pause verify: " + PauseStateDetector.stateName(state)
+                + ", calibrated=" + pauseDetector.isCalibrated());
+        return state;
+    }
+
+    /**
+     * 在 screenshotThread 上执行：取按钮附近区域的亮度特征和整屏粗网格亮度。
+     * 用完立即回收位图。
+     */
+    @TargetApi(Build.VERSION_CODES.R)
+    private boolean samplePauseScreenshot(ScreenshotResult result, int centerX, int centerY, int half) {
+        Bitmap software = null;
+        try {
+            software = copyScreenshot(result);
+            if (software == null) return false;
+            int width = software.getWidth();
+            int height = software.getHeight();
+            int left = Math.max(0, centerX - half);
+            int top = Math.max(0, centerY - half);
+            int roiWidth = Math.min(width, centerX + half) - left;
+            int roiHeight = Math.min(height, centerY + half) - top;
+            if (roiWidth <= 0 || roiHeight <= 0) return false;
+            if (verifyRoiPixels == null || verifyRoiPixels.length < roiWidth * roiHeight) {
+                verifyRoiPixels = new int[roiWidth * roiHeight];
+            }
+            software.getPixels(verifyRoiPixels, 0, roiWidth, left, top, roiWidth, roiHeight);
+            pauseDetector.signature(verifyRoiPixels, roiWidth, roiHeight, verifySignature);
+
+            int grid = PauseStateDetector.MOTION_GRID;
+            for (int gy = 0; gy < grid; gy++) {
+                int y = (2 * gy + 1) * height / (2 * grid);
+                for (int gx = 0; gx < grid; gx++) {
+                    int x = (2 * gx + 1) * width / (2 * grid);
+                    verifyMotion[gy * grid + gx] = PauseStateDetector.luma(software.getPixel(x, y));
+                }
+            }
+            return true;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Pause verify: sampling failed", e);
+            return false;
+        } finally {
+            if (software != null) software.recycle();
+        }
+    }
+
+    private void onPauseState(int runId, int state) {
+        if (runId != verifyRunId || activeTimeline != null) return;
+        if (state == PauseStateDetector.STATE_UNKNOWN) {
+            requestPauseScreenshot(runId, SCREENSHOT_INTERVAL_MS);
             return;
         }
-        cancelClickMacroIfRunning("restart");
-        MacroConfig.MacroDelays delays = MacroConfig.load(this);
-        ClickMacroState state = new ClickMacroState(buttonCenter, clickPoint, delays);
-        clickMacroState = state;
-        state.timeoutRunnable = () -> abortClickMacro("timeout");
-        handler.postDelayed(state.timeoutRunnable, MACRO_TIMEOUT_MS);
-
-        Log.d(TAG, "Run click macro: startDelay=" + state.startupDelayMs + "ms, stepDelay=" + state.stepDelayMs
-                + "ms, tap=" + buttonCenter + " -> " + clickPoint + " -> " + buttonCenter);
-
-        state.startRunnable = () -> {
-            if (clickMacroState != state) return;
-            state.afterTap1Fallback = () -> clickMacroTapTarget(state, "tap1_fallback");
-            dispatchTap(buttonCenter, new GestureCallbackAdapter(
-                    () -> clickMacroTapTarget(state, "tap1_completed"),
-                    () -> abortClickMacro("tap1_cancelled")
-            ));
-            handler.postDelayed(state.afterTap1Fallback, TAP_DURATION_MS + 200);
-        };
-        handler.postDelayed(state.startRunnable, state.startupDelayMs);
-    }
-
-    private void clickMacroTapTarget(ClickMacroState state, String trigger) {
-        if (clickMacroState != state || state.tap1Done) return;
-        state.tap1Done = true;
-        if (state.afterTap1Fallback != null) handler.removeCallbacks(state.afterTap1Fallback);
-
-        handler.postDelayed(() -> {
-            if (clickMacroState != state) return;
-            state.afterTap2Fallback = () -> clickMacroTapButtonEnd(state, "tap2_fallback");
-            dispatchTap(state.clickPoint, new GestureCallbackAdapter(
-                    () -> clickMacroTapButtonEnd(state, "tap2_completed"),
-                    () -> abortClickMacro("tap2_cancelled")
-            ));
-            handler.postDelayed(state.afterTap2Fallback, TAP_DURATION_MS + 200);
-        }, state.stepDelayMs);
-    }
-
-    private void clickMacroTapButtonEnd(ClickMacroState state, String trigger) {
-        if (clickMacroState != state || state.tap2Done) return;
-        state.tap2Done = true;
-        if (state.afterTap2Fallback != null) handler.removeCallbacks(state.afterTap2Fallback);
-
-        handler.postDelayed(() -> {
-            if (clickMacroState != state) return;
-            state.afterTap3Fallback = this::finishClickMacro;
-            dispatchTap(state.buttonCenter, new GestureCallbackAdapter(
-                    this::finishClickMacro,
-                    () -> abortClickMacro("tap3_cancelled")
-            ));
-            handler.postDelayed(state.afterTap3Fallback, TAP_DURATION_MS + 200);
-        }, state.stepDelayMs);
-    }
-
-    private void runStepMacroSequence(PointF buttonCenter) {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
-            Log.e(TAG, "Step macro requires API 24+, current=" + Build.VERSION.SDK_INT);
-            abortStepMacro("api_too_low_step");
+        if (state != PauseStateDetector.STATE_RUNNING) return;
+        if (verifyCorrections >= MAX_PAUSE_CORRECTIONS) {
+            // 补点后仍判断为运行：可能补点没生效，也可能参考特征学错了，清空后重新学习。
+            Log.w(TAG, "Pause verify: still running after correction, reset references");
+            resetPauseDetector();
             return;
         }
-        cancelStepMacroIfRunning("restart");
-        long stepDelayMs = MacroConfig.getStepMacroDelayMs(this);
-        StepMacroState state = new StepMacroState(buttonCenter, stepDelayMs);
-        stepMacroState = state;
-        stepMacroRunning = true;
-        state.timeoutRunnable = () -> abortStepMacro("timeout");
-        handler.postDelayed(state.timeoutRunnable, MACRO_TIMEOUT_MS);
-
-        Log.d(TAG, "Run step macro: stepDelay=" + state.stepDelayMs + "ms, tap=" + buttonCenter + " -> tap");
-
-        state.startRunnable = () -> {
-            if (stepMacroState != state) return;
-            state.afterTap1Fallback = () -> stepMacroTapEnd(state, "tap1_fallback");
-            dispatchTap(buttonCenter, new GestureCallbackAdapter(
-                    () -> stepMacroTapEnd(state, "tap1_completed"),
-                    () -> abortStepMacro("tap1_cancelled")
-            ));
-            handler.postDelayed(state.afterTap1Fallback, TAP_DURATION_MS + 200);
-        };
-        handler.post(state.startRunnable);
+        verifyCorrections++;
+        dispatchCorrectivePauseTap();
+        requestPauseScreenshot(runId, SCREENSHOT_INTERVAL_MS);
     }
 
-    private void stepMacroTapEnd(StepMacroState state, String trigger) {
-        if (stepMacroState != state || state.tap1Done) return;
-        state.tap1Done = true;
-        if (state.afterTap1Fallback != null) handler.removeCallbacks(state.afterTap1Fallback);
+    /**
+     * 检测器只在 screenshotThread 上使用；还没截过图时没有可清空的参考。
+     */
+    private void resetPauseDetector() {
+        if (screenshotHandler != null) screenshotHandler.post(pauseDetector::reset);
+    }
 
-        handler.postDelayed(() -> {
-            if (stepMacroState != state) return;
-            state.afterTap2Fallback = this::finishStepMacro;
-            dispatchTap(state.buttonCenter, new GestureCallbackAdapter(
-                    this::finishStepMacro,
-                    () -> abortStepMacro("tap2_cancelled")
-            ));
-            handler.postDelayed(state.afterTap2Fallback, TAP_DURATION_MS + 200);
-        }, state.stepDelayMs);
+    /**
+     * 当前显示配置未校准（或清除了校准）且开启自动校准时，在游戏前台截图识别暂停按钮并保存。
+     * 刚进游戏时多半还在菜单里，没找到就隔一段时间再试；手动拖动校准保存后本轮识别自动结束。
+     */
+    private void maybeStartAutoCalibration() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R || !armedForGame) return;
+        MacroConfig.Snapshot config = MacroConfig.snapshot(this);
+        getButtonCenter();
+        if (!config.autoCalibrateEnabled || config.buttonCenterProfiles.contains(displayProfileKey)
+                || config.buttonCenterCustomized) {
+            stopAutoCalibration();
+            return;
+        }
+        if (calibrating) return;
+        calibrating = true;
+        calibrateRunId++;
+        calibrateAttempts = 0;
+        requestCalibrationScreenshot(calibrateRunId, 0L);
     }
 
-    @TargetApi(Build.VERSION_CODES.N)
-    private void dispatchTap(PointF point, GestureResultCallback result) {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
-            if (clickMacroRunning) {
-                abortClickMacro("api_too_low_tap");
-            } else if (stepMacroRunning) {
-                abortStepMacro("api_too_low_tap");
-            } else {
-                failThisRound("api_too_low_tap");
-            }
+    private void stopAutoCalibration() {
+        calibrating = false;
+        calibrateRunId++;
+    }
+
+    private void requestCalibrationScreenshot(int runId, long delayMs) {
+        handler.postDelayed(() -> takeCalibrationScreenshot(runId), delayMs);
+    }
+
+    @TargetApi(Build.VERSION_CODES.R)
+    private void takeCalibrationScreenshot(int runId) {
+        if (runId != calibrateRunId) return;
+        // 宏执行中、或录制 overlay 显示着（指示点会盖住按钮）时稍后再试，不计入次数。
+        if (activeTimeline != null || overlayArmed) {
+            requestCalibrationScreenshot(runId, AUTO_CALIBRATE_RETRY_MS);
             return;
         }
-        Path path = new Path();
-        path.moveTo(point.x, point.y);
-        GestureDescription.StrokeDescription stroke =
-                new GestureDescription.StrokeDescription(path, 0, TAP_DURATION_MS);
-        GestureDescription gesture = new GestureDescription.Builder()
-                .addStroke(stroke)
-                .build();
-
-        boolean dispatched = dispatchGesture(gesture, result, null);
-        Log.d(TAG, "dispatchTap dispatched=" + dispatched + " to " + point);
-        if (!dispatched) {
-            if (clickMacroRunning) {
-                abortClickMacro("gesture_dispatch_failed_tap");
-            } else if (stepMacroRunning) {
-                abortStepMacro("gesture_dispatch_failed_tap");
-            } else {
-                failThisRound("gesture_dispatch_failed_tap");
+        calibrateAttempts++;
+        takeScreenshot(Display.DEFAULT_DISPLAY, getScreenshotHandler()::post, new TakeScreenshotCallback() {
+            @Override
+            public void onSuccess(ScreenshotResult result) {
+                long start = System.nanoTime();
+                PauseButtonLocator.Match match = locatePauseButton(result);
+                long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+                handler.post(() -> onCalibrationResult(runId, match, elapsedMs));
+            }
+
+            @Override
+            public void onFailure(int errorCode) {
+                Log.w(TAG, "Auto calibration: screenshot failed, error=" + errorCode);
+                handler.post(() -> onCalibrationResult(runId, null, -1L));
+            }
+        });
+    }
+
+    /**
+     * 在 screenshotThread 上执行：只取右上角搜索区域的像素交给定位器，返回整屏坐标。
+     */
+    @TargetApi(Build.VERSION_CODES.R)
+    private PauseButtonLocator.Match locatePauseButton(ScreenshotResult result) {
+        Bitmap software = null;
+        try {
+            software = copyScreenshot(result);
+            if (software == null) return null;
+            int height = software.getHeight();
+            PauseButtonLocator.searchRegion(software.getWidth(), height, calibrateRegion);
+            int left = calibrateRegion[0];
+            int top = calibrateRegion[1];
+            int regionWidth = calibrateRegion[2] - left;
+            int regionHeight = calibrateRegion[3] - top;
+            if (regionWidth <= 0 || regionHeight <= 0) return null;
+            if (calibratePixels == null || calibratePixels.length < regionWidth * regionHeight) {
+                calibratePixels = new int[regionWidth * regionHeight];
             }
+            software.getPixels(calibratePixels, 0, regionWidth, left, top, regionWidth, regionHeight);
+            PauseButtonLocator.Match match = buttonLocator.locate(calibratePixels, regionWidth, regionHeight, height);
+            if (match == null) return null;
+            return new PauseButtonLocator.Match(match.x + left, match.y + top, match.size, match.score);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Auto calibration: locate failed", e);
+            return null;
+        } finally {
+            if (software != null) software.recycle();
         }
     }
 
-    @TargetApi(Build.VERSION_CODES.N)
-    private void dispatchDrag(PointF start, PointF end, long durationMs, GestureResultCallback result) {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
-            failThisRound("api_too_low_drag");
+    private void onCalibrationResult(int runId, PauseButtonLocator.Match match, long elapsedMs) {
+        if (runId != calibrateRunId) return;
+        if (match != null) {
+            stopAutoCalibration();
+            Log.d(TAG, "Auto calibration: " + match + " in " + elapsedMs + "ms");
+            // 与手动拖动校准一样持久化，按钮缓存与步进宏由 configListener 重建。
+            setButtonCenter(match.x, match.y, true);
             return;
         }
-        Path path = new Path();
-        path.moveTo(start.x, start.y);
-        path.lineTo(end.x, end.y);
+        if (calibrateAttempts >= AUTO_CALIBRATE_MAX_ATTEMPTS) {
+            calibrating = false;
+            Log.w(TAG, "Auto calibration: pause button not found after " + calibrateAttempts + " attempts");
+            return;
+        }
+        requestCalibrationScreenshot(runId, AUTO_CALIBRATE_RETRY_MS);
+    }
 
-        long clampedDurationMs = MacroConfig.clamp(
-                durationMs,
-                MacroConfig.MIN_DRAG_DURATION_MS,
-                MacroConfig.MAX_DRAG_DURATION_MS
-        );
-        GestureDescription.StrokeDescription stroke =
-                new GestureDescription.StrokeDescription(path, 0, clampedDurationMs);
-        GestureDescription gesture = new GestureDescription.Builder()
-                .addStroke(stroke)
-                .build();
+    private Handler getScreenshotHandler() {
+        if (screenshotThread == null) {
+            screenshotThread = new HandlerThread("ScreenshotThread", Process.THREAD_PRIORITY_BACKGROUND);
+            screenshotThread.start();
+            screenshotHandler = new Handler(screenshotThread.getLooper());
+        }
+        return screenshotHandler;
+    }
 
-        boolean dispatched = dispatchGesture(gesture, result, null);
-        Log.d(TAG, "dispatchDrag dispatched=" + dispatched + " from " + start + " to " + end);
-        if (!dispatched) {
-            failThisRound("gesture_dispatch_failed_drag");
+    /**
+     * 截图结果转成软件位图；硬件位图不能直接读像素。调用方负责回收返回的位图。
+     */
+    @TargetApi(Build.VERSION_CODES.R)
+    private static Bitmap copyScreenshot(ScreenshotResult result) {
+        HardwareBuffer buffer = result.getHardwareBuffer();
+        Bitmap hardware = null;
+        try {
+            hardware = Bitmap.wrapHardwareBuffer(buffer, result.getColorSpace());
+            return hardware != null ? hardware.copy(Bitmap.Config.ARGB_8888, false) : null;
+        } finally {
+            if (hardware != null) hardware.recycle();
+            if (buffer != null) buffer.close();
         }
     }
 
+    private void dispatchCorrectivePauseTap() {
+        PointF center = getButtonCenter();
+        GestureDescription tap = lookupButtonTap(center.x, center.y, MacroTimeline.TAP_DURATION_MS);
+        if (tap == null) {
+            tap = new GestureDescription.Builder()
+                    .addStroke(createTapStroke(center.x, center.y, 0, MacroTimeline.TAP_DURATION_MS))
+                    .build();
+        }
+        boolean dispatched = dispatchGesture(tap, null, null);
+        Log.w(TAG, "Pause verify: corrective tap dispatched=" + dispatched);
+    }
+
     private void finishRound() {
         cancelMacroIfRunning("finished");
-        Log.d(TAG, "Macro finished");
+        trace.record(MacroTrace.EV_MACRO_FINISHED, MacroTimeline.TYPE_DRAG);
         setFunctionEnabled(false);
     }
 
@@ -839,15 +2038,8 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
     }
 
     private void cancelMacroIfRunning(String reason) {
-        MacroState state = macroState;
-        if (state == null) return;
-        Log.d(TAG, "Cancel macro: " + reason);
-        if (state.timeoutRunnable != null) handler.removeCallbacks(state.timeoutRunnable);
-        if (state.startRunnable != null) handler.removeCallbacks(state.startRunnable);
-        if (state.afterTapFallback != null) handler.removeCallbacks(state.afterTapFallback);
-        if (state.afterDragFallback != null) handler.removeCallbacks(state.afterDragFallback);
-        if (state.finishFallback != null) handler.removeCallbacks(state.finishFallback);
-        macroState = null;
+        if (!cancelMacroOfType(MacroTimeline.TYPE_DRAG, reason)) return;
+        trace.record(MacroTrace.EV_MACRO_CANCELLED, MacroTimeline.TYPE_DRAG, 0, 0, reason);
     }
 
     private void abortClickMacro(String reason) {
@@ -866,6 +2058,8 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
         Log.w(TAG, "Step macro aborted: " + reason);
         cancelStepMacroIfRunning(reason);
         stepMacroRunning = false;
+        stepHoldRepeatActive = false;
+        prepareStepMacro();
     }
 
     private void finishClickMacro() {
@@ -882,142 +2076,79 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
     private void finishStepMacro() {
         cancelStepMacroIfRunning("finished");
         stepMacroRunning = false;
+        stepHoldRepeatActive = false;
+        prepareStepMacro();
     }
 
-    private void cancelClickMacroIfRunning(String reason) {
-        ClickMacroState state = clickMacroState;
-        if (state == null) return;
-        Log.d(TAG, "Cancel click macro: " + reason);
-        if (state.timeoutRunnable != null) handler.removeCallbacks(state.timeoutRunnable);
-        if (state.startRunnable != null) handler.removeCallbacks(state.startRunnable);
-        if (state.afterTap1Fallback != null) handler.removeCallbacks(state.afterTap1Fallback);
-        if (state.afterTap2Fallback != null) handler.removeCallbacks(state.afterTap2Fallback);
-        if (state.afterTap3Fallback != null) handler.removeCallbacks(state.afterTap3Fallback);
-        clickMacroState = null;
+    /**
+     * 让循环中的步进宏走完当前一轮后结束，保证最后停在暂停状态。
+     */
+    private void stopStepRepeat() {
+        MacroTimeline timeline = activeTimeline;
+        if (timeline == null || timeline.type != MacroTimeline.TYPE_STEP) return;
+        macroHandler.post(() -> macroEngine.stopRepeating(timeline));
     }
 
-    private void cancelStepMacroIfRunning(String reason) {
-        StepMacroState state = stepMacroState;
-        if (state == null) return;
-        Log.d(TAG, "Cancel step macro: " + reason);
-        if (state.timeoutRunnable != null) handler.removeCallbacks(state.timeoutRunnable);
-        if (state.startRunnable != null) handler.removeCallbacks(state.startRunnable);
-        if (state.afterTap1Fallback != null) handler.removeCallbacks(state.afterTap1Fallback);
-        if (state.afterTap2Fallback != null) handler.removeCallbacks(state.afterTap2Fallback);
-        stepMacroState = null;
+    private void cancelClickMacroIfRunning(String reason) {
+        if (!cancelMacroOfType(MacroTimeline.TYPE_CLICK, reason)) return;
+        trace.record(MacroTrace.EV_MACRO_CANCELLED, MacroTimeline.TYPE_CLICK, 0, 0, reason);
     }
 
-    private void macroStartDragHoldOnce(MacroState state, String trigger) {
-        if (macroState != state || state.dragStarted) return;
-        state.dragStarted = true;
-        if (state.afterTapFallback != null) handler.removeCallbacks(state.afterTapFallback);
-
-        handler.postDelayed(() -> macroDispatchDragHold(state, trigger), state.stepDelayMs);
+    private void cancelPresetMacroIfRunning(String reason) {
+        if (!cancelMacroOfType(MacroTimeline.TYPE_PRESET, reason)) return;
+        trace.record(MacroTrace.EV_MACRO_CANCELLED, MacroTimeline.TYPE_PRESET, 0, 0, reason);
     }
 
-    @TargetApi(Build.VERSION_CODES.N)
-    private void macroDispatchDragHold(MacroState state, String trigger) {
-        if (macroState != state) return;
-
-        // API 24/25 上不保证支持“继续笔画”；此处提供降级：普通拖动（会松手）→ 返回 → 结束。
-        GestureDescription.StrokeDescription dragHoldStroke = createDragStroke(state.dragStart, state.dragEnd, true, state.dragDurationMs);
-        if (dragHoldStroke == null) {
-            Log.w(TAG, "Continuous stroke unsupported, fallback to normal drag. trigger=" + trigger);
-            dispatchDrag(state.dragStart, state.dragEnd, state.dragDurationMs, new GestureCallbackAdapter(
-                    () -> handler.postDelayed(() -> {
-                        if (macroState != state) return;
-                        boolean backOk = performGlobalAction(GLOBAL_ACTION_BACK);
-                        Log.d(TAG, "performGlobalAction(BACK) ok=" + backOk + " (fallback)");
-                        finishRound();
-                    }, state.stepDelayMs),
-                    () -> {
-                        if (macroState == state) abortMacro("drag_fallback_cancelled");
-                    }
-            ));
-            state.finishFallback = () -> {
-                if (macroState == state) finishRound();
-            };
-            handler.postDelayed(state.finishFallback, state.dragDurationMs + 500);
-            return;
-        }
-
-        state.heldStroke = dragHoldStroke;
-        GestureDescription gesture = new GestureDescription.Builder()
-                .addStroke(dragHoldStroke)
-                .build();
-
-        state.afterDragFallback = () -> macroAfterDragHoldOnce(state, "drag_fallback");
-        boolean dispatched = dispatchGesture(gesture, new GestureCallbackAdapter(
-                () -> macroAfterDragHoldOnce(state, "drag_completed"),
-                () -> {
-                    if (macroState == state) abortMacro("drag_hold_cancelled");
-                }
-        ), null);
-        Log.d(TAG, "dispatchDragHold dispatched=" + dispatched + " trigger=" + trigger);
-        if (!dispatched) {
-            abortMacro("gesture_dispatch_failed_drag_hold");
-            return;
-        }
-        handler.postDelayed(state.afterDragFallback, state.dragDurationMs + 200);
+    private void cancelStepMacroIfRunning(String reason) {
+        if (!cancelMacroOfType(MacroTimeline.TYPE_STEP, reason)) return;
+        trace.record(MacroTrace.EV_MACRO_CANCELLED, MacroTimeline.TYPE_STEP, 0, 0, reason);
     }
 
-    private void macroAfterDragHoldOnce(MacroState state, String trigger) {
-        if (macroState != state || state.afterDragInvoked) return;
-        state.afterDragInvoked = true;
-        if (state.afterDragFallback != null) handler.removeCallbacks(state.afterDragFallback);
-
-        handler.postDelayed(() -> {
-            if (macroState != state) return;
-            boolean backOk = performGlobalAction(GLOBAL_ACTION_BACK);
-            Log.d(TAG, "performGlobalAction(BACK) ok=" + backOk + " trigger=" + trigger);
-            macroDispatchHoldAndRelease(state);
-        }, state.stepDelayMs);
+    @TargetApi(Build.VERSION_CODES.N)
+    private static GestureDescription.StrokeDescription createTapStroke(float x, float y, long startTimeMs, long durationMs) {
+        Path path = new Path();
+        path.moveTo(x, y);
+        return new GestureDescription.StrokeDescription(path, startTimeMs, durationMs);
     }
 
+    /**
+     * 多次点击合并为一个手势；超出系统笔画数或总时长上限时返回 null，由调用方退回逐步派发。
+     */
     @TargetApi(Build.VERSION_CODES.N)
-    private void macroDispatchHoldAndRelease(MacroState state) {
-        if (macroState != state) return;
-        if (state.heldStroke == null) {
-            abortMacro("missing_held_stroke");
-            return;
-        }
-
-        long holdDurationMs = Math.max(1L, state.holdDelayMs);
-        GestureDescription.StrokeDescription endHoldAndUp = continueStrokeAtEnd(state.heldStroke, state.dragEnd, holdDurationMs);
-        if (endHoldAndUp == null) {
-            Log.w(TAG, "continueStroke unavailable; cannot guarantee hold+release. Ending macro.");
-            finishRound();
-            return;
+    private static GestureDescription buildFusedGesture(MacroStep fused) {
+        MacroStep[] strokes = fused.strokes;
+        if (strokes == null || strokes.length == 0) return null;
+        if (strokes.length > GestureDescription.getMaxStrokeCount()
+                || fused.durationMs > GestureDescription.getMaxGestureDuration()) {
+            Log.w(TAG, "Fused gesture exceeds system limits, strokes=" + strokes.length
+                    + ", duration=" + fused.durationMs + "ms");
+            return null;
         }
-
-        GestureDescription gesture = new GestureDescription.Builder()
-                .addStroke(endHoldAndUp)
-                .build();
-
-        state.finishFallback = () -> {
-            if (macroState == state) finishRound();
-        };
-        boolean dispatched = dispatchGesture(gesture, new GestureCallbackAdapter(
-                () -> {
-                    if (macroState == state) finishRound();
-                },
-                () -> {
-                    if (macroState == state) abortMacro("hold_release_cancelled");
-                }
-        ), null);
-        Log.d(TAG, "dispatchHoldAndRelease dispatched=" + dispatched);
-        if (!dispatched) {
-            abortMacro("gesture_dispatch_failed_hold_release");
-            return;
+        GestureDescription.Builder builder = new GestureDescription.Builder();
+        for (MacroStep stroke : strokes) {
+            if (stroke.kind != MacroStep.KIND_TAP) return null;
+            builder.addStroke(createTapStroke(stroke.endX, stroke.endY, stroke.startTimeMs, stroke.durationMs));
         }
-        handler.postDelayed(state.finishFallback, holdDurationMs + 500);
+        return builder.build();
     }
 
-    private GestureDescription.StrokeDescription createDragStroke(PointF start, PointF end, boolean willContinue, long durationMs) {
+    /**
+     * 拖动笔画：有录制折线时沿折线，否则起点到终点直线。系统按路径长度匀速插值，时长即整条路径的用时。
+     */
+    private static GestureDescription.StrokeDescription createDragStroke(
+            MacroStep step, boolean willContinue, long durationMs) {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return null;
         Path path = new Path();
-        path.moveTo(start.x, start.y);
-        path.lineTo(end.x, end.y);
+        float[] points = step.path;
+        if (points != null) {
+            path.moveTo(points[0], points[1]);
+            for (int k = 2; k + 1 < points.length; k += 2) {
+                path.lineTo(points[k], points[k + 1]);
+            }
+        } else {
+            path.moveTo(step.startX, step.startY);
+            path.lineTo(step.endX, step.endY);
+        }
 
         long clampedDurationMs = MacroConfig.clamp(
                 durationMs,
@@ -1037,16 +2168,17 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
         return new GestureDescription.StrokeDescription(path, 0, clampedDurationMs);
     }
 
-    private GestureDescription.StrokeDescription continueStrokeAtEnd(
+    private static GestureDescription.StrokeDescription continueStrokeAtEnd(
             GestureDescription.StrokeDescription previousStroke,
-            PointF end,
+            float endX,
+            float endY,
             long holdDurationMs
     ) {
-        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return null;
+        if (previousStroke == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return null;
         try {
             Path path = new Path();
-            path.moveTo(end.x, end.y);
-            path.lineTo(end.x, end.y);
+            path.moveTo(endX, endY);
+            path.lineTo(endX, endY);
             return previousStroke.continueStroke(path, 0, holdDurationMs, false);
         } catch (NoSuchMethodError e) {
             Log.w(TAG, "continueStroke unsupported: " + e);
@@ -1054,122 +2186,314 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
         }
     }
 
+    /**
+     * 一步手势的回调，随预编译宏复用于每一轮；派发时写入引擎给的 token，回报时原样带回。
+     * 派发与回调都在宏线程上，字段不需要同步。
+     * <p>
+     * 每次派发开一段以 token 为 cookie 的异步 trace，回调到达或引擎放弃等待时结束，先到者结束、只结束一次。
+     */
     private static class GestureCallbackAdapter extends GestureResultCallback {
-        private final Runnable onCompleted;
-        private final Runnable onCancelled;
+        private final MacroTrace trace;
+        private final MacroEngine engine;
+        private final MacroEngine.Dispatcher source;
+        private final int stepIndex;
+        private final String stepName;
+        private final String traceName;
+        int token;
+        // 已派发、尚未回调；兜底推进后回调可能迟到，此时下一轮不能再复用这个实例。
+        boolean pending;
+        // 本次派发的异步 trace 尚未结束。
+        private boolean tracing;
+
+        GestureCallbackAdapter(MacroTrace trace, MacroEngine engine, MacroEngine.Dispatcher source,
+                               int stepIndex, String stepName, String traceName) {
+            this.trace = trace;
+            this.engine = engine;
+            this.source = source;
+            this.stepIndex = stepIndex;
+            this.stepName = stepName;
+            this.traceName = traceName;
+        }
 
-        GestureCallbackAdapter(Runnable onCompleted) {
-            this(onCompleted, null);
+        void beginTrace() {
+            tracing = true;
+            beginAsyncTrace(traceName, token);
         }
 
-        GestureCallbackAdapter(Runnable onCompleted, Runnable onCancelled) {
-            this.onCompleted = onCompleted;
-            this.onCancelled = onCancelled;
+        void endTrace() {
+            if (!tracing) return;
+            tracing = false;
+            endAsyncTrace(traceName, token);
         }
 
         @Override
         public void onCompleted(GestureDescription gestureDescription) {
-            Log.d(TAG, "Gesture completed: " + gestureDescription);
-            if (onCompleted != null) {
-                onCompleted.run();
+            pending = false;
+            endTrace();
+            trace.record(MacroTrace.EV_GESTURE_COMPLETED, stepIndex, 0, 0, stepName);
+            Trace.beginSection(TRACE_CALLBACK);
+            try {
+                engine.onGestureCompleted(source, stepIndex, token);
+            } finally {
+                Trace.endSection();
             }
         }
 
         @Override
         public void onCancelled(GestureDescription gestureDescription) {
-            Log.w(TAG, "Gesture cancelled: " + gestureDescription);
-            if (onCancelled != null) {
-                onCancelled.run();
-                return;
+            pending = false;
+            endTrace();
+            Log.w(TAG, "Gesture cancelled: " + stepName);
+            Trace.beginSection(TRACE_CALLBACK);
+            try {
+                engine.onGestureCancelled(source, stepIndex, token);
+            } finally {
+                Trace.endSection();
             }
-            setFunctionEnabled(false);
         }
     }
 
-    private static class ClickMacroState {
-        final PointF buttonCenter;
-        final PointF clickPoint;
-        final long startupDelayMs;
-        final long stepDelayMs;
+    private static class HandlerScheduler implements MacroEngine.Scheduler {
+        private final Handler handler;
+        // Choreographer 按线程区分，必须在宏线程上首次获取，帧回调才会回到宏线程。
+        private Choreographer choreographer;
+        // 每个 Runnable 对应一个可复用的帧计数回调，只在首次使用时创建。
+        private final HashMap<Runnable, FrameWait> frameWaits = new HashMap<>();
 
-        boolean tap1Done = false;
-        boolean tap2Done = false;
+        HandlerScheduler(Handler handler) {
+            this.handler = handler;
+        }
 
-        Runnable timeoutRunnable;
-        Runnable startRunnable;
-        Runnable afterTap1Fallback;
-        Runnable afterTap2Fallback;
-        Runnable afterTap3Fallback;
+        @Override
+        public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+        }
 
-        ClickMacroState(PointF buttonCenter, PointF clickPoint, MacroConfig.MacroDelays delays) {
-            this.buttonCenter = buttonCenter;
-            this.clickPoint = clickPoint;
-            this.startupDelayMs = delays.startupDelayMs;
-            this.stepDelayMs = delays.stepDelayMs;
+        @Override
+        public void postDelayed(Runnable runnable, long delayMs) {
+            handler.postDelayed(runnable, delayMs);
         }
-    }
 
-    private static class StepMacroState {
-        final PointF buttonCenter;
-        final long stepDelayMs;
+        @Override
+        public void postFrames(Runnable runnable, int frameCount) {
+            if (choreographer == null) {
+                choreographer = Choreographer.getInstance();
+            }
+            FrameWait wait = frameWaits.get(runnable);
+            if (wait == null) {
+                wait = new FrameWait(runnable);
+                frameWaits.put(runnable, wait);
+            }
+            choreographer.removeFrameCallback(wait);
+            wait.remaining = Math.max(1, frameCount);
+            choreographer.postFrameCallback(wait);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable runnable) {
+            handler.removeCallbacks(runnable);
+            FrameWait wait = frameWaits.get(runnable);
+            if (wait != null && choreographer != null) {
+                choreographer.removeFrameCallback(wait);
+            }
+        }
 
-        boolean tap1Done = false;
+        private final class FrameWait implements Choreographer.FrameCallback {
+            private final Runnable target;
+            private int remaining;
 
-        Runnable timeoutRunnable;
-        Runnable startRunnable;
-        Runnable afterTap1Fallback;
-        Runnable afterTap2Fallback;
+            FrameWait(Runnable target) {
+                this.target = target;
+            }
 
-        StepMacroState(PointF buttonCenter, long stepDelayMs) {
-            this.buttonCenter = buttonCenter;
-            this.stepDelayMs = stepDelayMs;
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                if (--remaining > 0) {
+                    choreographer.postFrameCallback(this);
+                    return;
+                }
+                target.run();
+            }
         }
     }
 
-    private static class MacroState {
-        final PointF buttonCenter;
-        final PointF dragStart;
-        final PointF dragEnd;
-        final long startupDelayMs;
-        final long stepDelayMs;
-        final long dragDurationMs;
-        final long holdDelayMs;
+    /**
+     * 一次宏执行所需的全部手势与回调，宏启动前预先构建，执行过程中只按下标取用。
+     */
+    @TargetApi(Build.VERSION_CODES.N)
+    private final class CompiledMacro implements MacroEngine.Dispatcher {
+        final MacroTimeline timeline;
+        final GestureDescription[] gestures;
+        final GestureCallbackAdapter[] callbacks;
+        // 预计较长、需要切到宏档位；为 null 表示整次执行都留在游戏档位。
+        private final Runnable enterMacroProfile;
+        // 本次执行还没有派出过手势；只在宏线程上读写。
+        private boolean firstDispatch;
+
+        CompiledMacro(MacroTimeline timeline) {
+            this.timeline = timeline;
+            this.gestures = new GestureDescription[timeline.steps.length];
+            this.callbacks = new GestureCallbackAdapter[timeline.steps.length];
+            this.enterMacroProfile = timeline.nominalDurationMs(getRefreshRate()) >= MACRO_PROFILE_MIN_DURATION_MS
+                    ? () -> enterMacroProfile(timeline)
+                    : null;
+        }
 
-        boolean dragStarted = false;
-        boolean afterDragInvoked = false;
-        GestureDescription.StrokeDescription heldStroke;
+        boolean build() {
+            MacroStep[] steps = timeline.steps;
+            GestureDescription.StrokeDescription heldStroke = null;
+            for (int i = 0; i < steps.length; i++) {
+                MacroStep step = steps[i];
+                GestureDescription.StrokeDescription stroke;
+                switch (step.kind) {
+                    case MacroStep.KIND_TAP:
+                        gestures[i] = lookupButtonTap(step.endX, step.endY, step.durationMs);
+                        stroke = gestures[i] != null
+                                ? null
+                                : createTapStroke(step.endX, step.endY, 0, step.durationMs);
+                        break;
+                    case MacroStep.KIND_FUSED:
+                        stroke = null;
+                        gestures[i] = buildFusedGesture(step);
+                        if (gestures[i] == null) {
+                            Log.w(TAG, "Cannot build fused gesture for step " + step.name);
+                            return false;
+                        }
+                        break;
+                    case MacroStep.KIND_DRAG:
+                        stroke = createDragStroke(step, false, step.durationMs);
+                        break;
+                    case MacroStep.KIND_DRAG_HOLD:
+                        stroke = createDragStroke(step, true, step.durationMs);
+                        heldStroke = stroke;
+                        break;
+                    case MacroStep.KIND_CONTINUE:
+                        stroke = continueStrokeAtEnd(heldStroke, step.endX, step.endY, step.durationMs);
+                        heldStroke = null;
+                        break;
+                    default:
+                        continue;
+                }
+                if (gestures[i] == null) {
+                    if (stroke == null) {
+                        Log.w(TAG, "Cannot build gesture for step " + step.name);
+                        return false;
+                    }
+                    gestures[i] = new GestureDescription.Builder()
+                            .addStroke(stroke)
+                            .build();
+                }
+                callbacks[i] = newCallback(i);
+            }
+            return true;
+        }
 
-        Runnable timeoutRunnable;
-        Runnable startRunnable;
-        Runnable afterTapFallback;
-        Runnable afterDragFallback;
-        Runnable finishFallback;
+        private GestureCallbackAdapter newCallback(int index) {
+            MacroStep step = timeline.steps[index];
+            return new GestureCallbackAdapter(trace, macroEngine, this, index, step.name, step.traceName);
+        }
 
-        MacroState(PointF buttonCenter, PointF dragStart, PointF dragEnd, MacroConfig.MacroDelays delays) {
-            this.buttonCenter = buttonCenter;
-            this.dragStart = dragStart;
-            this.dragEnd = dragEnd;
-            this.startupDelayMs = delays.startupDelayMs;
-            this.stepDelayMs = delays.stepDelayMs;
-            this.dragDurationMs = delays.dragDurationMs;
-            this.holdDelayMs = delays.holdDelayMs;
+        @Override
+        public boolean dispatchGesture(int index, int token) {
+            GestureCallbackAdapter callback = callbacks[index];
+            if (callback.pending) {
+                // 上一次派发由兜底推进、回调还没到：换一个实例，迟到的回调仍带着旧 token，只在这种情况下分配。
+                callback = newCallback(index);
+                callbacks[index] = callback;
+            }
+            callback.token = token;
+            callback.pending = true;
+            callback.beginTrace();
+            Trace.beginSection(TRACE_DISPATCH);
+            boolean dispatched;
+            try {
+                dispatched = VolumeKeyAccessibilityService.this.dispatchGesture(
+                        gestures[index], callback, macroHandler);
+            } finally {
+                Trace.endSection();
+            }
+            if (!dispatched) {
+                callback.pending = false;
+                callback.endTrace();
+            }
+            trace.record(MacroTrace.EV_DISPATCH, index, dispatched ? 1 : 0, 0, timeline.steps[index].name);
+            if (dispatched && firstDispatch) {
+                firstDispatch = false;
+                if (enterMacroProfile != null) {
+                    handler.post(enterMacroProfile);
+                }
+            }
+            return dispatched;
+        }
+
+        @Override
+        public boolean performGlobalAction(int action) {
+            Trace.beginSection(TRACE_GLOBAL_ACTION);
+            boolean ok;
+            try {
+                ok = VolumeKeyAccessibilityService.this.performGlobalAction(action);
+            } finally {
+                Trace.endSection();
+            }
+            trace.record(MacroTrace.EV_GLOBAL_ACTION, action, ok ? 1 : 0);
+            return ok;
+        }
+
+        /**
+         * 整次执行的异步 trace 以引擎的 runId 为 cookie：同一个预编译宏会反复执行，静默取消也从这里结束。
+         */
+        @Override
+        public void onRunStarted(int runId) {
+            firstDispatch = true;
+            beginAsyncTrace(TRACE_RUN_NAMES[timeline.type], runId);
+        }
+
+        @Override
+        public void onRunEnded(int runId) {
+            endAsyncTrace(TRACE_RUN_NAMES[timeline.type], runId);
+        }
+
+        @Override
+        public void onGestureAbandoned(int index, int token) {
+            GestureCallbackAdapter callback = callbacks[index];
+            if (callback != null && callback.token == token) {
+                callback.endTrace();
+            }
         }
     }
 
     /**
-     * 录制过程中绘制箭头指示拖动起止位置。
+     * 录制过程中绘制按钮中心指示点和已录制的拖动；正在拖动的箭头由 {@link ArrowPreviewView} 单独绘制。
+     * <p>
+     * 硬件加速下 invalidate(Rect) 的脏区会被忽略，整窗 overlay 每次 ACTION_MOVE 重绘都要重新合成全屏；
+     * 把实时箭头放进一个随箭头包围盒移动的子 View 后，MOVE 只重绘这个子 View，损坏区域是新旧包围盒。
+     * 绘制用的 Path 和 dp 换算结果都在构造时准备好，onDraw 中不分配对象。
      */
-    private class RecordingOverlayView extends View {
+    private class RecordingOverlayView extends ViewGroup {
         private final Paint linePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
         private final Paint circlePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
         private final Paint markerFillPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
         private final Paint markerRingPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        // 箭头尖复用同一个 Path，每次绘制前 rewind。
+        private final Path arrowPath = new Path();
+        private final ArrowPreviewView arrowPreview;
+
+        private final float markerRadiusPx;
+        private final float markerRingGapPx;
+        private final float markerRingGapDraggingPx;
+        final float markerTouchRadiusPx;
 
         RecordingOverlayView(android.content.Context context) {
             super(context);
             setWillNotDraw(false);
+            float density = getResources().getDisplayMetrics().density;
+            markerRadiusPx = BUTTON_MARKER_RADIUS_DP * density;
+            markerRingGapPx = 6f * density;
+            markerRingGapDraggingPx = 10f * density;
+            markerTouchRadiusPx = BUTTON_MARKER_TOUCH_RADIUS_DP * density;
+
             linePaint.setColor(0x88FFC107);
-            linePaint.setStrokeWidth(8f);
+            linePaint.setStrokeWidth(ARROW_LINE_STROKE_PX);
             linePaint.setStyle(Paint.Style.STROKE);
 
             circlePaint.setColor(0xAAFFC107);
@@ -1180,55 +2504,91 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
 
             markerRingPaint.setColor(0xEE00BCD4);
             markerRingPaint.setStyle(Paint.Style.STROKE);
-            markerRingPaint.setStrokeWidth(dpToPx(2.5f));
+            markerRingPaint.setStrokeWidth(2.5f * density);
+
+            arrowPreview = new ArrowPreviewView(context);
+            arrowPreview.setVisibility(View.INVISIBLE);
+            addView(arrowPreview);
+        }
+
+        /**
+         * 只更新实时箭头（ACTION_MOVE 热路径）。
+         */
+        void syncArrowPreview() {
+            arrowPreview.update(recordingActive || showArrow, startX, startY, currentX, currentY);
+        }
+
+        /**
+         * 指示点、已录制拖动或录制状态变化时整体重绘。
+         */
+        void refresh() {
+            invalidate();
+            syncArrowPreview();
+        }
+
+        @Override
+        protected void onLayout(boolean changed, int l, int t, int r, int b) {
+            arrowPreview.relayout();
         }
 
         @Override
         protected void onDraw(Canvas canvas) {
             super.onDraw(canvas);
             // 按钮中心指示点：可拖动，用于校准点击坐标（适配非 16:9）。
-            float markerR = dpToPx(BUTTON_MARKER_RADIUS_DP);
-            float ringR = markerR + dpToPx(draggingButtonCenter ? 10f : 6f);
+            float ringR = markerRadiusPx + (draggingButtonCenter ? markerRingGapDraggingPx : markerRingGapPx);
             canvas.drawCircle(buttonCenterX, buttonCenterY, ringR, markerRingPaint);
-            canvas.drawCircle(buttonCenterX, buttonCenterY, markerR, markerFillPaint);
+            canvas.drawCircle(buttonCenterX, buttonCenterY, markerRadiusPx, markerFillPaint);
 
-            if (!recordingActive && !showArrow) return;
-            float sx = startX;
-            float sy = startY;
-            float ex = currentX;
-            float ey = currentY;
+            // 批量模式下已录制、等待执行的拖动。
+            for (int i = 0; i < batchDragCount; i++) {
+                int o = i * 4;
+                drawArrow(canvas, batchDrags[o], batchDrags[o + 1], batchDrags[o + 2], batchDrags[o + 3], batchPaths[i]);
+            }
+        }
 
+        /**
+         * @param path 可为 null；非 null 时按录制折线绘制，箭头尖方向取最后一段。
+         */
+        private void drawArrow(Canvas canvas, float sx, float sy, float ex, float ey, float[] path) {
             // 绘制起点终点圆
-            canvas.drawCircle(sx, sy, 12f, circlePaint);
-            canvas.drawCircle(ex, ey, 12f, circlePaint);
+            canvas.drawCircle(sx, sy, ARROW_POINT_RADIUS_PX, circlePaint);
+            canvas.drawCircle(ex, ey, ARROW_POINT_RADIUS_PX, circlePaint);
 
             // 绘制箭头线
-            canvas.drawLine(sx, sy, ex, ey, linePaint);
+            float fromX = sx;
+            float fromY = sy;
+            if (path != null && path.length >= 4) {
+                for (int k = 2; k + 1 < path.length; k += 2) {
+                    canvas.drawLine(path[k - 2], path[k - 1], path[k], path[k + 1], linePaint);
+                }
+                fromX = path[path.length - 4];
+                fromY = path[path.length - 3];
+            } else {
+                canvas.drawLine(sx, sy, ex, ey, linePaint);
+            }
 
             // 绘制箭头尖
-            float dx = ex - sx;
-            float dy = ey - sy;
+            float dx = ex - fromX;
+            float dy = ey - fromY;
             float len = (float) Math.hypot(dx, dy);
             if (len > 0) {
                 float ux = dx / len;
                 float uy = dy / len;
-                float arrowLen = 36f;
-                float arrowWidth = 14f;
-                float bx = ex - arrowLen * ux;
-                float by = ey - arrowLen * uy;
+                float bx = ex - ARROW_HEAD_LENGTH_PX * ux;
+                float by = ey - ARROW_HEAD_LENGTH_PX * uy;
                 float perpX = -uy;
                 float perpY = ux;
-                float x1 = bx + arrowWidth * perpX;
-                float y1 = by + arrowWidth * perpY;
-                float x2 = bx - arrowWidth * perpX;
-                float y2 = by - arrowWidth * perpY;
-
-                Path arrow = new Path();
-                arrow.moveTo(ex, ey);
-                arrow.lineTo(x1, y1);
-                arrow.lineTo(x2, y2);
-                arrow.close();
-                canvas.drawPath(arrow, circlePaint);
+                float x1 = bx + ARROW_HEAD_WIDTH_PX * perpX;
+                float y1 = by + ARROW_HEAD_WIDTH_PX * perpY;
+                float x2 = bx - ARROW_HEAD_WIDTH_PX * perpX;
+                float y2 = by - ARROW_HEAD_WIDTH_PX * perpY;
+
+                arrowPath.rewind();
+                arrowPath.moveTo(ex, ey);
+                arrowPath.lineTo(x1, y1);
+                arrowPath.lineTo(x2, y2);
+                arrowPath.close();
+                canvas.drawPath(arrowPath, circlePaint);
             }
         }
 
@@ -1238,5 +2598,58 @@ public class VolumeKeyAccessibilityService extends AccessibilityService {
             // 触摸事件已在 onTouch 中处理，这里仅满足可访问性要求。
             return super.performClick();
         }
+
+        /**
+         * 实时箭头：View 的位置和大小始终等于箭头包围盒（含圆点、箭头尖和描边），坐标仍按屏幕坐标绘制。
+         * 不可点击，触摸事件落到父 View 的 OnTouchListener。
+         */
+        private class ArrowPreviewView extends View {
+            private float sx;
+            private float sy;
+            private float ex;
+            private float ey;
+            private int boundsLeft;
+            private int boundsTop;
+            private int boundsRight;
+            private int boundsBottom;
+
+            ArrowPreviewView(android.content.Context context) {
+                super(context);
+                setWillNotDraw(false);
+                setImportantForAccessibility(View.IMPORTANT_FOR_ACCESSIBILITY_NO);
+            }
+
+            void update(boolean visible, float startX, float startY, float endX, float endY) {
+                if (!visible) {
+                    if (getVisibility() != View.INVISIBLE) setVisibility(View.INVISIBLE);
+                    return;
+                }
+                sx = startX;
+                sy = startY;
+                ex = endX;
+                ey = endY;
+                boundsLeft = (int) Math.floor(Math.min(sx, ex)) - ARROW_BOUNDS_PAD_PX;
+                boundsTop = (int) Math.floor(Math.min(sy, ey)) - ARROW_BOUNDS_PAD_PX;
+                boundsRight = (int) Math.ceil(Math.max(sx, ex)) + ARROW_BOUNDS_PAD_PX;
+                boundsBottom = (int) Math.ceil(Math.max(sy, ey)) + ARROW_BOUNDS_PAD_PX;
+                // 只改位置时不触发父布局，旧位置与新位置由渲染线程计入损坏区域。
+                relayout();
+                invalidate();
+                if (getVisibility() != View.VISIBLE) setVisibility(View.VISIBLE);
+            }
+
+            void relayout() {
+                if (getLeft() != boundsLeft || getTop() != boundsTop
+                        || getRight() != boundsRight || getBottom() != boundsBottom) {
+                    layout(boundsLeft, boundsTop, boundsRight, boundsBottom);
+                }
+            }
+
+            @Override
+            protected void onDraw(Canvas canvas) {
+                canvas.translate(-getLeft(), -getTop());
+                drawArrow(canvas, sx, sy, ex, ey, null);
+            }
+        }
     }
 }
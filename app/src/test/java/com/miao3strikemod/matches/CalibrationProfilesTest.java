@@ -0,0 +1,103 @@
+package com.miao3strikemod.matches;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * 按显示配置保存的校准坐标：键的区分、归一化坐标往返与编码容错。
+ */
+public class CalibrationProfilesTest {
+
+    private static final String UNFOLDED = CalibrationProfiles.key(2208, 1768, 1, 0, 0, 0, 0);
+    private static final String FOLDED = CalibrationProfiles.key(2316, 904, 1, 0, 0, 84, 0);
+
+    @Test
+    public void keyDistinguishesEveryDisplayParameter() {
+        assertEquals("2400x1080@1/0,0,84,0", CalibrationProfiles.key(2400, 1080, 1, 0, 0, 84, 0));
+        String base = CalibrationProfiles.key(2400, 1080, 1, 0, 0, 84, 0);
+        assertNotEquals(base, CalibrationProfiles.key(1080, 2400, 1, 0, 0, 84, 0));
+        assertNotEquals(base, CalibrationProfiles.key(2400, 1080, 3, 0, 0, 84, 0));
+        assertNotEquals(base, CalibrationProfiles.key(2400, 1080, 1, 84, 0, 0, 0));
+        assertNotEquals(base, CalibrationProfiles.key(2400, 1080, 1, 0, 0, 0, 0));
+    }
+
+    @Test
+    public void normalizedPointSurvivesEncodeDecodePerDisplay() {
+        // 服务保存 x / 宽、y / 高，读取时再乘回当前尺寸。
+        float unfoldedX = 2010f;
+        float unfoldedY = 95f;
+        float foldedX = 2140f;
+        float foldedY = 62f;
+        CalibrationProfiles profiles = CalibrationProfiles.EMPTY
+                .with(UNFOLDED, unfoldedX / 2208f, unfoldedY / 1768f)
+                .with(FOLDED, foldedX / 2316f, foldedY / 904f);
+
+        CalibrationProfiles decoded = CalibrationProfiles.decode(profiles.encode());
+        assertEquals(profiles, decoded);
+        assertEquals(2, decoded.size());
+        float[] unfolded = decoded.get(UNFOLDED);
+        float[] folded = decoded.get(FOLDED);
+        assertEquals(unfoldedX, unfolded[0] * 2208f, 0.5f);
+        assertEquals(unfoldedY, unfolded[1] * 1768f, 0.5f);
+        assertEquals(foldedX, folded[0] * 2316f, 0.5f);
+        assertEquals(foldedY, folded[1] * 904f, 0.5f);
+    }
+
+    @Test
+    public void unknownDisplayHasNoEntry() {
+        CalibrationProfiles profiles = CalibrationProfiles.EMPTY.with(UNFOLDED, 0.9f, 0.05f);
+        assertTrue(profiles.contains(UNFOLDED));
+        assertFalse(profiles.contains(FOLDED));
+        assertNull(profiles.get(FOLDED));
+        assertNull(profiles.get(null));
+        assertFalse(profiles.contains(null));
+    }
+
+    @Test
+    public void withIsCopyOnWrite() {
+        CalibrationProfiles first = CalibrationProfiles.EMPTY.with(UNFOLDED, 0.9f, 0.05f);
+        CalibrationProfiles second = first.with(UNFOLDED, 0.8f, 0.06f);
+        assertArrayEquals(new float[]{0.9f, 0.05f}, first.get(UNFOLDED), 0f);
+        assertArrayEquals(new float[]{0.8f, 0.06f}, second.get(UNFOLDED), 0f);
+        assertEquals(0, CalibrationProfiles.EMPTY.size());
+    }
+
+    @Test
+    public void oldestProfileIsEvictedAndRecalibrationRefreshes() {
+        CalibrationProfiles profiles = CalibrationProfiles.EMPTY;
+        for (int i = 0; i < CalibrationProfiles.MAX_PROFILES; i++) {
+            profiles = profiles.with(CalibrationProfiles.key(1000 + i, 500, 0, 0, 0, 0, 0), 0.5f, 0.5f);
+        }
+        String oldest = CalibrationProfiles.key(1000, 500, 0, 0, 0, 0, 0);
+        String second = CalibrationProfiles.key(1001, 500, 0, 0, 0, 0, 0);
+        profiles = profiles.with(oldest, 0.6f, 0.4f).with(UNFOLDED, 0.9f, 0.05f);
+
+        assertEquals(CalibrationProfiles.MAX_PROFILES, profiles.size());
+        assertTrue(profiles.contains(oldest));
+        assertFalse(profiles.contains(second));
+        assertTrue(profiles.contains(UNFOLDED));
+    }
+
+    @Test
+    public void decodeSkipsBrokenAndOutOfRangeEntries() {
+        String value = UNFOLDED + "=0.9,0.05;garbage;" + FOLDED + "=1.5,0.2;k=abc,0.1;;=0.1,0.1";
+        CalibrationProfiles decoded = CalibrationProfiles.decode(value);
+        assertEquals(1, decoded.size());
+        assertArrayEquals(new float[]{0.9f, 0.05f}, decoded.get(UNFOLDED), 0f);
+    }
+
+    @Test
+    public void emptyInputDecodesToSharedEmpty() {
+        assertSame(CalibrationProfiles.EMPTY, CalibrationProfiles.decode(null));
+        assertSame(CalibrationProfiles.EMPTY, CalibrationProfiles.decode(""));
+        assertSame(CalibrationProfiles.EMPTY, CalibrationProfiles.decode("nothing-valid"));
+        assertEquals("", CalibrationProfiles.EMPTY.encode());
+    }
+}
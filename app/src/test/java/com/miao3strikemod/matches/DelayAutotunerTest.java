@@ -0,0 +1,88 @@
+package com.miao3strikemod.matches;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * 自动调优的失败归属与已知失败值过期。
+ */
+public class DelayAutotunerTest {
+
+    private static DelayAutotuner tuner(long startupBadMs, long holdBadMs) {
+        return new DelayAutotuner(100L, startupBadMs, 0L, 1000L, 100L, holdBadMs, 1L, 1000L);
+    }
+
+    @Test
+    public void holdTimeoutOnlyPenalizesHold() {
+        DelayAutotuner tuner = tuner(-1L, -1L);
+        tuner.onMacroEnded(MacroTimeline.TYPE_DRAG, "hold_release_timeout");
+        assertTrue(tuner.onMacroEnded(MacroTimeline.TYPE_DRAG, "hold_release_timeout"));
+
+        assertEquals(150L, tuner.hold.valueMs);
+        assertEquals(100L, tuner.hold.knownBadMs);
+        assertEquals(100L, tuner.startup.valueMs);
+        assertEquals(0, tuner.startup.failures);
+        assertEquals(2, tuner.startup.runs);
+    }
+
+    @Test
+    public void startupFailureDoesNotCountForHold() {
+        DelayAutotuner tuner = tuner(-1L, -1L);
+        tuner.onMacroEnded(MacroTimeline.TYPE_DRAG, "tap_timeout");
+        tuner.onMacroEnded(MacroTimeline.TYPE_DRAG, "tap_cancelled");
+
+        assertEquals(150L, tuner.startup.valueMs);
+        assertEquals(0, tuner.hold.runs);
+        assertEquals(100L, tuner.hold.valueMs);
+    }
+
+    @Test
+    public void timeoutWithoutGestureInFlightIsNotASignal() {
+        DelayAutotuner tuner = tuner(-1L, -1L);
+        assertFalse(tuner.onMacroEnded(MacroTimeline.TYPE_DRAG, "timeout"));
+        assertFalse(tuner.onMacroEnded(MacroTimeline.TYPE_DRAG, "preempted"));
+        assertEquals(0, tuner.startup.runs);
+        assertEquals(0, tuner.hold.runs);
+    }
+
+    @Test
+    public void successfulWindowBisectsTowardsKnownBad() {
+        DelayAutotuner tuner = tuner(80L, -1L);
+        for (int i = 0; i < DelayAutotuner.WINDOW_RUNS; i++) {
+            tuner.onMacroEnded(MacroTimeline.TYPE_CLICK, null);
+        }
+        assertEquals(90L, tuner.startup.valueMs);
+        assertEquals(80L, tuner.startup.knownBadMs);
+    }
+
+    @Test
+    public void knownBadExpiresAfterConsecutiveSuccesses() {
+        // 已收敛：81ms 可用，80ms 失败过。
+        DelayAutotuner tuner = new DelayAutotuner(81L, 80L, 0L, 1000L, 100L, -1L, 1L, 1000L);
+        boolean changed = false;
+        for (int i = 0; i < DelayAutotuner.KNOWN_BAD_EXPIRY_RUNS - 1; i++) {
+            changed = tuner.onMacroEnded(MacroTimeline.TYPE_CLICK, null);
+        }
+        assertEquals(80L, tuner.startup.knownBadMs);
+        assertTrue(tuner.startup.isConverged());
+        assertFalse(changed);
+
+        assertTrue(tuner.onMacroEnded(MacroTimeline.TYPE_CLICK, null));
+        assertEquals(-1L, tuner.startup.knownBadMs);
+        assertFalse(tuner.startup.isConverged());
+    }
+
+    @Test
+    public void failureRestartsExpiryStreak() {
+        DelayAutotuner tuner = tuner(80L, -1L);
+        for (int i = 0; i < DelayAutotuner.KNOWN_BAD_EXPIRY_RUNS - 1; i++) {
+            tuner.onMacroEnded(MacroTimeline.TYPE_CLICK, null);
+        }
+        tuner.onMacroEnded(MacroTimeline.TYPE_CLICK, "tap1_cancelled");
+        tuner.onMacroEnded(MacroTimeline.TYPE_CLICK, null);
+        assertEquals(80L, tuner.startup.knownBadMs);
+    }
+}
@@ -0,0 +1,126 @@
+package com.miao3strikemod.matches;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * 轨迹化简：首尾点保留、误差不超过容差、点数上限。
+ */
+public class DragTrajectoryTest {
+
+    private static final float EPS = 1e-3f;
+
+    private static DragTrajectory sineWave(int samples, float amplitude) {
+        DragTrajectory trajectory = new DragTrajectory(DragTrajectory.DEFAULT_CAPACITY);
+        trajectory.reset(0f, 500f, 0L);
+        for (int i = 1; i < samples; i++) {
+            float x = i * 5f;
+            trajectory.add(x, 500f + amplitude * (float) Math.sin(x / 40f), i * 8L);
+        }
+        return trajectory;
+    }
+
+    @Test
+    public void straightLineKeepsOnlyEndpoints() {
+        DragTrajectory trajectory = new DragTrajectory(64);
+        trajectory.reset(10f, 20f, 0L);
+        for (int i = 1; i <= 20; i++) {
+            trajectory.add(10f + i * 10f, 20f + i * 5f, i * 8L);
+        }
+        assertArrayEquals(new float[]{10f, 20f, 210f, 120f},
+                trajectory.simplify(DragTrajectory.DEFAULT_TOLERANCE_PX, DragTrajectory.DEFAULT_MAX_POINTS), EPS);
+        assertEquals(160L, trajectory.durationMs());
+    }
+
+    @Test
+    public void cornerBeyondToleranceIsKept() {
+        DragTrajectory trajectory = new DragTrajectory(64);
+        trajectory.reset(0f, 0f, 0L);
+        trajectory.add(50f, 2f, 10L);
+        trajectory.add(100f, 0f, 20L);
+        trajectory.add(100f, 100f, 30L);
+
+        assertArrayEquals(new float[]{0f, 0f, 100f, 0f, 100f, 100f}, trajectory.simplify(4f, 32), EPS);
+    }
+
+    @Test
+    public void endpointsArePreservedUnderAnyLimit() {
+        DragTrajectory trajectory = sineWave(200, 80f);
+        float firstX = 0f;
+        float firstY = 500f;
+        float lastX = 199 * 5f;
+        float lastY = 500f + 80f * (float) Math.sin(lastX / 40f);
+        for (int limit : new int[]{2, 3, 8, 32, 1000}) {
+            float[] out = trajectory.simplify(DragTrajectory.DEFAULT_TOLERANCE_PX, limit);
+            assertTrue(out.length / 2 <= limit);
+            assertEquals(firstX, out[0], EPS);
+            assertEquals(firstY, out[1], EPS);
+            assertEquals(lastX, out[out.length - 2], EPS);
+            assertEquals(lastY, out[out.length - 1], EPS);
+        }
+    }
+
+    @Test
+    public void droppedSamplesStayWithinTolerance() {
+        float tolerance = 4f;
+        DragTrajectory trajectory = sineWave(200, 80f);
+        float[] out = trajectory.simplify(tolerance, 1000);
+        assertTrue(out.length / 2 < trajectory.size());
+        for (int i = 0; i < 200; i++) {
+            float x = i * 5f;
+            float y = 500f + 80f * (float) Math.sin(x / 40f);
+            assertTrue("sample " + i, distanceToPolyline(x, y, out) <= tolerance + EPS);
+        }
+    }
+
+    @Test
+    public void tighterLimitOnlyCoarsensTheResult() {
+        DragTrajectory trajectory = sineWave(200, 80f);
+        int loose = trajectory.simplify(1f, 1000).length / 2;
+        int capped = trajectory.simplify(1f, 8).length / 2;
+        assertTrue(capped <= 8);
+        assertTrue(capped < loose);
+    }
+
+    @Test
+    public void fullBufferStillEndsAtLastSample() {
+        DragTrajectory trajectory = new DragTrajectory(4);
+        trajectory.reset(0f, 0f, 0L);
+        for (int i = 1; i <= 10; i++) {
+            trajectory.add(i * 10f, (i % 2) * 30f, i * 8L);
+        }
+        assertEquals(4, trajectory.size());
+        float[] out = trajectory.simplify(0f, 32);
+        assertEquals(100f, out[out.length - 2], EPS);
+        assertEquals(0f, out[out.length - 1], EPS);
+        assertEquals(80L, trajectory.durationMs());
+    }
+
+    @Test
+    public void nearbySamplesMergeAndSinglePointIsRejected() {
+        DragTrajectory trajectory = new DragTrajectory(16);
+        trajectory.reset(5f, 5f, 0L);
+        trajectory.add(5.5f, 5.5f, 8L);
+        assertEquals(1, trajectory.size());
+        assertNull(trajectory.simplify(4f, 32));
+        assertEquals(0L, trajectory.durationMs());
+    }
+
+    private static float distanceToPolyline(float px, float py, float[] points) {
+        float best = Float.MAX_VALUE;
+        for (int k = 2; k + 1 < points.length; k += 2) {
+            float ax = points[k - 2];
+            float ay = points[k - 1];
+            float dx = points[k] - ax;
+            float dy = points[k + 1] - ay;
+            float lenSq = dx * dx + dy * dy;
+            float t = lenSq > 0f ? Math.max(0f, Math.min(1f, ((px - ax) * dx + (py - ay) * dy) / lenSq)) : 0f;
+            best = Math.min(best, (float) Math.hypot(ax + t * dx - px, ay + t * dy - py));
+        }
+        return best;
+    }
+}
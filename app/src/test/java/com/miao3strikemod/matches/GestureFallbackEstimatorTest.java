@@ -0,0 +1,125 @@
+package com.miao3strikemod.matches;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * 兜底余量：直方图 p99 加安全余量、类别隔离，以及持久化编码的往返。
+ */
+public class GestureFallbackEstimatorTest {
+
+    private static final long DEFAULT_MARGIN_MS = 200L;
+
+    private static void record(GestureFallbackEstimator estimator, int stepKind, int count, long overrunMs) {
+        for (int i = 0; i < count; i++) {
+            estimator.onCallback(stepKind, overrunMs);
+        }
+    }
+
+    @Test
+    public void defaultMarginUntilEnoughSamples() {
+        GestureFallbackEstimator estimator = new GestureFallbackEstimator();
+        record(estimator, MacroStep.KIND_TAP, 19, 10L);
+        assertEquals(DEFAULT_MARGIN_MS, estimator.marginMs(MacroStep.KIND_TAP, DEFAULT_MARGIN_MS));
+        record(estimator, MacroStep.KIND_TAP, 1, 10L);
+        assertEquals(12L + GestureFallbackEstimator.SAFETY_MS, estimator.marginMs(MacroStep.KIND_TAP, DEFAULT_MARGIN_MS));
+    }
+
+    @Test
+    public void marginIsP99BucketPlusSafety() {
+        GestureFallbackEstimator estimator = new GestureFallbackEstimator();
+        // 99 个 40ms 加 1 个 300ms：p99 落在 40ms 所在的 2ms 桶，取桶上沿 42ms。
+        record(estimator, MacroStep.KIND_DRAG, 99, 40L);
+        record(estimator, MacroStep.KIND_DRAG, 1, 300L);
+        assertEquals(42L + GestureFallbackEstimator.SAFETY_MS,
+                estimator.marginMs(MacroStep.KIND_DRAG, DEFAULT_MARGIN_MS));
+
+        // 再多一个慢样本，p99 就落到 300ms 的桶。
+        record(estimator, MacroStep.KIND_DRAG, 1, 300L);
+        assertEquals(302L + GestureFallbackEstimator.SAFETY_MS,
+                estimator.marginMs(MacroStep.KIND_DRAG_HOLD, DEFAULT_MARGIN_MS));
+    }
+
+    @Test
+    public void marginIsClampedToMinimum() {
+        GestureFallbackEstimator estimator = new GestureFallbackEstimator();
+        record(estimator, MacroStep.KIND_CONTINUE, 50, 0L);
+        assertEquals(GestureFallbackEstimator.MIN_MARGIN_MS,
+                estimator.marginMs(MacroStep.KIND_CONTINUE, DEFAULT_MARGIN_MS));
+    }
+
+    @Test
+    public void classesAreIndependentAndNonGesturesIgnored() {
+        GestureFallbackEstimator estimator = new GestureFallbackEstimator();
+        record(estimator, MacroStep.KIND_FUSED, 50, 100L);
+        record(estimator, MacroStep.KIND_WAIT, 50, 100L);
+        assertEquals(102L + GestureFallbackEstimator.SAFETY_MS,
+                estimator.marginMs(MacroStep.KIND_FUSED, DEFAULT_MARGIN_MS));
+        assertEquals(DEFAULT_MARGIN_MS, estimator.marginMs(MacroStep.KIND_TAP, DEFAULT_MARGIN_MS));
+        assertEquals(DEFAULT_MARGIN_MS, estimator.marginMs(MacroStep.KIND_GLOBAL_ACTION, DEFAULT_MARGIN_MS));
+        assertEquals(-1, GestureFallbackEstimator.classOf(MacroStep.KIND_WAIT_FRAMES));
+    }
+
+    @Test
+    public void lateCallbacksRaiseMarginButFallbacksDoNot() {
+        GestureFallbackEstimator estimator = new GestureFallbackEstimator();
+        record(estimator, MacroStep.KIND_TAP, 20, 10L);
+        for (int i = 0; i < 50; i++) {
+            estimator.onFallback(MacroStep.KIND_TAP);
+        }
+        assertEquals(12L + GestureFallbackEstimator.SAFETY_MS, estimator.marginMs(MacroStep.KIND_TAP, DEFAULT_MARGIN_MS));
+
+        estimator.onLateCallback(MacroStep.KIND_TAP, 250L);
+        assertEquals(252L + GestureFallbackEstimator.SAFETY_MS,
+                estimator.marginMs(MacroStep.KIND_TAP, DEFAULT_MARGIN_MS));
+    }
+
+    @Test
+    public void decayKeepsTheDistribution() {
+        GestureFallbackEstimator estimator = new GestureFallbackEstimator();
+        record(estimator, MacroStep.KIND_TAP, 1000, 60L);
+        assertEquals(62L + GestureFallbackEstimator.SAFETY_MS,
+                estimator.marginMs(MacroStep.KIND_TAP, DEFAULT_MARGIN_MS));
+    }
+
+    @Test
+    public void encodeDecodeRoundTrip() {
+        GestureFallbackEstimator estimator = new GestureFallbackEstimator();
+        record(estimator, MacroStep.KIND_TAP, 30, 12L);
+        record(estimator, MacroStep.KIND_DRAG, 40, 80L);
+        record(estimator, MacroStep.KIND_DRAG, 2, 900L);
+        estimator.onFallback(MacroStep.KIND_DRAG);
+        estimator.onLateCallback(MacroStep.KIND_CONTINUE, 120L);
+
+        String encoded = estimator.encode();
+        GestureFallbackEstimator decoded = GestureFallbackEstimator.decode(encoded);
+        assertEquals(encoded, decoded.encode());
+        assertEquals(estimator.describe(), decoded.describe());
+        for (int kind : new int[]{MacroStep.KIND_TAP, MacroStep.KIND_DRAG, MacroStep.KIND_CONTINUE, MacroStep.KIND_FUSED}) {
+            assertEquals(estimator.marginMs(kind, DEFAULT_MARGIN_MS), decoded.marginMs(kind, DEFAULT_MARGIN_MS));
+        }
+    }
+
+    @Test
+    public void malformedInputDecodesEmpty() {
+        String empty = new GestureFallbackEstimator().encode();
+        for (String value : new String[]{null, "", "1,2,3", "1,2,3;0,0,0;0,0,0;0,0,0,5",
+                "1,2,3,999,4;0,0,0;0,0,0;0,0,0", "x,0,0;0,0,0;0,0,0;0,0,0"}) {
+            GestureFallbackEstimator decoded = GestureFallbackEstimator.decode(value);
+            assertEquals(String.valueOf(value), empty, decoded.encode());
+            assertEquals(DEFAULT_MARGIN_MS, decoded.marginMs(MacroStep.KIND_TAP, DEFAULT_MARGIN_MS));
+        }
+    }
+
+    @Test
+    public void encodeIfChangedWaitsForEnoughSamples() {
+        GestureFallbackEstimator estimator = new GestureFallbackEstimator();
+        record(estimator, MacroStep.KIND_TAP, 4, 10L);
+        assertNull(estimator.encodeIfChanged(5));
+        estimator.onFallback(MacroStep.KIND_TAP);
+        assertEquals(estimator.encode(), estimator.encodeIfChanged(5));
+        assertNull(estimator.encodeIfChanged(1));
+    }
+}
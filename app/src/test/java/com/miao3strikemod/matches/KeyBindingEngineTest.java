@@ -0,0 +1,247 @@
+package com.miao3strikemod.matches;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 按键模式判定：单击 / 双击 / 长按的时间窗口、组合键先后顺序，以及松开与取消的交错。
+ */
+public class KeyBindingEngineTest {
+
+    private static final int KEY_A = 24;
+    private static final int KEY_B = 25;
+
+    private static final KeyBindingEngine.Binding SINGLE =
+            KeyBindingEngine.Binding.single(KEY_A, KeyBindingEngine.ACTION_STEP, null);
+    private static final KeyBindingEngine.Binding DOUBLE = new KeyBindingEngine.Binding(
+            KeyBindingEngine.PATTERN_DOUBLE, KEY_A, 0, KeyBindingEngine.ACTION_RUN_BATCH, null);
+    private static final KeyBindingEngine.Binding LONG = new KeyBindingEngine.Binding(
+            KeyBindingEngine.PATTERN_LONG, KEY_A, 0, KeyBindingEngine.ACTION_STEP_HOLD, null);
+    private static final KeyBindingEngine.Binding CHORD = new KeyBindingEngine.Binding(
+            KeyBindingEngine.PATTERN_CHORD, KEY_A, KEY_B, KeyBindingEngine.ACTION_CANCEL, null);
+
+    private VirtualScheduler scheduler;
+    private final List<String> events = new ArrayList<>();
+    private KeyBindingEngine engine;
+
+    @Before
+    public void setUp() {
+        scheduler = new VirtualScheduler();
+        engine = new KeyBindingEngine(scheduler, new KeyBindingEngine.Listener() {
+            @Override
+            public void onTriggered(KeyBindingEngine.Binding binding, long eventTimeMs) {
+                events.add("trigger " + binding.action + "@" + eventTimeMs);
+            }
+
+            @Override
+            public void onReleased(KeyBindingEngine.Binding binding, long eventTimeMs) {
+                events.add("release " + binding.action + "@" + eventTimeMs);
+            }
+        });
+    }
+
+    private void bind(KeyBindingEngine.Binding... bindings) {
+        engine.setBindings(Arrays.asList(bindings));
+    }
+
+    private boolean down(int keyCode, long timeMs) {
+        scheduler.advanceTo(timeMs);
+        return engine.onKeyDown(keyCode, 0, timeMs);
+    }
+
+    private boolean up(int keyCode, long timeMs) {
+        scheduler.advanceTo(timeMs);
+        return engine.onKeyUp(keyCode, timeMs);
+    }
+
+    private String events() {
+        return events.toString();
+    }
+
+    @Test
+    public void singleOnlyFiresOnDownWithoutTimers() {
+        bind(SINGLE);
+        assertTrue(down(KEY_A, 0L));
+        assertEquals("[trigger 2@0]", events());
+        assertEquals(0, scheduler.pending());
+        assertTrue(up(KEY_A, 120L));
+        assertEquals("[trigger 2@0, release 2@120]", events());
+    }
+
+    @Test
+    public void unboundKeyIsNotHandled() {
+        bind(SINGLE);
+        assertTrue(engine.handlesKey(KEY_A));
+        assertFalse(engine.handlesKey(KEY_B));
+        assertFalse(down(KEY_B, 0L));
+        assertFalse(up(KEY_B, 50L));
+        assertEquals("[]", events());
+    }
+
+    @Test
+    public void singleWaitsForDoubleWindowToClose() {
+        bind(SINGLE, DOUBLE);
+        down(KEY_A, 0L);
+        up(KEY_A, 50L);
+        scheduler.advanceTo(50L + KeyBindingEngine.DOUBLE_PRESS_WINDOW_MS - 1);
+        assertEquals("[]", events());
+        scheduler.advanceTo(50L + KeyBindingEngine.DOUBLE_PRESS_WINDOW_MS);
+        assertEquals("[trigger 2@300, release 2@300]", events());
+    }
+
+    @Test
+    public void secondPressInsideWindowIsDouble() {
+        bind(SINGLE, DOUBLE);
+        down(KEY_A, 0L);
+        up(KEY_A, 50L);
+        down(KEY_A, 50L + KeyBindingEngine.DOUBLE_PRESS_WINDOW_MS - 1);
+        assertEquals("[trigger 4@299]", events());
+        up(KEY_A, 360L);
+        scheduler.advanceTo(2000L);
+        assertEquals("[trigger 4@299, release 4@360]", events());
+    }
+
+    @Test
+    public void secondPressAfterWindowStartsNewSingle() {
+        bind(SINGLE, DOUBLE);
+        down(KEY_A, 0L);
+        up(KEY_A, 50L);
+        down(KEY_A, 400L);
+        up(KEY_A, 450L);
+        scheduler.advanceTo(1000L);
+        assertEquals("[trigger 2@300, release 2@300, trigger 2@700, release 2@700]", events());
+    }
+
+    @Test
+    public void longPressFiresAtThresholdAndReleasesOnUp() {
+        bind(SINGLE, LONG);
+        down(KEY_A, 0L);
+        // 长按产生的重复按下只消费。
+        assertTrue(engine.onKeyDown(KEY_A, 1, 300L));
+        scheduler.advanceTo(KeyBindingEngine.LONG_PRESS_MS - 1);
+        assertEquals("[]", events());
+        scheduler.advanceTo(KeyBindingEngine.LONG_PRESS_MS);
+        assertEquals("[trigger 3@450]", events());
+        up(KEY_A, 600L);
+        assertEquals("[trigger 3@450, release 3@600]", events());
+    }
+
+    @Test
+    public void releaseBeforeLongThresholdIsSingle() {
+        bind(SINGLE, LONG);
+        down(KEY_A, 0L);
+        up(KEY_A, KeyBindingEngine.LONG_PRESS_MS - 1);
+        scheduler.advanceTo(2000L);
+        assertEquals("[trigger 2@449, release 2@449]", events());
+    }
+
+    @Test
+    public void chordFiresInEitherOrder() {
+        bind(SINGLE, CHORD);
+        down(KEY_B, 0L);
+        down(KEY_A, 30L);
+        // 先按下的键松开时只复位，组合键在后按下的键松开时回调。
+        up(KEY_B, 80L);
+        up(KEY_A, 100L);
+        assertEquals("[trigger 6@30, release 6@100]", events());
+
+        events.clear();
+        down(KEY_A, 1000L);
+        down(KEY_B, 1000L + KeyBindingEngine.CHORD_WINDOW_MS - 1);
+        up(KEY_B, 1100L);
+        up(KEY_A, 1120L);
+        scheduler.advanceTo(3000L);
+        assertEquals("[trigger 6@1059, release 6@1100]", events());
+    }
+
+    @Test
+    public void secondKeyAfterChordWindowDoesNotChord() {
+        bind(SINGLE, CHORD);
+        down(KEY_A, 0L);
+        scheduler.advanceTo(KeyBindingEngine.CHORD_WINDOW_MS);
+        // 窗口已过且没有长按、双击：单击就此确定，键仍按着。
+        assertEquals("[trigger 2@60]", events());
+        down(KEY_B, 100L);
+        up(KEY_B, 150L);
+        up(KEY_A, 200L);
+        scheduler.advanceTo(1000L);
+        assertEquals("[trigger 2@60, release 2@200]", events());
+    }
+
+    @Test
+    public void firstKeyReleasedBeforeSecondPressIsSingle() {
+        bind(SINGLE, CHORD);
+        down(KEY_A, 0L);
+        up(KEY_A, 20L);
+        down(KEY_B, 30L);
+        up(KEY_B, 50L);
+        scheduler.advanceTo(1000L);
+        assertEquals("[trigger 2@20, release 2@20]", events());
+    }
+
+    @Test
+    public void resetDropsPendingDecisionAndReturnsReleaseToSystem() {
+        bind(SINGLE, LONG);
+        down(KEY_A, 0L);
+        scheduler.advanceTo(100L);
+        engine.reset();
+        scheduler.advanceTo(1000L);
+        assertEquals(0, scheduler.pending());
+        assertFalse(up(KEY_A, 1100L));
+        assertEquals("[]", events());
+    }
+
+    @Test
+    public void rebindingWhileHeldSkipsRelease() {
+        bind(SINGLE);
+        down(KEY_A, 0L);
+        bind(SINGLE, DOUBLE);
+        assertFalse(up(KEY_A, 100L));
+        assertEquals("[trigger 2@0]", events());
+    }
+
+    @Test
+    public void laterBindingForSameTriggerWins() {
+        KeyBindingEngine.Binding preset = KeyBindingEngine.Binding.single(KEY_A, KeyBindingEngine.ACTION_PRESET, "boss");
+        KeyBindingEngine.Binding reversed = new KeyBindingEngine.Binding(
+                KeyBindingEngine.PATTERN_CHORD, KEY_B, KEY_A, KeyBindingEngine.ACTION_RUN_BATCH, null);
+        assertTrue(reversed.sameTrigger(CHORD));
+        bind(SINGLE, preset, CHORD, reversed);
+        down(KEY_B, 0L);
+        down(KEY_A, 10L);
+        assertEquals("[trigger 4@10]", events());
+        up(KEY_A, 20L);
+        up(KEY_B, 30L);
+
+        events.clear();
+        down(KEY_A, 1000L);
+        scheduler.advanceTo(1100L);
+        assertEquals("[trigger 5@1060]", events());
+    }
+
+    @Test
+    public void bindingsRoundTripAndRejectBrokenLines() {
+        List<KeyBindingEngine.Binding> bindings = Arrays.asList(SINGLE, DOUBLE, LONG, CHORD,
+                KeyBindingEngine.Binding.single(KEY_B, KeyBindingEngine.ACTION_PRESET, "a\tb"));
+        List<KeyBindingEngine.Binding> decoded = KeyBindingEngine.decodeAll(KeyBindingEngine.encodeAll(bindings));
+        assertEquals(bindings.size(), decoded.size());
+        for (int i = 0; i < bindings.size(); i++) {
+            assertEquals(bindings.get(i).encode(), decoded.get(i).encode());
+        }
+
+        assertNull(KeyBindingEngine.Binding.decode("4\t24\t24\t6\t"));
+        assertNull(KeyBindingEngine.Binding.decode("9\t24\t0\t6\t"));
+        assertNull(KeyBindingEngine.Binding.decode("1\t0\t0\t6\t"));
+        assertNull(KeyBindingEngine.Binding.decode("1\tx\t0\t6"));
+        assertEquals(1, KeyBindingEngine.decodeAll("garbage\n1\t24\t0\t2\t").size());
+    }
+}
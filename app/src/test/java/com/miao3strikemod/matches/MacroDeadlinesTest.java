@@ -0,0 +1,131 @@
+package com.miao3strikemod.matches;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 截止时间表：按到期先后执行槽位，调度器上始终至多挂一个唤醒。
+ */
+public class MacroDeadlinesTest {
+
+    private final VirtualScheduler scheduler = new VirtualScheduler();
+    private final List<String> fired = new ArrayList<>();
+
+    private Runnable record(int slot) {
+        return () -> fired.add(slot + "@" + scheduler.nowMs());
+    }
+
+    private MacroDeadlines deadlines(int slots) {
+        Runnable[] targets = new Runnable[slots];
+        for (int i = 0; i < slots; i++) targets[i] = record(i);
+        return new MacroDeadlines(scheduler, targets);
+    }
+
+    @Test
+    public void slotsFireInDeadlineOrder() {
+        MacroDeadlines deadlines = deadlines(3);
+        deadlines.set(0, 100L);
+        deadlines.set(1, 50L);
+        deadlines.set(2, 75L);
+        assertEquals(1, scheduler.pending());
+
+        for (long t = 0; t <= 120L; t += 5L) {
+            scheduler.advanceTo(t);
+            assertTrue(scheduler.pending() <= 1);
+        }
+        assertEquals("[1@50, 2@75, 0@100]", fired.toString());
+        assertEquals(0, scheduler.pending());
+    }
+
+    @Test
+    public void laterDeadlinesShareTheArmedWakeup() {
+        MacroDeadlines deadlines = deadlines(3);
+        deadlines.set(0, 50L);
+        deadlines.set(1, 100L);
+        deadlines.set(2, 200L);
+        assertEquals(1, scheduler.posts);
+        assertEquals(0, scheduler.removes);
+
+        // 更早的截止时间才重新挂：一次 remove 加一次 post。
+        deadlines.set(2, 10L);
+        assertEquals(2, scheduler.posts);
+        assertEquals(1, scheduler.removes);
+        assertEquals(1, scheduler.pending());
+    }
+
+    @Test
+    public void resettingASlotReplacesItsDeadline() {
+        MacroDeadlines deadlines = deadlines(1);
+        deadlines.set(0, 100L);
+        deadlines.set(0, 30L);
+        scheduler.runUntilIdle();
+        assertEquals("[0@30]", fired.toString());
+    }
+
+    @Test
+    public void cancelLeavesTheQueueAlone() {
+        MacroDeadlines deadlines = deadlines(2);
+        deadlines.set(0, 50L);
+        deadlines.set(1, 80L);
+        deadlines.cancel(0);
+        assertEquals(0, scheduler.removes);
+
+        // 已挂出的唤醒到点后没有到期项，改对准剩下的槽位。
+        scheduler.runUntilIdle();
+        assertEquals("[1@80]", fired.toString());
+        assertEquals(2, scheduler.posts);
+    }
+
+    @Test
+    public void clearRemovesTheWakeupOnce() {
+        MacroDeadlines deadlines = deadlines(3);
+        deadlines.set(0, 50L);
+        deadlines.set(1, 60L);
+        deadlines.set(2, 70L);
+        deadlines.clear();
+        deadlines.clear();
+        assertEquals(1, scheduler.removes);
+        assertEquals(0, scheduler.pending());
+        scheduler.advanceTo(1000L);
+        assertEquals("[]", fired.toString());
+    }
+
+    @Test
+    public void dueSlotsRunInOneWakeup() {
+        MacroDeadlines deadlines = deadlines(3);
+        deadlines.set(2, 40L);
+        deadlines.set(0, 40L);
+        deadlines.set(1, 40L);
+        scheduler.runUntilIdle();
+        assertEquals("[0@40, 1@40, 2@40]", fired.toString());
+        assertEquals(1, scheduler.posts);
+    }
+
+    @Test
+    public void actionCanRescheduleOrClearOtherSlots() {
+        MacroDeadlines[] holder = new MacroDeadlines[1];
+        MacroDeadlines deadlines = new MacroDeadlines(scheduler,
+                // 像兜底推进下一步：立即设置另一个槽位。
+                () -> {
+                    fired.add("advance@" + scheduler.nowMs());
+                    holder[0].set(1, 25L);
+                },
+                record(1),
+                // 像整体超时：中止并清空全部。
+                () -> {
+                    fired.add("timeout@" + scheduler.nowMs());
+                    holder[0].clear();
+                });
+        holder[0] = deadlines;
+        deadlines.set(0, 10L);
+        deadlines.set(2, 30L);
+        scheduler.runUntilIdle();
+        assertEquals("[advance@10, timeout@30]", fired.toString());
+        assertEquals(0, scheduler.pending());
+    }
+}
@@ -0,0 +1,347 @@
+package com.miao3strikemod.matches;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * 宏引擎的步骤顺序：启动延迟、回调推进、兜底、抢占、取消、超时与循环。
+ */
+public class MacroEngineTest {
+
+    private VirtualScheduler scheduler;
+    private RecordingListener listener;
+    private MacroEngine engine;
+
+    @Before
+    public void setUp() {
+        scheduler = new VirtualScheduler();
+        listener = new RecordingListener();
+        engine = new MacroEngine(scheduler, listener);
+    }
+
+    @Test
+    public void runsStepsInOrderAfterStartupDelay() {
+        // tap1, wait 20, tap2, wait 20, tap3
+        MacroTimeline timeline = MacroTimeline.click(1f, 2f, 3f, 4f, 50L, 20L);
+        ManualDispatcher dispatcher = new ManualDispatcher(engine, scheduler);
+        engine.start(timeline, dispatcher);
+
+        scheduler.advanceTo(49L);
+        assertEquals(0, dispatcher.dispatched.size());
+        scheduler.advanceTo(50L);
+        assertEquals("[0@50]", dispatcher.toString());
+
+        scheduler.advanceTo(60L);
+        dispatcher.complete(0);
+        scheduler.advanceTo(80L);
+        assertEquals("[0@50, 2@80]", dispatcher.toString());
+
+        scheduler.advanceTo(90L);
+        dispatcher.complete(2);
+        scheduler.advanceTo(110L);
+        assertEquals("[0@50, 2@80, 4@110]", dispatcher.toString());
+
+        dispatcher.complete(4);
+        assertEquals("[finished click]", listener.events.toString());
+        assertFalse(engine.isRunning());
+        assertEquals(0, scheduler.pending());
+    }
+
+    @Test
+    public void fallbackAdvancesWhenCallbackIsMissing() {
+        MacroTimeline timeline = MacroTimeline.click(1f, 2f, 3f, 4f, 50L, 20L);
+        ManualDispatcher dispatcher = new ManualDispatcher(engine, scheduler);
+        engine.start(timeline, dispatcher);
+
+        long fallbackAt = 50L + MacroTimeline.TAP_DURATION_MS + MacroTimeline.CALLBACK_FALLBACK_MS;
+        scheduler.advanceTo(fallbackAt - 1);
+        assertEquals(1, dispatcher.dispatched.size());
+        scheduler.advanceTo(fallbackAt + 20L);
+        assertEquals("[0@50, 2@" + (fallbackAt + 20L) + "]", dispatcher.toString());
+
+        // 兜底之后才到的回调不能再推进一次。
+        dispatcher.complete(0);
+        assertEquals(2, dispatcher.dispatched.size());
+        assertTrue(engine.isRunning(MacroTimeline.TYPE_CLICK));
+    }
+
+    @Test
+    public void callbackFromAnotherDispatcherIsIgnored() {
+        MacroTimeline timeline = MacroTimeline.click(1f, 2f, 3f, 4f, 0L, 20L);
+        ManualDispatcher dispatcher = new ManualDispatcher(engine, scheduler);
+        ManualDispatcher stale = new ManualDispatcher(engine, scheduler);
+        engine.start(timeline, dispatcher);
+        assertEquals(1, dispatcher.dispatched.size());
+
+        engine.onGestureCompleted(stale, 0, dispatcher.tokens.get(0) + 1);
+        scheduler.advanceBy(20L);
+        assertEquals(1, dispatcher.dispatched.size());
+    }
+
+    @Test
+    public void startPreemptsRunningMacro() {
+        MacroTimeline first = MacroTimeline.click(1f, 2f, 3f, 4f, 0L, 20L);
+        MacroTimeline second = MacroTimeline.step(1f, 2f, 30L);
+        engine.start(first, new ManualDispatcher(engine, scheduler));
+        engine.start(second, new ManualDispatcher(engine, scheduler));
+
+        assertEquals("[aborted click preempted]", listener.events.toString());
+        assertTrue(engine.isRunning(MacroTimeline.TYPE_STEP));
+    }
+
+    @Test
+    public void cancelledGestureAbortsWithStepReason() {
+        MacroTimeline timeline = MacroTimeline.click(1f, 2f, 3f, 4f, 0L, 20L);
+        ManualDispatcher dispatcher = new ManualDispatcher(engine, scheduler);
+        engine.start(timeline, dispatcher);
+
+        dispatcher.cancel(0);
+        assertEquals("[aborted click tap1_cancelled]", listener.events.toString());
+        assertFalse(engine.isRunning());
+        assertEquals(0, scheduler.pending());
+    }
+
+    @Test
+    public void failedDispatchAborts() {
+        MacroTimeline timeline = MacroTimeline.click(1f, 2f, 3f, 4f, 0L, 20L);
+        ManualDispatcher dispatcher = new ManualDispatcher(engine, scheduler);
+        dispatcher.accept = false;
+        engine.start(timeline, dispatcher);
+
+        assertEquals("[aborted click gesture_dispatch_failed_tap1]", listener.events.toString());
+        assertFalse(engine.isRunning());
+    }
+
+    @Test
+    public void timeoutAbortsWhenNoFallbackIsSet() {
+        MacroTimeline timeline = new MacroTimeline.Builder(MacroTimeline.TYPE_CLICK)
+                .timeout(1000L)
+                .add(MacroStep.tap("tap", 1f, 2f, MacroTimeline.TAP_DURATION_MS, -1L))
+                .build();
+        engine.start(timeline, new ManualDispatcher(engine, scheduler));
+
+        scheduler.advanceTo(999L);
+        assertTrue(listener.events.isEmpty());
+        scheduler.advanceTo(1000L);
+        assertEquals("[aborted click tap_timeout]", listener.events.toString());
+    }
+
+    @Test
+    public void silentCancelDoesNotNotifyListener() {
+        MacroTimeline timeline = MacroTimeline.click(1f, 2f, 3f, 4f, 50L, 20L);
+        engine.start(timeline, new ManualDispatcher(engine, scheduler));
+
+        assertFalse(engine.cancel(MacroTimeline.step(1f, 2f, 30L)));
+        assertTrue(engine.cancel(timeline));
+        assertFalse(engine.isRunning());
+        assertTrue(listener.events.isEmpty());
+        assertEquals(0, scheduler.pending());
+    }
+
+    @Test
+    public void silentCancelRecordsAbortForTheRun() {
+        MacroTimingRecorder recorder = new MacroTimingRecorder(scheduler, 64);
+        engine = new MacroEngine(scheduler, listener, recorder);
+        MacroTimeline timeline = MacroTimeline.step(1f, 2f, 30L);
+        engine.start(timeline, new ManualDispatcher(engine, scheduler));
+        scheduler.advanceTo(15L);
+
+        assertTrue(engine.cancel(timeline, "released"));
+        String report = recorder.buildReport();
+        assertTrue(report, report.contains("step aborted:released ×1"));
+        assertTrue(report, report.contains("step 触发→结束"));
+        assertTrue(listener.events.isEmpty());
+    }
+
+    @Test
+    public void repeatsCyclesWithInterval() {
+        // tap1, wait 30, tap2；共 3 轮，轮间隔 100ms。每次点击 10ms 后回报完成，等待从回调开始计。
+        MacroTimeline timeline = MacroTimeline.step(1f, 2f, 30L).repeat(3, 100L);
+        ManualDispatcher dispatcher = new ManualDispatcher(engine, scheduler);
+        dispatcher.autoComplete = true;
+        engine.start(timeline, dispatcher);
+        scheduler.runUntilIdle();
+
+        assertEquals("[0@0, 2@40, 0@150, 2@190, 0@300, 2@340]", dispatcher.toString());
+        assertEquals("[finished step]", listener.events.toString());
+    }
+
+    @Test
+    public void stopRepeatingFinishesAfterCurrentCycle() {
+        MacroTimeline timeline = MacroTimeline.step(1f, 2f, 30L)
+                .repeat(MacroTimeline.REPEAT_UNTIL_STOPPED, 100L);
+        ManualDispatcher dispatcher = new ManualDispatcher(engine, scheduler);
+        engine.start(timeline, dispatcher);
+        dispatcher.complete(0);
+
+        // 一轮进行中：跑完这一轮（第二次点击）再结束，保证暂停 / 恢复成对。
+        engine.stopRepeating(timeline);
+        scheduler.advanceTo(30L);
+        assertTrue(listener.events.isEmpty());
+        dispatcher.complete(2);
+        assertEquals("[0@0, 2@30]", dispatcher.toString());
+        assertEquals("[finished step]", listener.events.toString());
+    }
+
+    @Test
+    public void stopRepeatingBetweenCyclesFinishesImmediately() {
+        MacroTimeline timeline = MacroTimeline.step(1f, 2f, 30L)
+                .repeat(MacroTimeline.REPEAT_UNTIL_STOPPED, 100L);
+        ManualDispatcher dispatcher = new ManualDispatcher(engine, scheduler);
+        dispatcher.autoComplete = true;
+        engine.start(timeline, dispatcher);
+        scheduler.advanceTo(50L);
+
+        engine.stopRepeating(timeline);
+        assertEquals("[finished step]", listener.events.toString());
+        assertEquals(0, scheduler.pending());
+    }
+
+    @Test
+    public void lateCallbackFromPreviousCycleDoesNotAdvanceNextCycle() {
+        GestureFallbackEstimator estimator = new GestureFallbackEstimator();
+        engine = new MacroEngine(scheduler, listener, null, estimator);
+        // 单步点击，每轮间隔 100ms；第一轮靠兜底推进。
+        MacroTimeline timeline = new MacroTimeline.Builder(MacroTimeline.TYPE_STEP)
+                .add(MacroStep.tap("tap", 1f, 2f, MacroTimeline.TAP_DURATION_MS, 50L))
+                .build()
+                .repeat(3, 100L);
+        ManualDispatcher dispatcher = new ManualDispatcher(engine, scheduler);
+        engine.start(timeline, dispatcher);
+        int firstToken = dispatcher.tokens.get(0);
+        scheduler.advanceTo(150L);
+        assertEquals("[0@0, 0@150]", dispatcher.toString());
+
+        // 第一轮的回调在第二轮同一步派发之后才到：按迟到记入，不能当成第二轮完成。
+        scheduler.advanceTo(160L);
+        engine.onGestureCompleted(dispatcher, 0, firstToken);
+        scheduler.advanceTo(199L);
+        assertEquals("[0@0, 0@150]", dispatcher.toString());
+        assertTrue(estimator.describe(), estimator.describe().contains("迟到 1 次"));
+
+        dispatcher.complete(0);
+        scheduler.advanceTo(300L);
+        assertEquals("[0@0, 0@150, 0@299]", dispatcher.toString());
+    }
+
+    @Test
+    public void everyRunEndsOnceAndAbandonedGesturesAreReported() {
+        MacroTimeline timeline = MacroTimeline.click(1f, 2f, 3f, 4f, 0L, 20L);
+        ManualDispatcher dispatcher = new ManualDispatcher(engine, scheduler);
+
+        // 兜底推进放弃第 0 步，静默取消放弃正在等待的第 2 步并结束本次执行。
+        engine.start(timeline, dispatcher);
+        scheduler.advanceBy(MacroTimeline.TAP_DURATION_MS + MacroTimeline.CALLBACK_FALLBACK_MS + 20L);
+        assertTrue(engine.cancel(timeline));
+        assertEquals("[start 1, abandon 0, abandon 2, end 1]", dispatcher.lifecycle.toString());
+
+        // 回调已到的步骤不再放弃；抢占与正常完成同样各结束一次，runId 每次不同。
+        dispatcher.lifecycle.clear();
+        engine.start(timeline, dispatcher);
+        dispatcher.cancel(0);
+        engine.start(timeline, dispatcher);
+        engine.start(MacroTimeline.step(1f, 2f, 30L), dispatcher);
+        assertEquals("[start 2, end 2, start 3, abandon 0, end 3, start 4]", dispatcher.lifecycle.toString());
+    }
+
+    @Test
+    public void globalActionRunsInline() {
+        MacroTimeline timeline = MacroTimeline.dragRelease(1f, 2f, 3f, 4f, 5f, 6f, 0L, 0L, 100L);
+        ManualDispatcher dispatcher = new ManualDispatcher(engine, scheduler);
+        dispatcher.autoComplete = true;
+        engine.start(timeline, dispatcher);
+        scheduler.runUntilIdle();
+
+        assertEquals("[0@0, 1@10]", dispatcher.toString());
+        assertEquals(1, dispatcher.globalActions);
+        assertEquals("[finished drag]", listener.events.toString());
+    }
+
+    /**
+     * 手动回报的派发替身；autoComplete 时在点击时长结束后由调度器回报完成。
+     */
+    static final class ManualDispatcher implements MacroEngine.Dispatcher {
+        private final MacroEngine engine;
+        private final VirtualScheduler scheduler;
+        final ArrayList<String> dispatched = new ArrayList<>();
+        // 每步最近一次派发的 token。
+        final HashMap<Integer, Integer> tokens = new HashMap<>();
+        // 执行开始 / 结束与放弃等待的回调，按 token 记录放弃的是哪一次派发。
+        final ArrayList<String> lifecycle = new ArrayList<>();
+        boolean accept = true;
+        boolean autoComplete;
+        int globalActions;
+
+        ManualDispatcher(MacroEngine engine, VirtualScheduler scheduler) {
+            this.engine = engine;
+            this.scheduler = scheduler;
+        }
+
+        void complete(int index) {
+            engine.onGestureCompleted(this, index, tokens.get(index));
+        }
+
+        void cancel(int index) {
+            engine.onGestureCancelled(this, index, tokens.get(index));
+        }
+
+        @Override
+        public boolean dispatchGesture(int index, int token) {
+            if (!accept) return false;
+            tokens.put(index, token);
+            dispatched.add(index + "@" + scheduler.nowMs());
+            if (autoComplete) {
+                scheduler.postDelayed(() -> engine.onGestureCompleted(this, index, token),
+                        MacroTimeline.TAP_DURATION_MS);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean performGlobalAction(int action) {
+            globalActions++;
+            return true;
+        }
+
+        @Override
+        public void onRunStarted(int runId) {
+            lifecycle.add("start " + runId);
+        }
+
+        @Override
+        public void onRunEnded(int runId) {
+            lifecycle.add("end " + runId);
+        }
+
+        @Override
+        public void onGestureAbandoned(int index, int token) {
+            lifecycle.add("abandon " + index + (token == tokens.get(index) ? "" : " stale"));
+        }
+
+        @Override
+        public String toString() {
+            return dispatched.toString();
+        }
+    }
+
+    static final class RecordingListener implements MacroEngine.Listener {
+        final ArrayList<String> events = new ArrayList<>();
+
+        @Override
+        public void onMacroFinished(MacroTimeline timeline) {
+            events.add("finished " + MacroTimeline.typeName(timeline.type));
+        }
+
+        @Override
+        public void onMacroAborted(MacroTimeline timeline, String reason) {
+            events.add("aborted " + MacroTimeline.typeName(timeline.type) + " " + reason);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.miao3strikemod.matches;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 预设的持久化格式：归一化坐标往返、轨迹与时长、裁剪，以及损坏行与同名行的处理。
+ */
+public class MacroPresetTest {
+
+    private static final int WIDTH = 2000;
+    private static final int HEIGHT = 1000;
+    private static final int KEY = 131;
+
+    private static MacroPreset roundTrip(MacroPreset preset) {
+        MacroPreset decoded = MacroPreset.decode(preset.encode());
+        assertNotNull(decoded);
+        assertEquals(preset.encode(), decoded.encode());
+        return decoded;
+    }
+
+    @Test
+    public void dragRoundTripKeepsPointsPathsAndDurations() {
+        float[] drags = {200f, 100f, 1800f, 900f, 400f, 300f, 600f, 700f};
+        float[][] paths = {{200f, 100f, 1000f, 500f, 1800f, 900f}, null};
+        long[] durations = {350L, 0L};
+        MacroPreset preset = MacroPreset.drags(drags, paths, durations, 2, WIDTH, HEIGHT)
+                .withName("boss").withKeyCode(KEY);
+
+        MacroPreset decoded = roundTrip(preset);
+        assertEquals("boss", decoded.name);
+        assertEquals(MacroTimeline.TYPE_DRAG, decoded.type);
+        assertEquals(KEY, decoded.keyCode);
+        assertEquals(2, decoded.count());
+        assertArrayEquals(drags, decoded.pointsPx(WIDTH, HEIGHT), 0.5f);
+        float[][] decodedPaths = decoded.pathsPx(WIDTH, HEIGHT);
+        assertArrayEquals(paths[0], decodedPaths[0], 0.5f);
+        assertNull(decodedPaths[1]);
+        assertArrayEquals(durations, decoded.pathDurationsMs());
+    }
+
+    @Test
+    public void dragWithoutPathsOrDurationsRoundTrips() {
+        MacroPreset preset = MacroPreset.drags(new float[]{100f, 100f, 500f, 500f}, null, null, 1, WIDTH, HEIGHT)
+                .withName("plain");
+        MacroPreset decoded = roundTrip(preset);
+        assertNull(decoded.pathsPx(WIDTH, HEIGHT)[0]);
+        assertArrayEquals(new long[]{0L}, decoded.pathDurationsMs());
+    }
+
+    @Test
+    public void clickRoundTrip() {
+        MacroPreset preset = MacroPreset.click(1500f, 250f, WIDTH, HEIGHT).withName("skill").withKeyCode(KEY);
+        MacroPreset decoded = roundTrip(preset);
+        assertEquals(MacroTimeline.TYPE_CLICK, decoded.type);
+        assertEquals(1, decoded.count());
+        assertEquals(KEY, decoded.keyCode);
+        assertArrayEquals(new float[]{1500f, 250f}, decoded.pointsPx(WIDTH, HEIGHT), 0.5f);
+        assertNull(decoded.pathsPx(WIDTH, HEIGHT));
+        assertNull(decoded.pathDurationsMs());
+    }
+
+    @Test
+    public void normalizedPointsReplayOnAnotherResolution() {
+        MacroPreset decoded = roundTrip(MacroPreset.click(1500f, 250f, WIDTH, HEIGHT).withName("skill"));
+        assertArrayEquals(new float[]{1800f, 270f}, decoded.pointsPx(2400, 1080), 0.5f);
+    }
+
+    @Test
+    public void coordinatesAreClampedToUnitRange() {
+        MacroPreset created = MacroPreset.click(-50f, 1200f, WIDTH, HEIGHT).withName("edge");
+        assertArrayEquals(new float[]{0f, HEIGHT}, created.pointsPx(WIDTH, HEIGHT), 0f);
+
+        MacroPreset decoded = MacroPreset.decode("edge\t1\t0\t-100,20000,5000,5000,0,-1,12000,5000,5000");
+        assertArrayEquals(new float[]{0f, HEIGHT, 1000f, 500f}, decoded.pointsPx(WIDTH, HEIGHT), 0f);
+        assertArrayEquals(new float[]{0f, HEIGHT, 1000f, 500f}, decoded.pathsPx(WIDTH, HEIGHT)[0], 0f);
+    }
+
+    @Test
+    public void oddOrSinglePointPathsAreDropped() {
+        MacroPreset decoded = MacroPreset.decode("odd\t1\t0"
+                + "\t0,0,5000,5000,100,1000,1000,2000"
+                + "\t0,0,5000,5000,100,1000,1000,2000,2000,3000"
+                + "\t0,0,5000,5000,100,1000,1000,2000,2000");
+        assertEquals(3, decoded.count());
+        float[][] paths = decoded.pathsPx(WIDTH, HEIGHT);
+        assertNull(paths[0]);
+        assertNull(paths[1]);
+        assertArrayEquals(new float[]{200f, 100f, 400f, 200f}, paths[2], 0f);
+        assertArrayEquals(new long[]{100L, 100L, 100L}, decoded.pathDurationsMs());
+    }
+
+    @Test
+    public void negativeKeyCodeAndDurationDecodeAsZero() {
+        MacroPreset decoded = MacroPreset.decode("neg\t1\t-5\t0,0,5000,5000,-30");
+        assertEquals(0, decoded.keyCode);
+        assertArrayEquals(new long[]{0L}, decoded.pathDurationsMs());
+    }
+
+    @Test
+    public void emptyNameIsRejected() {
+        MacroPreset unnamed = MacroPreset.click(100f, 100f, WIDTH, HEIGHT);
+        assertNull(MacroPreset.decode(unnamed.encode()));
+        assertNull(MacroPreset.decode(unnamed.withName(" \t ").encode()));
+    }
+
+    @Test
+    public void malformedLinesDecodeToNull() {
+        String[] lines = {
+                "",
+                "name\t2\t0",
+                "name\tx\t0\t100,100",
+                "name\t2\t0\t100",
+                "name\t2\t0\t100,abc",
+                "name\t9\t0\t100,100",
+                "name\t1\t0\t0,0,5000,5000",
+                "name\t1\t0\t0,0,5000,5000,100\t",
+        };
+        for (String line : lines) {
+            assertNull(line, MacroPreset.decode(line));
+        }
+    }
+
+    @Test
+    public void corruptLinesAreSkipped() {
+        String value = "garbage\n"
+                + "a\t2\t0\t1000,1000\n"
+                + "b\t1\t0\t0,0\n"
+                + "\n"
+                + "c\t2\t0\t2000,2000";
+        List<MacroPreset> presets = MacroPreset.decodeAll(value);
+        assertEquals(2, presets.size());
+        assertEquals("a", presets.get(0).name);
+        assertEquals("c", presets.get(1).name);
+    }
+
+    @Test
+    public void laterDuplicateWins() {
+        String value = "a\t2\t24\t1000,1000\n"
+                + "b\t2\t0\t2000,2000\n"
+                + "a\t2\t25\t3000,3000";
+        List<MacroPreset> presets = MacroPreset.decodeAll(value);
+        assertEquals(2, presets.size());
+        assertEquals("b", presets.get(0).name);
+        MacroPreset a = MacroPreset.find(presets, "a");
+        assertEquals(25, a.keyCode);
+        assertArrayEquals(new float[]{600f, 300f}, a.pointsPx(WIDTH, HEIGHT), 0f);
+    }
+
+    @Test
+    public void encodeAllRoundTrips() {
+        List<MacroPreset> presets = Arrays.asList(
+                MacroPreset.click(100f, 200f, WIDTH, HEIGHT).withName("one"),
+                MacroPreset.drags(new float[]{0f, 0f, 1000f, 500f}, null, new long[]{120L}, 1, WIDTH, HEIGHT)
+                        .withName("two").withKeyCode(KEY));
+        List<MacroPreset> decoded = MacroPreset.decodeAll(MacroPreset.encodeAll(presets));
+        assertEquals(2, decoded.size());
+        for (int i = 0; i < presets.size(); i++) {
+            assertEquals(presets.get(i).encode(), decoded.get(i).encode());
+        }
+        assertEquals(0, MacroPreset.decodeAll(null).size());
+        assertEquals(0, MacroPreset.decodeAll("").size());
+    }
+
+    @Test
+    public void sanitizeNameStripsSeparatorsAndTruncates() {
+        assertEquals("a b  c", MacroPreset.sanitizeName(" a\tb\r\nc "));
+        assertEquals("", MacroPreset.sanitizeName(null));
+        char[] longName = new char[MacroPreset.MAX_NAME_LENGTH + 5];
+        Arrays.fill(longName, 'x');
+        assertEquals(MacroPreset.MAX_NAME_LENGTH, MacroPreset.sanitizeName(new String(longName)).length());
+    }
+}
@@ -0,0 +1,91 @@
+package com.miao3strikemod.matches;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 环形事件记录：写满后覆盖最旧的记录，导出按时间先后、以最后一条为零点。
+ */
+public class MacroTraceTest {
+
+    private final VirtualScheduler clock = new VirtualScheduler();
+
+    private void recordAt(MacroTrace trace, long timeMs, int step) {
+        clock.advanceTo(timeMs);
+        trace.record(MacroTrace.EV_DISPATCH, step, 1);
+    }
+
+    private static String[] lines(MacroTrace trace) {
+        String exported = trace.export();
+        return exported.isEmpty() ? new String[0] : exported.split("\n");
+    }
+
+    @Test
+    public void emptyTraceExportsNothing() {
+        assertEquals("", new MacroTrace(clock, 4).export());
+    }
+
+    @Test
+    public void partialBufferExportsInOrder() {
+        MacroTrace trace = new MacroTrace(clock, 4);
+        recordAt(trace, 10L, 0);
+        recordAt(trace, 15L, 1);
+        assertArrayEquals(new String[]{
+                "   -5.000ms dispatch step=0 ok=1",
+                "   +0.000ms dispatch step=1 ok=1",
+        }, lines(trace));
+    }
+
+    @Test
+    public void wraparoundKeepsNewestEntriesOldestFirst() {
+        MacroTrace trace = new MacroTrace(clock, 4);
+        for (int step = 0; step < 6; step++) {
+            recordAt(trace, step * 10L, step);
+        }
+        assertArrayEquals(new String[]{
+                "  -30.000ms dispatch step=2 ok=1",
+                "  -20.000ms dispatch step=3 ok=1",
+                "  -10.000ms dispatch step=4 ok=1",
+                "   +0.000ms dispatch step=5 ok=1",
+        }, lines(trace));
+    }
+
+    @Test
+    public void exactlyFullBufferStartsAtSlotZero() {
+        MacroTrace trace = new MacroTrace(clock, 3);
+        for (int step = 0; step < 3; step++) {
+            recordAt(trace, step, step);
+        }
+        String[] lines = lines(trace);
+        assertEquals(3, lines.length);
+        assertEquals("   -2.000ms dispatch step=0 ok=1", lines[0]);
+        assertEquals("   +0.000ms dispatch step=2 ok=1", lines[2]);
+    }
+
+    @Test
+    public void formatSkipsUnnamedArgsAndAppendsDetail() {
+        MacroTrace trace = new MacroTrace(clock, 4);
+        trace.record(MacroTrace.EV_PRESET_IGNORED, 7, 8, 9, "boss");
+        trace.record(99, 1, 2, 3, null);
+        assertArrayEquals(new String[]{
+                "   +0.000ms preset_ignored boss",
+                "   +0.000ms event99 a0=1 a1=2 a2=3",
+        }, lines(trace));
+    }
+
+    @Test
+    public void sinkEchoesEachRecordRelativeToItself() {
+        MacroTrace trace = new MacroTrace(clock, 2);
+        List<String> echoed = new ArrayList<>();
+        trace.setSink(echoed::add);
+        recordAt(trace, 5L, 0);
+        trace.setSink(null);
+        recordAt(trace, 6L, 1);
+        assertEquals("[   +0.000ms dispatch step=0 ok=1]", echoed.toString());
+    }
+}
@@ -0,0 +1,149 @@
+package com.miao3strikemod.matches;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 在合成的右上角截图区域中定位暂停按钮。
+ */
+public class PauseButtonLocatorTest {
+
+    private static final int SCREEN_WIDTH = 1920;
+    private static final int SCREEN_HEIGHT = 1080;
+    private static final int BACKGROUND = 0xFF282828;
+    private static final int ICON = 0xFFE6E6E6;
+    // 1080p 上按钮边长约 80px，竖条几何与定位器的模板一致。
+    private static final int BUTTON_PX = 80;
+    private static final int BAR_WIDTH = 10;
+    private static final int BAR_HEIGHT = 35;
+    private static final int BAR_OFFSET = 11;
+
+    private static int[] region(int width, int height) {
+        int[] argb = new int[width * height];
+        Arrays.fill(argb, BACKGROUND);
+        return argb;
+    }
+
+    private static void fillRect(int[] argb, int width, int left, int top, int w, int h, int color) {
+        for (int y = top; y < top + h; y++) {
+            for (int x = left; x < left + w; x++) {
+                argb[y * width + x] = color;
+            }
+        }
+    }
+
+    private static void drawPauseIcon(int[] argb, int width, int cx, int cy) {
+        int top = cy - BAR_HEIGHT / 2;
+        fillRect(argb, width, cx - BAR_OFFSET - BAR_WIDTH / 2, top, BAR_WIDTH, BAR_HEIGHT, ICON);
+        fillRect(argb, width, cx + BAR_OFFSET - BAR_WIDTH / 2, top, BAR_WIDTH, BAR_HEIGHT, ICON);
+    }
+
+    private static int[] searchRect() {
+        int[] rect = new int[4];
+        PauseButtonLocator.searchRegion(SCREEN_WIDTH, SCREEN_HEIGHT, rect);
+        return rect;
+    }
+
+    @Test
+    public void searchRegionIsTopRightCorner() {
+        assertArrayEquals(new int[]{1056, 0, 1920, 270}, searchRect());
+
+        int[] rect = new int[4];
+        PauseButtonLocator.searchRegion(2400, 1080, rect);
+        assertArrayEquals(new int[]{1320, 0, 2400, 270}, rect);
+        PauseButtonLocator.searchRegion(2, 2, rect);
+        assertEquals(1, rect[3]);
+    }
+
+    @Test
+    public void locatesIconInsideRegion() {
+        int[] rect = searchRect();
+        int width = rect[2] - rect[0];
+        int height = rect[3] - rect[1];
+        int[] argb = region(width, height);
+        drawPauseIcon(argb, width, 700, 80);
+
+        PauseButtonLocator.Match match = new PauseButtonLocator().locate(argb, width, height, SCREEN_HEIGHT);
+        assertNotNull(match);
+        assertEquals(700f, match.x, 4f);
+        assertEquals(80f, match.y, 4f);
+        assertTrue(match.score >= PauseButtonLocator.MIN_SCORE);
+        assertTrue(Math.abs(match.size - BUTTON_PX) < BUTTON_PX * 0.3f);
+    }
+
+    @Test
+    public void locatesIconAtRegionEdges() {
+        int[] rect = searchRect();
+        int width = rect[2] - rect[0];
+        int height = rect[3] - rect[1];
+        int margin = BUTTON_PX / 2;
+        int[][] centers = {{margin, margin}, {width - margin, margin}, {width - margin, height - margin}};
+        PauseButtonLocator locator = new PauseButtonLocator();
+        for (int[] center : centers) {
+            int[] argb = region(width, height);
+            drawPauseIcon(argb, width, center[0], center[1]);
+            PauseButtonLocator.Match match = locator.locate(argb, width, height, SCREEN_HEIGHT);
+            assertNotNull("icon at " + center[0] + "," + center[1], match);
+            assertEquals(center[0], match.x, 4f);
+            assertEquals(center[1], match.y, 4f);
+        }
+    }
+
+    @Test
+    public void flatRegionIsRejected() {
+        int[] rect = searchRect();
+        int width = rect[2] - rect[0];
+        int height = rect[3] - rect[1];
+        assertNull(new PauseButtonLocator().locate(region(width, height), width, height, SCREEN_HEIGHT));
+    }
+
+    @Test
+    public void singleBarIsRejected() {
+        int[] rect = searchRect();
+        int width = rect[2] - rect[0];
+        int height = rect[3] - rect[1];
+        int[] argb = region(width, height);
+        fillRect(argb, width, 400, 60, BAR_WIDTH, BAR_HEIGHT, ICON);
+        assertNull(new PauseButtonLocator().locate(argb, width, height, SCREEN_HEIGHT));
+    }
+
+    @Test
+    public void texturedRegionScoresBelowThreshold() {
+        int[] rect = searchRect();
+        int width = rect[2] - rect[0];
+        int height = rect[3] - rect[1];
+        int[] argb = new int[width * height];
+        // 固定种子的伪随机亮度：到处都有方差，但没有哪里像两根竖条。
+        Random random = new Random(42L);
+        for (int i = 0; i < argb.length; i++) {
+            int v = random.nextInt(256);
+            argb[i] = 0xFF000000 | v << 16 | v << 8 | v;
+        }
+        assertNull(new PauseButtonLocator().locate(argb, width, height, SCREEN_HEIGHT));
+    }
+
+    @Test
+    public void shortBarsScoreBelowThreshold() {
+        int[] rect = searchRect();
+        int width = rect[2] - rect[0];
+        int height = rect[3] - rect[1];
+        int[] argb = region(width, height);
+        // 位置与间距正确，但只是两个小方块，远不及模板的竖条高度。
+        fillRect(argb, width, 400 - BAR_OFFSET - BAR_WIDTH / 2, 75, BAR_WIDTH, BAR_WIDTH, ICON);
+        fillRect(argb, width, 400 + BAR_OFFSET - BAR_WIDTH / 2, 75, BAR_WIDTH, BAR_WIDTH, ICON);
+        assertNull(new PauseButtonLocator().locate(argb, width, height, SCREEN_HEIGHT));
+    }
+
+    @Test
+    public void tooSmallRegionReturnsNull() {
+        assertNull(new PauseButtonLocator().locate(new int[4], 2, 2, SCREEN_HEIGHT));
+    }
+}
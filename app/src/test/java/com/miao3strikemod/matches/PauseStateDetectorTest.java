@@ -0,0 +1,160 @@
+package com.miao3strikemod.matches;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * 暂停状态判断：按钮区域特征、参考学习与整屏运动检测。
+ */
+public class PauseStateDetectorTest {
+
+    private static final int SIZE = PauseStateDetector.GRID * PauseStateDetector.GRID;
+    private static final int MOTION_SIZE = PauseStateDetector.MOTION_GRID * PauseStateDetector.MOTION_GRID;
+
+    private static int gray(int v) {
+        return 0xFF000000 | v << 16 | v << 8 | v;
+    }
+
+    /**
+     * 合成按钮区域：运行时为暗底上的 “||”，暂停时图标换成“继续”，这里用一根宽竖条近似。
+     */
+    private static int[] buttonSignature(PauseStateDetector detector, boolean paused) {
+        int width = 64;
+        int height = 64;
+        int[] argb = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean lit = paused
+                        ? x >= 16 && x < 32 && y >= 8 && y < 56
+                        : (x >= 16 && x < 24 || x >= 40 && x < 48) && y >= 8 && y < 56;
+                argb[y * width + x] = gray(lit ? 230 : 40);
+            }
+        }
+        int[] sig = new int[SIZE];
+        detector.signature(argb, width, height, sig);
+        return sig;
+    }
+
+    private static int[] uniform(int value) {
+        int[] sig = new int[SIZE];
+        Arrays.fill(sig, value);
+        return sig;
+    }
+
+    @Test
+    public void lumaWeightsChannels() {
+        assertEquals(255, PauseStateDetector.luma(0xFFFFFFFF));
+        assertEquals(0, PauseStateDetector.luma(0xFF000000));
+        assertTrue(PauseStateDetector.luma(0xFF00FF00) > PauseStateDetector.luma(0xFFFF0000));
+        assertTrue(PauseStateDetector.luma(0xFFFF0000) > PauseStateDetector.luma(0xFF0000FF));
+    }
+
+    @Test
+    public void signatureAveragesCells() {
+        PauseStateDetector detector = new PauseStateDetector();
+        int width = 20;
+        int height = 12;
+        int[] argb = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                argb[y * width + x] = gray(x < width / 2 ? 200 : 50);
+            }
+        }
+        int[] sig = new int[SIZE];
+        detector.signature(argb, width, height, sig);
+        int grid = PauseStateDetector.GRID;
+        for (int cy = 0; cy < grid; cy++) {
+            assertEquals(200, sig[cy * grid]);
+            assertEquals(50, sig[cy * grid + grid - 1]);
+        }
+    }
+
+    @Test
+    public void unknownUntilAReferenceIsLearned() {
+        PauseStateDetector detector = new PauseStateDetector();
+        assertEquals(PauseStateDetector.STATE_UNKNOWN, detector.classify(buttonSignature(detector, true)));
+        assertFalse(detector.isCalibrated());
+    }
+
+    @Test
+    public void singleReferenceClassifiesSameAndOther() {
+        PauseStateDetector detector = new PauseStateDetector();
+        detector.learn(PauseStateDetector.STATE_PAUSED, uniform(100));
+
+        assertEquals(PauseStateDetector.STATE_PAUSED, detector.classify(uniform(105)));
+        assertEquals(PauseStateDetector.STATE_RUNNING, detector.classify(uniform(140)));
+        // 介于“相同”与“不同”阈值之间时不下结论。
+        assertEquals(PauseStateDetector.STATE_UNKNOWN, detector.classify(uniform(115)));
+        assertFalse(detector.isCalibrated());
+    }
+
+    @Test
+    public void bothReferencesClassifySyntheticIcons() {
+        PauseStateDetector detector = new PauseStateDetector();
+        int[] paused = buttonSignature(detector, true);
+        int[] running = buttonSignature(detector, false);
+        detector.learn(PauseStateDetector.STATE_PAUSED, paused);
+        detector.learn(PauseStateDetector.STATE_RUNNING, running);
+
+        assertTrue(detector.isCalibrated());
+        assertEquals(PauseStateDetector.STATE_PAUSED, detector.classify(buttonSignature(detector, true)));
+        assertEquals(PauseStateDetector.STATE_RUNNING, detector.classify(buttonSignature(detector, false)));
+    }
+
+    @Test
+    public void ambiguousSignatureBetweenReferencesIsUnknown() {
+        PauseStateDetector detector = new PauseStateDetector();
+        detector.learn(PauseStateDetector.STATE_PAUSED, uniform(60));
+        detector.learn(PauseStateDetector.STATE_RUNNING, uniform(180));
+
+        assertEquals(PauseStateDetector.STATE_PAUSED, detector.classify(uniform(80)));
+        assertEquals(PauseStateDetector.STATE_RUNNING, detector.classify(uniform(170)));
+        assertEquals(PauseStateDetector.STATE_UNKNOWN, detector.classify(uniform(120)));
+    }
+
+    @Test
+    public void learningBlendsTowardsNewSamples() {
+        PauseStateDetector detector = new PauseStateDetector();
+        detector.learn(PauseStateDetector.STATE_PAUSED, uniform(100));
+        detector.learn(PauseStateDetector.STATE_PAUSED, uniform(140));
+        // 3:1 平滑后参考为 110：相差不超过 8 仍算相同，原来的 140 则判为另一状态。
+        assertEquals(PauseStateDetector.STATE_PAUSED, detector.classify(uniform(110)));
+        assertEquals(PauseStateDetector.STATE_PAUSED, detector.classify(uniform(102)));
+        assertEquals(PauseStateDetector.STATE_RUNNING, detector.classify(uniform(140)));
+    }
+
+    @Test
+    public void resetForgetsReferences() {
+        PauseStateDetector detector = new PauseStateDetector();
+        detector.learn(PauseStateDetector.STATE_PAUSED, uniform(60));
+        detector.learn(PauseStateDetector.STATE_RUNNING, uniform(180));
+        detector.reset();
+        assertFalse(detector.isCalibrated());
+        assertEquals(PauseStateDetector.STATE_UNKNOWN, detector.classify(uniform(60)));
+    }
+
+    @Test
+    public void motionNeedsPeakOrMeanChange() {
+        int[] a = new int[MOTION_SIZE];
+        int[] b = new int[MOTION_SIZE];
+        Arrays.fill(a, 100);
+        Arrays.fill(b, 100);
+        assertFalse(PauseStateDetector.hasMotion(a, b));
+
+        // 每个点都轻微抖动（压缩噪声）不算运动。
+        Arrays.fill(b, 102);
+        assertFalse(PauseStateDetector.hasMotion(a, b));
+
+        Arrays.fill(b, 103);
+        assertTrue(PauseStateDetector.hasMotion(a, b));
+
+        Arrays.fill(b, 100);
+        b[MOTION_SIZE / 2] = 130;
+        assertTrue(PauseStateDetector.hasMotion(a, b));
+    }
+}
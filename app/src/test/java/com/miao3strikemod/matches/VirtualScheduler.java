@@ -0,0 +1,101 @@
+package com.miao3strikemod.matches;
+
+import java.util.ArrayList;
+
+/**
+ * 单元测试用的虚拟时钟调度器：postDelayed 只登记到期时间，advanceTo / runUntilIdle 按到期顺序推进时间并执行。
+ * 帧等待按每帧 16ms 近似。同时充当 {@link MacroTimingRecorder.Clock} 与按键引擎的调度器（uptime 即虚拟时间）。
+ */
+final class VirtualScheduler implements MacroEngine.Scheduler, KeyBindingEngine.Scheduler, MacroTimingRecorder.Clock {
+
+    static final long FRAME_MS = 16L;
+
+    private final ArrayList<Runnable> runnables = new ArrayList<>();
+    private final ArrayList<Long> dueMs = new ArrayList<>();
+    private long nowMs;
+    int posts;
+    int removes;
+
+    @Override
+    public long uptimeMillis() {
+        return nowMs;
+    }
+
+    @Override
+    public void postDelayed(Runnable runnable, long delayMs) {
+        runnables.add(runnable);
+        dueMs.add(nowMs + Math.max(0L, delayMs));
+        posts++;
+    }
+
+    @Override
+    public void postAtTime(Runnable runnable, long uptimeMs) {
+        postDelayed(runnable, uptimeMs - nowMs);
+    }
+
+    @Override
+    public void postFrames(Runnable runnable, int frameCount) {
+        postDelayed(runnable, frameCount * FRAME_MS);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable runnable) {
+        removes++;
+        for (int i = runnables.size() - 1; i >= 0; i--) {
+            if (runnables.get(i) == runnable) {
+                runnables.remove(i);
+                dueMs.remove(i);
+            }
+        }
+    }
+
+    @Override
+    public long nanoTime() {
+        return nowMs * 1_000_000L;
+    }
+
+    long nowMs() {
+        return nowMs;
+    }
+
+    int pending() {
+        return runnables.size();
+    }
+
+    /**
+     * 执行所有到期时间不晚于 targetMs 的任务（包括执行过程中新挂出的），最后把时间停在 targetMs。
+     */
+    void advanceTo(long targetMs) {
+        while (true) {
+            int min = earliest();
+            if (min < 0 || dueMs.get(min) > targetMs) break;
+            runAt(min);
+        }
+        nowMs = Math.max(nowMs, targetMs);
+    }
+
+    void advanceBy(long deltaMs) {
+        advanceTo(nowMs + deltaMs);
+    }
+
+    void runUntilIdle() {
+        int min;
+        while ((min = earliest()) >= 0) {
+            runAt(min);
+        }
+    }
+
+    private int earliest() {
+        int min = -1;
+        for (int i = 0; i < dueMs.size(); i++) {
+            if (min < 0 || dueMs.get(i) < dueMs.get(min)) min = i;
+        }
+        return min;
+    }
+
+    private void runAt(int i) {
+        Runnable runnable = runnables.remove(i);
+        nowMs = Math.max(nowMs, dueMs.remove(i));
+        runnable.run();
+    }
+}
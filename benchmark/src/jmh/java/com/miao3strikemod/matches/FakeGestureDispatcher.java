@@ -0,0 +1,59 @@
+package com.miao3strikemod.matches;
+
+/**
+ * 手势派发替身：每条手势在其时长结束后由调度器回报完成，对应真机上的 onCompleted。
+ * 完成回调在构造时按步骤预先创建，派发过程本身不分配。
+ */
+final class FakeGestureDispatcher implements MacroEngine.Dispatcher {
+
+    private final MacroEngine engine;
+    private final FakeMacroScheduler scheduler;
+    private final MacroTimeline timeline;
+    private final Runnable[] completions;
+    // 每步最近一次派发的 token，完成回调按它回报。
+    private final int[] tokens;
+    int dispatched;
+    int globalActions;
+
+    FakeGestureDispatcher(MacroEngine engine, FakeMacroScheduler scheduler, MacroTimeline timeline) {
+        this.engine = engine;
+        this.scheduler = scheduler;
+        this.timeline = timeline;
+        this.completions = new Runnable[timeline.steps.length];
+        this.tokens = new int[timeline.steps.length];
+        for (int i = 0; i < completions.length; i++) {
+            final int index = i;
+            completions[i] = () -> engine.onGestureCompleted(this, index, tokens[index]);
+        }
+    }
+
+    MacroTimeline timeline() {
+        return timeline;
+    }
+
+    @Override
+    public boolean dispatchGesture(int index, int token) {
+        dispatched++;
+        tokens[index] = token;
+        scheduler.postDelayed(completions[index], timeline.steps[index].durationMs);
+        return true;
+    }
+
+    @Override
+    public boolean performGlobalAction(int action) {
+        globalActions++;
+        return true;
+    }
+
+    @Override
+    public void onRunStarted(int runId) {
+    }
+
+    @Override
+    public void onRunEnded(int runId) {
+    }
+
+    @Override
+    public void onGestureAbandoned(int index, int token) {
+    }
+}
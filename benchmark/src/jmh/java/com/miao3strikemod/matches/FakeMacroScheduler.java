@@ -0,0 +1,84 @@
+package com.miao3strikemod.matches;
+
+/**
+ * 虚拟时钟调度器：postDelayed 只登记到期时间，runUntilIdle 按到期顺序推进虚拟时间并执行。
+ * 使用固定容量数组，自身不产生分配，测得的分配全部来自被测代码。
+ */
+final class FakeMacroScheduler implements MacroEngine.Scheduler, MacroTimingRecorder.Clock {
+
+    private static final int CAPACITY = 16;
+    // 帧等待按 60Hz 近似为每帧 16ms 虚拟时间。
+    private static final long FRAME_MS = 16L;
+
+    private final Runnable[] runnables = new Runnable[CAPACITY];
+    private final long[] dueMs = new long[CAPACITY];
+    private int size;
+    private long nowMs;
+    private long posts;
+
+    @Override
+    public long uptimeMillis() {
+        return nowMs;
+    }
+
+    @Override
+    public void postDelayed(Runnable runnable, long delayMs) {
+        if (size == CAPACITY) {
+            throw new IllegalStateException("FakeMacroScheduler queue full");
+        }
+        runnables[size] = runnable;
+        dueMs[size] = nowMs + Math.max(0L, delayMs);
+        size++;
+        posts++;
+    }
+
+    @Override
+    public void postFrames(Runnable runnable, int frameCount) {
+        postDelayed(runnable, frameCount * FRAME_MS);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable runnable) {
+        int w = 0;
+        for (int r = 0; r < size; r++) {
+            if (runnables[r] != runnable) {
+                runnables[w] = runnables[r];
+                dueMs[w] = dueMs[r];
+                w++;
+            }
+        }
+        for (int i = w; i < size; i++) {
+            runnables[i] = null;
+        }
+        size = w;
+    }
+
+    @Override
+    public long nanoTime() {
+        return nowMs * 1_000_000L;
+    }
+
+    void runUntilIdle() {
+        while (size > 0) {
+            int min = 0;
+            for (int i = 1; i < size; i++) {
+                if (dueMs[i] < dueMs[min]) min = i;
+            }
+            Runnable runnable = runnables[min];
+            nowMs = Math.max(nowMs, dueMs[min]);
+            size--;
+            runnables[min] = runnables[size];
+            dueMs[min] = dueMs[size];
+            runnables[size] = null;
+            runnable.run();
+        }
+    }
+
+    long nowMs() {
+        return nowMs;
+    }
+
+    long posts() {
+        return posts;
+    }
+}
@@ -0,0 +1,153 @@
+package com.miao3strikemod.matches;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 宏调度开销基准：在虚拟时钟上完整跑一遍划火柴 / 放技能 / 步进宏，
+ * 测量每次宏的 CPU 时间与分配（配合 -prof gc 的 gc.alloc.rate.norm）。
+ * <p>
+ * 运行：./gradlew :benchmark:jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MacroEngineBenchmark {
+
+    private static final float BUTTON_X = 1799f;
+    private static final float BUTTON_Y = 80f;
+
+    // 与 MacroConfig 的默认值保持一致（MacroConfig 依赖 Android，不参与基准编译）。
+    private static final long STARTUP_DELAY_MS = 30L;
+    private static final long STEP_DELAY_MS = 0L;
+    private static final long DRAG_DURATION_MS = 50L;
+    private static final long HOLD_DELAY_MS = 200L;
+    private static final long STEP_MACRO_DELAY_MS = 50L;
+    private static final long STEP_REPEAT_INTERVAL_MS = 30L;
+    private static final int STEP_BURST_COUNT = 10;
+
+    @Param({"true", "false"})
+    public boolean recordTimings;
+
+    private FakeMacroScheduler scheduler;
+    private MacroEngine engine;
+    private int finished;
+    private int aborted;
+
+    private FakeGestureDispatcher drag;
+    private FakeGestureDispatcher click;
+    private FakeGestureDispatcher clickFused;
+    private FakeGestureDispatcher step;
+    private FakeGestureDispatcher stepFused;
+    private FakeGestureDispatcher stepVsync;
+    private FakeGestureDispatcher stepBurst;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        scheduler = new FakeMacroScheduler();
+        MacroTimingRecorder recorder = recordTimings
+                ? new MacroTimingRecorder(scheduler, MacroTimingRecorder.DEFAULT_CAPACITY)
+                : null;
+        engine = new MacroEngine(scheduler, new MacroEngine.Listener() {
+            @Override
+            public void onMacroFinished(MacroTimeline timeline) {
+                finished++;
+            }
+
+            @Override
+            public void onMacroAborted(MacroTimeline timeline, String reason) {
+                aborted++;
+            }
+        }, recorder);
+
+        drag = new FakeGestureDispatcher(engine, scheduler, buildDrag());
+        click = new FakeGestureDispatcher(engine, scheduler, buildClick());
+        clickFused = new FakeGestureDispatcher(engine, scheduler, MacroTimeline.clickFused(
+                BUTTON_X, BUTTON_Y, 640f, 480f,
+                STARTUP_DELAY_MS, STEP_DELAY_MS));
+        step = new FakeGestureDispatcher(engine, scheduler, buildStep());
+        stepFused = new FakeGestureDispatcher(engine, scheduler, MacroTimeline.stepFused(
+                BUTTON_X, BUTTON_Y, STEP_MACRO_DELAY_MS));
+        stepVsync = new FakeGestureDispatcher(engine, scheduler, buildStep().alignToVsync(60f));
+        stepBurst = new FakeGestureDispatcher(engine, scheduler, buildStep().repeat(STEP_BURST_COUNT, STEP_REPEAT_INTERVAL_MS));
+    }
+
+    private static MacroTimeline buildDrag() {
+        return MacroTimeline.dragHold(BUTTON_X, BUTTON_Y, 300f, 900f, 960f, 540f,
+                STARTUP_DELAY_MS, STEP_DELAY_MS,
+                DRAG_DURATION_MS, HOLD_DELAY_MS);
+    }
+
+    private static MacroTimeline buildClick() {
+        return MacroTimeline.click(BUTTON_X, BUTTON_Y, 640f, 480f,
+                STARTUP_DELAY_MS, STEP_DELAY_MS);
+    }
+
+    private static MacroTimeline buildStep() {
+        return MacroTimeline.step(BUTTON_X, BUTTON_Y, STEP_MACRO_DELAY_MS);
+    }
+
+    private int run(FakeGestureDispatcher dispatcher) {
+        engine.start(dispatcher.timeline(), dispatcher);
+        scheduler.runUntilIdle();
+        return finished;
+    }
+
+    @Benchmark
+    public int dragMacro() {
+        return run(drag);
+    }
+
+    @Benchmark
+    public int clickMacro() {
+        return run(click);
+    }
+
+    @Benchmark
+    public int clickMacroFused() {
+        return run(clickFused);
+    }
+
+    @Benchmark
+    public int stepMacro() {
+        return run(step);
+    }
+
+    @Benchmark
+    public int stepMacroFused() {
+        return run(stepFused);
+    }
+
+    @Benchmark
+    public int stepMacroVsync() {
+        return run(stepVsync);
+    }
+
+    /**
+     * 一次按键连续步进 10 轮：每轮复用同一批手势与回调，分配应与单次步进相同。
+     */
+    @Benchmark
+    public int stepMacroBurst() {
+        return run(stepBurst);
+    }
+
+    /**
+     * 每次触发都要构建时间线（服务端每次按键/松手都会重建），单独测这部分成本。
+     */
+    @Benchmark
+    public void buildTimelines(Blackhole bh) {
+        bh.consume(buildDrag());
+        bh.consume(buildClick());
+        bh.consume(buildStep());
+    }
+}
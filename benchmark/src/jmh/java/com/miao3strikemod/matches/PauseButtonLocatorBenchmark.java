@@ -0,0 +1,110 @@
+package com.miao3strikemod.matches;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+/**
+ * 暂停按钮自动校准耗时基准：对一张截图执行一次完整的多尺度定位。
+ * <p>
+ * 默认使用合成画面（噪声背景 + 按 1920x1080 布局绘制的暂停图标）；
+ * 传入保存的游戏截图可测真实画面：./gradlew :benchmark:jmh -Pjmh.params=screenshot=/path/to/shot.png
+ * 若截图中找不到按钮，setUp 直接失败，避免在错误结果上测速。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PauseButtonLocatorBenchmark {
+
+    @Param({""})
+    public String screenshot;
+
+    @Param({"1920x1080"})
+    public String syntheticSize;
+
+    private final PauseButtonLocator locator = new PauseButtonLocator();
+    private final int[] region = new int[4];
+    private int[] pixels;
+    private int regionWidth;
+    private int regionHeight;
+    private int screenHeight;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        int[] frame;
+        int width;
+        if (screenshot.isEmpty()) {
+            String[] size = syntheticSize.split("x");
+            width = Integer.parseInt(size[0]);
+            screenHeight = Integer.parseInt(size[1]);
+            frame = renderSynthetic(width, screenHeight);
+        } else {
+            BufferedImage image = ImageIO.read(new File(screenshot));
+            if (image == null) throw new IOException("Unsupported image: " + screenshot);
+            width = image.getWidth();
+            screenHeight = image.getHeight();
+            frame = image.getRGB(0, 0, width, screenHeight, null, 0, width);
+        }
+        PauseButtonLocator.searchRegion(width, screenHeight, region);
+        regionWidth = region[2] - region[0];
+        regionHeight = region[3] - region[1];
+        pixels = new int[regionWidth * regionHeight];
+        for (int y = 0; y < regionHeight; y++) {
+            System.arraycopy(frame, (region[1] + y) * width + region[0], pixels, y * regionWidth, regionWidth);
+        }
+        PauseButtonLocator.Match match = locator.locate(pixels, regionWidth, regionHeight, screenHeight);
+        if (match == null) throw new IllegalStateException("Pause button not found in " + describe());
+        System.out.println("Located " + match + " (region offset " + region[0] + ", " + region[1] + ") in " + describe());
+    }
+
+    private String describe() {
+        return screenshot.isEmpty() ? "synthetic " + syntheticSize : screenshot;
+    }
+
+    /**
+     * 暗色噪声背景上画一个半透明圆底、两根亮竖条的暂停图标，位置与尺寸按 1920x1080 布局的比例。
+     */
+    private static int[] renderSynthetic(int width, int height) {
+        int[] frame = new int[width * height];
+        Random random = new Random(42);
+        for (int i = 0; i < frame.length; i++) {
+            int v = 60 + random.nextInt(40);
+            frame[i] = 0xFF000000 | (v << 16) | (v << 8) | v;
+        }
+        float size = 0.074f * height;
+        float cx = 0.9370f * width;
+        float cy = 0.0745f * height;
+        int top = Math.max(0, (int) (cy - size));
+        int bottom = Math.min(height, (int) (cy + size));
+        for (int y = top; y < bottom; y++) {
+            for (int x = (int) (cx - size); x < Math.min(width, (int) (cx + size)); x++) {
+                float dx = x - cx;
+                float dy = y - cy;
+                if (dx * dx + dy * dy < size * size / 4f) frame[y * width + x] = 0xFF303030;
+                boolean bar = Math.abs(dy) < size * 0.22f
+                        && (Math.abs(dx + size * 0.14f) < size * 0.06f || Math.abs(dx - size * 0.14f) < size * 0.06f);
+                if (bar) frame[y * width + x] = 0xFFF0F0F0;
+            }
+        }
+        return frame;
+    }
+
+    @Benchmark
+    public PauseButtonLocator.Match locate() {
+        return locator.locate(pixels, regionWidth, regionHeight, screenHeight);
+    }
+}
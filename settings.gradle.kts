@@ -21,3 +21,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "VolumeKeyMapper"
 include(":app")
+include(":benchmark")